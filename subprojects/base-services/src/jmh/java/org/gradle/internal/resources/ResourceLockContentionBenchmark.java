@@ -0,0 +1,92 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.internal.resources;
+
+import com.google.common.collect.ImmutableList;
+import org.gradle.internal.concurrent.DefaultParallelismConfiguration;
+import org.gradle.internal.work.DefaultWorkerLeaseService;
+import org.gradle.internal.work.WorkerLeaseRegistry;
+import org.gradle.util.Path;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the throughput of 64 threads which repeatedly acquire a worker lease and the lock of a random project, do a bit of work and release them again.
+ */
+@Fork(1)
+@Threads(64)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ResourceLockContentionBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class SharedState {
+        @Param("16")
+        int maxWorkers;
+
+        @Param("32")
+        int projects;
+
+        DefaultWorkerLeaseService workerLeaseService;
+        List<ResourceLock> projectLocks;
+
+        @Setup
+        public void setup() {
+            workerLeaseService = new DefaultWorkerLeaseService(new DefaultResourceLockCoordinationService(), new DefaultParallelismConfiguration(true, maxWorkers));
+            ImmutableList.Builder<ResourceLock> builder = ImmutableList.builder();
+            for (int i = 0; i < projects; i++) {
+                builder.add(workerLeaseService.getProjectLock(Path.ROOT, Path.path(":project" + i)));
+            }
+            projectLocks = builder.build();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+        WorkerLeaseRegistry.WorkerLease workerLease;
+
+        @Setup(Level.Iteration)
+        public void setup(SharedState sharedState) {
+            // Worker leases are owned by the thread which creates them
+            workerLease = sharedState.workerLeaseService.getWorkerLease();
+        }
+    }
+
+    @Benchmark
+    public void acquireWorkerLeaseAndProjectLock(SharedState sharedState, ThreadState threadState) {
+        ResourceLock projectLock = sharedState.projectLocks.get(ThreadLocalRandom.current().nextInt(sharedState.projects));
+        sharedState.workerLeaseService.withLocks(ImmutableList.of(threadState.workerLease, projectLock), () -> Blackhole.consumeCPU(1000));
+    }
+}
@@ -21,12 +21,25 @@
 import org.gradle.api.Transformer;
 import org.gradle.internal.UncheckedException;
 
+import javax.annotation.Nullable;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
+/**
+ * Coordinates the changes to resource locks using a single state lock.
+ *
+ * <p>Threads waiting to acquire locks via {@link #lock(Iterable)} are only woken up when a lock they are waiting for may have become available,
+ * instead of on every state change. Threads retrying any other transform are woken up on every state change.</p>
+ */
 public class DefaultResourceLockCoordinationService implements ResourceLockCoordinationService {
-    private final Object lock = new Object();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition stateChanged = lock.newCondition();
+    private final Map<Object, LockWaiters> lockWaiters = new HashMap<Object, LockWaiters>();
     private final ThreadLocal<List<ResourceLockState>> currentState = new ThreadLocal<List<ResourceLockState>>() {
         @Override
         protected List<ResourceLockState> initialValue() {
@@ -39,39 +52,79 @@ public boolean withStateLock(Transformer<ResourceLockState.Disposition, Resource
         while (true) {
             DefaultResourceLockState resourceLockState = new DefaultResourceLockState();
             ResourceLockState.Disposition disposition;
-            synchronized (lock) {
-                try {
-                    currentState.get().add(resourceLockState);
-                    disposition = stateLockAction.transform(resourceLockState);
-
-                    switch (disposition) {
-                        case RETRY:
-                            resourceLockState.releaseLocks();
-                            try {
-                                lock.wait();
-                            } catch (InterruptedException e) {
-                                throw UncheckedException.throwAsUncheckedException(e);
-                            }
-                            break;
-                        case FINISHED:
-                            maybeNotifyStateChange(resourceLockState);
-                            return true;
-                        case FAILED:
-                            resourceLockState.releaseLocks();
-                            return false;
-                        default:
-                            throw new IllegalArgumentException("Unhandled disposition type: " + disposition.name());
-                    }
-                } catch (Throwable t) {
-                    resourceLockState.releaseLocks();
-                    throw UncheckedException.throwAsUncheckedException(t);
-                } finally {
-                    currentState.get().remove(resourceLockState);
+            lock.lock();
+            try {
+                currentState.get().add(resourceLockState);
+                disposition = stateLockAction.transform(resourceLockState);
+
+                switch (disposition) {
+                    case RETRY:
+                        resourceLockState.releaseLocks();
+                        // Locks which were released for good need to be announced before waiting, since the waiting threads only wake up for those
+                        maybeNotifyStateChange(resourceLockState);
+                        // Other transforms may also wait for something other than the lock they failed to acquire
+                        waitForStateChange(stateLockAction instanceof AcquireLocks ? resourceLockState.blockingLock : null);
+                        break;
+                    case FINISHED:
+                        maybeNotifyStateChange(resourceLockState);
+                        return true;
+                    case FAILED:
+                        resourceLockState.releaseLocks();
+                        maybeNotifyStateChange(resourceLockState);
+                        return false;
+                    default:
+                        throw new IllegalArgumentException("Unhandled disposition type: " + disposition.name());
                 }
+            } catch (Throwable t) {
+                resourceLockState.releaseLocks();
+                throw UncheckedException.throwAsUncheckedException(t);
+            } finally {
+                currentState.get().remove(resourceLockState);
+                lock.unlock();
+            }
+        }
+    }
+
+    private void waitForStateChange(@Nullable ResourceLock blockingLock) throws InterruptedException {
+        Object waitKey = blockingLock == null ? null : waitKey(blockingLock);
+        if (waitKey == null) {
+            stateChanged.await();
+            return;
+        }
+        LockWaiters waiters = lockWaiters.get(waitKey);
+        if (waiters == null) {
+            waiters = new LockWaiters(lock.newCondition());
+            lockWaiters.put(waitKey, waiters);
+        }
+        waiters.count++;
+        try {
+            waiters.condition.await();
+        } finally {
+            waiters.count--;
+            if (waiters.count == 0) {
+                lockWaiters.remove(waitKey);
             }
         }
     }
 
+    /**
+     * Returns the key of the threads waiting for the given lock to become available, or {@code null} if the lock can become available on any state change.
+     *
+     * An exclusive lock only becomes available when it is released itself.
+     * Worker leases and shared resource leases become available when another lease of the same kind is released.
+     * Other locks don't necessarily register themselves when they are released.
+     */
+    @Nullable
+    private static Object waitKey(ResourceLock resourceLock) {
+        if (resourceLock instanceof ExclusiveAccessResourceLock) {
+            return resourceLock;
+        } else if (resourceLock instanceof AbstractTrackedResourceLock) {
+            return resourceLock.getClass();
+        } else {
+            return null;
+        }
+    }
+
     @Override
     public ResourceLockState getCurrent() {
         List<ResourceLockState> current = currentState.get();
@@ -85,14 +138,36 @@ public ResourceLockState getCurrent() {
 
     private void maybeNotifyStateChange(DefaultResourceLockState resourceLockState) {
         if (resourceLockState.hasUnlockedResources()) {
-            notifyStateChange();
+            stateChanged.signalAll();
+            for (ResourceLock unlockedResource : resourceLockState.unlockedResources) {
+                Object waitKey = waitKey(unlockedResource);
+                LockWaiters waiters = waitKey == null ? null : lockWaiters.get(waitKey);
+                if (waiters != null) {
+                    waiters.condition.signalAll();
+                }
+            }
         }
     }
 
     @Override
     public void notifyStateChange() {
-        synchronized (lock) {
-            lock.notifyAll();
+        lock.lock();
+        try {
+            stateChanged.signalAll();
+            for (LockWaiters waiters : lockWaiters.values()) {
+                waiters.condition.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static class LockWaiters {
+        final Condition condition;
+        int count;
+
+        LockWaiters(Condition condition) {
+            this.condition = condition;
         }
     }
 
@@ -100,6 +175,11 @@ private static class DefaultResourceLockState implements ResourceLockState {
         private Set<ResourceLock> lockedResources;
         private Set<ResourceLock> unlockedResources;
         boolean rollback;
+        /**
+         * The lock which a blocking lock action failed to acquire.
+         */
+        @Nullable
+        ResourceLock blockingLock;
 
         @Override
         public void registerLocked(ResourceLock resourceLock) {
@@ -196,6 +276,9 @@ private static class AcquireLocks implements Transformer<ResourceLockState.Dispo
         public ResourceLockState.Disposition transform(ResourceLockState resourceLockState) {
             for (ResourceLock resourceLock : resourceLocks) {
                 if (!resourceLock.tryLock()) {
+                    if (blocking && resourceLockState instanceof DefaultResourceLockState) {
+                        ((DefaultResourceLockState) resourceLockState).blockingLock = resourceLock;
+                    }
                     return blocking ? ResourceLockState.Disposition.RETRY : ResourceLockState.Disposition.FAILED;
                 }
             }
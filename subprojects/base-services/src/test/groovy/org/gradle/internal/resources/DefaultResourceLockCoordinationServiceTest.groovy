@@ -108,6 +108,39 @@ class DefaultResourceLockCoordinationServiceTest extends ConcurrentSpec {
         lock2.lockedState
     }
 
+    def "a thread blocking on a lock acquires it when it is released"() {
+        def lock1 = resourceLock("lock1", false)
+        def lock2 = resourceLock("lock2", true)
+        def otherLock = new ExclusiveAccessResourceLock("other", coordinationService, Mock(Action), Mock(Action))
+
+        when:
+        async {
+            start {
+                coordinationService.withStateLock(lock(lock1, lock2))
+                instant.acquired
+            }
+
+            // Releasing an unrelated lock does not affect the waiting thread
+            coordinationService.withStateLock(lock(otherLock))
+            coordinationService.withStateLock(unlock(otherLock))
+
+            lock2.lockedState = false
+            coordinationService.withStateLock(new Transformer<ResourceLockState.Disposition, ResourceLockState>() {
+                @Override
+                ResourceLockState.Disposition transform(ResourceLockState resourceLockState) {
+                    resourceLockState.registerUnlocked(lock2)
+                    return FINISHED
+                }
+            })
+
+            thread.blockUntil.acquired
+        }
+
+        then:
+        lock1.lockedState
+        lock2.lockedState
+    }
+
     def "can nest multiple calls to withStateLock"() {
         def lock = [
             resourceLock("lock1"),
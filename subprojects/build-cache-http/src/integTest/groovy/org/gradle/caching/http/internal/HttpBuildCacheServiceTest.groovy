@@ -59,6 +59,7 @@ class HttpBuildCacheServiceTest extends Specification {
     BuildCacheService cache
     BuildCacheServiceFactory.Describer buildCacheDescriber
     HttpClientHelper.Factory httpClientHelperFactory = HttpClientHelper.Factory.createFactory(new DocumentationRegistry())
+    HttpClientHelperPool httpClientHelperPool = new HttpClientHelperPool()
 
     def key = new BuildCacheKey() {
         def hashCode = HashCode.fromString("01234567abcdef")
@@ -89,10 +90,14 @@ class HttpBuildCacheServiceTest extends Specification {
         def config = new HttpBuildCache()
         config.url = server.uri.resolve("/cache/")
         buildCacheDescriber = new NoopBuildCacheDescriber()
-        cache = new DefaultHttpBuildCacheServiceFactory(new DefaultSslContextFactory(), { it.addHeader("X-Gradle-Version", "3.0") }, httpClientHelperFactory)
+        cache = new DefaultHttpBuildCacheServiceFactory(new DefaultSslContextFactory(), { it.addHeader("X-Gradle-Version", "3.0") }, httpClientHelperFactory, httpClientHelperPool)
             .createBuildCacheService(config, buildCacheDescriber)
     }
 
+    def cleanup() {
+        httpClientHelperPool.close()
+    }
+
     def "can cache artifact"() {
         def destFile = tempDir.file("cached.zip")
         def content = "Data".bytes
@@ -276,7 +281,7 @@ class HttpBuildCacheServiceTest extends Specification {
         configuration.url = server.uri.resolve("/cache/")
         configuration.credentials.username = 'user'
         configuration.credentials.password = 'password'
-        cache = new DefaultHttpBuildCacheServiceFactory(new DefaultSslContextFactory(), {}, httpClientHelperFactory).createBuildCacheService(configuration, buildCacheDescriber) as HttpBuildCacheService
+        cache = new DefaultHttpBuildCacheServiceFactory(new DefaultSslContextFactory(), {}, httpClientHelperFactory, httpClientHelperPool).createBuildCacheService(configuration, buildCacheDescriber) as HttpBuildCacheService
 
         server.authenticationScheme = AuthScheme.BASIC
 
@@ -302,6 +307,23 @@ class HttpBuildCacheServiceTest extends Specification {
         server.authenticationAttempts == ['Basic'] as Set
     }
 
+    def "can store entries after a cache with the same configuration was closed"() {
+        def config = new HttpBuildCache()
+        config.url = server.uri.resolve("/cache/")
+        def factory = new DefaultHttpBuildCacheServiceFactory(new DefaultSslContextFactory(), {}, httpClientHelperFactory, httpClientHelperPool)
+        def destFile = tempDir.file("cached.zip")
+        def content = "Data".bytes
+
+        when:
+        cache.close()
+        cache = factory.createBuildCacheService(config, buildCacheDescriber)
+        server.expectPut("/cache/${key.hashCode}", destFile, HttpStatus.SC_OK, null, content.length)
+        cache.store(key, writer(content))
+
+        then:
+        destFile.bytes == content
+    }
+
     private HttpResourceInteraction expectError(int httpCode, String method) {
         server.expect("/cache/${key.hashCode}", false, [method], new HttpServer.ActionSupport("return ${httpCode} broken") {
             @Override
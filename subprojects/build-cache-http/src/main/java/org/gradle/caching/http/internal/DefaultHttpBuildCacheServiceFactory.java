@@ -18,6 +18,7 @@
 
 import com.google.common.annotations.VisibleForTesting;
 import org.gradle.api.GradleException;
+import org.gradle.api.credentials.PasswordCredentials;
 import org.gradle.authentication.Authentication;
 import org.gradle.caching.BuildCacheService;
 import org.gradle.caching.BuildCacheServiceFactory;
@@ -27,13 +28,18 @@
 import org.gradle.internal.deprecation.DeprecationLogger;
 import org.gradle.internal.resource.transport.http.DefaultHttpSettings;
 import org.gradle.internal.resource.transport.http.HttpClientHelper;
+import org.gradle.internal.resource.transport.http.HttpProxySettings;
+import org.gradle.internal.resource.transport.http.HttpSettings;
+import org.gradle.internal.resource.transport.http.HttpTimeoutSettings;
 import org.gradle.internal.resource.transport.http.SslContextFactory;
 import org.gradle.internal.verifier.HttpRedirectVerifier;
 import org.gradle.internal.verifier.HttpRedirectVerifierFactory;
 
+import javax.annotation.Nullable;
 import javax.inject.Inject;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 
@@ -45,12 +51,14 @@ public class DefaultHttpBuildCacheServiceFactory implements BuildCacheServiceFac
     private final SslContextFactory sslContextFactory;
     private final HttpBuildCacheRequestCustomizer requestCustomizer;
     private final HttpClientHelper.Factory httpClientHelperFactory;
+    private final HttpClientHelperPool httpClientHelperPool;
 
     @Inject
-    public DefaultHttpBuildCacheServiceFactory(SslContextFactory sslContextFactory, HttpBuildCacheRequestCustomizer requestCustomizer, HttpClientHelper.Factory httpClientHelperFactory) {
+    public DefaultHttpBuildCacheServiceFactory(SslContextFactory sslContextFactory, HttpBuildCacheRequestCustomizer requestCustomizer, HttpClientHelper.Factory httpClientHelperFactory, HttpClientHelperPool httpClientHelperPool) {
         this.sslContextFactory = sslContextFactory;
         this.requestCustomizer = requestCustomizer;
         this.httpClientHelperFactory = httpClientHelperFactory;
+        this.httpClientHelperPool = httpClientHelperPool;
     }
 
     @Override
@@ -90,7 +98,11 @@ public BuildCacheService createBuildCacheService(HttpBuildCache configuration, D
         } else {
             builder.withSslContextFactory(sslContextFactory);
         }
-        HttpClientHelper httpClientHelper = httpClientHelperFactory.create(builder.build());
+        HttpSettings httpSettings = builder.build();
+        HttpClientHelperPool.Lease httpClient = httpClientHelperPool.acquire(
+            clientKey(noUserInfoUrl, credentials, authenticated, allowUntrustedServer, allowInsecureProtocol, httpSettings),
+            () -> httpClientHelperFactory.create(httpSettings)
+        );
 
         describer.type("HTTP")
             .config("url", noUserInfoUrl.toASCIIString())
@@ -98,7 +110,41 @@ public BuildCacheService createBuildCacheService(HttpBuildCache configuration, D
             .config("allowUntrustedServer", Boolean.toString(allowUntrustedServer))
             .config("allowInsecureProtocol", Boolean.toString(allowInsecureProtocol));
 
-        return new HttpBuildCacheService(httpClientHelper, noUserInfoUrl, requestCustomizer);
+        return new HttpBuildCacheService(httpClient.getHttpClientHelper(), httpClient, noUserInfoUrl, requestCustomizer);
+    }
+
+    /**
+     * Clients are reused across builds, so the key needs to capture everything that the client was configured with,
+     * including the settings read from system properties which can change between builds.
+     */
+    private static Object clientKey(URI url, HttpBuildCacheCredentials credentials, boolean authenticated, boolean allowUntrustedServer, boolean allowInsecureProtocol, HttpSettings httpSettings) {
+        HttpTimeoutSettings timeoutSettings = httpSettings.getTimeoutSettings();
+        return Arrays.asList(
+            url,
+            authenticated ? credentials.getUsername() : null,
+            authenticated ? credentials.getPassword() : null,
+            allowUntrustedServer,
+            allowInsecureProtocol,
+            httpSettings.getSslContextFactory().createSslContext(),
+            proxyKey(httpSettings.getProxySettings().getProxy()),
+            proxyKey(httpSettings.getSecureProxySettings().getProxy()),
+            timeoutSettings.getConnectionTimeoutMs(),
+            timeoutSettings.getSocketTimeoutMs()
+        );
+    }
+
+    @Nullable
+    private static Object proxyKey(@Nullable HttpProxySettings.HttpProxy proxy) {
+        if (proxy == null) {
+            return null;
+        }
+        PasswordCredentials credentials = proxy.credentials;
+        return Arrays.asList(
+            proxy.host,
+            proxy.port,
+            credentials == null ? null : credentials.getUsername(),
+            credentials == null ? null : credentials.getPassword()
+        );
     }
 
     private HttpRedirectVerifier createRedirectVerifier(URI url, boolean allowInsecureProtocol) {
@@ -37,6 +37,7 @@
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -64,15 +65,24 @@ public class HttpBuildCacheService implements BuildCacheService {
 
     private final URI root;
     private final HttpClientHelper httpClientHelper;
+    private final Closeable httpClientRelease;
     private final HttpBuildCacheRequestCustomizer requestCustomizer;
 
     public HttpBuildCacheService(HttpClientHelper httpClientHelper, URI url, HttpBuildCacheRequestCustomizer requestCustomizer) {
+        this(httpClientHelper, httpClientHelper, url, requestCustomizer);
+    }
+
+    /**
+     * Creates a service using a client that is not owned by the service. The client is released via the given {@link Closeable} when the service is closed.
+     */
+    public HttpBuildCacheService(HttpClientHelper httpClientHelper, Closeable httpClientRelease, URI url, HttpBuildCacheRequestCustomizer requestCustomizer) {
         this.requestCustomizer = requestCustomizer;
         if (!url.getPath().endsWith("/")) {
             throw new IllegalArgumentException("HTTP cache root URI must end with '/'");
         }
         this.root = url;
         this.httpClientHelper = httpClientHelper;
+        this.httpClientRelease = httpClientRelease;
     }
 
     @Override
@@ -204,7 +214,7 @@ private boolean throwHttpStatusCodeException(int statusCode, String message) {
 
     @Override
     public void close() throws IOException {
-        httpClientHelper.close();
+        httpClientRelease.close();
     }
 
     /**
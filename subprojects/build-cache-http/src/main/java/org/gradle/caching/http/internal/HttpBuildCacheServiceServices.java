@@ -25,6 +25,11 @@
 
 public class HttpBuildCacheServiceServices extends AbstractPluginServiceRegistry {
 
+    @Override
+    public void registerGlobalServices(ServiceRegistration registration) {
+        registration.add(HttpClientHelperPool.class);
+    }
+
     @Override
     public void registerBuildServices(ServiceRegistration registration) {
         registration.add(BuildCacheServiceRegistration.class, new DefaultBuildCacheServiceRegistration(HttpBuildCache.class, DefaultHttpBuildCacheServiceFactory.class));
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.caching.http.internal;
+
+import org.gradle.internal.concurrent.CompositeStoppable;
+import org.gradle.internal.resource.transport.http.HttpClientHelper;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Keeps the HTTP clients used by the HTTP build cache alive between builds, so that subsequent builds in the same daemon
+ * can reuse already established (and for HTTPS, already negotiated) connections to the cache server.
+ *
+ * <p>Clients are shared by callers requesting the same key. A client is kept open while it is leased,
+ * and at most {@link #MAX_IDLE_CLIENTS} clients are kept open while no longer leased, evicting the least recently used ones.</p>
+ *
+ * <p>The pool only reuses clients. The clients still talk HTTP/1.1, so concurrent requests use separate keep-alive connections
+ * instead of being multiplexed over a single connection.</p>
+ */
+public class HttpClientHelperPool implements Closeable {
+    static final int MAX_IDLE_CLIENTS = 4;
+
+    // Access ordered, so that iteration starts at the least recently used client
+    private final Map<Object, PooledClient> clients = new LinkedHashMap<>(16, 0.75f, true);
+    private boolean closed;
+
+    /**
+     * Leases the client for the given key, creating it when there is none yet.
+     *
+     * @param key identifies the configuration of the client. Clients are only shared between callers with equal keys.
+     */
+    public synchronized Lease acquire(Object key, Supplier<HttpClientHelper> factory) {
+        if (closed) {
+            throw new IllegalStateException("Cannot acquire an HTTP client, as the pool has been closed.");
+        }
+        PooledClient client = clients.get(key);
+        if (client == null) {
+            client = new PooledClient(factory.get());
+            clients.put(key, client);
+        }
+        client.leases++;
+        return new Lease(client);
+    }
+
+    private synchronized void release(PooledClient client) {
+        client.leases--;
+        if (!closed) {
+            evictIdleClients();
+        }
+    }
+
+    private void evictIdleClients() {
+        int idleClients = 0;
+        for (PooledClient client : clients.values()) {
+            if (client.leases == 0) {
+                idleClients++;
+            }
+        }
+        List<HttpClientHelper> evicted = new ArrayList<>();
+        Iterator<PooledClient> iterator = clients.values().iterator();
+        while (idleClients > MAX_IDLE_CLIENTS && iterator.hasNext()) {
+            PooledClient client = iterator.next();
+            if (client.leases == 0) {
+                iterator.remove();
+                evicted.add(client.helper);
+                idleClients--;
+            }
+        }
+        CompositeStoppable.stoppable(evicted).stop();
+    }
+
+    @Override
+    public synchronized void close() {
+        closed = true;
+        List<HttpClientHelper> helpers = new ArrayList<>();
+        for (PooledClient client : clients.values()) {
+            helpers.add(client.helper);
+        }
+        clients.clear();
+        CompositeStoppable.stoppable(helpers).stop();
+    }
+
+    private static class PooledClient {
+        private final HttpClientHelper helper;
+        private int leases;
+
+        PooledClient(HttpClientHelper helper) {
+            this.helper = helper;
+        }
+    }
+
+    /**
+     * A client leased from the pool. Closing the lease returns the client to the pool, but keeps its connections open.
+     */
+    public class Lease implements Closeable {
+        private final PooledClient client;
+        private boolean released;
+
+        private Lease(PooledClient client) {
+            this.client = client;
+        }
+
+        public HttpClientHelper getHttpClientHelper() {
+            return client.helper;
+        }
+
+        @Override
+        public void close() {
+            synchronized (HttpClientHelperPool.this) {
+                if (released) {
+                    return;
+                }
+                released = true;
+            }
+            release(client);
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.caching.http.internal
+
+import org.gradle.internal.resource.transport.http.HttpClientHelper
+import spock.lang.Specification
+
+class HttpClientHelperPoolTest extends Specification {
+    def pool = new HttpClientHelperPool()
+
+    def "reuses client for the same key after it was released"() {
+        def helper = Mock(HttpClientHelper)
+
+        when:
+        def first = pool.acquire("key", { helper })
+        first.close()
+        def second = pool.acquire("key", { throw new AssertionError("should reuse client") })
+
+        then:
+        second.httpClientHelper.is(helper)
+        0 * helper.close()
+    }
+
+    def "creates separate clients for different keys"() {
+        def helper1 = Mock(HttpClientHelper)
+        def helper2 = Mock(HttpClientHelper)
+
+        expect:
+        pool.acquire("key1", { helper1 }).httpClientHelper.is(helper1)
+        pool.acquire("key2", { helper2 }).httpClientHelper.is(helper2)
+    }
+
+    def "closes least recently used idle clients when too many are idle"() {
+        def helpers = (0..HttpClientHelperPool.MAX_IDLE_CLIENTS).collect { Mock(HttpClientHelper) }
+
+        when:
+        helpers.eachWithIndex { helper, index ->
+            pool.acquire(index, { helper }).close()
+        }
+
+        then:
+        1 * helpers[0].close()
+        0 * _.close()
+    }
+
+    def "does not close leased clients when evicting"() {
+        def leasedHelper = Mock(HttpClientHelper)
+        def idleHelpers = (0..HttpClientHelperPool.MAX_IDLE_CLIENTS).collect { Mock(HttpClientHelper) }
+
+        when:
+        pool.acquire("leased", { leasedHelper })
+        idleHelpers.eachWithIndex { helper, index ->
+            pool.acquire(index, { helper }).close()
+        }
+
+        then:
+        0 * leasedHelper.close()
+        1 * idleHelpers[0].close()
+    }
+
+    def "releasing a lease twice has no effect"() {
+        def helper = Mock(HttpClientHelper)
+        def lease = pool.acquire("key", { helper })
+        pool.acquire("key", { helper })
+        def otherHelpers = (1..HttpClientHelperPool.MAX_IDLE_CLIENTS).collect { Mock(HttpClientHelper) }
+
+        when:
+        lease.close()
+        lease.close()
+        otherHelpers.eachWithIndex { other, index ->
+            pool.acquire(index, { other }).close()
+        }
+        pool.acquire("another", { Mock(HttpClientHelper) }).close()
+
+        then:
+        0 * helper.close()
+    }
+
+    def "closes all clients when closed"() {
+        def leasedHelper = Mock(HttpClientHelper)
+        def idleHelper = Mock(HttpClientHelper)
+        pool.acquire("leased", { leasedHelper })
+        pool.acquire("idle", { idleHelper }).close()
+
+        when:
+        pool.close()
+
+        then:
+        1 * leasedHelper.close()
+        1 * idleHelper.close()
+
+        when:
+        pool.acquire("key", { Mock(HttpClientHelper) })
+
+        then:
+        thrown(IllegalStateException)
+    }
+}
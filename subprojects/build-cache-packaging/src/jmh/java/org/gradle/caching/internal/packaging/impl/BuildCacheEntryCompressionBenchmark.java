@@ -0,0 +1,173 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gradle.caching.internal.packaging.impl;
+
+import com.google.common.io.ByteStreams;
+import org.gradle.caching.internal.CacheableEntity;
+import org.gradle.caching.internal.origin.OriginReader;
+import org.gradle.caching.internal.origin.OriginWriter;
+import org.gradle.caching.internal.packaging.BuildCacheEntryPacker;
+import org.gradle.internal.snapshot.FileSystemSnapshot;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Compares pack and unpack throughput, and the size of the resulting entries, of the different {@link BuildCacheEntryCompression} formats.
+ *
+ * <p>The packed content stands in for typical task outputs: generated sources, class files, an already compressed fat jar and random data.</p>
+ */
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 7)
+@State(Scope.Benchmark)
+public class BuildCacheEntryCompressionBenchmark {
+    private static final int CONTENT_SIZE = 16 * 1024 * 1024;
+
+    @Param({"GZIP", "LZ4"})
+    BuildCacheEntryCompression compression;
+
+    @Param({"sources", "classes", "jar", "random"})
+    String content;
+
+    private byte[] uncompressed;
+    private byte[] packed;
+    private CompressingBuildCacheEntryPacker packer;
+
+    @Setup(Level.Trial)
+    public void setupTrial() throws IOException {
+        uncompressed = createContent(content, new Random(1234L));
+        packer = new CompressingBuildCacheEntryPacker(new CopyingPacker(uncompressed), () -> compression);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        packer.pack(null, Collections.emptyMap(), output, null);
+        packed = output.toByteArray();
+        System.out.printf(">>> %s %s entry is %d bytes long (uncompressed length: %d, compression ratio: %,.2f%%)%n",
+            content, compression, packed.length, uncompressed.length, 100d * packed.length / uncompressed.length);
+    }
+
+    @Benchmark
+    public void pack(Blackhole blackhole) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream(packed.length);
+        packer.pack(null, Collections.emptyMap(), output, null);
+        blackhole.consume(output.size());
+    }
+
+    @Benchmark
+    public void unpack(Blackhole blackhole) throws IOException {
+        blackhole.consume(packer.unpack(null, new ByteArrayInputStream(packed), null));
+    }
+
+    private static byte[] createContent(String type, Random random) throws IOException {
+        switch (type) {
+            case "sources":
+                return createSources(random, CONTENT_SIZE);
+            case "classes":
+                return createClasses(random, CONTENT_SIZE);
+            case "jar":
+                ByteArrayOutputStream jar = new ByteArrayOutputStream();
+                try (ZipOutputStream zip = new ZipOutputStream(jar)) {
+                    int index = 0;
+                    while (jar.size() < CONTENT_SIZE) {
+                        zip.putNextEntry(new ZipEntry("org/example/Generated" + index++ + ".class"));
+                        zip.write(createClasses(random, 4096 + random.nextInt(16 * 1024)));
+                        zip.closeEntry();
+                    }
+                }
+                return jar.toByteArray();
+            case "random":
+                byte[] bytes = new byte[CONTENT_SIZE];
+                random.nextBytes(bytes);
+                return bytes;
+            default:
+                throw new IllegalArgumentException(type);
+        }
+    }
+
+    private static final String[] WORDS = {
+        "public", "private", "static", "final", "class", "void", "return", "String", "int", "new", "this", "import",
+        "org.gradle.api", "Provider", "Property", "getName()", "=", ";", "{", "}", "(", ")", "if", "else", "null", "\n    "
+    };
+
+    private static byte[] createSources(Random random, int size) {
+        StringBuilder builder = new StringBuilder(size);
+        while (builder.length() < size) {
+            builder.append(WORDS[random.nextInt(WORDS.length)]);
+            builder.append(random.nextInt(8) == 0 ? "Generated" + random.nextInt(1000) : " ");
+        }
+        return builder.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Approximates class files: a constant pool of identifiers, followed by byte code, which is a mix of repeated instruction sequences and operands.
+     */
+    private static byte[] createClasses(Random random, int size) {
+        ByteArrayOutputStream output = new ByteArrayOutputStream(size);
+        byte[] instructions = new byte[64];
+        random.nextBytes(instructions);
+        while (output.size() < size) {
+            byte[] constants = createSources(random, 256);
+            output.write(constants, 0, constants.length);
+            for (int i = 0; i < 32; i++) {
+                output.write(instructions, 0, 8 + random.nextInt(instructions.length - 8));
+                output.write(random.nextInt(256));
+                output.write(random.nextInt(256));
+            }
+        }
+        return output.toByteArray();
+    }
+
+    /**
+     * Writes and reads the content as is, so that only the cost of the compression is measured.
+     */
+    private static class CopyingPacker implements BuildCacheEntryPacker {
+        private final byte[] content;
+
+        CopyingPacker(byte[] content) {
+            this.content = content;
+        }
+
+        @Override
+        public PackResult pack(CacheableEntity entity, Map<String, ? extends FileSystemSnapshot> snapshots, OutputStream output, OriginWriter writeOrigin) throws IOException {
+            output.write(content);
+            return new PackResult(1);
+        }
+
+        @Override
+        public UnpackResult unpack(CacheableEntity entity, InputStream input, OriginReader readOrigin) throws IOException {
+            long length = ByteStreams.exhaust(input);
+            return new UnpackResult(null, length, Collections.emptyMap());
+        }
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gradle.caching.internal.packaging.impl;
+
+import javax.annotation.Nullable;
+
+/**
+ * The compression formats supported for build cache entries.
+ */
+public enum BuildCacheEntryCompression {
+    GZIP(1),
+    LZ4(2);
+
+    private final byte id;
+
+    BuildCacheEntryCompression(int id) {
+        this.id = (byte) id;
+    }
+
+    /**
+     * The identifier of the format, as stored in the entry header.
+     */
+    byte getId() {
+        return id;
+    }
+
+    @Nullable
+    static BuildCacheEntryCompression fromId(byte id) {
+        for (BuildCacheEntryCompression compression : values()) {
+            if (compression.id == id) {
+                return compression;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gradle.caching.internal.packaging.impl;
+
+import org.gradle.caching.internal.CacheableEntity;
+import org.gradle.caching.internal.origin.OriginReader;
+import org.gradle.caching.internal.origin.OriginWriter;
+import org.gradle.caching.internal.packaging.BuildCacheEntryPacker;
+import org.gradle.internal.snapshot.FileSystemSnapshot;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.util.Map;
+import java.util.function.Supplier;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compresses build cache entries with a configurable compression format.
+ *
+ * <p>Entries compressed with gzip are written as plain gzip streams, so that they stay readable by older Gradle versions.
+ * Entries using any other format start with a header that identifies the format, made up of a magic number, the header version and the format id.
+ * When unpacking, the format is detected from the first bytes of the entry, so entries written with any supported format can be loaded,
+ * regardless of the currently configured format.</p>
+ */
+public class CompressingBuildCacheEntryPacker implements BuildCacheEntryPacker {
+    private static final int GZIP_MAGIC = 0x1f8b;
+    private static final byte[] MAGIC = {(byte) 0xc7, 'G', 'B', 'C'};
+    private static final byte HEADER_VERSION = 1;
+
+    private final BuildCacheEntryPacker delegate;
+    private final Supplier<BuildCacheEntryCompression> compression;
+
+    public CompressingBuildCacheEntryPacker(BuildCacheEntryPacker delegate, Supplier<BuildCacheEntryCompression> compression) {
+        this.delegate = delegate;
+        this.compression = compression;
+    }
+
+    @Override
+    public PackResult pack(CacheableEntity entity, Map<String, ? extends FileSystemSnapshot> snapshots, OutputStream output, OriginWriter writeOrigin) throws IOException {
+        try (OutputStream compressedOutput = compress(output, compression.get())) {
+            return delegate.pack(entity, snapshots, compressedOutput, writeOrigin);
+        }
+    }
+
+    @Override
+    public UnpackResult unpack(CacheableEntity entity, InputStream input, OriginReader readOrigin) throws IOException {
+        try (InputStream decompressedInput = decompress(input)) {
+            return delegate.unpack(entity, decompressedInput, readOrigin);
+        }
+    }
+
+    /**
+     * Returns a stream that writes a build cache entry with the given compression to the given output. Closing the returned stream closes the output.
+     */
+    public static OutputStream compress(OutputStream output, BuildCacheEntryCompression compression) throws IOException {
+        switch (compression) {
+            case GZIP:
+                return new GZIPOutputStream(output);
+            case LZ4:
+                writeHeader(output, compression);
+                return new Lz4BlockOutputStream(output);
+            default:
+                throw new IllegalArgumentException("Unsupported build cache entry compression: " + compression);
+        }
+    }
+
+    /**
+     * Returns a stream that reads the contents of the build cache entry from the given input, detecting the compression of the entry. Closing the returned stream closes the input.
+     */
+    public static InputStream decompress(InputStream input) throws IOException {
+        PushbackInputStream pushbackInput = new PushbackInputStream(input, 2);
+        int first = pushbackInput.read();
+        int second = pushbackInput.read();
+        if (second < 0) {
+            throw new IOException("Build cache entry is truncated");
+        }
+        if (((first << 8) | second) == GZIP_MAGIC) {
+            // A plain gzip stream, without a header
+            pushbackInput.unread(second);
+            pushbackInput.unread(first);
+            return decompress(pushbackInput, BuildCacheEntryCompression.GZIP);
+        }
+        if (first != (MAGIC[0] & 0xff) || second != (MAGIC[1] & 0xff)) {
+            throw new IOException("Build cache entry has an unknown format");
+        }
+        return decompress(pushbackInput, readHeader(pushbackInput));
+    }
+
+    private static InputStream decompress(InputStream input, BuildCacheEntryCompression compression) throws IOException {
+        switch (compression) {
+            case GZIP:
+                return new GZIPInputStream(input);
+            case LZ4:
+                return new Lz4BlockInputStream(input);
+            default:
+                throw new IllegalArgumentException("Unsupported build cache entry compression: " + compression);
+        }
+    }
+
+    private static void writeHeader(OutputStream output, BuildCacheEntryCompression compression) throws IOException {
+        output.write(MAGIC);
+        output.write(HEADER_VERSION);
+        output.write(compression.getId());
+    }
+
+    /**
+     * Reads the remainder of the header, after the first two bytes of the magic number.
+     */
+    private static BuildCacheEntryCompression readHeader(InputStream input) throws IOException {
+        for (int i = 2; i < MAGIC.length; i++) {
+            if (input.read() != (MAGIC[i] & 0xff)) {
+                throw new IOException("Build cache entry has an unknown format");
+            }
+        }
+        int version = input.read();
+        if (version != HEADER_VERSION) {
+            throw new IOException("Build cache entry has an unsupported header version: " + version);
+        }
+        int id = input.read();
+        BuildCacheEntryCompression compression = id < 0 ? null : BuildCacheEntryCompression.fromId((byte) id);
+        if (compression == null) {
+            throw new IOException("Build cache entry uses an unsupported compression: " + id);
+        }
+        return compression;
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.caching.internal.packaging.impl;
+
+import com.google.common.io.ByteStreams;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.io.input.BoundedInputStream;
+import org.apache.commons.io.input.CloseShieldInputStream;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Splits build cache entries into a manifest and the contents of the files of the entry, and assembles entries from them again.
+ *
+ * <p>The manifest lists all archive entries of the build cache entry in order. The contents of small files are stored in the manifest itself,
+ * while the contents of larger files are stored as blobs in a {@link BlobStore}, and only referenced from the manifest.
+ * This allows a blob store to keep identical files of different build cache entries only once.</p>
+ */
+public class ContentAddressedEntryFormat {
+    public static final int DEFAULT_MINIMUM_BLOB_SIZE = 1024;
+
+    private static final int MANIFEST_MAGIC = 0xc7474d46;
+    private static final byte MANIFEST_VERSION = 1;
+    private static final byte END = 0;
+    private static final byte INLINE = 1;
+    private static final byte BLOB = 2;
+    private static final int MAX_STRING_LENGTH = 1024 * 1024;
+
+    private final int minimumBlobSize;
+
+    /**
+     * Creates a format storing files of at least the given size as blobs.
+     */
+    public ContentAddressedEntryFormat(int minimumBlobSize) {
+        this.minimumBlobSize = minimumBlobSize;
+    }
+
+    /**
+     * Stores the contents of files by a key derived from their contents.
+     */
+    public interface BlobStore {
+        /**
+         * Stores the given content, unless a blob with the same content exists already.
+         *
+         * @return the key of the blob.
+         */
+        String put(InputStream content) throws IOException;
+
+        /**
+         * Opens the blob with the given key.
+         *
+         * @throws IOException when the blob does not exist.
+         */
+        InputStream get(String key) throws IOException;
+    }
+
+    /**
+     * Splits the given build cache entry, which can use any of the supported compressions, into a manifest and blobs.
+     */
+    public void split(InputStream entry, OutputStream manifest, BlobStore blobs) throws IOException {
+        try (
+            TarArchiveInputStream tarInput = new TarArchiveInputStream(CompressingBuildCacheEntryPacker.decompress(new BufferedInputStream(entry)), StandardCharsets.UTF_8.name());
+            DataOutputStream manifestOutput = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(manifest)))
+        ) {
+            manifestOutput.writeInt(MANIFEST_MAGIC);
+            manifestOutput.writeByte(MANIFEST_VERSION);
+            TarArchiveEntry tarEntry;
+            while ((tarEntry = tarInput.getNextTarEntry()) != null) {
+                long size = tarEntry.getSize();
+                boolean blob = !tarEntry.isDirectory() && size >= minimumBlobSize;
+                manifestOutput.writeByte(blob ? BLOB : INLINE);
+                writeString(manifestOutput, tarEntry.getName());
+                manifestOutput.writeInt(tarEntry.getMode());
+                manifestOutput.writeLong(size);
+                if (blob) {
+                    writeString(manifestOutput, blobs.put(new CloseShieldInputStream(tarInput)));
+                } else {
+                    long copied = ByteStreams.copy(tarInput, manifestOutput);
+                    if (copied != size) {
+                        throw new EOFException("Unexpected end of build cache entry");
+                    }
+                }
+            }
+            manifestOutput.writeByte(END);
+        }
+    }
+
+    /**
+     * Assembles the build cache entry described by the given manifest, using the given compression.
+     */
+    public void assemble(InputStream manifest, BlobStore blobs, OutputStream entry, BuildCacheEntryCompression compression) throws IOException {
+        try (
+            DataInputStream manifestInput = openManifest(manifest);
+            TarArchiveOutputStream tarOutput = new TarArchiveOutputStream(new BufferedOutputStream(CompressingBuildCacheEntryPacker.compress(entry, compression)), StandardCharsets.UTF_8.name())
+        ) {
+            tarOutput.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+            tarOutput.setBigNumberMode(TarArchiveOutputStream.BIGNUMBER_POSIX);
+            tarOutput.setAddPaxHeadersForNonAsciiNames(true);
+            byte type;
+            while ((type = manifestInput.readByte()) != END) {
+                TarArchiveEntry tarEntry = new TarArchiveEntry(readString(manifestInput), true);
+                tarEntry.setMode(manifestInput.readInt());
+                long size = manifestInput.readLong();
+                tarEntry.setSize(size);
+                tarOutput.putArchiveEntry(tarEntry);
+                switch (type) {
+                    case INLINE:
+                        copyExactly(manifestInput, tarOutput, size);
+                        break;
+                    case BLOB:
+                        try (InputStream content = blobs.get(readString(manifestInput))) {
+                            copyExactly(content, tarOutput, size);
+                        }
+                        break;
+                    default:
+                        throw new IOException("Build cache entry manifest is corrupt");
+                }
+                tarOutput.closeArchiveEntry();
+            }
+        }
+    }
+
+    /**
+     * Visits the keys of all blobs referenced by the given manifest.
+     */
+    public void visitBlobs(InputStream manifest, Consumer<String> visitor) throws IOException {
+        try (DataInputStream manifestInput = openManifest(manifest)) {
+            byte type;
+            while ((type = manifestInput.readByte()) != END) {
+                readString(manifestInput);
+                manifestInput.readInt();
+                long size = manifestInput.readLong();
+                switch (type) {
+                    case INLINE:
+                        ByteStreams.skipFully(manifestInput, size);
+                        break;
+                    case BLOB:
+                        visitor.accept(readString(manifestInput));
+                        break;
+                    default:
+                        throw new IOException("Build cache entry manifest is corrupt");
+                }
+            }
+        }
+    }
+
+    private static DataInputStream openManifest(InputStream manifest) throws IOException {
+        DataInputStream manifestInput = new DataInputStream(new BufferedInputStream(new GZIPInputStream(manifest)));
+        if (manifestInput.readInt() != MANIFEST_MAGIC) {
+            manifestInput.close();
+            throw new IOException("Not a build cache entry manifest");
+        }
+        int version = manifestInput.readByte();
+        if (version != MANIFEST_VERSION) {
+            manifestInput.close();
+            throw new IOException("Unsupported build cache entry manifest version: " + version);
+        }
+        return manifestInput;
+    }
+
+    private static void copyExactly(InputStream input, OutputStream output, long size) throws IOException {
+        long copied = ByteStreams.copy(new BoundedInputStream(input, size), output);
+        if (copied != size) {
+            throw new EOFException("Unexpected end of build cache entry content");
+        }
+    }
+
+    private static void writeString(DataOutputStream output, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    private static String readString(DataInputStream input) throws IOException {
+        int length = input.readInt();
+        if (length < 0 || length > MAX_STRING_LENGTH) {
+            throw new IOException("Build cache entry manifest is corrupt");
+        }
+        byte[] bytes = new byte[length];
+        input.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,235 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.caching.internal.packaging.impl;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Compresses and decompresses single blocks using the <a href="https://github.com/lz4/lz4/blob/dev/doc/lz4_Block_format.md">LZ4 block format</a>.
+ *
+ * <p>The compressor is the greedy single-pass variant of LZ4, trading some compression ratio for speed.
+ * Blocks are limited to 64KB, so that all match offsets fit into the two bytes the format allows for them.</p>
+ *
+ * <p>Instances hold a reusable hash table, and so are not thread-safe.</p>
+ */
+class Lz4BlockCodec {
+    static final int MAX_BLOCK_SIZE = 64 * 1024;
+
+    private static final int MIN_MATCH = 4;
+    private static final int LAST_LITERALS = 5;
+    private static final int MATCH_FIND_LIMIT = 12;
+    private static final int MAX_DISTANCE = 65535;
+    private static final int RUN_MASK = 15;
+    private static final int HASH_LOG = 12;
+    private static final int SKIP_TRIGGER = 6;
+
+    private final int[] hashTable = new int[1 << HASH_LOG];
+
+    /**
+     * Returns the maximum size of the compressed form of a block of the given size.
+     */
+    static int maxCompressedLength(int length) {
+        return length + length / 255 + 16;
+    }
+
+    /**
+     * Compresses the given block into the given buffer, which must have at least {@link #maxCompressedLength(int)} bytes available from the given offset.
+     *
+     * @return the length of the compressed block.
+     */
+    int compress(byte[] src, int srcLength, byte[] dest, int destOffset) {
+        if (srcLength > MAX_BLOCK_SIZE) {
+            throw new IllegalArgumentException("Block is too large: " + srcLength);
+        }
+        int start = destOffset;
+        int anchor = 0;
+        if (srcLength >= MATCH_FIND_LIMIT + 1) {
+            Arrays.fill(hashTable, 0);
+            int matchFindLimit = srcLength - MATCH_FIND_LIMIT;
+            int matchLimit = srcLength - LAST_LITERALS;
+
+            int offset = 1;
+            while (offset < matchFindLimit) {
+                int sequence = readInt(src, offset);
+                int hash = hash(sequence);
+                int ref = hashTable[hash];
+                hashTable[hash] = offset;
+                if (offset - ref > MAX_DISTANCE || readInt(src, ref) != sequence) {
+                    // Skip ahead faster the longer no match has been found
+                    offset += 1 + ((offset - anchor) >>> SKIP_TRIGGER);
+                    continue;
+                }
+
+                // Extend the match backwards over the pending literals
+                while (offset > anchor && ref > 0 && src[offset - 1] == src[ref - 1]) {
+                    offset--;
+                    ref--;
+                }
+
+                int matchLength = MIN_MATCH;
+                while (offset + matchLength < matchLimit && src[offset + matchLength] == src[ref + matchLength]) {
+                    matchLength++;
+                }
+
+                destOffset = writeSequence(src, anchor, offset - anchor, offset - ref, matchLength, dest, destOffset);
+                offset += matchLength;
+                anchor = offset;
+                if (offset < matchFindLimit) {
+                    hashTable[hash(readInt(src, offset - 2))] = offset - 2;
+                }
+            }
+        }
+        return writeLastLiterals(src, anchor, srcLength - anchor, dest, destOffset) - start;
+    }
+
+    /**
+     * Decompresses the given block into the given buffer.
+     *
+     * @return the length of the decompressed block.
+     * @throws IOException when the block is malformed or does not fit into the buffer.
+     */
+    static int decompress(byte[] src, int srcLength, byte[] dest, int destLength) throws IOException {
+        int srcOffset = 0;
+        int destOffset = 0;
+        while (true) {
+            if (srcOffset >= srcLength) {
+                throw malformedBlock();
+            }
+            int token = src[srcOffset++] & 0xff;
+
+            int literalLength = token >>> 4;
+            if (literalLength == RUN_MASK) {
+                int value;
+                do {
+                    if (srcOffset >= srcLength || literalLength > destLength) {
+                        throw malformedBlock();
+                    }
+                    value = src[srcOffset++] & 0xff;
+                    literalLength += value;
+                } while (value == 255);
+            }
+            if (literalLength > srcLength - srcOffset || literalLength > destLength - destOffset) {
+                throw malformedBlock();
+            }
+            System.arraycopy(src, srcOffset, dest, destOffset, literalLength);
+            srcOffset += literalLength;
+            destOffset += literalLength;
+
+            if (srcOffset == srcLength) {
+                // The last sequence only contains literals
+                return destOffset;
+            }
+
+            if (srcOffset + 2 > srcLength) {
+                throw malformedBlock();
+            }
+            int distance = (src[srcOffset] & 0xff) | ((src[srcOffset + 1] & 0xff) << 8);
+            srcOffset += 2;
+            if (distance == 0 || distance > destOffset) {
+                throw malformedBlock();
+            }
+
+            int matchLength = token & RUN_MASK;
+            if (matchLength == RUN_MASK) {
+                int value;
+                do {
+                    if (srcOffset >= srcLength || matchLength > destLength) {
+                        throw malformedBlock();
+                    }
+                    value = src[srcOffset++] & 0xff;
+                    matchLength += value;
+                } while (value == 255);
+            }
+            matchLength += MIN_MATCH;
+            if (matchLength > destLength - destOffset) {
+                throw malformedBlock();
+            }
+            int ref = destOffset - distance;
+            if (distance >= matchLength) {
+                System.arraycopy(dest, ref, dest, destOffset, matchLength);
+            } else {
+                // Overlapping match, which repeats the last 'distance' bytes
+                for (int i = 0; i < matchLength; i++) {
+                    dest[destOffset + i] = dest[ref + i];
+                }
+            }
+            destOffset += matchLength;
+        }
+    }
+
+    private static int writeSequence(byte[] src, int literalOffset, int literalLength, int distance, int matchLength, byte[] dest, int destOffset) {
+        int tokenOffset = destOffset++;
+        int token;
+        if (literalLength >= RUN_MASK) {
+            token = RUN_MASK << 4;
+            destOffset = writeLength(literalLength - RUN_MASK, dest, destOffset);
+        } else {
+            token = literalLength << 4;
+        }
+        System.arraycopy(src, literalOffset, dest, destOffset, literalLength);
+        destOffset += literalLength;
+
+        dest[destOffset++] = (byte) distance;
+        dest[destOffset++] = (byte) (distance >>> 8);
+
+        int remainingMatchLength = matchLength - MIN_MATCH;
+        if (remainingMatchLength >= RUN_MASK) {
+            token |= RUN_MASK;
+            destOffset = writeLength(remainingMatchLength - RUN_MASK, dest, destOffset);
+        } else {
+            token |= remainingMatchLength;
+        }
+        dest[tokenOffset] = (byte) token;
+        return destOffset;
+    }
+
+    private static int writeLastLiterals(byte[] src, int literalOffset, int literalLength, byte[] dest, int destOffset) {
+        if (literalLength >= RUN_MASK) {
+            dest[destOffset++] = (byte) (RUN_MASK << 4);
+            destOffset = writeLength(literalLength - RUN_MASK, dest, destOffset);
+        } else {
+            dest[destOffset++] = (byte) (literalLength << 4);
+        }
+        System.arraycopy(src, literalOffset, dest, destOffset, literalLength);
+        return destOffset + literalLength;
+    }
+
+    private static int writeLength(int length, byte[] dest, int destOffset) {
+        while (length >= 255) {
+            dest[destOffset++] = (byte) 255;
+            length -= 255;
+        }
+        dest[destOffset++] = (byte) length;
+        return destOffset;
+    }
+
+    private static int readInt(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xff)
+            | ((bytes[offset + 1] & 0xff) << 8)
+            | ((bytes[offset + 2] & 0xff) << 16)
+            | ((bytes[offset + 3] & 0xff) << 24);
+    }
+
+    private static int hash(int sequence) {
+        return (sequence * -1640531535) >>> (32 - HASH_LOG);
+    }
+
+    private static IOException malformedBlock() {
+        return new IOException("Malformed LZ4 block");
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gradle.caching.internal.packaging.impl;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+
+/**
+ * Decompresses a stream written by {@link Lz4BlockOutputStream}.
+ */
+class Lz4BlockInputStream extends InputStream {
+    private final InputStream in;
+    private final CRC32 checksum = new CRC32();
+    private final byte[] header = new byte[Lz4BlockOutputStream.BLOCK_HEADER_SIZE];
+    private final byte[] compressed = new byte[Lz4BlockCodec.maxCompressedLength(Lz4BlockCodec.MAX_BLOCK_SIZE)];
+    private final byte[] buffer = new byte[Lz4BlockCodec.MAX_BLOCK_SIZE];
+    private int position;
+    private int limit;
+    private boolean finished;
+
+    Lz4BlockInputStream(InputStream in) {
+        this.in = in;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (position == limit && !readBlock()) {
+            return -1;
+        }
+        return buffer[position++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        if (position == limit && !readBlock()) {
+            return -1;
+        }
+        int count = Math.min(length, limit - position);
+        System.arraycopy(buffer, position, bytes, offset, count);
+        position += count;
+        return count;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = 0;
+        while (skipped < n) {
+            if (position == limit && !readBlock()) {
+                break;
+            }
+            int count = (int) Math.min(n - skipped, limit - position);
+            position += count;
+            skipped += count;
+        }
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        return limit - position;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private boolean readBlock() throws IOException {
+        if (finished) {
+            return false;
+        }
+        readFully(header, 4);
+        int length = readInt(header, 0);
+        if (length == 0) {
+            finished = true;
+            return false;
+        }
+        readFully(header, 4, 8);
+        int storedLength = readInt(header, 4);
+        int expectedChecksum = readInt(header, 8);
+        if (length < 0 || length > buffer.length || storedLength <= 0 || storedLength > length) {
+            throw new IOException("Malformed LZ4 block header");
+        }
+        if (storedLength == length) {
+            readFully(buffer, length);
+        } else {
+            readFully(compressed, storedLength);
+            if (Lz4BlockCodec.decompress(compressed, storedLength, buffer, length) != length) {
+                throw new IOException("Malformed LZ4 block");
+            }
+        }
+        checksum.reset();
+        checksum.update(buffer, 0, length);
+        if ((int) checksum.getValue() != expectedChecksum) {
+            throw new IOException("Corrupt LZ4 block, checksum mismatch");
+        }
+        position = 0;
+        limit = length;
+        return true;
+    }
+
+    private void readFully(byte[] bytes, int length) throws IOException {
+        readFully(bytes, 0, length);
+    }
+
+    private void readFully(byte[] bytes, int offset, int length) throws IOException {
+        while (length > 0) {
+            int read = in.read(bytes, offset, length);
+            if (read < 0) {
+                throw new EOFException("Unexpected end of LZ4 stream");
+            }
+            offset += read;
+            length -= read;
+        }
+    }
+
+    private static int readInt(byte[] bytes, int offset) {
+        return ((bytes[offset] & 0xff) << 24)
+            | ((bytes[offset + 1] & 0xff) << 16)
+            | ((bytes[offset + 2] & 0xff) << 8)
+            | (bytes[offset + 3] & 0xff);
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gradle.caching.internal.packaging.impl;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+
+/**
+ * Compresses a stream as a sequence of LZ4 blocks.
+ *
+ * <p>Each block is written as its uncompressed length, its stored length and the CRC32 checksum of its uncompressed contents,
+ * followed by the stored contents. A block is stored uncompressed when compressing it does not make it smaller.
+ * The stream ends with a block of length 0.</p>
+ *
+ * @see Lz4BlockInputStream
+ */
+class Lz4BlockOutputStream extends FilterOutputStream {
+    static final int BLOCK_HEADER_SIZE = 12;
+
+    private final Lz4BlockCodec codec = new Lz4BlockCodec();
+    private final CRC32 checksum = new CRC32();
+    private final byte[] buffer = new byte[Lz4BlockCodec.MAX_BLOCK_SIZE];
+    private final byte[] compressed = new byte[BLOCK_HEADER_SIZE + Lz4BlockCodec.maxCompressedLength(Lz4BlockCodec.MAX_BLOCK_SIZE)];
+    private int count;
+    private boolean finished;
+
+    Lz4BlockOutputStream(OutputStream out) {
+        super(out);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (count == buffer.length) {
+            writeBlock();
+        }
+        buffer[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        while (length > 0) {
+            if (count == buffer.length) {
+                writeBlock();
+            }
+            int chunk = Math.min(length, buffer.length - count);
+            System.arraycopy(bytes, offset, buffer, count, chunk);
+            count += chunk;
+            offset += chunk;
+            length -= chunk;
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (count > 0) {
+            writeBlock();
+        }
+        out.flush();
+    }
+
+    /**
+     * Writes any buffered data and the end of stream marker, without closing the underlying stream.
+     */
+    void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+        if (count > 0) {
+            writeBlock();
+        }
+        writeInt(compressed, 0, 0);
+        out.write(compressed, 0, 4);
+        finished = true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            finish();
+        } finally {
+            out.close();
+        }
+    }
+
+    private void writeBlock() throws IOException {
+        checksum.reset();
+        checksum.update(buffer, 0, count);
+        int compressedLength = codec.compress(buffer, count, compressed, BLOCK_HEADER_SIZE);
+        int storedLength;
+        if (compressedLength < count) {
+            storedLength = compressedLength;
+        } else {
+            System.arraycopy(buffer, 0, compressed, BLOCK_HEADER_SIZE, count);
+            storedLength = count;
+        }
+        writeInt(compressed, 0, count);
+        writeInt(compressed, 4, storedLength);
+        writeInt(compressed, 8, (int) checksum.getValue());
+        out.write(compressed, 0, BLOCK_HEADER_SIZE + storedLength);
+        count = 0;
+    }
+
+    private static void writeInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) (value >>> 24);
+        bytes[offset + 1] = (byte) (value >>> 16);
+        bytes[offset + 2] = (byte) (value >>> 8);
+        bytes[offset + 3] = (byte) value;
+    }
+}
@@ -20,6 +20,7 @@
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Interner;
 import com.google.common.io.CountingOutputStream;
+import com.google.common.util.concurrent.MoreExecutors;
 import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
 import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
 import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
@@ -50,6 +51,7 @@
 
 import javax.annotation.Nullable;
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
@@ -63,9 +65,20 @@
 import java.net.URLEncoder;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -74,6 +87,10 @@
 
 /**
  * Packages build cache entries to a POSIX TAR file.
+ *
+ * <p>The archive itself is always read and written by the calling thread. When the packer is given a file IO parallelism greater than one,
+ * the contents of small files are read ahead in parallel while packing, and written to disk and snapshotted in parallel while unpacking.
+ * The number of files in flight, and so the amount of file contents buffered in memory, is bounded.</p>
  */
 public class TarBuildCacheEntryPacker implements BuildCacheEntryPacker {
 
@@ -91,11 +108,17 @@ private interface UnixPermissions {
     private static final Pattern TREE_PATH = Pattern.compile("(missing-)?tree-([^/]+)(?:/(.*))?");
     private static final int BUFFER_SIZE = 64 * 1024;
     private static final ThreadLocal<byte[]> COPY_BUFFERS = ThreadLocal.withInitial(() -> new byte[BUFFER_SIZE]);
+    // Larger files are streamed directly between the archive and the file system by the calling thread
+    private static final int MAX_BUFFERED_FILE_SIZE = 256 * 1024;
+    private static final int BUFFERED_FILES_PER_THREAD = 4;
 
     private final TarPackerFileSystemSupport fileSystemSupport;
     private final FilePermissionAccess filePermissionAccess;
     private final StreamHasher streamHasher;
     private final Interner<String> stringInterner;
+    private final Executor fileIoExecutor;
+    private final int maxBufferedFiles;
+    private final Semaphore unpackBufferedBytes;
 
     public TarBuildCacheEntryPacker(
         TarPackerFileSystemSupport fileSystemSupport,
@@ -103,10 +126,34 @@ public TarBuildCacheEntryPacker(
         StreamHasher streamHasher,
         Interner<String> stringInterner
     ) {
+        this(fileSystemSupport, filePermissionAccess, streamHasher, stringInterner, MoreExecutors.directExecutor(), 1, new Semaphore(0));
+    }
+
+    /**
+     * Creates a packer that reads and writes files on the given executor.
+     *
+     * @param fileIoParallelism the number of threads of the executor available for file IO. With a value of 1 all files are handled by the calling thread.
+     * @param unpackBufferedBytes the number of bytes of unpacked files which can be buffered in memory while waiting to be written, shared by all concurrent unpacks. Empty files count as one byte.
+     */
+    public TarBuildCacheEntryPacker(
+        TarPackerFileSystemSupport fileSystemSupport,
+        FilePermissionAccess filePermissionAccess,
+        StreamHasher streamHasher,
+        Interner<String> stringInterner,
+        Executor fileIoExecutor,
+        int fileIoParallelism,
+        Semaphore unpackBufferedBytes
+    ) {
+        if (fileIoParallelism < 1) {
+            throw new IllegalArgumentException("File IO parallelism must be at least 1, but was " + fileIoParallelism);
+        }
         this.fileSystemSupport = fileSystemSupport;
         this.filePermissionAccess = filePermissionAccess;
         this.streamHasher = streamHasher;
         this.stringInterner = stringInterner;
+        this.fileIoExecutor = fileIoExecutor;
+        this.maxBufferedFiles = fileIoParallelism > 1 ? fileIoParallelism * BUFFERED_FILES_PER_THREAD : 0;
+        this.unpackBufferedBytes = unpackBufferedBytes;
     }
 
     @Override
@@ -150,8 +197,9 @@ private long pack(CacheableEntity entity, Map<String, ? extends FileSystemSnapsh
     }
 
     private long packTree(String name, TreeType type, FileSystemSnapshot snapshots, TarArchiveOutputStream tarOutput) {
-        PackingVisitor packingVisitor = new PackingVisitor(tarOutput, name, type, filePermissionAccess);
+        PackingVisitor packingVisitor = new PackingVisitor(tarOutput, name, type, filePermissionAccess, fileIoExecutor, maxBufferedFiles);
         snapshots.accept(new RelativePathTracker(), packingVisitor);
+        packingVisitor.flush();
         return packingVisitor.getPackedEntryCount();
     }
 
@@ -176,40 +224,56 @@ private UnpackResult unpack(CacheableEntity entity, TarArchiveInputStream tarInp
 
         TarArchiveEntry tarEntry;
         OriginMetadata originMetadata = null;
-        Map<String, FileSystemLocationSnapshot> snapshots = new HashMap<>();
+        // Snapshots can only be created once all files of the tree have been written
+        Map<String, Supplier<? extends FileSystemLocationSnapshot>> pendingSnapshots = new HashMap<>();
+        UnpackedFileWriter fileWriter = new UnpackedFileWriter();
 
-        tarEntry = tarInput.getNextTarEntry();
         AtomicLong entries = new AtomicLong();
-        while (tarEntry != null) {
-            entries.incrementAndGet();
-            String path = tarEntry.getName();
+        try {
+            tarEntry = tarInput.getNextTarEntry();
+            while (tarEntry != null) {
+                entries.incrementAndGet();
+                String path = tarEntry.getName();
+
+                if (path.equals(METADATA_PATH)) {
+                    // handle origin metadata
+                    originMetadata = readOriginAction.execute(new CloseShieldInputStream(tarInput));
+                    tarEntry = tarInput.getNextTarEntry();
+                } else {
+                    // handle tree
+                    Matcher matcher = TREE_PATH.matcher(path);
+                    if (!matcher.matches()) {
+                        throw new IllegalStateException("Cached entry format error, invalid contents: " + path);
+                    }
 
-            if (path.equals(METADATA_PATH)) {
-                // handle origin metadata
-                originMetadata = readOriginAction.execute(new CloseShieldInputStream(tarInput));
-                tarEntry = tarInput.getNextTarEntry();
-            } else {
-                // handle tree
-                Matcher matcher = TREE_PATH.matcher(path);
-                if (!matcher.matches()) {
-                    throw new IllegalStateException("Cached entry format error, invalid contents: " + path);
-                }
+                    String treeName = unescape(matcher.group(2));
+                    CacheableTree tree = treesByName.get(treeName);
+                    if (tree == null) {
+                        throw new IllegalStateException(String.format("No tree '%s' registered", treeName));
+                    }
 
-                String treeName = unescape(matcher.group(2));
-                CacheableTree tree = treesByName.get(treeName);
-                if (tree == null) {
-                    throw new IllegalStateException(String.format("No tree '%s' registered", treeName));
+                    boolean missing = matcher.group(1) != null;
+                    String childPath = matcher.group(3);
+                    tarEntry = unpackTree(treeName, tree.getType(), tree.getRoot(), tarInput, tarEntry, childPath, missing, pendingSnapshots, fileWriter, entries);
                 }
-
-                boolean missing = matcher.group(1) != null;
-                String childPath = matcher.group(3);
-                tarEntry = unpackTree(treeName, tree.getType(), tree.getRoot(), tarInput, tarEntry, childPath, missing, snapshots, entries);
             }
+        } catch (Throwable failure) {
+            // Do not leave files being written behind
+            try {
+                fileWriter.awaitCompletion();
+            } catch (Throwable writeFailure) {
+                failure.addSuppressed(writeFailure);
+            }
+            throw failure;
         }
+        fileWriter.awaitCompletion();
+
         if (originMetadata == null) {
             throw new IllegalStateException("Cached result format error, no origin metadata was found.");
         }
 
+        Map<String, FileSystemLocationSnapshot> snapshots = new HashMap<>();
+        pendingSnapshots.forEach((treeName, snapshot) -> snapshots.put(treeName, snapshot.get()));
         return new UnpackResult(originMetadata, entries.get(), snapshots);
     }
 
@@ -232,7 +296,7 @@ public File getRoot() {
     }
 
     @Nullable
-    private TarArchiveEntry unpackTree(String treeName, TreeType treeType, File treeRoot, TarArchiveInputStream input, TarArchiveEntry rootEntry, String childPath, boolean missing, Map<String, FileSystemLocationSnapshot> snapshots, AtomicLong entries) throws IOException {
+    private TarArchiveEntry unpackTree(String treeName, TreeType treeType, File treeRoot, TarArchiveInputStream input, TarArchiveEntry rootEntry, String childPath, boolean missing, Map<String, Supplier<? extends FileSystemLocationSnapshot>> snapshots, UnpackedFileWriter fileWriter, AtomicLong entries) throws IOException {
         boolean isDirEntry = rootEntry.isDirectory();
         boolean root = Strings.isNullOrEmpty(childPath);
         if (!root) {
@@ -249,8 +313,7 @@ private TarArchiveEntry unpackTree(String treeName, TreeType treeType, File tree
             if (isDirEntry) {
                 throw new IllegalStateException("Should be a file: " + treeName);
             }
-            RegularFileSnapshot fileSnapshot = unpackFile(input, rootEntry, treeRoot, treeRoot.getName());
-            snapshots.put(treeName, fileSnapshot);
+            snapshots.put(treeName, fileWriter.write(input, rootEntry, treeRoot, treeRoot.getName()));
             return input.getNextTarEntry();
         }
 
@@ -259,10 +322,10 @@ private TarArchiveEntry unpackTree(String treeName, TreeType treeType, File tree
         }
         chmodUnpackedFile(rootEntry, treeRoot);
 
-        return unpackDirectoryTree(input, rootEntry, snapshots, entries, treeRoot, treeName);
+        return unpackDirectoryTree(input, rootEntry, snapshots, fileWriter, entries, treeRoot, treeName);
     }
 
-    private RegularFileSnapshot unpackFile(TarArchiveInputStream input, TarArchiveEntry entry, File file, String fileName) throws IOException {
+    private RegularFileSnapshot unpackFile(InputStream input, TarArchiveEntry entry, File file, String fileName) throws IOException {
         try (CountingOutputStream output = new CountingOutputStream(new FileOutputStream(file))) {
             HashCode hash = streamHasher.hashCopy(input, output);
             chmodUnpackedFile(entry, file);
@@ -273,17 +336,21 @@ private RegularFileSnapshot unpackFile(TarArchiveInputStream input, TarArchiveEn
     }
 
     @Nullable
-    private TarArchiveEntry unpackDirectoryTree(TarArchiveInputStream input, TarArchiveEntry rootEntry, Map<String, FileSystemLocationSnapshot> snapshots, AtomicLong entries, File treeRoot, String treeName) throws IOException {
+    private TarArchiveEntry unpackDirectoryTree(TarArchiveInputStream input, TarArchiveEntry rootEntry, Map<String, Supplier<? extends FileSystemLocationSnapshot>> snapshots, UnpackedFileWriter fileWriter, AtomicLong entries, File treeRoot, String treeName) throws IOException {
         RelativePathParser parser = new RelativePathParser(rootEntry.getName());
 
-        MerkleDirectorySnapshotBuilder builder = MerkleDirectorySnapshotBuilder.noSortingRequired();
-        builder.enterDirectory(DIRECT, stringInterner.intern(treeRoot.getAbsolutePath()), stringInterner.intern(treeRoot.getName()), INCLUDE_EMPTY_DIRS);
+        // Record the structure of the tree, and replay it once all file snapshots are available
+        List<Consumer<MerkleDirectorySnapshotBuilder>> builderActions = new ArrayList<>();
+        String internedRootPath = stringInterner.intern(treeRoot.getAbsolutePath());
+        String internedRootName = stringInterner.intern(treeRoot.getName());
+        builderActions.add(builder -> builder.enterDirectory(DIRECT, internedRootPath, internedRootName, INCLUDE_EMPTY_DIRS));
+        Runnable leaveDirectory = () -> builderActions.add(MerkleDirectorySnapshotBuilder::leaveDirectory);
 
         TarArchiveEntry entry;
 
         while ((entry = input.getNextTarEntry()) != null) {
             boolean isDir = entry.isDirectory();
-            boolean outsideOfRoot = parser.nextPath(entry.getName(), isDir, builder::leaveDirectory);
+            boolean outsideOfRoot = parser.nextPath(entry.getName(), isDir, leaveDirectory);
             if (outsideOfRoot) {
                 break;
             }
@@ -295,20 +362,90 @@ private TarArchiveEntry unpackDirectoryTree(TarArchiveInputStream input, TarArch
                 chmodUnpackedFile(entry, file);
                 String internedAbsolutePath = stringInterner.intern(file.getAbsolutePath());
                 String internedName = stringInterner.intern(parser.getName());
-                builder.enterDirectory(DIRECT, internedAbsolutePath, internedName, INCLUDE_EMPTY_DIRS);
+                builderActions.add(builder -> builder.enterDirectory(DIRECT, internedAbsolutePath, internedName, INCLUDE_EMPTY_DIRS));
             } else {
-                RegularFileSnapshot fileSnapshot = unpackFile(input, entry, file, parser.getName());
-                builder.visitLeafElement(fileSnapshot);
+                Supplier<RegularFileSnapshot> fileSnapshot = fileWriter.write(input, entry, file, parser.getName());
+                builderActions.add(builder -> builder.visitLeafElement(fileSnapshot.get()));
             }
         }
 
-        parser.exitToRoot(builder::leaveDirectory);
-        builder.leaveDirectory();
+        parser.exitToRoot(leaveDirectory);
+        leaveDirectory.run();
 
-        snapshots.put(treeName, builder.getResult());
+        snapshots.put(treeName, () -> {
+            MerkleDirectorySnapshotBuilder builder = MerkleDirectorySnapshotBuilder.noSortingRequired();
+            builderActions.forEach(action -> action.accept(builder));
+            return builder.getResult();
+        });
         return entry;
     }
 
+    /**
+     * Writes the unpacked files to disk. Small files are buffered in memory, so the next entries of the archive can be read while they are written on the file IO executor.
+     * When the bytes which can be buffered by all unpacks are used up, the file is written by the calling thread instead.
+     */
+    private class UnpackedFileWriter {
+        private final List<CompletableFuture<RegularFileSnapshot>> pendingWrites = new ArrayList<>();
+
+        /**
+         * Writes the current entry of the archive to the given file.
+         *
+         * @return the snapshot of the written file, available once {@link #awaitCompletion()} returned.
+         */
+        public Supplier<RegularFileSnapshot> write(TarArchiveInputStream input, TarArchiveEntry entry, File file, String fileName) throws IOException {
+            int size = (int) entry.getSize();
+            // Every pending write holds at least one permit, so empty files can't pile up without bound
+            int permits = Math.max(size, 1);
+            if (maxBufferedFiles == 0 || entry.getSize() > MAX_BUFFERED_FILE_SIZE || !unpackBufferedBytes.tryAcquire(permits)) {
+                RegularFileSnapshot fileSnapshot = unpackFile(input, entry, file, fileName);
+                return () -> fileSnapshot;
+            }
+
+            CompletableFuture<RegularFileSnapshot> pendingWrite;
+            try {
+                byte[] content = new byte[size];
+                IOUtils.readFully(input, content);
+                pendingWrite = CompletableFuture.supplyAsync(() -> {
+                    try {
+                        return unpackFile(new ByteArrayInputStream(content), entry, file, fileName);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    } finally {
+                        unpackBufferedBytes.release(permits);
+                    }
+                }, fileIoExecutor);
+            } catch (IOException | RuntimeException e) {
+                unpackBufferedBytes.release(permits);
+                throw e;
+            }
+            pendingWrites.add(pendingWrite);
+            return () -> await(pendingWrite);
+        }
+
+        /**
+         * Waits for all pending writes to finish, and rethrows the first failure.
+         */
+        public void awaitCompletion() throws IOException {
+            RuntimeException failure = null;
+            for (CompletableFuture<RegularFileSnapshot> pendingWrite : pendingWrites) {
+                try {
+                    await(pendingWrite);
+                } catch (RuntimeException e) {
+                    if (failure == null) {
+                        failure = e;
+                    }
+                }
+            }
+            pendingWrites.clear();
+            if (failure instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) failure).getCause();
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+
     private void chmodUnpackedFile(TarArchiveEntry entry, File file) {
         filePermissionAccess.chmod(file, entry.getMode() & UnixPermissions.PERM_MASK);
     }
@@ -335,15 +472,20 @@ private static class PackingVisitor implements RelativePathTrackingFileSystemSna
         private final String treeRoot;
         private final FilePermissionAccess filePermissionAccess;
         private final TreeType type;
+        private final Executor fileIoExecutor;
+        private final int maxBufferedFiles;
+        private final Deque<PendingEntry> pendingEntries = new ArrayDeque<>();
 
         private long packedEntryCount;
 
-        public PackingVisitor(TarArchiveOutputStream tarOutput, String treeName, TreeType type, FilePermissionAccess filePermissionAccess) {
+        public PackingVisitor(TarArchiveOutputStream tarOutput, String treeName, TreeType type, FilePermissionAccess filePermissionAccess, Executor fileIoExecutor, int maxBufferedFiles) {
             this.tarOutput = tarOutput;
             this.treePath = "tree-" + escape(treeName);
             this.treeRoot = treePath + "/";
             this.type = type;
             this.filePermissionAccess = filePermissionAccess;
+            this.fileIoExecutor = fileIoExecutor;
+            this.maxBufferedFiles = maxBufferedFiles;
         }
 
         @Override
@@ -356,15 +498,23 @@ public void visitDirectory(DirectorySnapshot directorySnapshot) {
                     assertCorrectType(isRoot, snapshot);
                     File dir = new File(snapshot.getAbsolutePath());
                     int dirMode = isRoot ? UnixPermissions.DEFAULT_DIR_PERM : filePermissionAccess.getUnixMode(dir);
-                    storeDirectoryEntry(targetPath, dirMode, tarOutput);
+                    enqueue(() -> storeDirectoryEntry(targetPath, dirMode, tarOutput));
                 }
 
                 @Override
                 public void visitRegularFile(RegularFileSnapshot fileSnapshot) {
                     assertCorrectType(isRoot, snapshot);
                     File file = new File(snapshot.getAbsolutePath());
-                    int fileMode = filePermissionAccess.getUnixMode(file);
-                    storeFileEntry(file, targetPath, file.length(), fileMode, tarOutput);
+                    if (maxBufferedFiles > 0 && fileSnapshot.getMetadata().getLength() <= MAX_BUFFERED_FILE_SIZE) {
+                        // Read the file ahead, while the entries before it are written to the archive
+                        CompletableFuture<BufferedFile> bufferedFile = CompletableFuture.supplyAsync(() -> readFile(file), fileIoExecutor);
+                        enqueue(() -> storeBufferedFileEntry(targetPath, await(bufferedFile), tarOutput));
+                    } else {
+                        enqueue(() -> {
+                            int fileMode = filePermissionAccess.getUnixMode(file);
+                            storeFileEntry(file, targetPath, file.length(), fileMode, tarOutput);
+                        });
+                    }
                 }
 
                 @Override
@@ -372,7 +522,7 @@ public void visitMissing(MissingFileSnapshot missingSnapshot) {
                     if (!isRoot) {
                         throw new RuntimeException(String.format("Couldn't read content of file '%s'", snapshot.getAbsolutePath()));
                     }
-                    storeMissingTree(targetPath, tarOutput);
+                    enqueue(() -> storeMissingTree(targetPath, tarOutput));
                 }
             });
             packedEntryCount++;
@@ -383,6 +533,31 @@ public long getPackedEntryCount() {
             return packedEntryCount;
         }
 
+        /**
+         * Writes all entries that are still pending to the archive.
+         */
+        public void flush() {
+            while (!pendingEntries.isEmpty()) {
+                pendingEntries.removeFirst().store();
+            }
+        }
+
+        private void enqueue(PendingEntry entry) {
+            pendingEntries.addLast(entry);
+            while (pendingEntries.size() > maxBufferedFiles) {
+                pendingEntries.removeFirst().store();
+            }
+        }
+
+        private BufferedFile readFile(File file) {
+            try {
+                int mode = filePermissionAccess.getUnixMode(file);
+                return new BufferedFile(Files.readAllBytes(file.toPath()), mode);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
         private void assertCorrectType(boolean root, FileSystemLocationSnapshot snapshot) {
             if (root) {
                 switch (type) {
@@ -426,6 +601,16 @@ private void storeDirectoryEntry(String path, int mode, TarArchiveOutputStream t
             }
         }
 
+        private void storeBufferedFileEntry(String path, BufferedFile file, TarArchiveOutputStream tarOutput) {
+            try {
+                createTarEntry(path, file.content.length, UnixPermissions.FILE_FLAG | file.mode, tarOutput);
+                tarOutput.write(file.content);
+                tarOutput.closeArchiveEntry();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
         private void storeFileEntry(File inputFile, String path, long size, int mode, TarArchiveOutputStream tarOutput) {
             try {
                 createTarEntry(path, size, UnixPermissions.FILE_FLAG | mode, tarOutput);
@@ -438,4 +623,33 @@ private void storeFileEntry(File inputFile, String path, long size, int mode, Ta
             }
         }
     }
+
+    private interface PendingEntry {
+        void store();
+    }
+
+    private static class BufferedFile {
+        private final byte[] content;
+        private final int mode;
+
+        public BufferedFile(byte[] content, int mode) {
+            this.content = content;
+            this.mode = mode;
+        }
+    }
+
+    private static <T> T await(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw e;
+        }
+    }
 }
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.caching.internal.packaging.impl
+
+import org.gradle.caching.internal.CacheableEntity
+import org.gradle.caching.internal.origin.OriginReader
+import org.gradle.caching.internal.origin.OriginWriter
+import org.gradle.caching.internal.packaging.BuildCacheEntryPacker
+import org.gradle.caching.internal.packaging.BuildCacheEntryPacker.PackResult
+import org.gradle.caching.internal.packaging.BuildCacheEntryPacker.UnpackResult
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import java.util.zip.GZIPInputStream
+
+class CompressingBuildCacheEntryPackerTest extends Specification {
+    def entity = Stub(CacheableEntity)
+    def readOrigin = Stub(OriginReader)
+    def writeOrigin = Stub(OriginWriter)
+    def delegate = Mock(BuildCacheEntryPacker)
+    def content = ("some build cache entry content " * 1000).bytes
+    def compression = BuildCacheEntryCompression.GZIP
+    def packer = new CompressingBuildCacheEntryPacker(delegate, { compression })
+
+    @Unroll
+    def "can unpack entry packed with #packedWith when configured with #configured"() {
+        def output = new ByteArrayOutputStream()
+        byte[] unpacked = null
+
+        when:
+        compression = packedWith
+        packer.pack(entity, [:], output, writeOrigin)
+
+        then:
+        1 * delegate.pack(entity, [:], _, writeOrigin) >> { args ->
+            args[2].write(content)
+            new PackResult(1)
+        }
+        output.size() < content.length
+
+        when:
+        compression = configured
+        packer.unpack(entity, new ByteArrayInputStream(output.toByteArray()), readOrigin)
+
+        then:
+        1 * delegate.unpack(entity, _, readOrigin) >> { args ->
+            unpacked = args[1].bytes
+            new UnpackResult(null, 1, [:])
+        }
+        unpacked == content
+
+        where:
+        packedWith                      | configured
+        BuildCacheEntryCompression.GZIP | BuildCacheEntryCompression.GZIP
+        BuildCacheEntryCompression.GZIP | BuildCacheEntryCompression.LZ4
+        BuildCacheEntryCompression.LZ4  | BuildCacheEntryCompression.LZ4
+        BuildCacheEntryCompression.LZ4  | BuildCacheEntryCompression.GZIP
+    }
+
+    def "gzip entries are plain gzip streams"() {
+        def output = new ByteArrayOutputStream()
+        delegate.pack(entity, [:], _, writeOrigin) >> { args ->
+            args[2].write(content)
+            new PackResult(1)
+        }
+
+        when:
+        packer.pack(entity, [:], output, writeOrigin)
+
+        then:
+        new GZIPInputStream(new ByteArrayInputStream(output.toByteArray())).bytes == content
+    }
+
+    def "lz4 entries start with a header identifying the compression"() {
+        def output = new ByteArrayOutputStream()
+        delegate.pack(entity, [:], _, writeOrigin) >> { args ->
+            args[2].write(content)
+            new PackResult(1)
+        }
+        compression = BuildCacheEntryCompression.LZ4
+
+        when:
+        packer.pack(entity, [:], output, writeOrigin)
+
+        then:
+        def bytes = output.toByteArray()
+        bytes[0..5] == [0xc7, 'G' as char, 'B' as char, 'C' as char, 1, BuildCacheEntryCompression.LZ4.id].collect { it as byte }
+    }
+
+    @Unroll
+    def "fails to unpack entry with #description"() {
+        when:
+        packer.unpack(entity, new ByteArrayInputStream(bytes.collect { it as byte } as byte[]), readOrigin)
+
+        then:
+        def e = thrown(IOException)
+        e.message.contains(message)
+        0 * delegate._
+
+        where:
+        description                  | bytes                                               | message
+        "unknown format"             | [1, 2, 3, 4, 5, 6]                                  | "unknown format"
+        "unsupported header version" | [0xc7, 'G' as char, 'B' as char, 'C' as char, 2, 2]  | "unsupported header version"
+        "unsupported compression"    | [0xc7, 'G' as char, 'B' as char, 'C' as char, 1, 42] | "unsupported compression"
+        "no content"                 | []                                                  | "truncated"
+    }
+}
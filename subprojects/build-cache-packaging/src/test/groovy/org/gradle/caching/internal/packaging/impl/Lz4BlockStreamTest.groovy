@@ -0,0 +1,111 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.caching.internal.packaging.impl
+
+import spock.lang.Specification
+import spock.lang.Unroll
+
+class Lz4BlockStreamTest extends Specification {
+    @Unroll
+    def "can compress and decompress #description"() {
+        when:
+        def compressed = compress(content)
+
+        then:
+        decompress(compressed) == content
+
+        where:
+        description                | content
+        "empty content"            | new byte[0]
+        "short content"            | "abc".bytes
+        "repetitive content"       | ("0123456789" * 100_000).bytes
+        "incompressible content"   | randomBytes(300_000)
+        "partially repetitive"     | repeat(randomBytes(1000), 200)
+        "content of a block size"  | ("x" * Lz4BlockCodec.MAX_BLOCK_SIZE).bytes
+    }
+
+    def "compresses repetitive content"() {
+        def content = ("some text that repeats " * 10_000).bytes
+
+        expect:
+        compress(content).length < content.length / 10
+    }
+
+    def "can read content one byte at a time"() {
+        def content = ("0123456789" * 10_000).bytes
+        def input = new Lz4BlockInputStream(new ByteArrayInputStream(compress(content)))
+        def result = new ByteArrayOutputStream()
+
+        when:
+        int b
+        while ((b = input.read()) >= 0) {
+            result.write(b)
+        }
+
+        then:
+        result.toByteArray() == content
+    }
+
+    def "detects corrupted content"() {
+        def compressed = compress(("0123456789" * 10_000).bytes)
+        compressed[100] = (byte) (compressed[100] ^ 0x55)
+
+        when:
+        decompress(compressed)
+
+        then:
+        thrown(IOException)
+    }
+
+    def "detects truncated content"() {
+        def compressed = compress(randomBytes(100_000))
+
+        when:
+        decompress(Arrays.copyOf(compressed, 1000))
+
+        then:
+        thrown(EOFException)
+    }
+
+    private static byte[] randomBytes(int length) {
+        def bytes = new byte[length]
+        new Random(1234L).nextBytes(bytes)
+        return bytes
+    }
+
+    private static byte[] repeat(byte[] bytes, int times) {
+        def output = new ByteArrayOutputStream()
+        times.times {
+            output.write(bytes)
+        }
+        return output.toByteArray()
+    }
+
+    private static byte[] compress(byte[] content) {
+        def output = new ByteArrayOutputStream()
+        new Lz4BlockOutputStream(output).withCloseable {
+            it.write(content)
+        }
+        return output.toByteArray()
+    }
+
+    private static byte[] decompress(byte[] compressed) {
+        new Lz4BlockInputStream(new ByteArrayInputStream(compressed)).withCloseable {
+            it.bytes
+        }
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.caching.internal.packaging.impl
+
+import org.gradle.internal.snapshot.FileSystemLocationSnapshot
+
+import java.util.concurrent.Executor
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.Semaphore
+
+import static org.gradle.internal.file.TreeType.DIRECTORY
+
+class ParallelTarBuildCacheEntryPackerTest extends TarBuildCacheEntryPackerTest {
+    static final int UNPACK_BUFFERED_BYTES = 64 * 1024
+
+    ExecutorService executor = Executors.newFixedThreadPool(4)
+    Semaphore unpackBufferedBytes = new Semaphore(UNPACK_BUFFERED_BYTES)
+
+    def setup() {
+        packer = new TarBuildCacheEntryPacker(fileSystemSupport, filePermissionAccess, streamHasher, stringInterner, executor, 4, unpackBufferedBytes)
+    }
+
+    def cleanup() {
+        executor.shutdownNow()
+    }
+
+    def "can pack and unpack wide directory tree"() {
+        def sourceDir = temporaryFolder.file("source").createDir()
+        (0..<20).each { dir ->
+            (0..<50).each { file ->
+                sourceDir.file("dir-$dir/nested/file-${file}.txt") << "content of $dir/$file"
+            }
+        }
+        def largeContent = new byte[1024 * 1024]
+        new Random(1).nextBytes(largeContent)
+        sourceDir.file("dir-3/large.bin").bytes = largeContent
+        sourceDir.file("empty").createDir()
+        def targetDir = temporaryFolder.file("target")
+
+        when:
+        def output = new ByteArrayOutputStream()
+        def packResult = pack output, prop(DIRECTORY, sourceDir)
+
+        then:
+        packResult.entries == 1 + 1 + 20 * 2 + 20 * 50 + 1 + 1
+
+        when:
+        def result = unpack new ByteArrayInputStream(output.toByteArray()), prop(DIRECTORY, targetDir)
+
+        then:
+        result.entries == packResult.entries
+        targetDir.file("dir-7/nested/file-42.txt").text == "content of 7/42"
+        targetDir.file("dir-3/large.bin").bytes == sourceDir.file("dir-3/large.bin").bytes
+        targetDir.file("empty").isDirectory()
+        result.snapshots["test"].hash == snapshot(targetDir).hash
+
+        and:
+        unpackBufferedBytes.availablePermits() == UNPACK_BUFFERED_BYTES
+    }
+
+    def "writes files directly when the bytes buffered by all unpacks are used up"() {
+        def sourceDir = temporaryFolder.file("source").createDir()
+        (0..<100).each { sourceDir.file("file-${it}.txt") << "content $it" }
+        def targetDir = temporaryFolder.file("target")
+        def output = new ByteArrayOutputStream()
+        pack output, prop(DIRECTORY, sourceDir)
+        unpackBufferedBytes.acquire(UNPACK_BUFFERED_BYTES)
+
+        when:
+        def result = unpack new ByteArrayInputStream(output.toByteArray()), prop(DIRECTORY, targetDir)
+
+        then:
+        result.entries == 1 + 1 + 100
+        targetDir.file("file-42.txt").text == "content 42"
+        unpackBufferedBytes.availablePermits() == 0
+    }
+
+    def "does not buffer empty files when the bytes buffered by all unpacks are used up"() {
+        def sourceDir = temporaryFolder.file("source").createDir()
+        (0..<100).each { sourceDir.file("empty-${it}.txt").createFile() }
+        def targetDir = temporaryFolder.file("target")
+        def output = new ByteArrayOutputStream()
+        pack output, prop(DIRECTORY, sourceDir)
+        unpackBufferedBytes.acquire(UNPACK_BUFFERED_BYTES)
+        def directPacker = new TarBuildCacheEntryPacker(fileSystemSupport, filePermissionAccess, streamHasher, stringInterner, { throw new AssertionError("file was buffered") } as Executor, 4, unpackBufferedBytes)
+
+        when:
+        def result = directPacker.unpack(entity(prop(DIRECTORY, targetDir)), new ByteArrayInputStream(output.toByteArray()), readOrigin)
+
+        then:
+        result.entries == 1 + 1 + 100
+        targetDir.file("empty-42.txt").file
+        targetDir.file("empty-42.txt").length() == 0
+        unpackBufferedBytes.availablePermits() == 0
+    }
+
+    def "reports failure to write a file"() {
+        def sourceDir = temporaryFolder.file("source").createDir()
+        (0..<100).each { sourceDir.file("file-${it}.txt") << "content $it" }
+        def output = new ByteArrayOutputStream()
+        pack output, prop(DIRECTORY, sourceDir)
+        def failingPermissionAccess = Stub(FilePermissionAccess) {
+            chmod(_ as File, _ as Integer) >> { File file, int mode ->
+                if (file.name == "file-42.txt") {
+                    throw new RuntimeException("broken")
+                }
+            }
+        }
+        def failingPacker = new TarBuildCacheEntryPacker(fileSystemSupport, failingPermissionAccess, streamHasher, stringInterner, executor, 4, unpackBufferedBytes)
+
+        when:
+        failingPacker.unpack(entity(prop(DIRECTORY, temporaryFolder.file("target"))), new ByteArrayInputStream(output.toByteArray()), readOrigin)
+
+        then:
+        def e = thrown(RuntimeException)
+        e.message == "broken"
+        unpackBufferedBytes.availablePermits() == UNPACK_BUFFERED_BYTES
+    }
+
+    private FileSystemLocationSnapshot snapshot(File root) {
+        FileSystemLocationSnapshot result = null
+        fileSystemAccess.read(root.absolutePath) { result = it }
+        return result
+    }
+}
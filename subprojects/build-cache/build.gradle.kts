@@ -8,6 +8,7 @@ dependencies {
     api(project(":snapshots"))
 
     implementation(project(":base-services"))
+    implementation(project(":build-cache-packaging"))
     implementation(project(":core-api"))
     implementation(project(":files"))
     implementation(project(":native"))
@@ -31,6 +32,7 @@ dependencies {
     testImplementation(project(":file-collections"))
     testImplementation(testFixtures(project(":core")))
     testImplementation(testFixtures(project(":base-services")))
+    testImplementation(libs.commonsCompress)
 
     integTestDistributionRuntimeOnly(project(":distributions-core"))
 }
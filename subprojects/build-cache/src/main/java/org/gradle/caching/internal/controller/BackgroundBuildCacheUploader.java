@@ -0,0 +1,79 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.caching.internal.controller;
+
+import org.gradle.internal.UncheckedException;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Runs the uploads of packed build cache entries in the background, so that the worker that produced an entry can move on to the next work item.
+ *
+ * <p>The number of pending uploads is bounded. When the limit is reached, uploads are run by the calling worker instead,
+ * which throttles the production of new entries to the speed of the remote cache.</p>
+ */
+class BackgroundBuildCacheUploader {
+    private final Executor executor;
+    private final int maxPendingUploads;
+    private final Semaphore pendingUploads;
+
+    BackgroundBuildCacheUploader(Executor executor, int maxPendingUploads) {
+        if (maxPendingUploads < 1) {
+            throw new IllegalArgumentException("Maximum number of pending uploads must be at least 1, but was " + maxPendingUploads);
+        }
+        this.executor = executor;
+        this.maxPendingUploads = maxPendingUploads;
+        this.pendingUploads = new Semaphore(maxPendingUploads);
+    }
+
+    /**
+     * Runs the given upload in the background, or runs it right away when too many uploads are pending already.
+     * The upload must clean up after itself, and must not throw exceptions.
+     */
+    void upload(Runnable upload) {
+        if (!pendingUploads.tryAcquire()) {
+            upload.run();
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    upload.run();
+                } finally {
+                    pendingUploads.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            pendingUploads.release();
+            upload.run();
+        }
+    }
+
+    /**
+     * Waits for all pending uploads to finish.
+     */
+    void drain() {
+        try {
+            pendingUploads.acquire(maxPendingUploads);
+            pendingUploads.release(maxPendingUploads);
+        } catch (InterruptedException e) {
+            throw UncheckedException.throwAsUncheckedException(e);
+        }
+    }
+}
@@ -43,6 +43,9 @@
 import org.gradle.internal.operations.BuildOperationDescriptor;
 import org.gradle.internal.operations.BuildOperationExecutor;
 import org.gradle.internal.operations.RunnableBuildOperation;
+import org.gradle.util.GFileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nullable;
 import java.io.File;
@@ -50,9 +53,15 @@
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.Optional;
+import java.util.concurrent.Executor;
 
 public class DefaultBuildCacheController implements BuildCacheController {
+    private static final Logger LOGGER = LoggerFactory.getLogger(DefaultBuildCacheController.class);
+    private static final String UPLOADING_FILE_PREFIX = "uploading-";
+    private static final int MAX_PENDING_UPLOADS_PER_THREAD = 4;
 
     @VisibleForTesting
     final BuildCacheServiceHandle remote;
@@ -63,6 +72,8 @@ public class DefaultBuildCacheController implements BuildCacheController {
     private final BuildCacheTempFileStore tmp;
     private final BuildOperationExecutor buildOperationExecutor;
     private final boolean emitDebugLogging;
+    @Nullable
+    private final BackgroundBuildCacheUploader uploader;
 
     private boolean closed;
 
@@ -73,12 +84,32 @@ public DefaultBuildCacheController(
         boolean logStackTraces,
         boolean emitDebugLogging,
         boolean disableRemoteOnError
+    ) {
+        this(config, buildOperationExecutor, gradleUserHomeDir, logStackTraces, emitDebugLogging, disableRemoteOnError, null, 0);
+    }
+
+    /**
+     * @param uploadExecutor the executor to upload entries to the remote cache in the background with, or {@code null} to upload entries on the storing thread.
+     * @param uploadParallelism the number of threads of the upload executor.
+     */
+    public DefaultBuildCacheController(
+        BuildCacheServicesConfiguration config,
+        BuildOperationExecutor buildOperationExecutor,
+        File gradleUserHomeDir,
+        boolean logStackTraces,
+        boolean emitDebugLogging,
+        boolean disableRemoteOnError,
+        @Nullable Executor uploadExecutor,
+        int uploadParallelism
     ) {
         this.buildOperationExecutor = buildOperationExecutor;
         this.emitDebugLogging = emitDebugLogging;
         this.local = toLocalHandle(config.getLocal(), config.isLocalPush());
         this.remote = toRemoteHandle(config.getRemote(), config.isRemotePush(), buildOperationExecutor, logStackTraces, disableRemoteOnError);
         this.tmp = toTempFileStore(config.getLocal(), gradleUserHomeDir);
+        this.uploader = uploadExecutor == null || config.getRemote() == null
+            ? null
+            : new BackgroundBuildCacheUploader(uploadExecutor, uploadParallelism * MAX_PENDING_UPLOADS_PER_THREAD);
     }
 
     @Override
@@ -176,7 +207,12 @@ public void store(BuildCacheStoreCommand command) {
             pack.execute(file);
 
             if (remote.canStore()) {
-                remote.store(key, new StoreTarget(file));
+                File stagedFile = uploader == null ? null : stageForUpload(file);
+                if (stagedFile != null) {
+                    uploader.upload(() -> uploadInBackground(key, stagedFile));
+                } else {
+                    remote.store(key, new StoreTarget(file));
+                }
             }
 
             if (local.canStore()) {
@@ -185,6 +221,43 @@ public void store(BuildCacheStoreCommand command) {
         });
     }
 
+    /**
+     * Keeps the packed entry around for the background upload, since storing it in the local cache takes over the file.
+     *
+     * @return the file to upload, or {@code null} when the entry needs to be uploaded right away.
+     */
+    @Nullable
+    private File stageForUpload(File file) {
+        File stagedFile = new File(file.getParentFile(), UPLOADING_FILE_PREFIX + file.getName());
+        if (!local.canStore()) {
+            return file.renameTo(stagedFile) ? stagedFile : null;
+        }
+        try {
+            Files.createLink(stagedFile.toPath(), file.toPath());
+            return stagedFile;
+        } catch (IOException | UnsupportedOperationException e) {
+            // Not all file systems support hard links
+        }
+        try {
+            Files.copy(file.toPath(), stagedFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            return stagedFile;
+        } catch (IOException e) {
+            GFileUtils.deleteQuietly(stagedFile);
+            return null;
+        }
+    }
+
+    private void uploadInBackground(BuildCacheKey key, File file) {
+        try {
+            remote.store(key, new StoreTarget(file));
+        } catch (Exception e) {
+            // Nobody is waiting for the result anymore
+            LOGGER.warn("Could not store entry {} in remote build cache: {}", key.getDisplayName(), e.getMessage());
+        } finally {
+            GFileUtils.deleteQuietly(file);
+        }
+    }
+
     private class Pack implements Action<File> {
 
         private final BuildCacheStoreCommand command;
@@ -221,6 +294,9 @@ public BuildOperationDescriptor.Builder description() {
     public void close() throws IOException {
         if (!closed) {
             closed = true;
+            if (uploader != null) {
+                uploader.drain();
+            }
             Closer closer = Closer.create();
             closer.register(local);
             closer.register(remote);
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.caching.local.internal;
+
+import com.google.common.io.ByteStreams;
+import org.gradle.caching.internal.packaging.impl.ContentAddressedEntryFormat;
+import org.gradle.internal.file.TempFiles;
+import org.gradle.internal.hash.HashCode;
+import org.gradle.internal.hash.Hashing;
+import org.gradle.internal.hash.HashingOutputStream;
+import org.gradle.util.GFileUtils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.regex.Pattern;
+
+/**
+ * Stores blobs as files named by the hash of their contents. The files are spread over subdirectories named by the first two characters of the hash.
+ *
+ * <p>Callers must hold the lock of the build cache while using the store.</p>
+ */
+public class ContentAddressedBlobStore implements ContentAddressedEntryFormat.BlobStore {
+    private static final Pattern BLOB_KEY = Pattern.compile("[0-9a-f]{3,}");
+
+    private final File baseDir;
+
+    public ContentAddressedBlobStore(File baseDir) {
+        this.baseDir = baseDir;
+    }
+
+    @Override
+    public String put(InputStream content) throws IOException {
+        GFileUtils.mkdirs(baseDir);
+        File tempFile = TempFiles.createTempFile("blob-", BuildCacheTempFileStore.PARTIAL_FILE_SUFFIX, baseDir);
+        try {
+            HashCode hash;
+            try (HashingOutputStream output = Hashing.primitiveStreamHasher(new FileOutputStream(tempFile))) {
+                ByteStreams.copy(content, output);
+                hash = output.hash();
+            }
+            String key = hash.toString();
+            File blobFile = getBlobFile(key);
+            if (!blobFile.isFile()) {
+                GFileUtils.mkdirs(blobFile.getParentFile());
+                Files.move(tempFile.toPath(), blobFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            }
+            return key;
+        } finally {
+            GFileUtils.deleteQuietly(tempFile);
+        }
+    }
+
+    @Override
+    public InputStream get(String key) throws IOException {
+        File blobFile = getBlobFile(key);
+        try {
+            return new FileInputStream(blobFile);
+        } catch (FileNotFoundException e) {
+            throw new IOException(String.format("Blob %s is missing from the build cache", key), e);
+        }
+    }
+
+    public File getBlobFile(String key) {
+        if (!BLOB_KEY.matcher(key).matches()) {
+            throw new IllegalArgumentException(String.format("Invalid blob key '%s'", key));
+        }
+        return new File(new File(baseDir, key.substring(0, 2)), key);
+    }
+}
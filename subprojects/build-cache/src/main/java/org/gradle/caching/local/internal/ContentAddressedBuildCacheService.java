@@ -0,0 +1,183 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.caching.local.internal;
+
+import org.gradle.api.Action;
+import org.gradle.api.UncheckedIOException;
+import org.gradle.cache.PersistentCache;
+import org.gradle.caching.BuildCacheEntryReader;
+import org.gradle.caching.BuildCacheEntryWriter;
+import org.gradle.caching.BuildCacheException;
+import org.gradle.caching.BuildCacheKey;
+import org.gradle.caching.BuildCacheService;
+import org.gradle.caching.internal.packaging.impl.BuildCacheEntryCompression;
+import org.gradle.caching.internal.packaging.impl.ContentAddressedEntryFormat;
+import org.gradle.internal.UncheckedException;
+import org.gradle.internal.file.FileAccessTracker;
+import org.gradle.internal.resource.local.LocallyAvailableResource;
+import org.gradle.internal.resource.local.PathKeyFileStore;
+import org.gradle.util.GFileUtils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A local build cache that stores each entry as a manifest, with the contents of the files of the entry stored separately by their hash.
+ * Identical files of different entries are only stored once.
+ *
+ * <p>When an entry is loaded, it is assembled from its manifest and blobs into a temporary file.
+ * Blobs that are no longer referenced by any manifest are removed by {@link UnreferencedBlobsCleanup}.</p>
+ */
+public class ContentAddressedBuildCacheService implements LocalBuildCacheService, BuildCacheService {
+    // Assembled entries are only read once, so use the cheapest compression
+    private static final BuildCacheEntryCompression ASSEMBLED_ENTRY_COMPRESSION = BuildCacheEntryCompression.LZ4;
+
+    private final PathKeyFileStore manifestStore;
+    private final ContentAddressedBlobStore blobStore;
+    private final ContentAddressedEntryFormat entryFormat;
+    private final PersistentCache persistentCache;
+    private final BuildCacheTempFileStore tempFileStore;
+    private final FileAccessTracker fileAccessTracker;
+    private final String failedFileSuffix;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    public ContentAddressedBuildCacheService(
+        PathKeyFileStore manifestStore,
+        ContentAddressedBlobStore blobStore,
+        ContentAddressedEntryFormat entryFormat,
+        PersistentCache persistentCache,
+        BuildCacheTempFileStore tempFileStore,
+        FileAccessTracker fileAccessTracker,
+        String failedFileSuffix
+    ) {
+        this.manifestStore = manifestStore;
+        this.blobStore = blobStore;
+        this.entryFormat = entryFormat;
+        this.persistentCache = persistentCache;
+        this.tempFileStore = tempFileStore;
+        this.fileAccessTracker = fileAccessTracker;
+        this.failedFileSuffix = failedFileSuffix;
+    }
+
+    @Override
+    public boolean load(BuildCacheKey key, BuildCacheEntryReader reader) throws BuildCacheException {
+        boolean[] loaded = new boolean[1];
+        loadLocally(key, file -> {
+            try (InputStream input = new FileInputStream(file)) {
+                reader.readFrom(input);
+                loaded[0] = true;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        return loaded[0];
+    }
+
+    @Override
+    public void loadLocally(BuildCacheKey key, Action<? super File> reader) {
+        // We need to lock other processes out here because garbage collection can be under way in another process
+        persistentCache.withFileLock(() -> {
+            lock.readLock().lock();
+            try {
+                loadInsideLock(key, reader);
+            } finally {
+                lock.readLock().unlock();
+            }
+        });
+    }
+
+    private void loadInsideLock(BuildCacheKey key, Action<? super File> reader) {
+        LocallyAvailableResource resource = manifestStore.get(key.getHashCode());
+        if (resource == null) {
+            return;
+        }
+
+        File manifestFile = resource.getFile();
+        fileAccessTracker.markAccessed(manifestFile);
+
+        tempFileStore.withTempFile(key, entryFile -> {
+            try {
+                try (InputStream manifest = new FileInputStream(manifestFile); OutputStream entry = new FileOutputStream(entryFile)) {
+                    entryFormat.assemble(manifest, blobStore, entry, ASSEMBLED_ENTRY_COMPRESSION);
+                }
+                reader.execute(entryFile);
+            } catch (Exception e) {
+                // Try to move the manifest out of the way in case its permanently corrupt
+                // Don't delete, so that it can be potentially used for debugging
+                File failedFile = new File(manifestFile.getAbsolutePath() + failedFileSuffix);
+                GFileUtils.deleteQuietly(failedFile);
+                //noinspection ResultOfMethodCallIgnored
+                manifestFile.renameTo(failedFile);
+
+                throw UncheckedException.throwAsUncheckedException(e);
+            }
+        });
+    }
+
+    @Override
+    public void store(BuildCacheKey key, BuildCacheEntryWriter result) throws BuildCacheException {
+        tempFileStore.withTempFile(key, file -> {
+            try (OutputStream output = new FileOutputStream(file)) {
+                result.writeTo(output);
+            } catch (IOException e) {
+                throw UncheckedException.throwAsUncheckedException(e);
+            }
+
+            storeLocally(key, file);
+        });
+    }
+
+    @Override
+    public void storeLocally(BuildCacheKey key, File file) {
+        persistentCache.withFileLock(() -> {
+            lock.writeLock().lock();
+            try {
+                storeInsideLock(key, file);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        });
+    }
+
+    private void storeInsideLock(BuildCacheKey key, File file) {
+        tempFileStore.withTempFile(key, manifestFile -> {
+            try (InputStream entry = new FileInputStream(file); OutputStream manifest = new FileOutputStream(manifestFile)) {
+                entryFormat.split(entry, manifest, blobStore);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            LocallyAvailableResource resource = manifestStore.move(key.getHashCode(), manifestFile);
+            fileAccessTracker.markAccessed(resource.getFile());
+        });
+    }
+
+    @Override
+    public void withTempFile(BuildCacheKey key, Action<? super File> action) {
+        persistentCache.withFileLock(() -> tempFileStore.withTempFile(key, action));
+    }
+
+    @Override
+    public void close() {
+        persistentCache.close();
+    }
+}
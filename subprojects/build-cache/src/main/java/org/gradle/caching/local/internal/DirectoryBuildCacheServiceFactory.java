@@ -22,11 +22,14 @@
 import org.gradle.cache.PersistentCache;
 import org.gradle.cache.internal.CacheScopeMapping;
 import org.gradle.cache.internal.CleanupActionFactory;
+import org.gradle.cache.internal.CompositeCleanupAction;
+import org.gradle.cache.internal.FilesFinder;
 import org.gradle.cache.internal.LeastRecentlyUsedCacheCleanup;
 import org.gradle.cache.internal.SingleDepthFilesFinder;
 import org.gradle.cache.internal.VersionStrategy;
 import org.gradle.caching.BuildCacheService;
 import org.gradle.caching.BuildCacheServiceFactory;
+import org.gradle.caching.internal.packaging.impl.ContentAddressedEntryFormat;
 import org.gradle.caching.local.DirectoryBuildCache;
 import org.gradle.internal.file.FileAccessTimeJournal;
 import org.gradle.internal.file.FileAccessTracker;
@@ -36,6 +39,7 @@
 
 import javax.inject.Inject;
 import java.io.File;
+import java.io.FileFilter;
 
 import static org.gradle.cache.FileLockManager.LockMode.OnDemand;
 import static org.gradle.cache.internal.filelock.LockOptionsBuilder.mode;
@@ -47,6 +51,11 @@ public class DirectoryBuildCacheServiceFactory implements BuildCacheServiceFacto
     private static final String BUILD_CACHE_KEY = "build-cache-" + BUILD_CACHE_VERSION;
     private static final String DIRECTORY_BUILD_CACHE_TYPE = "directory";
     private static final int FILE_TREE_DEPTH_TO_TRACK_AND_CLEANUP = 1;
+    // The deduplicating cache uses its own directory, so that the cleanup of either format never deletes files of the other one
+    private static final String CONTENT_ADDRESSED_VERSION = "1";
+    private static final String CONTENT_ADDRESSED_DIR = "content-addressed-" + CONTENT_ADDRESSED_VERSION;
+    private static final String MANIFESTS_DIR = "manifests";
+    private static final String BLOBS_DIR = "blobs";
 
     private final CacheRepository cacheRepository;
     private final CacheScopeMapping cacheScopeMapping;
@@ -81,11 +90,15 @@ public BuildCacheService createBuildCacheService(DirectoryBuildCache configurati
         describer.type(DIRECTORY_BUILD_CACHE_TYPE).
             config("location", target.getAbsolutePath()).
             config("removeUnusedEntriesAfter", String.valueOf(removeUnusedEntriesAfterDays) + " days");
+        if (configuration.isDeduplicateFiles()) {
+            describer.config("deduplicateFiles", "true");
+            return createContentAddressedBuildCacheService(target, removeUnusedEntriesAfterDays);
+        }
 
         PathKeyFileStore fileStore = fileStoreFactory.createFileStore(target);
         PersistentCache persistentCache = cacheRepository
             .cache(target)
-            .withCleanup(cleanupActionFactory.create(new LeastRecentlyUsedCacheCleanup(new SingleDepthFilesFinder(FILE_TREE_DEPTH_TO_TRACK_AND_CLEANUP), fileAccessTimeJournal, removeUnusedEntriesAfterDays)))
+            .withCleanup(cleanupActionFactory.create(new LeastRecentlyUsedCacheCleanup(new SkipContentAddressedCacheFilesFinder(new SingleDepthFilesFinder(FILE_TREE_DEPTH_TO_TRACK_AND_CLEANUP)), fileAccessTimeJournal, removeUnusedEntriesAfterDays)))
             .withDisplayName("Build cache")
             .withLockOptions(mode(OnDemand))
             .withCrossVersionCache(CacheBuilder.LockTarget.DefaultTarget)
@@ -96,6 +109,47 @@ public BuildCacheService createBuildCacheService(DirectoryBuildCache configurati
         return new DirectoryBuildCacheService(fileStore, persistentCache, tempFileStore, fileAccessTracker, FAILED_READ_SUFFIX);
     }
 
+    private BuildCacheService createContentAddressedBuildCacheService(File baseDir, int removeUnusedEntriesAfterDays) {
+        File target = new File(baseDir, CONTENT_ADDRESSED_DIR);
+        checkDirectory(target);
+        File manifestsDir = new File(target, MANIFESTS_DIR);
+        File blobsDir = new File(target, BLOBS_DIR);
+        ContentAddressedEntryFormat entryFormat = new ContentAddressedEntryFormat(ContentAddressedEntryFormat.DEFAULT_MINIMUM_BLOB_SIZE);
+
+        PathKeyFileStore manifestStore = fileStoreFactory.createFileStore(manifestsDir);
+        PersistentCache persistentCache = cacheRepository
+            .cache(target)
+            .withCleanup(cleanupActionFactory.create(CompositeCleanupAction.builder()
+                // Blobs are shared between entries, so they are only removed once no manifest uses them anymore
+                .add(manifestsDir, new LeastRecentlyUsedCacheCleanup(new SingleDepthFilesFinder(FILE_TREE_DEPTH_TO_TRACK_AND_CLEANUP), fileAccessTimeJournal, removeUnusedEntriesAfterDays))
+                .add(new UnreferencedBlobsCleanup(manifestsDir, blobsDir, entryFormat))
+                .build()))
+            .withDisplayName("Build cache")
+            .withLockOptions(mode(OnDemand))
+            .withCrossVersionCache(CacheBuilder.LockTarget.DefaultTarget)
+            .open();
+        BuildCacheTempFileStore tempFileStore = new DefaultBuildCacheTempFileStore(target);
+        FileAccessTracker fileAccessTracker = new SingleDepthFileAccessTracker(fileAccessTimeJournal, manifestsDir, FILE_TREE_DEPTH_TO_TRACK_AND_CLEANUP);
+
+        return new ContentAddressedBuildCacheService(manifestStore, new ContentAddressedBlobStore(blobsDir), entryFormat, persistentCache, tempFileStore, fileAccessTracker, FAILED_READ_SUFFIX);
+    }
+
+    /**
+     * Keeps the cleanup of the plain directory cache away from the directory of the deduplicating cache, which shares the same base directory.
+     */
+    private static class SkipContentAddressedCacheFilesFinder implements FilesFinder {
+        private final FilesFinder delegate;
+
+        SkipContentAddressedCacheFilesFinder(FilesFinder delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public Iterable<File> find(File baseDir, FileFilter filter) {
+            return delegate.find(baseDir, file -> filter.accept(file) && !(file.getName().equals(CONTENT_ADDRESSED_DIR) && file.getParentFile().equals(baseDir)));
+        }
+    }
+
     private static void checkDirectory(File directory) {
         if (directory.exists()) {
             if (!directory.isDirectory()) {
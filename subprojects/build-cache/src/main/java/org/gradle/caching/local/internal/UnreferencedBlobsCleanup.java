@@ -0,0 +1,93 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.caching.local.internal;
+
+import org.apache.commons.io.FileUtils;
+import org.gradle.cache.CleanableStore;
+import org.gradle.cache.CleanupAction;
+import org.gradle.cache.CleanupProgressMonitor;
+import org.gradle.caching.internal.packaging.impl.ContentAddressedEntryFormat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Deletes the blobs of a {@link ContentAddressedBuildCacheService} that are not referenced by any manifest anymore.
+ *
+ * <p>Runs after the unused manifests have been deleted, so a blob is kept as long as any entry using it is kept.
+ * Manifests that cannot be read are deleted as well, as the entry cannot be loaded anymore.</p>
+ */
+public class UnreferencedBlobsCleanup implements CleanupAction {
+    private static final Logger LOGGER = LoggerFactory.getLogger(UnreferencedBlobsCleanup.class);
+
+    private final File manifestsDir;
+    private final File blobsDir;
+    private final ContentAddressedEntryFormat entryFormat;
+
+    public UnreferencedBlobsCleanup(File manifestsDir, File blobsDir, ContentAddressedEntryFormat entryFormat) {
+        this.manifestsDir = manifestsDir;
+        this.blobsDir = blobsDir;
+        this.entryFormat = entryFormat;
+    }
+
+    @Override
+    public void clean(CleanableStore cleanableStore, CleanupProgressMonitor progressMonitor) {
+        Set<String> referencedBlobs = new HashSet<>();
+        for (File manifest : listFiles(manifestsDir)) {
+            try (InputStream input = new FileInputStream(manifest)) {
+                entryFormat.visitBlobs(input, referencedBlobs::add);
+            } catch (IOException e) {
+                LOGGER.debug("{} deleting unreadable manifest {}.", cleanableStore.getDisplayName(), manifest, e);
+                FileUtils.deleteQuietly(manifest);
+            }
+        }
+
+        int blobsDeleted = 0;
+        for (File blobDir : listFiles(blobsDir)) {
+            if (!blobDir.isDirectory()) {
+                // A leftover temporary file from an interrupted store
+                FileUtils.deleteQuietly(blobDir);
+                continue;
+            }
+            for (File blob : listFiles(blobDir)) {
+                if (referencedBlobs.contains(blob.getName())) {
+                    progressMonitor.incrementSkipped();
+                } else {
+                    progressMonitor.incrementDeleted();
+                    if (FileUtils.deleteQuietly(blob)) {
+                        blobsDeleted++;
+                    }
+                }
+            }
+            // Only succeeds when the directory is empty
+            //noinspection ResultOfMethodCallIgnored
+            blobDir.delete();
+        }
+        LOGGER.debug("{} cleanup deleted {} unreferenced blobs.", cleanableStore.getDisplayName(), blobsDeleted);
+    }
+
+    private static File[] listFiles(File dir) {
+        File[] files = dir.listFiles();
+        return files == null ? new File[0] : files;
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.caching.internal.controller
+
+import org.gradle.test.fixtures.concurrent.ConcurrentSpec
+
+import java.util.concurrent.Executor
+
+class BackgroundBuildCacheUploaderTest extends ConcurrentSpec {
+
+    def "runs uploads in the background"() {
+        def pending = []
+        def uploader = new BackgroundBuildCacheUploader({ pending << it } as Executor, 2)
+        def uploaded = []
+
+        when:
+        uploader.upload { uploaded << "a" }
+        uploader.upload { uploaded << "b" }
+
+        then:
+        uploaded.empty
+        pending.size() == 2
+
+        when:
+        pending*.run()
+
+        then:
+        uploaded == ["a", "b"]
+    }
+
+    def "runs upload on calling thread when too many uploads are pending"() {
+        def pending = []
+        def uploader = new BackgroundBuildCacheUploader({ pending << it } as Executor, 1)
+        def uploaded = []
+
+        when:
+        uploader.upload { uploaded << "a" }
+        uploader.upload { uploaded << "b" }
+
+        then:
+        uploaded == ["b"]
+        pending.size() == 1
+
+        when:
+        pending*.run()
+        uploader.upload { uploaded << "c" }
+
+        then:
+        uploaded == ["b", "a"]
+        pending.size() == 2
+    }
+
+    def "runs upload on calling thread when executor rejects it"() {
+        def uploader = new BackgroundBuildCacheUploader({ throw new java.util.concurrent.RejectedExecutionException() } as Executor, 1)
+        def uploaded = []
+
+        when:
+        uploader.upload { uploaded << "a" }
+        uploader.upload { uploaded << "b" }
+
+        then:
+        uploaded == ["a", "b"]
+    }
+
+    def "drain waits for pending uploads to finish"() {
+        def uploader = new BackgroundBuildCacheUploader(executor, 2)
+
+        when:
+        async {
+            uploader.upload {
+                instant.uploadStarted
+                thread.block()
+                instant.uploadFinished
+            }
+            thread.blockUntil.uploadStarted
+            uploader.drain()
+            instant.drained
+        }
+
+        then:
+        instant.drained > instant.uploadFinished
+    }
+}
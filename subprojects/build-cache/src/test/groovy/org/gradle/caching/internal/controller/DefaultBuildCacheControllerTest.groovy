@@ -28,6 +28,8 @@ import org.gradle.test.fixtures.file.TestNameTestDirectoryProvider
 import spock.lang.Specification
 import org.junit.Rule
 
+import java.util.concurrent.Executor
+
 class DefaultBuildCacheControllerTest extends Specification {
 
     def key = Mock(BuildCacheKey) {
@@ -83,7 +85,7 @@ class DefaultBuildCacheControllerTest extends Specification {
 
     interface Local extends BuildCacheService, LocalBuildCacheService {}
 
-    BuildCacheController getController(boolean disableRemoteOnError = true) {
+    BuildCacheController getController(boolean disableRemoteOnError = true, Executor uploadExecutor = null) {
         new DefaultBuildCacheController(
             new BuildCacheServicesConfiguration(
                 local,
@@ -95,7 +97,9 @@ class DefaultBuildCacheControllerTest extends Specification {
             tmpDir.file("dir"),
             false,
             false,
-            disableRemoteOnError
+            disableRemoteOnError,
+            uploadExecutor,
+            1
         )
     }
 
@@ -283,4 +287,57 @@ class DefaultBuildCacheControllerTest extends Specification {
         1 * local.close()
         1 * remote.close()
     }
+
+    def "uploads entry in the background after storing it locally"() {
+        given:
+        def pending = []
+        def controller = getController(true, { pending << it } as Executor)
+
+        when:
+        controller.store(storeCommand)
+
+        then:
+        0 * remote.store(key, _)
+        1 * local.storeLocally(key, _) >> { BuildCacheKey key, File file -> file.delete() }
+        pending.size() == 1
+        tmpDir.file("uploading-file").exists()
+
+        when:
+        pending*.run()
+
+        then:
+        1 * remote.store(key, _) >> { BuildCacheKey key, BuildCacheEntryWriter writer -> writer.writeTo(new ByteArrayOutputStream()) }
+        0 * local.storeLocally(key, _)
+        !tmpDir.file("uploading-file").exists()
+    }
+
+    def "suppresses failure to upload entry in the background"() {
+        given:
+        def pending = []
+        def controller = getController(true, { pending << it } as Executor)
+        controller.store(storeCommand)
+
+        when:
+        pending*.run()
+
+        then:
+        1 * remote.store(key, _) >> { throw new RuntimeException() }
+        noExceptionThrown()
+        !tmpDir.file("uploading-file").exists()
+    }
+
+    def "does not upload entry in the background when remote push is disabled"() {
+        given:
+        remotePush = false
+        def pending = []
+        def controller = getController(true, { pending << it } as Executor)
+
+        when:
+        controller.store(storeCommand)
+
+        then:
+        pending.empty
+        0 * remote.store(key, _)
+        1 * local.storeLocally(key, _)
+    }
 }
@@ -0,0 +1,168 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.caching.local.internal
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream
+import org.apache.commons.io.IOUtils
+import org.gradle.api.UncheckedIOException
+import org.gradle.cache.CleanableStore
+import org.gradle.cache.CleanupProgressMonitor
+import org.gradle.cache.PersistentCache
+import org.gradle.caching.BuildCacheEntryReader
+import org.gradle.caching.BuildCacheEntryWriter
+import org.gradle.caching.BuildCacheKey
+import org.gradle.caching.internal.packaging.impl.CompressingBuildCacheEntryPacker
+import org.gradle.caching.internal.packaging.impl.ContentAddressedEntryFormat
+import org.gradle.internal.file.FileAccessTracker
+import org.gradle.internal.resource.local.DefaultPathKeyFileStore
+import org.gradle.test.fixtures.file.CleanupTestDirectory
+import org.gradle.test.fixtures.file.TestNameTestDirectoryProvider
+import org.gradle.util.TestUtil
+import org.gradle.util.UsesNativeServices
+import org.junit.Rule
+import spock.lang.Specification
+
+import java.util.zip.GZIPOutputStream
+
+@UsesNativeServices
+@CleanupTestDirectory
+class ContentAddressedBuildCacheServiceTest extends Specification {
+    @Rule TestNameTestDirectoryProvider temporaryFolder = new TestNameTestDirectoryProvider(getClass())
+    def cacheDir = temporaryFolder.createDir("cache")
+    def manifestsDir = cacheDir.file("manifests")
+    def blobsDir = cacheDir.file("blobs")
+    def manifestStore = new DefaultPathKeyFileStore(TestUtil.checksumService, manifestsDir)
+    def blobStore = new ContentAddressedBlobStore(blobsDir)
+    def entryFormat = new ContentAddressedEntryFormat(16)
+    def persistentCache = Mock(PersistentCache) {
+        getBaseDir() >> cacheDir
+        withFileLock(_) >> { Runnable r -> r.run() }
+    }
+    def tempFileStore = new DefaultBuildCacheTempFileStore(cacheDir)
+    def fileAccessTracker = Mock(FileAccessTracker)
+    def service = new ContentAddressedBuildCacheService(manifestStore, blobStore, entryFormat, persistentCache, tempFileStore, fileAccessTracker, ".failed")
+    def sharedContent = "shared content " * 100
+
+    def "stores identical files of different entries only once"() {
+        when:
+        service.store(key("1234abcd"), entryWriter(["tree-out/shared.txt": sharedContent, "tree-out/own.txt": "own content of the first entry"]))
+        service.store(key("5678abcd"), entryWriter(["tree-out/shared.txt": sharedContent, "tree-out/own.txt": "own content of the second entry"]))
+
+        then:
+        manifestsDir.list() as Set == ["1234abcd", "5678abcd"] as Set
+        blobs().size() == 3
+        2 * fileAccessTracker.markAccessed(_)
+    }
+
+    def "assembles stored entry when loading"() {
+        def contents = ["tree-out/shared.txt": sharedContent, "tree-out/small.txt": "small", "tree-out/empty.txt": ""]
+        service.store(key("1234abcd"), entryWriter(contents))
+        Map<String, String> loadedContents = null
+
+        when:
+        def loaded = service.load(key("1234abcd"), { InputStream input -> loadedContents = readEntry(input) } as BuildCacheEntryReader)
+
+        then:
+        loaded
+        loadedContents == ["METADATA": "metadata"] + contents
+        1 * fileAccessTracker.markAccessed(manifestsDir.file("1234abcd"))
+    }
+
+    def "does not load missing entry"() {
+        expect:
+        !service.load(key("1234abcd"), Mock(BuildCacheEntryReader))
+    }
+
+    def "moves manifest out of the way when its blobs are missing"() {
+        service.store(key("1234abcd"), entryWriter(["tree-out/shared.txt": sharedContent]))
+        blobs()*.delete()
+
+        when:
+        service.load(key("1234abcd"), Mock(BuildCacheEntryReader))
+
+        then:
+        def e = thrown(UncheckedIOException)
+        e.cause.message.contains("is missing from the build cache")
+        manifestsDir.list() as List == ["1234abcd.failed"]
+    }
+
+    def "cleanup removes blobs that are not referenced by any manifest"() {
+        service.store(key("1234abcd"), entryWriter(["tree-out/shared.txt": sharedContent, "tree-out/own.txt": "own content of the first entry"]))
+        service.store(key("5678abcd"), entryWriter(["tree-out/shared.txt": sharedContent, "tree-out/own.txt": "own content of the second entry"]))
+        def cleanableStore = Stub(CleanableStore) {
+            getBaseDir() >> cacheDir
+        }
+
+        when:
+        manifestsDir.file("1234abcd").delete()
+        new UnreferencedBlobsCleanup(manifestsDir, blobsDir, entryFormat).clean(cleanableStore, Stub(CleanupProgressMonitor))
+
+        then:
+        blobs().size() == 2
+
+        when:
+        def loaded = service.load(key("5678abcd"), { InputStream input -> readEntry(input) } as BuildCacheEntryReader)
+
+        then:
+        loaded
+    }
+
+    private List<File> blobs() {
+        blobsDir.listFiles().collectMany { it.listFiles() as List }
+    }
+
+    private BuildCacheKey key(String hashCode) {
+        Stub(BuildCacheKey) {
+            getHashCode() >> hashCode
+        }
+    }
+
+    private static BuildCacheEntryWriter entryWriter(Map<String, String> contents) {
+        new BuildCacheEntryWriter() {
+            @Override
+            void writeTo(OutputStream output) throws IOException {
+                def tarOutput = new TarArchiveOutputStream(new GZIPOutputStream(output))
+                (["METADATA": "metadata"] + contents).each { path, content ->
+                    def entry = new TarArchiveEntry(path)
+                    def bytes = content.bytes
+                    entry.size = bytes.length
+                    tarOutput.putArchiveEntry(entry)
+                    tarOutput.write(bytes)
+                    tarOutput.closeArchiveEntry()
+                }
+                tarOutput.close()
+            }
+
+            @Override
+            long getSize() {
+                return 100
+            }
+        }
+    }
+
+    private static Map<String, String> readEntry(InputStream input) {
+        def tarInput = new TarArchiveInputStream(CompressingBuildCacheEntryPacker.decompress(input))
+        def contents = [:]
+        TarArchiveEntry entry
+        while ((entry = tarInput.nextTarEntry) != null) {
+            contents[entry.name] = IOUtils.toString(tarInput, "UTF-8")
+        }
+        return contents
+    }
+}
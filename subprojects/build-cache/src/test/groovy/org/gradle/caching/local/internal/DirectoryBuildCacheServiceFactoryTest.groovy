@@ -58,6 +58,7 @@ class DirectoryBuildCacheServiceFactoryTest extends Specification {
         service instanceof DirectoryBuildCacheService
         1 * config.getDirectory() >> null
         1 * config.getRemoveUnusedEntriesAfterDays() >> 10
+        1 * config.isDeduplicateFiles() >> false
         1 * cacheScopeMapping.getBaseDirectory(null, "build-cache-1", VersionStrategy.SharedCache) >> cacheDir
         1 * fileStoreFactory.createFileStore(cacheDir) >> Mock(PathKeyFileStore)
         1 * cacheRepository.cache(cacheDir) >> cacheBuilder
@@ -74,6 +75,7 @@ class DirectoryBuildCacheServiceFactoryTest extends Specification {
         service instanceof DirectoryBuildCacheService
         1 * config.getDirectory() >> cacheDir
         1 * config.getRemoveUnusedEntriesAfterDays() >> 10
+        1 * config.isDeduplicateFiles() >> false
         1 * resolver.resolve(cacheDir) >> cacheDir
         1 * fileStoreFactory.createFileStore(cacheDir) >> Mock(PathKeyFileStore)
         1 * cacheRepository.cache(cacheDir) >> cacheBuilder
@@ -81,6 +83,25 @@ class DirectoryBuildCacheServiceFactoryTest extends Specification {
         0 * _
     }
 
+    def "keeps deduplicated entries in a separate directory"() {
+        def cacheDir = temporaryFolder.file("cache-dir")
+        def contentAddressedDir = cacheDir.file("content-addressed-1")
+
+        when:
+        def service = factory.createBuildCacheService(config, buildCacheDescriber)
+        then:
+        service instanceof ContentAddressedBuildCacheService
+        contentAddressedDir.directory
+        1 * config.getDirectory() >> cacheDir
+        1 * config.getRemoveUnusedEntriesAfterDays() >> 10
+        1 * config.isDeduplicateFiles() >> true
+        1 * resolver.resolve(cacheDir) >> cacheDir
+        1 * fileStoreFactory.createFileStore(contentAddressedDir.file("manifests")) >> Mock(PathKeyFileStore)
+        1 * cacheRepository.cache(contentAddressedDir) >> cacheBuilder
+        1 * cleanupActionFactory.create(_) >> Mock(CleanupAction)
+        0 * _
+    }
+
     private class NoopBuildCacheDescriber implements BuildCacheServiceFactory.Describer {
 
         @Override
@@ -0,0 +1,43 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.caching.configuration;
+
+import org.gradle.api.Incubating;
+
+/**
+ * Enumeration of the compression formats that can be used for new build cache entries.
+ *
+ * <p>Entries are always loaded using the format they were stored with, regardless of the configured compression.</p>
+ *
+ * @see BuildCacheConfiguration#setCompression(BuildCacheCompression)
+ *
+ * @since 7.0
+ */
+@Incubating
+public enum BuildCacheCompression {
+    /**
+     * Compress entries using gzip. Entries can be loaded by all Gradle versions.
+     */
+    GZIP,
+
+    /**
+     * Compress entries using LZ4. Packing and unpacking are considerably faster than with gzip, at the cost of larger entries.
+     *
+     * <p>Entries stored with this format cannot be loaded by Gradle versions that do not support it.</p>
+     */
+    LZ4
+}
@@ -17,6 +17,7 @@
 package org.gradle.caching.configuration;
 
 import org.gradle.api.Action;
+import org.gradle.api.Incubating;
 import org.gradle.caching.BuildCacheServiceFactory;
 import org.gradle.caching.local.DirectoryBuildCache;
 import org.gradle.internal.HasInternalProtocol;
@@ -121,4 +122,24 @@ public interface BuildCacheConfiguration extends CompatibilitySupportForBuildCac
      * @throws IllegalStateException If no remote cache has been assigned yet
      */
     void remote(Action<? super BuildCache> configuration);
+
+    /**
+     * Returns the compression used when storing new entries in the build cache. Defaults to {@link BuildCacheCompression#GZIP}.
+     *
+     * @since 7.0
+     */
+    @Incubating
+    BuildCacheCompression getCompression();
+
+    /**
+     * Sets the compression used when storing new entries in the build cache.
+     *
+     * <p>Entries are always loaded using the format they were stored with, so changing the compression does not invalidate existing entries.</p>
+     *
+     * @param compression the compression to use for new entries.
+     *
+     * @since 7.0
+     */
+    @Incubating
+    void setCompression(BuildCacheCompression compression);
 }
@@ -16,6 +16,7 @@
 
 package org.gradle.caching.local;
 
+import org.gradle.api.Incubating;
 import org.gradle.caching.configuration.AbstractBuildCache;
 
 import javax.annotation.Nullable;
@@ -29,6 +30,7 @@
 public class DirectoryBuildCache extends AbstractBuildCache {
     private Object directory;
     private int removeUnusedEntriesAfterDays = 7;
+    private boolean deduplicateFiles;
 
     /**
      * Returns the directory to use to store the build cache.
@@ -69,4 +71,27 @@ public void setRemoveUnusedEntriesAfterDays(int removeUnusedEntriesAfterDays) {
         }
         this.removeUnusedEntriesAfterDays = removeUnusedEntriesAfterDays;
     }
+
+    /**
+     * Returns whether files that are identical in different cache entries are only stored once. Defaults to {@code false}.
+     *
+     * @since 7.0
+     */
+    @Incubating
+    public boolean isDeduplicateFiles() {
+        return deduplicateFiles;
+    }
+
+    /**
+     * Sets whether files that are identical in different cache entries are only stored once.
+     *
+     * <p>With deduplication, the cache needs less disk space when many tasks produce the same files, at the cost of splitting up entries when storing them,
+     * and reassembling them when loading them. Entries stored with and without deduplication are not shared.</p>
+     *
+     * @since 7.0
+     */
+    @Incubating
+    public void setDeduplicateFiles(boolean deduplicateFiles) {
+        this.deduplicateFiles = deduplicateFiles;
+    }
 }
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.execution.taskgraph
+
+import org.gradle.execution.plan.DefaultExecutionPlan
+import org.gradle.integtests.fixtures.AbstractIntegrationSpec
+
+class CriticalPathSchedulingIntegrationTest extends AbstractIntegrationSpec {
+
+    def setup() {
+        settingsFile << "include 'a', 'b'"
+        buildFile << """
+            subprojects {
+                apply plugin: 'java-library'
+            }
+            project(':b') {
+                dependencies {
+                    implementation project(':a')
+                }
+            }
+        """
+        file("a/src/main/java/A.java") << "public class A {}"
+        file("b/src/main/java/B.java") << "public class B extends A {}"
+    }
+
+    def "cleans before building when scheduling by critical path"() {
+        expect:
+        // The durations of the tasks are only known from the second build on
+        3.times {
+            run "clean", "build", "--parallel", "-D${DefaultExecutionPlan.CRITICAL_PATH_SCHEDULING_PROPERTY}=true"
+            result.assertTaskOrder(":a:clean", ":a:compileJava")
+            result.assertTaskOrder(":b:clean", ":b:compileJava")
+            file("a/build/classes/java/main/A.class").assertIsFile()
+            file("b/build/classes/java/main/B.class").assertIsFile()
+            file("a/build/libs/a.jar").assertIsFile()
+            file("b/build/libs/b.jar").assertIsFile()
+        }
+    }
+
+    def "destroyers keep their position when scheduling by critical path"() {
+        buildFile << """
+            task produce {
+                def output = file("build/produced.txt")
+                outputs.file output
+                doLast {
+                    sleep 100
+                    output.text = "produced"
+                }
+            }
+            task destroy {
+                destroyables.register file("build/produced.txt")
+                doLast {
+                    delete "build/produced.txt"
+                }
+            }
+        """
+
+        expect:
+        3.times {
+            run "destroy", "produce", "--parallel", "-D${DefaultExecutionPlan.CRITICAL_PATH_SCHEDULING_PROPERTY}=true"
+            result.assertTaskOrder(":destroy", ":produce")
+            assert file("build/produced.txt").text == "produced"
+        }
+    }
+}
@@ -0,0 +1,284 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.execution.plan;
+
+import org.gradle.api.Action;
+import org.gradle.api.internal.project.ProjectInternal;
+import org.gradle.internal.file.FileMetadata;
+import org.gradle.internal.file.Stat;
+import org.gradle.internal.resources.ResourceLock;
+import org.gradle.internal.resources.ResourceLockState;
+import org.gradle.internal.snapshot.CaseSensitivity;
+import org.gradle.internal.work.WorkerLeaseRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures scheduling the nodes of large execution plans of no-op nodes.
+ *
+ * <p>The workers are simulated on a single thread: the benchmark selects nodes until all workers are busy
+ * or no node is ready, and then finishes the node which has been running the longest.</p>
+ */
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+public class ExecutionPlanBenchmark {
+    private static final int LAYER_WIDTH = 500;
+    private static final int CHAIN_LENGTH = 1000;
+
+    @Param("50000")
+    int nodeCount;
+
+    @Param("32")
+    int workers;
+
+    @Param({"independent", "layered", "chains"})
+    String shape;
+
+    private DefaultExecutionPlan executionPlan;
+    private final WorkerLeaseRegistry.WorkerLease workerLease = new NoOpWorkerLease();
+    private final ResourceLockState resourceLockState = new NoOpResourceLockState();
+
+    @Setup(Level.Invocation)
+    public void createPlan() {
+        List<NoOpNode> nodes = createNodes();
+        executionPlan = new DefaultExecutionPlan(
+            "benchmark",
+            // Only needed for task nodes
+            null,
+            new TaskDependencyResolver(Collections.emptyList()),
+            node -> false,
+            new ExecutionNodeAccessHierarchy(CaseSensitivity.CASE_SENSITIVE, new UnsupportedStat()),
+            new ExecutionNodeAccessHierarchy(CaseSensitivity.CASE_SENSITIVE, new UnsupportedStat())
+        );
+        executionPlan.addNodes(nodes);
+        executionPlan.determineExecutionPlan();
+    }
+
+    @Benchmark
+    public int execute() {
+        Deque<Node> running = new ArrayDeque<>();
+        int executed = 0;
+        while (executionPlan.hasNodesRemaining()) {
+            while (running.size() < workers) {
+                Node node = executionPlan.selectNext(workerLease, resourceLockState);
+                if (node == null) {
+                    break;
+                }
+                running.add(node);
+            }
+            Node finished = running.poll();
+            if (finished == null) {
+                throw new IllegalStateException("No node could be selected, but there are nodes remaining");
+            }
+            executionPlan.finishedExecuting(finished);
+            executed++;
+        }
+        return executed;
+    }
+
+    private List<NoOpNode> createNodes() {
+        Random random = new Random(1234);
+        List<NoOpNode> nodes = new ArrayList<>(nodeCount);
+        for (int id = 0; id < nodeCount; id++) {
+            NoOpNode node = new NoOpNode(id);
+            switch (shape) {
+                case "independent":
+                    break;
+                case "layered":
+                    // Each node depends on some nodes of the previous layer
+                    int layerStart = id - id % LAYER_WIDTH;
+                    if (layerStart > 0) {
+                        for (int i = 0; i < 3; i++) {
+                            node.addDependencySuccessor(nodes.get(layerStart - LAYER_WIDTH + random.nextInt(LAYER_WIDTH)));
+                        }
+                    }
+                    break;
+                case "chains":
+                    if (id % CHAIN_LENGTH != 0) {
+                        node.addDependencySuccessor(nodes.get(id - 1));
+                    }
+                    break;
+                default:
+                    throw new IllegalArgumentException(shape);
+            }
+            node.require();
+            node.dependenciesProcessed();
+            nodes.add(node);
+        }
+        return nodes;
+    }
+
+    private static class NoOpNode extends Node {
+        private final int id;
+
+        public NoOpNode(int id) {
+            this.id = id;
+        }
+
+        @Nullable
+        @Override
+        public Throwable getNodeFailure() {
+            return null;
+        }
+
+        @Override
+        public void rethrowNodeFailure() {
+        }
+
+        @Override
+        public void prepareForExecution() {
+        }
+
+        @Override
+        public void resolveDependencies(TaskDependencyResolver dependencyResolver, Action<Node> processHardSuccessor) {
+        }
+
+        @Override
+        public Set<Node> getFinalizers() {
+            return Collections.emptySet();
+        }
+
+        @Override
+        public void resolveMutations() {
+            getMutationInfo().resolved = true;
+        }
+
+        @Override
+        public boolean isPublicNode() {
+            return true;
+        }
+
+        @Override
+        public boolean requiresMonitoring() {
+            return false;
+        }
+
+        @Nullable
+        @Override
+        public ResourceLock getProjectToLock() {
+            return null;
+        }
+
+        @Nullable
+        @Override
+        public ProjectInternal getOwningProject() {
+            return null;
+        }
+
+        @Override
+        public List<? extends ResourceLock> getResourcesToLock() {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public int compareTo(Node other) {
+            return Integer.compare(id, ((NoOpNode) other).id);
+        }
+
+        @Override
+        public String toString() {
+            return "node " + id;
+        }
+    }
+
+    private static class NoOpWorkerLease implements WorkerLeaseRegistry.WorkerLease {
+        @Override
+        public WorkerLeaseRegistry.WorkerLease createChild() {
+            return this;
+        }
+
+        @Override
+        public WorkerLeaseRegistry.WorkerLeaseCompletion startChild() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean isLocked() {
+            return false;
+        }
+
+        @Override
+        public boolean isLockedByCurrentThread() {
+            return false;
+        }
+
+        @Override
+        public boolean tryLock() {
+            return true;
+        }
+
+        @Override
+        public void unlock() {
+        }
+
+        @Override
+        public String getDisplayName() {
+            return "worker lease";
+        }
+    }
+
+    private static class NoOpResourceLockState implements ResourceLockState {
+        @Override
+        public void registerLocked(ResourceLock resourceLock) {
+        }
+
+        @Override
+        public void registerUnlocked(ResourceLock resourceLock) {
+        }
+
+        @Override
+        public void releaseLocks() {
+        }
+    }
+
+    private static class UnsupportedStat implements Stat {
+        @Override
+        public int getUnixMode(File f) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public FileMetadata stat(File f) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
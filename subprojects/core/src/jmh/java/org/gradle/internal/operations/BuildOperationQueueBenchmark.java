@@ -0,0 +1,110 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.internal.operations;
+
+import org.gradle.internal.concurrent.DefaultExecutorFactory;
+import org.gradle.internal.concurrent.DefaultParallelismConfiguration;
+import org.gradle.internal.concurrent.ManagedExecutor;
+import org.gradle.internal.resources.DefaultResourceLockCoordinationService;
+import org.gradle.internal.work.DefaultWorkerLeaseService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures queuing many small build operations and waiting for them to complete.
+ */
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+public class BuildOperationQueueBenchmark {
+
+    @Param({"default", "work-stealing"})
+    String queue;
+
+    @Param("100000")
+    int operations;
+
+    @Param("16")
+    int maxWorkers;
+
+    private DefaultWorkerLeaseService workerLeaseService;
+    private ManagedExecutor executor;
+    private BuildOperationQueueFactory queueFactory;
+
+    private final SmallOperation operation = new SmallOperation();
+    private final BuildOperationQueue.QueueWorker<SmallOperation> worker = new BuildOperationQueue.QueueWorker<SmallOperation>() {
+        @Override
+        public void execute(SmallOperation buildOperation) {
+            buildOperation.run(null);
+        }
+
+        @Override
+        public String getDisplayName() {
+            return "small operations";
+        }
+    };
+
+    @Setup
+    public void setup() {
+        workerLeaseService = new DefaultWorkerLeaseService(new DefaultResourceLockCoordinationService(), new DefaultParallelismConfiguration(true, maxWorkers));
+        executor = new DefaultExecutorFactory().create("Build operations", maxWorkers);
+        queueFactory = new DefaultBuildOperationQueueFactory(workerLeaseService, queue.equals("work-stealing"));
+    }
+
+    @TearDown
+    public void tearDown() {
+        executor.stop();
+        workerLeaseService.stop();
+    }
+
+    @Benchmark
+    public void runSmallOperations() {
+        BuildOperationQueue<SmallOperation> operationQueue = queueFactory.create(executor, false, worker);
+        for (int i = 0; i < operations; i++) {
+            operationQueue.add(operation);
+        }
+        operationQueue.waitForCompletion();
+    }
+
+    private static class SmallOperation implements RunnableBuildOperation {
+        @Override
+        public void run(BuildOperationContext context) {
+            Blackhole.consumeCPU(100);
+        }
+
+        @Override
+        public BuildOperationDescriptor.Builder description() {
+            return BuildOperationDescriptor.displayName("Small operation");
+        }
+    }
+}
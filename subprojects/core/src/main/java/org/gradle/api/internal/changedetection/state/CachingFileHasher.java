@@ -48,12 +48,13 @@ public CachingFileHasher(
         String cacheName,
         FileSystem fileSystem,
         int inMemorySize,
+        int shards,
         FileHasherStatistics.Collector statisticsCollector
     ) {
         this.delegate = delegate;
         this.fileSystem = fileSystem;
         this.cache = store.createCache(
-            PersistentIndexedCacheParameters.of(cacheName, new InterningStringSerializer(stringInterner), new FileInfoSerializer()),
+            PersistentIndexedCacheParameters.of(cacheName, new InterningStringSerializer(stringInterner), new FileInfoSerializer()).withShards(shards, String::hashCode),
             inMemorySize,
             true);
         this.stringInterner = stringInterner;
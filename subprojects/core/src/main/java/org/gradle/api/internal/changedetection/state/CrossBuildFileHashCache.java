@@ -45,8 +45,10 @@ public CrossBuildFileHashCache(@Nullable File cacheDir, CacheRepository reposito
     }
 
     public <K, V> PersistentIndexedCache<K, V> createCache(PersistentIndexedCacheParameters<K, V> parameters, int maxEntriesToKeepInMemory, boolean cacheInMemoryForShortLivedProcesses) {
+        // Each shard gets its own in-memory cache, so split the entries between them
+        int maxEntriesToKeepInMemoryPerShard = Math.max(1, maxEntriesToKeepInMemory / parameters.getShards());
         return cache.createCache(parameters
-            .withCacheDecorator(inMemoryCacheDecoratorFactory.decorator(maxEntriesToKeepInMemory, cacheInMemoryForShortLivedProcesses))
+            .withCacheDecorator(inMemoryCacheDecoratorFactory.decorator(maxEntriesToKeepInMemoryPerShard, cacheInMemoryForShortLivedProcesses))
         );
     }
 
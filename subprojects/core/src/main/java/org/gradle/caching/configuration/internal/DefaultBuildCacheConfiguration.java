@@ -22,6 +22,7 @@
 import org.gradle.api.GradleException;
 import org.gradle.caching.BuildCacheServiceFactory;
 import org.gradle.caching.configuration.BuildCache;
+import org.gradle.caching.configuration.BuildCacheCompression;
 import org.gradle.caching.configuration.BuildCacheConfiguration;
 import org.gradle.caching.local.DirectoryBuildCache;
 import org.gradle.internal.Actions;
@@ -42,6 +43,7 @@ public class DefaultBuildCacheConfiguration implements BuildCacheConfigurationIn
 
     private DirectoryBuildCache local;
     private BuildCache remote;
+    private BuildCacheCompression compression = BuildCacheCompression.GZIP;
 
     private final Set<BuildCacheServiceRegistration> registrations;
 
@@ -132,6 +134,16 @@ public void remote(Action<? super BuildCache> configuration) {
         configuration.execute(remote);
     }
 
+    @Override
+    public BuildCacheCompression getCompression() {
+        return compression;
+    }
+
+    @Override
+    public void setCompression(BuildCacheCompression compression) {
+        this.compression = Preconditions.checkNotNull(compression, "compression cannot be null.");
+    }
+
     private static DirectoryBuildCache createLocalCacheConfiguration(Instantiator instantiator, Set<BuildCacheServiceRegistration> registrations) {
         DirectoryBuildCache local = createBuildCacheConfiguration(instantiator, DirectoryBuildCache.class, registrations);
         // By default, we push to the local cache.
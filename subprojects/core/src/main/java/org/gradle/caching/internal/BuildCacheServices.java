@@ -20,6 +20,7 @@
 import org.gradle.api.internal.GradleInternal;
 import org.gradle.api.internal.cache.StringInterner;
 import org.gradle.api.logging.configuration.ShowStacktrace;
+import org.gradle.caching.configuration.BuildCacheCompression;
 import org.gradle.caching.configuration.internal.BuildCacheConfigurationInternal;
 import org.gradle.caching.configuration.internal.BuildCacheServiceRegistration;
 import org.gradle.caching.configuration.internal.DefaultBuildCacheConfiguration;
@@ -30,16 +31,21 @@
 import org.gradle.caching.internal.controller.impl.DefaultBuildCacheCommandFactory;
 import org.gradle.caching.internal.origin.OriginMetadataFactory;
 import org.gradle.caching.internal.packaging.BuildCacheEntryPacker;
+import org.gradle.caching.internal.packaging.impl.BuildCacheEntryCompression;
+import org.gradle.caching.internal.packaging.impl.CompressingBuildCacheEntryPacker;
 import org.gradle.caching.internal.packaging.impl.DefaultTarPackerFileSystemSupport;
 import org.gradle.caching.internal.packaging.impl.FilePermissionAccess;
-import org.gradle.caching.internal.packaging.impl.GZipBuildCacheEntryPacker;
 import org.gradle.caching.internal.packaging.impl.TarBuildCacheEntryPacker;
+import org.gradle.caching.internal.packaging.impl.TarPackerFileIoExecutor;
 import org.gradle.caching.internal.packaging.impl.TarPackerFileSystemSupport;
 import org.gradle.caching.internal.services.BuildCacheControllerFactory;
+import org.gradle.caching.internal.services.BuildCacheUploadExecutor;
 import org.gradle.caching.local.DirectoryBuildCache;
 import org.gradle.caching.local.internal.DirectoryBuildCacheFileStoreFactory;
 import org.gradle.caching.local.internal.DirectoryBuildCacheServiceFactory;
+import org.gradle.concurrent.ParallelismConfiguration;
 import org.gradle.internal.SystemProperties;
+import org.gradle.internal.concurrent.ExecutorFactory;
 import org.gradle.internal.file.Deleter;
 import org.gradle.internal.file.FileException;
 import org.gradle.internal.hash.ChecksumService;
@@ -68,6 +74,19 @@
  */
 public final class BuildCacheServices extends AbstractPluginServiceRegistry {
 
+    @Override
+    public void registerBuildSessionServices(ServiceRegistration registration) {
+        registration.addProvider(new Object() {
+            TarPackerFileIoExecutor createTarPackerFileIoExecutor(ExecutorFactory executorFactory, ParallelismConfiguration parallelismConfiguration) {
+                return new TarPackerFileIoExecutor(executorFactory, parallelismConfiguration);
+            }
+
+            BuildCacheUploadExecutor createBuildCacheUploadExecutor(ExecutorFactory executorFactory, ParallelismConfiguration parallelismConfiguration) {
+                return new BuildCacheUploadExecutor(executorFactory, parallelismConfiguration);
+            }
+        });
+    }
+
     @Override
     public void registerBuildTreeServices(ServiceRegistration registration) {
         registration.addProvider(new Object() {
@@ -118,10 +137,25 @@ BuildCacheEntryPacker createResultPacker(
                 TarPackerFileSystemSupport fileSystemSupport,
                 FileSystem fileSystem,
                 StreamHasher fileHasher,
-                StringInterner stringInterner
+                StringInterner stringInterner,
+                TarPackerFileIoExecutor fileIoExecutor,
+                GradleInternal gradle
             ) {
-                return new GZipBuildCacheEntryPacker(
-                    new TarBuildCacheEntryPacker(fileSystemSupport, new FilePermissionsAccessAdapter(fileSystem), fileHasher, stringInterner));
+                return new CompressingBuildCacheEntryPacker(
+                    new TarBuildCacheEntryPacker(fileSystemSupport, new FilePermissionsAccessAdapter(fileSystem), fileHasher, stringInterner, fileIoExecutor, fileIoExecutor.getParallelism(), fileIoExecutor.getUnpackBufferedBytes()),
+                    // The build cache is configured by the root build, and the configuration is only complete once its settings have been evaluated
+                    () -> toEntryCompression(gradle.getRoot().getServices().get(BuildCacheConfigurationInternal.class).getCompression()));
+            }
+
+            private BuildCacheEntryCompression toEntryCompression(BuildCacheCompression compression) {
+                switch (compression) {
+                    case GZIP:
+                        return BuildCacheEntryCompression.GZIP;
+                    case LZ4:
+                        return BuildCacheEntryCompression.LZ4;
+                    default:
+                        throw new IllegalArgumentException("Unsupported build cache compression: " + compression);
+                }
             }
 
             OriginMetadataFactory createOriginMetadataFactory(
@@ -155,10 +189,11 @@ BuildCacheController createBuildCacheController(
                 BuildOperationExecutor buildOperationExecutor,
                 InstantiatorFactory instantiatorFactory,
                 GradleInternal gradle,
-                RootBuildCacheControllerRef rootControllerRef
+                RootBuildCacheControllerRef rootControllerRef,
+                BuildCacheUploadExecutor uploadExecutor
             ) {
                 if (isRoot(gradle) || isGradleBuildTaskRoot(rootControllerRef)) {
-                    return doCreateBuildCacheController(serviceRegistry, buildCacheConfiguration, buildOperationExecutor, instantiatorFactory, gradle);
+                    return doCreateBuildCacheController(serviceRegistry, buildCacheConfiguration, buildOperationExecutor, instantiatorFactory, gradle, uploadExecutor);
                 } else {
                     // must be an included build or buildSrc
                     return rootControllerRef.getForNonRootBuild();
@@ -178,7 +213,7 @@ private boolean isRoot(GradleInternal gradle) {
                 return gradle.isRootBuild();
             }
 
-            private BuildCacheController doCreateBuildCacheController(ServiceRegistry serviceRegistry, BuildCacheConfigurationInternal buildCacheConfiguration, BuildOperationExecutor buildOperationExecutor, InstantiatorFactory instantiatorFactory, GradleInternal gradle) {
+            private BuildCacheController doCreateBuildCacheController(ServiceRegistry serviceRegistry, BuildCacheConfigurationInternal buildCacheConfiguration, BuildOperationExecutor buildOperationExecutor, InstantiatorFactory instantiatorFactory, GradleInternal gradle, BuildCacheUploadExecutor uploadExecutor) {
                 StartParameter startParameter = gradle.getStartParameter();
                 Path buildIdentityPath = gradle.getIdentityPath();
                 File gradleUserHomeDir = gradle.getGradleUserHomeDir();
@@ -196,7 +231,8 @@ private BuildCacheController doCreateBuildCacheController(ServiceRegistry servic
                     remoteAccessMode,
                     logStackTraces,
                     emitDebugLogging,
-                    instantiatorFactory.inject(serviceRegistry)
+                    instantiatorFactory.inject(serviceRegistry),
+                    uploadExecutor
                 );
             }
         });
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.caching.internal.packaging.impl;
+
+import org.gradle.concurrent.ParallelismConfiguration;
+import org.gradle.internal.concurrent.ExecutorFactory;
+import org.gradle.internal.concurrent.ManagedExecutor;
+import org.gradle.internal.concurrent.Stoppable;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+
+/**
+ * The pool of threads used by {@link TarBuildCacheEntryPacker} to read and write the files of build cache entries.
+ *
+ * <p>The pool is shared by all builds of a build session, and is sized by the maximum number of workers.
+ * So are the bytes which unpacked files can occupy in memory while they wait to be written by the pool.</p>
+ */
+public class TarPackerFileIoExecutor implements Executor, Stoppable {
+    private static final int UNPACK_BUFFERED_BYTES_PER_THREAD = 1024 * 1024;
+
+    private final ManagedExecutor executor;
+    private final int parallelism;
+    private final Semaphore unpackBufferedBytes;
+
+    public TarPackerFileIoExecutor(ExecutorFactory executorFactory, ParallelismConfiguration parallelismConfiguration) {
+        this.parallelism = parallelismConfiguration.getMaxWorkerCount();
+        this.executor = executorFactory.create("Build cache entry file IO", parallelism);
+        this.unpackBufferedBytes = new Semaphore(parallelism * UNPACK_BUFFERED_BYTES_PER_THREAD);
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public Semaphore getUnpackBufferedBytes() {
+        return unpackBufferedBytes;
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        executor.execute(command);
+    }
+
+    @Override
+    public void stop() {
+        executor.stop();
+    }
+}
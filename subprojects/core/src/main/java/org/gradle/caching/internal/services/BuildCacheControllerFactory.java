@@ -30,7 +30,7 @@
 import org.gradle.caching.internal.controller.service.BuildCacheServiceRole;
 import org.gradle.caching.internal.controller.service.BuildCacheServicesConfiguration;
 import org.gradle.caching.local.DirectoryBuildCache;
-import org.gradle.caching.local.internal.DirectoryBuildCacheService;
+import org.gradle.caching.local.internal.LocalBuildCacheService;
 import org.gradle.internal.Cast;
 import org.gradle.internal.operations.BuildOperationContext;
 import org.gradle.internal.operations.BuildOperationDescriptor;
@@ -51,6 +51,7 @@
 public final class BuildCacheControllerFactory {
 
     public static final String REMOTE_CONTINUE_ON_ERROR_PROPERTY = "org.gradle.unsafe.build-cache.remote-continue-on-error";
+    public static final String ASYNC_REMOTE_STORE_PROPERTY = "org.gradle.unsafe.build-cache.async-remote-store";
 
     private static final Logger LOGGER = LoggerFactory.getLogger(BuildCacheControllerFactory.class);
 
@@ -71,7 +72,8 @@ public static BuildCacheController create(
         final RemoteAccessMode remoteAccessMode,
         final boolean logStackTraces,
         final boolean emitDebugLogging,
-        final Instantiator instantiator
+        final Instantiator instantiator,
+        @Nullable final BuildCacheUploadExecutor uploadExecutor
     ) {
         return buildOperationExecutor.call(new CallableBuildOperation<BuildCacheController>() {
             @Override
@@ -92,7 +94,7 @@ public BuildCacheController call(BuildOperationContext context) {
                     LOGGER.warn("Remote build cache is disabled when running with --offline.");
                 }
 
-                DescribedBuildCacheService<DirectoryBuildCache, DirectoryBuildCacheService> localDescribedService = localEnabled
+                DescribedBuildCacheService<DirectoryBuildCache, LocalBuildCacheService> localDescribedService = localEnabled
                     ? createBuildCacheService(local, BuildCacheServiceRole.LOCAL, buildIdentityPath, buildCacheConfiguration, instantiator)
                     : null;
 
@@ -112,6 +114,7 @@ public BuildCacheController call(BuildOperationContext context) {
                     LOGGER.warn("Using the build cache is enabled, but no build caches are configured or enabled.");
                     return NoOpBuildCacheController.INSTANCE;
                 } else {
+                    boolean asyncRemoteStore = Boolean.getBoolean(ASYNC_REMOTE_STORE_PROPERTY);
                     BuildCacheServicesConfiguration config = toConfiguration(
                         localDescribedService,
                         remoteDescribedService
@@ -123,7 +126,9 @@ public BuildCacheController call(BuildOperationContext context) {
                         gradleUserHomeDir,
                         logStackTraces,
                         emitDebugLogging,
-                        !Boolean.getBoolean(REMOTE_CONTINUE_ON_ERROR_PROPERTY)
+                        !Boolean.getBoolean(REMOTE_CONTINUE_ON_ERROR_PROPERTY),
+                        asyncRemoteStore ? uploadExecutor : null,
+                        uploadExecutor == null ? 0 : uploadExecutor.getParallelism()
                     );
                 }
             }
@@ -137,7 +142,7 @@ public BuildOperationDescriptor.Builder description() {
     }
 
     private static BuildCacheServicesConfiguration toConfiguration(
-        @Nullable DescribedBuildCacheService<DirectoryBuildCache, DirectoryBuildCacheService> local,
+        @Nullable DescribedBuildCacheService<DirectoryBuildCache, LocalBuildCacheService> local,
         @Nullable DescribedBuildCacheService<BuildCache, BuildCacheService> remote
     ) {
         boolean localPush = local != null && local.config.isPush();
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.caching.internal.services;
+
+import org.gradle.concurrent.ParallelismConfiguration;
+import org.gradle.internal.concurrent.ExecutorFactory;
+import org.gradle.internal.concurrent.ManagedExecutor;
+import org.gradle.internal.concurrent.Stoppable;
+
+import java.util.concurrent.Executor;
+
+/**
+ * The pool of threads used to upload entries to the remote build cache in the background.
+ *
+ * <p>The pool is shared by all builds of a build session, and is sized by the maximum number of workers,
+ * so that uploads can keep up with the workers producing new entries.</p>
+ */
+public class BuildCacheUploadExecutor implements Executor, Stoppable {
+    private final ManagedExecutor executor;
+    private final int parallelism;
+
+    public BuildCacheUploadExecutor(ExecutorFactory executorFactory, ParallelismConfiguration parallelismConfiguration) {
+        this.parallelism = parallelismConfiguration.getMaxWorkerCount();
+        this.executor = executorFactory.create("Build cache upload", parallelism);
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        executor.execute(command);
+    }
+
+    @Override
+    public void stop() {
+        executor.stop();
+    }
+}
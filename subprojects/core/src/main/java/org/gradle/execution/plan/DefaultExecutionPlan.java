@@ -41,22 +41,25 @@
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nullable;
-import java.io.File;
 import java.io.StringWriter;
 import java.util.AbstractCollection;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 import static com.google.common.collect.Lists.newLinkedList;
 import static com.google.common.collect.Sets.newIdentityHashSet;
@@ -68,9 +71,33 @@
 public class DefaultExecutionPlan implements ExecutionPlan {
     private static final Logger LOGGER = LoggerFactory.getLogger(DefaultExecutionPlan.class);
 
+    /**
+     * When set, ready nodes are started in the order of their estimated remaining critical path, based on the durations in previous builds.
+     */
+    public static final String CRITICAL_PATH_SCHEDULING_PROPERTY = "org.gradle.execution.plan.critical-path";
+
     private final Set<Node> entryNodes = new LinkedHashSet<>();
+    // The group of entry nodes each entry node was added with, e.g. the task selectors from the command line in order
+    private final Map<Node, Integer> entryNodeGroups = new IdentityHashMap<>();
+    private int entryNodeGroupCount;
     private final NodeMapping nodeMapping = new NodeMapping();
-    private final List<Node> executionQueue = new LinkedList<>();
+    private final List<Node> executionQueue = new ArrayList<>();
+    private final Map<Node, Integer> executionQueuePositions = new IdentityHashMap<>();
+    /**
+     * The positions of the nodes in the execution queue which have not been selected yet.
+     */
+    private final BitSet queuedNodes = new BitSet();
+    /**
+     * The position of the first queued node, so the scans don't need to skip over the nodes which have already been selected.
+     */
+    private int firstQueuedNode;
+    /**
+     * The positions of the queued nodes which may be ready to execute.
+     *
+     * A node is added when it becomes ready, i.e. when its last dependency completes or when it is enforced.
+     * It is removed when it is selected, or when selecting finds that it isn't ready any more.
+     */
+    private final BitSet readyNodes = new BitSet();
     private final Set<ResourceLock> projectLocks = new HashSet<>();
     private final FailureCollector failureCollector = new FailureCollector();
     private final String displayName;
@@ -79,6 +106,12 @@ public class DefaultExecutionPlan implements ExecutionPlan {
     private final NodeValidator nodeValidator;
     private final ExecutionNodeAccessHierarchy outputHierarchy;
     private final ExecutionNodeAccessHierarchy inputHierarchy;
+    /**
+     * The durations used to prioritize the nodes on the critical path, or {@code null} if the nodes run in dependency order.
+     */
+    @Nullable
+    private final NodeDurations nodeDurations;
+    private final Map<Node, Long> executionStartTimes = new IdentityHashMap<>();
     private Spec<? super Task> filter = Specs.satisfyAll();
 
     private boolean invalidNodeRunning;
@@ -87,9 +120,16 @@ public class DefaultExecutionPlan implements ExecutionPlan {
     private final Set<Node> runningNodes = newIdentityHashSet();
     private final Set<Node> filteredNodes = newIdentityHashSet();
     private final Set<Node> producedButNotYetConsumed = newIdentityHashSet();
+    /**
+     * The output and destroyable locations of the running nodes.
+     */
+    private final NodeLocationHierarchy runningNodeMutations;
+    /**
+     * The output locations of the nodes in {@link #producedButNotYetConsumed}.
+     */
+    private final NodeLocationHierarchy notYetConsumedOutputs;
     private final Map<Pair<Node, Node>, Boolean> reachableCache = new HashMap<>();
     private final List<Node> dependenciesWhichRequireMonitoring = new ArrayList<>();
-    private boolean maybeNodesReady;
 
     private boolean buildCancelled;
 
@@ -100,6 +140,18 @@ public DefaultExecutionPlan(
         NodeValidator nodeValidator,
         ExecutionNodeAccessHierarchy outputHierarchy,
         ExecutionNodeAccessHierarchy inputHierarchy
+    ) {
+        this(displayName, taskNodeFactory, dependencyResolver, nodeValidator, outputHierarchy, inputHierarchy, null);
+    }
+
+    public DefaultExecutionPlan(
+        String displayName,
+        TaskNodeFactory taskNodeFactory,
+        TaskDependencyResolver dependencyResolver,
+        NodeValidator nodeValidator,
+        ExecutionNodeAccessHierarchy outputHierarchy,
+        ExecutionNodeAccessHierarchy inputHierarchy,
+        @Nullable NodeDurations nodeDurations
     ) {
         this.displayName = displayName;
         this.taskNodeFactory = taskNodeFactory;
@@ -107,6 +159,9 @@ public DefaultExecutionPlan(
         this.nodeValidator = nodeValidator;
         this.outputHierarchy = outputHierarchy;
         this.inputHierarchy = inputHierarchy;
+        this.nodeDurations = nodeDurations;
+        this.runningNodeMutations = new NodeLocationHierarchy(outputHierarchy.getCaseSensitivity());
+        this.notYetConsumedOutputs = new NodeLocationHierarchy(outputHierarchy.getCaseSensitivity());
     }
 
     @Override
@@ -122,11 +177,12 @@ public TaskNode getNode(Task task) {
     @Override
     public void addNodes(Collection<? extends Node> nodes) {
         Deque<Node> queue = new ArrayDeque<>(nodes);
+        int entryNodeGroup = entryNodeGroupCount++;
         for (Node node : nodes) {
             assert node.getDependenciesProcessed() || node instanceof TaskInAnotherBuild;
             assert node.isInKnownState();
             if (node.isRequired()) {
-                entryNodes.add(node);
+                addEntryNode(node, entryNodeGroup);
             }
         }
         doAddNodes(queue);
@@ -135,6 +191,7 @@ public void addNodes(Collection<? extends Node> nodes) {
     @Override
     public void addEntryTasks(Collection<? extends Task> tasks) {
         final Deque<Node> queue = new ArrayDeque<>();
+        int entryNodeGroup = entryNodeGroupCount++;
 
         for (Task task : sorted(tasks)) {
             TaskNode node = taskNodeFactory.getOrCreateNode(task);
@@ -143,13 +200,19 @@ public void addEntryTasks(Collection<? extends Task> tasks) {
             } else if (filter.isSatisfiedBy(task)) {
                 node.require();
             }
-            entryNodes.add(node);
+            addEntryNode(node, entryNodeGroup);
             queue.add(node);
         }
 
         doAddNodes(queue);
     }
 
+    private void addEntryNode(Node node, int entryNodeGroup) {
+        if (entryNodes.add(node)) {
+            entryNodeGroups.put(node, entryNodeGroup);
+        }
+    }
+
     private List<Task> sorted(Collection<? extends Task> tasks) {
         List<Task> sortedTasks = new ArrayList<>(tasks);
         Collections.sort(sortedTasks);
@@ -350,16 +413,89 @@ public NodeInVisitingSegment apply(Node node) {
                 }
             }
         }
-        executionQueue.clear();
+        clearExecutionQueue();
         dependencyResolver.clear();
         nodeMapping.removeIf(Node::requiresMonitoring);
         executionQueue.addAll(nodeMapping);
-        for (Node node : executionQueue) {
-            maybeNodesReady |= node.updateAllDependenciesComplete() && node.isReady();
+        if (nodeDurations != null) {
+            sortByCriticalPath(executionQueue, entryNodeGroups, nodeDurations);
+        }
+        queuedNodes.set(0, executionQueue.size());
+        for (int position = 0; position < executionQueue.size(); position++) {
+            Node node = executionQueue.get(position);
+            executionQueuePositions.put(node, position);
+            node.updateAllDependenciesComplete();
+            nodeMayBeReady(node);
         }
         this.dependenciesWhichRequireMonitoring.addAll(dependenciesWhichRequireMonitoring);
     }
 
+    /**
+     * Sorts the nodes by their estimated remaining critical path, i.e. the longest duration of the chain of nodes which can only start after the node.
+     *
+     * Nodes without a known duration are assumed to take the average of the known durations.
+     * Since the dependencies of a node have a longer remaining critical path than the node itself, they still come first.
+     * Should run after relationships are not taken into account.
+     *
+     * The queue order also keeps groups of entry nodes in the order they were added, and keeps nodes which may destroy the outputs of other nodes
+     * in place relative to all other nodes, so e.g. {@code clean} still runs before {@code build}.
+     * So the nodes are only sorted within the segments of the queue between these boundaries.
+     */
+    private static void sortByCriticalPath(List<Node> executionQueue, Map<Node, Integer> entryNodeGroups, NodeDurations nodeDurations) {
+        Map<Node, Long> durations = new IdentityHashMap<>();
+        long knownDurations = 0;
+        int knownDurationCount = 0;
+        for (Node node : executionQueue) {
+            long duration = nodeDurations.getEstimatedDuration(node);
+            if (duration >= 0) {
+                durations.put(node, duration);
+                knownDurations += duration;
+                knownDurationCount++;
+            }
+        }
+        long defaultDuration = knownDurationCount == 0 ? 0 : knownDurations / knownDurationCount;
+
+        // Nodes which need to wait for a node come after it in the queue
+        Map<Node, Long> criticalPaths = new IdentityHashMap<>();
+        for (int position = executionQueue.size() - 1; position >= 0; position--) {
+            Node node = executionQueue.get(position);
+            long successorsCriticalPath = 0;
+            for (Node predecessor : node.getAllPredecessors()) {
+                Long criticalPath = criticalPaths.get(predecessor);
+                if (criticalPath != null) {
+                    successorsCriticalPath = Math.max(successorsCriticalPath, criticalPath);
+                }
+            }
+            // Count each node at least a bit, so a node always comes before the nodes waiting for it
+            long duration = Math.max(1, durations.getOrDefault(node, defaultDuration));
+            criticalPaths.put(node, duration + successorsCriticalPath);
+        }
+        Comparator<Node> longestCriticalPathFirst = Comparator.comparingLong((Node node) -> criticalPaths.get(node)).reversed();
+
+        // A group of entry nodes ends with the last of its entry nodes in the queue
+        Map<Integer, Integer> entryNodeGroupEnds = new HashMap<>();
+        for (int position = 0; position < executionQueue.size(); position++) {
+            Integer entryNodeGroup = entryNodeGroups.get(executionQueue.get(position));
+            if (entryNodeGroup != null) {
+                entryNodeGroupEnds.put(entryNodeGroup, position);
+            }
+        }
+        Set<Integer> segmentEnds = new HashSet<>(entryNodeGroupEnds.values());
+
+        int segmentStart = 0;
+        for (int position = 0; position < executionQueue.size(); position++) {
+            if (nodeDurations.mayDestroyOutputs(executionQueue.get(position))) {
+                // Sort the nodes before the destroyer, and leave the destroyer where it is
+                executionQueue.subList(segmentStart, position).sort(longestCriticalPathFirst);
+                segmentStart = position + 1;
+            } else if (segmentEnds.contains(position)) {
+                executionQueue.subList(segmentStart, position + 1).sort(longestCriticalPathFirst);
+                segmentStart = position + 1;
+            }
+        }
+        executionQueue.subList(segmentStart, executionQueue.size()).sort(longestCriticalPathFirst);
+    }
+
     private void maybeRemoveProcessedShouldRunAfterEdge(Deque<GraphEdge> walkedShouldRunAfterEdges, Node node) {
         GraphEdge edge = walkedShouldRunAfterEdges.peek();
         if (edge != null && edge.to.equals(node)) {
@@ -494,16 +630,29 @@ public void clear() {
         taskNodeFactory.clear();
         dependencyResolver.clear();
         entryNodes.clear();
+        entryNodeGroups.clear();
+        entryNodeGroupCount = 0;
         nodeMapping.clear();
-        executionQueue.clear();
+        clearExecutionQueue();
         projectLocks.clear();
         failureCollector.clearFailures();
         producedButNotYetConsumed.clear();
+        notYetConsumedOutputs.clear();
         reachableCache.clear();
         dependenciesWhichRequireMonitoring.clear();
         runningNodes.clear();
+        runningNodeMutations.clear();
         outputHierarchy.clear();
         inputHierarchy.clear();
+        executionStartTimes.clear();
+    }
+
+    private void clearExecutionQueue() {
+        executionQueue.clear();
+        executionQueuePositions.clear();
+        queuedNodes.clear();
+        firstQueuedNode = 0;
+        readyNodes.clear();
     }
 
     @Override
@@ -565,39 +714,53 @@ public Node selectNext(WorkerLeaseRegistry.WorkerLease workerLease, ResourceLock
                 iterator.remove();
             }
         }
-        if (!maybeNodesReady) {
-            return null;
-        }
-        Iterator<Node> iterator = executionQueue.iterator();
         boolean foundReadyNode = false;
-        while (iterator.hasNext()) {
-            Node node = iterator.next();
-            if (node.isReady() && node.allDependenciesComplete()) {
-                foundReadyNode = true;
-                MutationInfo mutations = getResolvedMutationInfo(node);
+        for (int position = readyNodes.nextSetBit(firstQueuedNode); position >= 0; position = readyNodes.nextSetBit(position + 1)) {
+            Node node = executionQueue.get(position);
+            if (!node.isReady() || !node.allDependenciesComplete()) {
+                // The node has been aborted, or one of its dependencies has been enforced since it became ready
+                readyNodes.clear(position);
+                continue;
+            }
+            foundReadyNode = true;
+            MutationInfo mutations = getResolvedMutationInfo(node);
 
-                if (!tryAcquireLocksForNode(node, workerLease, mutations)) {
-                    resourceLockState.releaseLocks();
-                    continue;
-                }
+            if (!tryAcquireLocksForNode(node, workerLease, mutations)) {
+                resourceLockState.releaseLocks();
+                continue;
+            }
 
-                if (node.allDependenciesSuccessful()) {
-                    node.startExecution(this::recordNodeExecutionStarted);
-                    if (mutations.hasValidationProblem) {
-                        invalidNodeRunning = true;
-                    }
-                } else {
-                    node.skipExecution(this::recordNodeCompleted);
+            if (node.allDependenciesSuccessful()) {
+                node.startExecution(this::recordNodeExecutionStarted);
+                if (mutations.hasValidationProblem) {
+                    invalidNodeRunning = true;
                 }
-                iterator.remove();
-                return node;
+            } else {
+                node.skipExecution(this::recordNodeCompleted);
+            }
+            readyNodes.clear(position);
+            queuedNodes.clear(position);
+            if (position == firstQueuedNode) {
+                int nextQueuedNode = queuedNodes.nextSetBit(position);
+                firstQueuedNode = nextQueuedNode >= 0 ? nextQueuedNode : executionQueue.size();
             }
+            return node;
         }
         LOGGER.debug("No node could be selected, nodes ready: {}", foundReadyNode);
-        maybeNodesReady = foundReadyNode;
         return null;
     }
 
+    /**
+     * Adds the node to the ready nodes if it is queued and ready to execute.
+     * Needs to be called whenever a node may have become ready.
+     */
+    private void nodeMayBeReady(Node node) {
+        Integer position = executionQueuePositions.get(node);
+        if (position != null && queuedNodes.get(position) && node.isReady() && node.allDependenciesComplete()) {
+            readyNodes.set(position);
+        }
+    }
+
     private boolean tryAcquireLocksForNode(Node node, WorkerLeaseRegistry.WorkerLease workerLease, MutationInfo mutations) {
         if (!tryLockProjectFor(node)) {
             LOGGER.debug("Cannot acquire project lock for node {}", node);
@@ -620,7 +783,9 @@ private boolean tryAcquireLocksForNode(Node node, WorkerLeaseRegistry.WorkerLeas
 
     private void updateAllDependenciesCompleteForPredecessors(Node node) {
         for (Node predecessor : node.getAllPredecessors()) {
-            maybeNodesReady |= predecessor.updateAllDependenciesComplete() && predecessor.isReady();
+            if (predecessor.updateAllDependenciesComplete()) {
+                nodeMayBeReady(predecessor);
+            }
         }
     }
 
@@ -688,27 +853,15 @@ private boolean hasRunningNodeWithOverlappingMutations(MutationInfo mutations) {
         Set<String> candidateMutationPaths = !candidateNodeOutputs.isEmpty()
             ? candidateNodeOutputs
             : mutations.destroyablePaths;
-        if (!candidateMutationPaths.isEmpty()) {
-            for (Node runningNode : runningNodes) {
-                MutationInfo runningMutations = runningNode.getMutationInfo();
-                Iterable<String> runningMutationPaths = Iterables.concat(runningMutations.outputPaths, runningMutations.destroyablePaths);
-                if (hasOverlap(candidateMutationPaths, runningMutationPaths)) {
-                    return true;
-                }
-            }
-        }
-        return false;
+        return runningNodeMutations.hasNodesAccessingAnyOf(candidateMutationPaths);
     }
 
     private boolean doesDestroyNotYetConsumedOutputOfAnotherNode(Node destroyer, Set<String> destroyablePaths) {
         if (!destroyablePaths.isEmpty()) {
-            for (Node producingNode : producedButNotYetConsumed) {
+            // Only the producers with outputs overlapping the destroyables are relevant, no overlap no cry
+            for (Node producingNode : notYetConsumedOutputs.getNodesAccessingAnyOf(destroyablePaths)) {
                 MutationInfo producingNodeMutations = producingNode.getMutationInfo();
                 assert !producingNodeMutations.consumingNodes.isEmpty();
-                if (!hasOverlap(destroyablePaths, producingNodeMutations.outputPaths)) {
-                    // No overlap no cry
-                    continue;
-                }
                 for (Node consumer : producingNodeMutations.consumingNodes) {
                     if (doesConsumerDependOnDestroyer(consumer, destroyer)) {
                         // If there's an explicit dependency from consuming node to destroyer,
@@ -745,48 +898,14 @@ private boolean doesConsumerDependOnDestroyer(Node consumer, Node destroyer) {
         return reachable;
     }
 
-    private static boolean hasOverlap(Iterable<String> paths1, Iterable<String> paths2) {
-        for (String path1 : paths1) {
-            for (String path2 : paths2) {
-                String overLappedPath = getOverLappedPath(path1, path2);
-                if (overLappedPath != null) {
-                    return true;
-                }
-            }
-        }
-
-        return false;
-    }
-
-    @Nullable
-    private static String getOverLappedPath(String firstPath, String secondPath) {
-        if (firstPath.equals(secondPath)) {
-            return firstPath;
-        }
-        if (firstPath.length() == secondPath.length()) {
-            return null;
-        }
-
-        String shorter;
-        String longer;
-        if (firstPath.length() > secondPath.length()) {
-            shorter = secondPath;
-            longer = firstPath;
-        } else {
-            shorter = firstPath;
-            longer = secondPath;
-        }
-
-        boolean isOverlapping = longer.startsWith(shorter) && longer.charAt(shorter.length()) == File.separatorChar;
-        if (isOverlapping) {
-            return shorter;
-        } else {
-            return null;
-        }
-    }
-
     private void recordNodeExecutionStarted(Node node) {
         runningNodes.add(node);
+        MutationInfo mutations = node.getMutationInfo();
+        runningNodeMutations.recordLocations(node, mutations.outputPaths);
+        runningNodeMutations.recordLocations(node, mutations.destroyablePaths);
+        if (nodeDurations != null) {
+            executionStartTimes.put(node, System.nanoTime());
+        }
     }
 
     private void recordNodeCompleted(Node node) {
@@ -795,12 +914,16 @@ private void recordNodeCompleted(Node node) {
         for (Node producer : node.getDependencySuccessors()) {
             MutationInfo producerMutations = producer.getMutationInfo();
             if (producerMutations.consumingNodes.remove(node) && producerMutations.consumingNodes.isEmpty()) {
-                producedButNotYetConsumed.remove(producer);
+                if (producedButNotYetConsumed.remove(producer)) {
+                    notYetConsumedOutputs.removeLocations(producer, producerMutations.outputPaths);
+                }
             }
         }
 
         if (!mutations.consumingNodes.isEmpty() && !mutations.outputPaths.isEmpty()) {
-            producedButNotYetConsumed.add(node);
+            if (producedButNotYetConsumed.add(node)) {
+                notYetConsumedOutputs.recordLocations(node, mutations.outputPaths);
+            }
         }
 
         updateAllDependenciesCompleteForPredecessors(node);
@@ -811,7 +934,6 @@ public void finishedExecuting(Node node) {
         try {
             if (!node.isComplete()) {
                 enforceFinalizers(node);
-                maybeNodesReady = true;
                 if (node.isFailed()) {
                     LOGGER.debug("Node {} failed", node);
                     handleFailure(node);
@@ -819,7 +941,12 @@ public void finishedExecuting(Node node) {
                     LOGGER.debug("Node {} finished executing", node);
                 }
 
-                runningNodes.remove(node);
+                if (runningNodes.remove(node)) {
+                    MutationInfo mutations = node.getMutationInfo();
+                    runningNodeMutations.removeLocations(node, mutations.outputPaths);
+                    runningNodeMutations.removeLocations(node, mutations.destroyablePaths);
+                }
+                recordNodeDuration(node);
                 node.finishExecution(this::recordNodeCompleted);
             } else {
                 LOGGER.debug("Already completed node {} reported as finished executing", node);
@@ -831,7 +958,15 @@ public void finishedExecuting(Node node) {
         }
     }
 
-    private static void enforceFinalizers(Node node) {
+    private void recordNodeDuration(Node node) {
+        Long startTime = executionStartTimes.remove(node);
+        if (nodeDurations != null && startTime != null && !node.isFailed()) {
+            boolean destroyedFiles = !node.getMutationInfo().destroyablePaths.isEmpty();
+            nodeDurations.recordExecution(node, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime), destroyedFiles);
+        }
+    }
+
+    private void enforceFinalizers(Node node) {
         for (Node finalizerNode : node.getFinalizers()) {
             if (finalizerNode.isRequired() || finalizerNode.isMustNotRun()) {
                 enforceWithDependencies(finalizerNode);
@@ -839,7 +974,7 @@ private static void enforceFinalizers(Node node) {
         }
     }
 
-    private static void enforceWithDependencies(Node node) {
+    private void enforceWithDependencies(Node node) {
         Set<Node> enforcedNodes = new HashSet<>();
 
         Deque<Node> candidates = new ArrayDeque<>();
@@ -854,9 +989,11 @@ private static void enforceWithDependencies(Node node) {
 
                 if (candidate.isMustNotRun() || candidate.isRequired()) {
                     candidate.enforceRun();
+                    nodeMayBeReady(candidate);
                     // Completed changed from true to false - inform all nodes depending on this one.
                     for (Node predecessor : candidate.getAllPredecessors()) {
                         predecessor.forceAllDependenciesCompleteUpdate();
+                        nodeMayBeReady(predecessor);
                     }
                 }
             }
@@ -940,8 +1077,8 @@ public boolean allNodesComplete() {
 
     @Override
     public boolean hasNodesRemaining() {
-        for (Node node : executionQueue) {
-            if (!node.isComplete()) {
+        for (int position = queuedNodes.nextSetBit(firstQueuedNode); position >= 0; position = queuedNodes.nextSetBit(position + 1)) {
+            if (!executionQueue.get(position).isComplete()) {
                 return true;
             }
         }
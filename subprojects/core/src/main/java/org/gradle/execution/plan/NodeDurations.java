@@ -0,0 +1,56 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.execution.plan;
+
+/**
+ * The durations of nodes in previous builds, which the execution plan uses to start the nodes on the critical path first.
+ */
+public interface NodeDurations {
+    /**
+     * Does not know any durations, for when nodes are not scheduled by their critical path.
+     */
+    NodeDurations NONE = new NodeDurations() {
+        @Override
+        public long getEstimatedDuration(Node node) {
+            return -1;
+        }
+
+        @Override
+        public boolean mayDestroyOutputs(Node node) {
+            return true;
+        }
+
+        @Override
+        public void recordExecution(Node node, long durationMillis, boolean destroyedFiles) {
+        }
+    };
+
+    /**
+     * Returns the expected duration of the node in milliseconds, or -1 if the duration is not known.
+     */
+    long getEstimatedDuration(Node node);
+
+    /**
+     * Returns whether the node may delete the outputs of other nodes, i.e. whether it destroyed files when it last executed, or it is not known.
+     */
+    boolean mayDestroyOutputs(Node node);
+
+    /**
+     * Records an execution of the node, which took the given duration in milliseconds.
+     */
+    void recordExecution(Node node, long durationMillis, boolean destroyedFiles);
+}
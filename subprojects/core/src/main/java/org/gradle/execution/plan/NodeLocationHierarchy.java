@@ -0,0 +1,106 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.execution.plan;
+
+import com.google.common.collect.ImmutableList;
+import org.gradle.internal.snapshot.CaseSensitivity;
+import org.gradle.internal.snapshot.EmptyChildMap;
+import org.gradle.internal.snapshot.VfsRelativePath;
+
+import java.util.Set;
+import java.util.function.Supplier;
+
+import static com.google.common.collect.Sets.newIdentityHashSet;
+
+/**
+ * The locations accessed by a changing set of nodes, e.g. by the running nodes.
+ *
+ * Different from {@link ExecutionNodeAccessHierarchy}, nodes can be removed again,
+ * and finding out whether a location overlaps with the locations of any node only takes time proportional to the depth of the location.
+ *
+ * This class is not thread-safe.
+ */
+class NodeLocationHierarchy {
+    private ValuedVfsHierarchy<Node> root;
+
+    NodeLocationHierarchy(CaseSensitivity caseSensitivity) {
+        this.root = new ValuedVfsHierarchy<>(ImmutableList.of(), EmptyChildMap.getInstance(), caseSensitivity);
+    }
+
+    public void recordLocations(Node node, Iterable<String> locations) {
+        for (String location : locations) {
+            root = root.recordValue(VfsRelativePath.of(location), node);
+        }
+    }
+
+    /**
+     * Removes the locations recorded for the node via {@link #recordLocations(Node, Iterable)}.
+     */
+    public void removeLocations(Node node, Iterable<String> locations) {
+        for (String location : locations) {
+            root = root.removeValue(VfsRelativePath.of(location), node);
+        }
+    }
+
+    /**
+     * Returns whether any node accesses one of the locations, or an ancestor or a descendant of one of the locations.
+     */
+    public boolean hasNodesAccessingAnyOf(Iterable<String> locations) {
+        for (String location : locations) {
+            if (root.hasValuesRelatedTo(VfsRelativePath.of(location))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the nodes which access one of the locations, or an ancestor or a descendant of one of the locations.
+     */
+    public Set<Node> getNodesAccessingAnyOf(Iterable<String> locations) {
+        Set<Node> nodes = newIdentityHashSet();
+        ValuedVfsHierarchy.ValueVisitor<Node> visitor = new ValuedVfsHierarchy.ValueVisitor<Node>() {
+            @Override
+            public void visitExact(Node node) {
+                nodes.add(node);
+            }
+
+            @Override
+            public void visitAncestor(Node node, VfsRelativePath pathToVisitedLocation) {
+                nodes.add(node);
+            }
+
+            @Override
+            public void visitChildren(Iterable<Node> childNodes, Supplier<String> relativePathSupplier) {
+                childNodes.forEach(nodes::add);
+            }
+        };
+        for (String location : locations) {
+            VfsRelativePath relativePath = VfsRelativePath.of(location);
+            if (relativePath.length() == 0) {
+                root.visitAllValues(visitor);
+            } else {
+                root.visitValuesRelatedTo(relativePath, visitor);
+            }
+        }
+        return nodes;
+    }
+
+    public void clear() {
+        root = root.empty();
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.execution.plan;
+
+import org.gradle.cache.PersistentCache;
+import org.gradle.cache.PersistentIndexedCache;
+import org.gradle.cache.PersistentIndexedCacheParameters;
+import org.gradle.internal.serialize.AbstractSerializer;
+import org.gradle.internal.serialize.BaseSerializerFactory;
+import org.gradle.internal.serialize.Decoder;
+import org.gradle.internal.serialize.Encoder;
+
+import javax.annotation.Nullable;
+import java.io.Closeable;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Keeps the durations of tasks in the execution history cache of the build.
+ *
+ * <p>The durations recorded during a build are written when the build finishes, so the execution plan doesn't need to access the cache while holding its lock.
+ * The stored duration is the average of the previous and the latest duration, so a single slow or fast execution doesn't dominate the estimate.</p>
+ *
+ * <p>Whether a task destroys files is only known once it executed, so it is kept along with the duration.
+ * Tasks which have not been recorded yet may destroy files, while other nodes never do.</p>
+ */
+public class PersistentNodeDurations implements NodeDurations, Closeable {
+    private final PersistentIndexedCache<String, RecordedExecution> store;
+    private final Map<String, RecordedExecution> recordedExecutions = new ConcurrentHashMap<>();
+
+    public PersistentNodeDurations(Supplier<PersistentCache> cache) {
+        this.store = cache.get().createCache(
+            PersistentIndexedCacheParameters.of("taskDurations", BaseSerializerFactory.STRING_SERIALIZER, new RecordedExecutionSerializer())
+        );
+    }
+
+    @Override
+    public long getEstimatedDuration(Node node) {
+        String key = keyFor(node);
+        if (key == null) {
+            return -1;
+        }
+        RecordedExecution execution = store.getIfPresent(key);
+        return execution == null ? -1 : execution.durationMillis;
+    }
+
+    @Override
+    public boolean mayDestroyOutputs(Node node) {
+        String key = keyFor(node);
+        if (key == null) {
+            return node instanceof TaskNode;
+        }
+        RecordedExecution execution = store.getIfPresent(key);
+        return execution == null || execution.destroyedFiles;
+    }
+
+    @Override
+    public void recordExecution(Node node, long durationMillis, boolean destroyedFiles) {
+        String key = keyFor(node);
+        if (key != null) {
+            recordedExecutions.put(key, new RecordedExecution(durationMillis, destroyedFiles));
+        }
+    }
+
+    @Override
+    public void close() {
+        recordedExecutions.forEach((key, execution) -> {
+            RecordedExecution previousExecution = store.getIfPresent(key);
+            long duration = previousExecution == null ? execution.durationMillis : (previousExecution.durationMillis + execution.durationMillis) / 2;
+            store.put(key, new RecordedExecution(duration, execution.destroyedFiles));
+        });
+        recordedExecutions.clear();
+    }
+
+    @Nullable
+    private static String keyFor(Node node) {
+        if (node instanceof LocalTaskNode) {
+            return ((LocalTaskNode) node).getTask().getIdentityPath().getPath();
+        }
+        // Other nodes have no identity which is stable across builds
+        return null;
+    }
+
+    private static class RecordedExecution {
+        private final long durationMillis;
+        private final boolean destroyedFiles;
+
+        RecordedExecution(long durationMillis, boolean destroyedFiles) {
+            this.durationMillis = durationMillis;
+            this.destroyedFiles = destroyedFiles;
+        }
+    }
+
+    private static class RecordedExecutionSerializer extends AbstractSerializer<RecordedExecution> {
+        @Override
+        public RecordedExecution read(Decoder decoder) throws Exception {
+            long durationMillis = decoder.readSmallLong();
+            boolean destroyedFiles = decoder.readBoolean();
+            return new RecordedExecution(durationMillis, destroyedFiles);
+        }
+
+        @Override
+        public void write(Encoder encoder, RecordedExecution value) throws Exception {
+            encoder.writeSmallLong(value.durationMillis);
+            encoder.writeBoolean(value.destroyedFiles);
+        }
+    }
+}
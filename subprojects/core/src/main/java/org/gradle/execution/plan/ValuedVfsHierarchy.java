@@ -24,6 +24,7 @@
 import org.gradle.internal.snapshot.VfsRelativePath;
 
 import javax.annotation.CheckReturnValue;
+import java.util.Optional;
 import java.util.function.BiConsumer;
 import java.util.function.Supplier;
 
@@ -87,6 +88,41 @@ public String handleUnrelatedToAnyChild() {
         });
     }
 
+    /**
+     * Returns whether there are values attached to the given location, its ancestors or its descendants.
+     *
+     * Since the hierarchy doesn't contain nodes without values below them, this only needs to look at the path to the location.
+     */
+    public boolean hasValuesRelatedTo(VfsRelativePath location) {
+        if (!values.isEmpty()) {
+            return true;
+        }
+        if (location.length() == 0) {
+            return !children.isEmpty();
+        }
+        return children.withNode(location, caseSensitivity, new ChildMap.NodeHandler<ValuedVfsHierarchy<T>, Boolean>() {
+            @Override
+            public Boolean handleAsDescendantOfChild(VfsRelativePath pathInChild, ValuedVfsHierarchy<T> child) {
+                return child.hasValuesRelatedTo(pathInChild);
+            }
+
+            @Override
+            public Boolean handleAsAncestorOfChild(String childPath, ValuedVfsHierarchy<T> child) {
+                return true;
+            }
+
+            @Override
+            public Boolean handleExactMatchWithChild(ValuedVfsHierarchy<T> child) {
+                return true;
+            }
+
+            @Override
+            public Boolean handleUnrelatedToAnyChild() {
+                return false;
+            }
+        });
+    }
+
     /**
      * Visits all values relative to the root.
      */
@@ -158,6 +194,113 @@ public ValuedVfsHierarchy<T> createNodeFromChildren(ChildMap<ValuedVfsHierarchy<
         return new ValuedVfsHierarchy<>(values, newChildren, caseSensitivity);
     }
 
+    /**
+     * Returns a new {@link ValuedVfsHierarchy} with one occurrence of the value removed from the location.
+     *
+     * Nodes which have no values attached to them or their descendants any more are removed.
+     */
+    @CheckReturnValue
+    public ValuedVfsHierarchy<T> removeValue(VfsRelativePath location, T value) {
+        if (location.length() == 0) {
+            return withoutValue(value);
+        }
+        Optional<ValuedVfsHierarchy<T>> changedChild = children.withNode(location, caseSensitivity, new ChildMap.NodeHandler<ValuedVfsHierarchy<T>, Optional<ValuedVfsHierarchy<T>>>() {
+            @Override
+            public Optional<ValuedVfsHierarchy<T>> handleAsDescendantOfChild(VfsRelativePath pathInChild, ValuedVfsHierarchy<T> child) {
+                return changedOrEmpty(child, child.removeValue(pathInChild, value));
+            }
+
+            @Override
+            public Optional<ValuedVfsHierarchy<T>> handleAsAncestorOfChild(String childPath, ValuedVfsHierarchy<T> child) {
+                return Optional.empty();
+            }
+
+            @Override
+            public Optional<ValuedVfsHierarchy<T>> handleExactMatchWithChild(ValuedVfsHierarchy<T> child) {
+                return changedOrEmpty(child, child.withoutValue(value));
+            }
+
+            @Override
+            public Optional<ValuedVfsHierarchy<T>> handleUnrelatedToAnyChild() {
+                return Optional.empty();
+            }
+        });
+        if (!changedChild.isPresent()) {
+            return this;
+        }
+        ValuedVfsHierarchy<T> newChild = changedChild.get();
+        ChildMap<ValuedVfsHierarchy<T>> newChildren = newChild.isEmpty()
+            ? children.invalidate(location, caseSensitivity, new ChildMap.InvalidationHandler<ValuedVfsHierarchy<T>, ValuedVfsHierarchy<T>>() {
+                @Override
+                public Optional<ValuedVfsHierarchy<T>> handleAsDescendantOfChild(VfsRelativePath pathInChild, ValuedVfsHierarchy<T> child) {
+                    return Optional.empty();
+                }
+
+                @Override
+                public void handleAsAncestorOfChild(String childPath, ValuedVfsHierarchy<T> child) {
+                    throw new IllegalStateException("The location must be in the child");
+                }
+
+                @Override
+                public void handleExactMatchWithChild(ValuedVfsHierarchy<T> child) {
+                }
+
+                @Override
+                public void handleUnrelatedToAnyChild() {
+                    throw new IllegalStateException("The location must be in the child");
+                }
+            })
+            : children.store(location, caseSensitivity, new ChildMap.StoreHandler<ValuedVfsHierarchy<T>>() {
+                @Override
+                public ValuedVfsHierarchy<T> handleAsDescendantOfChild(VfsRelativePath pathInChild, ValuedVfsHierarchy<T> child) {
+                    return newChild;
+                }
+
+                @Override
+                public ValuedVfsHierarchy<T> mergeWithExisting(ValuedVfsHierarchy<T> child) {
+                    return newChild;
+                }
+
+                @Override
+                public ValuedVfsHierarchy<T> handleAsAncestorOfChild(String childPath, ValuedVfsHierarchy<T> child) {
+                    throw new IllegalStateException("The location must be in the child");
+                }
+
+                @Override
+                public ValuedVfsHierarchy<T> createChild() {
+                    throw new IllegalStateException("The location must be in the child");
+                }
+
+                @Override
+                public ValuedVfsHierarchy<T> createNodeFromChildren(ChildMap<ValuedVfsHierarchy<T>> children) {
+                    throw new IllegalStateException("The location must be in the child");
+                }
+            });
+        return new ValuedVfsHierarchy<>(values, newChildren, caseSensitivity);
+    }
+
+    private static <T> Optional<ValuedVfsHierarchy<T>> changedOrEmpty(ValuedVfsHierarchy<T> child, ValuedVfsHierarchy<T> newChild) {
+        return newChild == child ? Optional.empty() : Optional.of(newChild);
+    }
+
+    private ValuedVfsHierarchy<T> withoutValue(T value) {
+        int index = values.indexOf(value);
+        if (index < 0) {
+            return this;
+        }
+        ImmutableList.Builder<T> remainingValues = ImmutableList.builderWithExpectedSize(values.size() - 1);
+        for (int i = 0; i < values.size(); i++) {
+            if (i != index) {
+                remainingValues.add(values.get(i));
+            }
+        }
+        return new ValuedVfsHierarchy<>(remainingValues.build(), children, caseSensitivity);
+    }
+
+    private boolean isEmpty() {
+        return values.isEmpty() && children.isEmpty();
+    }
+
     private ImmutableList<T> getValues() {
         return values;
     }
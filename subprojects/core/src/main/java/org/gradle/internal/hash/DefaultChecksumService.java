@@ -55,7 +55,7 @@ private CachingFileHasher createCache(
         HashFunction hashFunction,
         FileHasherStatistics.Collector statisticsCollector
     ) {
-        return new CachingFileHasher(new ChecksumHasher(hashFunction), fileStore, stringInterner, fileTimeStampInspector, name + "-checksums", fileSystem, 1000, statisticsCollector);
+        return new CachingFileHasher(new ChecksumHasher(hashFunction), fileStore, stringInterner, fileTimeStampInspector, name + "-checksums", fileSystem, 1000, 1, statisticsCollector);
     }
 
     @Override
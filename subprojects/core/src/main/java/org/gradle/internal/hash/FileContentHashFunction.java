@@ -0,0 +1,72 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.internal.hash;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * The hash function used to fingerprint the content of files, selected via the {@value #SYSTEM_PROPERTY} system property.
+ *
+ * <p>Content hashes created by different functions must never be compared with each other.
+ * Persistent caches storing content hashes therefore need to be named via {@link #qualifyCacheName(String)}.</p>
+ */
+public enum FileContentHashFunction {
+    MD5("md5", Hashing.md5()),
+    MURMUR3("murmur3", Hashing.murmur3_128());
+
+    public static final String SYSTEM_PROPERTY = "org.gradle.internal.file-content-hash-function";
+
+    private final String id;
+    private final HashFunction hashFunction;
+
+    FileContentHashFunction(String id, HashFunction hashFunction) {
+        this.id = id;
+        this.hashFunction = hashFunction;
+    }
+
+    public static FileContentHashFunction fromSystemProperties() {
+        String value = System.getProperty(SYSTEM_PROPERTY);
+        if (value == null || value.trim().isEmpty()) {
+            return MD5;
+        }
+        String id = value.trim().toLowerCase(Locale.ROOT);
+        for (FileContentHashFunction function : values()) {
+            if (function.id.equals(id)) {
+                return function;
+            }
+        }
+        throw new IllegalArgumentException(String.format("Unknown file content hash function '%s' specified via system property '%s'. Supported values are: %s.",
+            value, SYSTEM_PROPERTY, Arrays.toString(Arrays.stream(values()).map(FileContentHashFunction::getId).toArray())));
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public HashFunction getHashFunction() {
+        return hashFunction;
+    }
+
+    /**
+     * Returns the name to use for a persistent cache storing content hashes created by this function.
+     * The default function keeps the given name, so that existing caches remain valid.
+     */
+    public String qualifyCacheName(String cacheName) {
+        return this == MD5 ? cacheName : cacheName + "-" + id;
+    }
+}
@@ -20,14 +20,28 @@
 import org.gradle.internal.work.WorkerLeaseService;
 
 public class DefaultBuildOperationQueueFactory implements BuildOperationQueueFactory {
+    /**
+     * When set, the queues use per-worker deques with work stealing instead of a single deque.
+     */
+    public static final String WORK_STEALING_PROPERTY = "org.gradle.internal.operations.work-stealing";
+
     private final WorkerLeaseService workerLeaseService;
+    private final boolean workStealing;
 
     public DefaultBuildOperationQueueFactory(WorkerLeaseService workerLeaseService) {
+        this(workerLeaseService, Boolean.getBoolean(WORK_STEALING_PROPERTY));
+    }
+
+    public DefaultBuildOperationQueueFactory(WorkerLeaseService workerLeaseService, boolean workStealing) {
         this.workerLeaseService = workerLeaseService;
+        this.workStealing = workStealing;
     }
 
     @Override
     public <T extends BuildOperation> BuildOperationQueue<T> create(ManagedExecutor executor, boolean allowAccessToProjectState, BuildOperationQueue.QueueWorker<T> worker) {
+        if (workStealing) {
+            return new WorkStealingBuildOperationQueue<>(allowAccessToProjectState, workerLeaseService, executor, worker);
+        }
         return new DefaultBuildOperationQueue<>(allowAccessToProjectState, workerLeaseService, executor, worker);
     }
 }
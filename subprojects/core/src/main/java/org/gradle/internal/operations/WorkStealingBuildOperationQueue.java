@@ -0,0 +1,298 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.internal.operations;
+
+import org.gradle.internal.UncheckedException;
+import org.gradle.internal.work.WorkerLeaseRegistry;
+import org.gradle.internal.work.WorkerLeaseService;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A {@link BuildOperationQueue} where each worker has its own deque of operations.
+ *
+ * Added operations are distributed over the deques of the workers, and a worker which runs out of operations steals operations from the other workers.
+ * Different from {@link DefaultBuildOperationQueue}, adding and taking operations does not need a lock shared by all workers.
+ * The lock is only used to park idle workers and to wait for the operations to complete.
+ *
+ * As for {@link DefaultBuildOperationQueue}, each worker runs the operations while holding a child lease of the worker lease of the thread creating the queue.
+ */
+class WorkStealingBuildOperationQueue<T extends BuildOperation> implements BuildOperationQueue<T> {
+    private enum QueueState {
+        Working, Finishing, Cancelled, Done
+    }
+
+    private final boolean allowAccessToProjectState;
+    private final WorkerLeaseService workerLeases;
+    private final WorkerLeaseRegistry.WorkerLease parentWorkerLease;
+    private final Executor executor;
+    private final QueueWorker<T> queueWorker;
+    private String logLocation;
+
+    /**
+     * The deque of the thread waiting for completion is at index 0, the deques of the workers started on the executor follow.
+     */
+    private final ConcurrentLinkedDeque<T>[] workQueues;
+    private final AtomicInteger nextWorkQueue = new AtomicInteger();
+    private final AtomicInteger startedWorkers = new AtomicInteger();
+    private final AtomicInteger queuedOperations = new AtomicInteger();
+    private final AtomicInteger pendingOperations = new AtomicInteger();
+    private final Queue<Throwable> failures = new ConcurrentLinkedQueue<>();
+    private volatile QueueState queueState = QueueState.Working;
+
+    // Lock is only used for waiting, the state is kept in the concurrent fields above
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition workAvailable = lock.newCondition();
+    private final Condition operationsComplete = lock.newCondition();
+    private volatile int idleWorkers;
+
+    @SuppressWarnings("unchecked")
+    WorkStealingBuildOperationQueue(boolean allowAccessToProjectState, WorkerLeaseService workerLeases, Executor executor, QueueWorker<T> queueWorker) {
+        this.allowAccessToProjectState = allowAccessToProjectState;
+        this.workerLeases = workerLeases;
+        this.parentWorkerLease = workerLeases.getWorkerLease();
+        this.executor = executor;
+        this.queueWorker = queueWorker;
+        // `getMaxWorkerCount() - 1` executor workers because the thread waiting for completion executes work as well. See https://github.com/gradle/gradle/issues/3273
+        int maxExecutorWorkers = Math.max(1, workerLeases.getMaxWorkerCount() - 1);
+        this.workQueues = new ConcurrentLinkedDeque[maxExecutorWorkers + 1];
+        for (int i = 0; i < workQueues.length; i++) {
+            workQueues[i] = new ConcurrentLinkedDeque<>();
+        }
+    }
+
+    @Override
+    public void add(final T operation) {
+        QueueState state = queueState;
+        if (state == QueueState.Done) {
+            throw new IllegalStateException("BuildOperationQueue cannot be reused once it has completed.");
+        }
+        if (state == QueueState.Cancelled) {
+            return;
+        }
+        pendingOperations.incrementAndGet();
+        // Count the operation before queuing it, so the count never is lower than the number of queued operations
+        queuedOperations.incrementAndGet();
+        workQueues[Math.floorMod(nextWorkQueue.getAndIncrement(), workQueues.length)].addLast(operation);
+        if (idleWorkers > 0) {
+            signalWorkAvailable();
+        } else {
+            maybeStartWorker();
+        }
+    }
+
+    private void signalWorkAvailable() {
+        lock.lock();
+        try {
+            workAvailable.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void maybeStartWorker() {
+        int workers = startedWorkers.get();
+        // Only start a worker when there is none idle, up to one worker per deque
+        while (workers < workQueues.length - 1) {
+            if (startedWorkers.compareAndSet(workers, workers + 1)) {
+                executor.execute(new WorkerRunnable(workers + 1));
+                return;
+            }
+            workers = startedWorkers.get();
+        }
+    }
+
+    @Override
+    public void cancel() {
+        lock.lock();
+        try {
+            if (queueState == QueueState.Cancelled || queueState == QueueState.Done) {
+                return;
+            }
+            // Workers discard the operations which are still queued
+            queueState = QueueState.Cancelled;
+            workAvailable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void waitForCompletion() throws MultipleBuildOperationFailures {
+        lock.lock();
+        try {
+            if (queueState == QueueState.Done) {
+                throw new IllegalStateException("Cannot wait for completion more than once.");
+            }
+            if (queueState == QueueState.Working) {
+                queueState = QueueState.Finishing;
+            }
+            workAvailable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+
+        // Use this thread to process any work, see DefaultBuildOperationQueue
+        try {
+            new WorkerRunnable(0).run();
+        } catch (Throwable t) {
+            failures.add(t);
+        }
+
+        lock.lock();
+        try {
+            // Wait for any work still running in other threads
+            while (pendingOperations.get() > 0) {
+                try {
+                    operationsComplete.await();
+                } catch (InterruptedException e) {
+                    throw UncheckedException.throwAsUncheckedException(e);
+                }
+            }
+
+            queueState = QueueState.Done;
+            if (!failures.isEmpty()) {
+                throw new MultipleBuildOperationFailures(new ArrayList<>(failures), logLocation);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void completeOperations(int count) {
+        if (count > 0 && pendingOperations.addAndGet(-count) == 0) {
+            lock.lock();
+            try {
+                operationsComplete.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    @Override
+    public void setLogLocation(String logLocation) {
+        this.logLocation = logLocation;
+    }
+
+    private class WorkerRunnable implements Runnable {
+        private final int workQueueIndex;
+
+        WorkerRunnable(int workQueueIndex) {
+            this.workQueueIndex = workQueueIndex;
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                T operation = getNextOperation();
+                if (operation != null) {
+                    runBatch(operation);
+                } else if (!waitForWork()) {
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Waits until an operation has been queued or no more operations will be queued.
+         *
+         * @return whether there may be an operation to take.
+         */
+        private boolean waitForWork() {
+            lock.lock();
+            try {
+                idleWorkers++;
+                try {
+                    // `add()` increments the queued operations before checking for idle workers, so no signal can get lost
+                    while (queueState == QueueState.Working && queuedOperations.get() == 0) {
+                        workAvailable.await();
+                    }
+                } finally {
+                    idleWorkers--;
+                }
+                return queuedOperations.get() > 0;
+            } catch (InterruptedException e) {
+                throw UncheckedException.throwAsUncheckedException(e);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void runBatch(final T firstOperation) {
+            // We need to update pending count outside of withLocks() so that we don't have a race
+            // condition where the pending count is 0, but a child worker lease is still held when
+            // the parent lease is released.
+            completeOperations(
+                // Run while holding worker lease.
+                workerLeases.withLocks(Collections.singleton(parentWorkerLease.createChild()), () -> {
+                    if (allowAccessToProjectState) {
+                        return doRunBatch(firstOperation);
+                    } else {
+                        // Disallow this thread from making any changes to the project locks while it is running the work, see DefaultBuildOperationQueue
+                        return workerLeases.whileDisallowingProjectLockChanges(() -> doRunBatch(firstOperation));
+                    }
+                })
+            );
+        }
+
+        private int doRunBatch(T firstOperation) {
+            int operationCount = 0;
+            T operation = firstOperation;
+            while (operation != null) {
+                if (queueState != QueueState.Cancelled) {
+                    runOperation(operation);
+                }
+                operationCount++;
+                operation = getNextOperation();
+            }
+            return operationCount;
+        }
+
+        /**
+         * Takes the oldest operation from the deque of this worker, or else steals the newest operation from the deque of another worker.
+         */
+        @Nullable
+        private T getNextOperation() {
+            T operation = workQueues[workQueueIndex].pollFirst();
+            for (int i = 1; operation == null && i < workQueues.length; i++) {
+                operation = workQueues[(workQueueIndex + i) % workQueues.length].pollLast();
+            }
+            if (operation != null) {
+                queuedOperations.decrementAndGet();
+            }
+            return operation;
+        }
+
+        private void runOperation(T operation) {
+            try {
+                queueWorker.execute(operation);
+            } catch (Throwable t) {
+                failures.add(t);
+            }
+        }
+    }
+}
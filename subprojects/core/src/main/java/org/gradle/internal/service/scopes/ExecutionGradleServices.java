@@ -155,6 +155,7 @@ public ExecutionEngine createExecutionEngine(
         ValidateStep.ValidationWarningRecorder validationWarningRecorder,
         VirtualFileSystem virtualFileSystem
     ) {
+        boolean fingerprintInputFilesInParallel = Boolean.getBoolean(CaptureStateBeforeExecutionStep.PARALLEL_FINGERPRINTING_PROPERTY);
         // @formatter:off
         return new DefaultExecutionEngine(
             new IdentifyStep<>(inputFingerprinter,
@@ -164,7 +165,7 @@ public ExecutionEngine createExecutionEngine(
             new MarkSnapshottingInputsStartedStep<>(
             new SkipEmptyWorkStep<>(
             new ValidateStep<>(virtualFileSystem, validationWarningRecorder,
-            new CaptureStateBeforeExecutionStep(buildOperationExecutor, classLoaderHierarchyHasher, inputFingerprinter, outputSnapshotter, overlappingOutputDetector,
+            new CaptureStateBeforeExecutionStep(buildOperationExecutor, classLoaderHierarchyHasher, inputFingerprinter, outputSnapshotter, overlappingOutputDetector, fingerprintInputFilesInParallel,
             new ResolveCachingStateStep(buildCacheController, gradleEnterprisePluginManager.isPresent(),
             new MarkSnapshottingInputsFinishedStep<>(
             new ResolveChangesStep<>(changeDetector,
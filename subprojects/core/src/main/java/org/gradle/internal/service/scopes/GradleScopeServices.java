@@ -71,7 +71,9 @@
 import org.gradle.execution.plan.ExecutionNodeAccessHierarchies;
 import org.gradle.execution.plan.ExecutionPlan;
 import org.gradle.execution.plan.LocalTaskNodeExecutor;
+import org.gradle.execution.plan.NodeDurations;
 import org.gradle.execution.plan.NodeExecutor;
+import org.gradle.execution.plan.PersistentNodeDurations;
 import org.gradle.execution.plan.PlanExecutor;
 import org.gradle.execution.plan.TaskDependencyResolver;
 import org.gradle.execution.plan.TaskNodeDependencyResolver;
@@ -92,6 +94,7 @@
 import org.gradle.internal.event.ListenerBroadcast;
 import org.gradle.internal.event.ListenerManager;
 import org.gradle.internal.execution.BuildOutputCleanupRegistry;
+import org.gradle.internal.execution.history.ExecutionHistoryCacheAccess;
 import org.gradle.internal.file.Stat;
 import org.gradle.internal.id.UniqueId;
 import org.gradle.internal.instantiation.InstantiatorFactory;
@@ -233,11 +236,20 @@ ExecutionNodeAccessHierarchies createExecutionNodeAccessHierarchies(FileSystem f
         return new ExecutionNodeAccessHierarchies(fileSystem.isCaseSensitive() ? CaseSensitivity.CASE_SENSITIVE : CaseSensitivity.CASE_INSENSITIVE, stat);
     }
 
+    NodeDurations createNodeDurations(ExecutionHistoryCacheAccess executionHistoryCacheAccess) {
+        // Only open the durations cache when the durations are used
+        if (Boolean.getBoolean(DefaultExecutionPlan.CRITICAL_PATH_SCHEDULING_PROPERTY)) {
+            return new PersistentNodeDurations(executionHistoryCacheAccess);
+        }
+        return NodeDurations.NONE;
+    }
+
     ExecutionPlan createExecutionPlan(
         GradleInternal gradleInternal,
         TaskNodeFactory taskNodeFactory,
         TaskDependencyResolver dependencyResolver,
-        ExecutionNodeAccessHierarchies executionNodeAccessHierarchies
+        ExecutionNodeAccessHierarchies executionNodeAccessHierarchies,
+        NodeDurations nodeDurations
     ) {
         return new DefaultExecutionPlan(
             gradleInternal.getIdentityPath().toString(),
@@ -245,7 +257,8 @@ ExecutionPlan createExecutionPlan(
             dependencyResolver,
             new DefaultNodeValidator(),
             executionNodeAccessHierarchies.getOutputHierarchy(),
-            executionNodeAccessHierarchies.getInputHierarchy()
+            executionNodeAccessHierarchies.getInputHierarchy(),
+            nodeDurations == NodeDurations.NONE ? null : nodeDurations
         );
     }
 
@@ -73,6 +73,7 @@
 import org.gradle.internal.fingerprint.impl.NameOnlyFileCollectionFingerprinter;
 import org.gradle.internal.fingerprint.impl.RelativePathFileCollectionFingerprinter;
 import org.gradle.internal.hash.DefaultFileHasher;
+import org.gradle.internal.hash.FileContentHashFunction;
 import org.gradle.internal.hash.FileHasher;
 import org.gradle.internal.hash.HashCode;
 import org.gradle.internal.hash.StreamHasher;
@@ -82,7 +83,9 @@
 import org.gradle.internal.serialize.HashCodeSerializer;
 import org.gradle.internal.service.ServiceRegistration;
 import org.gradle.internal.snapshot.CaseSensitivity;
+import org.gradle.internal.snapshot.impl.DirectorySnapshotterPool;
 import org.gradle.internal.snapshot.impl.DirectorySnapshotterStatistics;
+import org.gradle.internal.snapshot.impl.PersistentVfsState;
 import org.gradle.internal.vfs.FileSystemAccess;
 import org.gradle.internal.vfs.VirtualFileSystem;
 import org.gradle.internal.vfs.impl.DefaultFileSystemAccess;
@@ -101,6 +104,7 @@
 
 import javax.annotation.Nullable;
 import java.io.File;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -122,6 +126,29 @@ public class VirtualFileSystemServices extends AbstractPluginServiceRegistry {
 
     public static final String MAX_HIERARCHIES_TO_WATCH_PROPERTY = "org.gradle.vfs.watch.hierarchies.max";
 
+    /**
+     * The maximum number of directories to watch on Linux, where every directory requires an inotify watch.
+     * Defaults to three quarters of {@code /proc/sys/fs/inotify/max_user_watches}.
+     */
+    public static final String MAX_DIRECTORIES_TO_WATCH_PROPERTY = "org.gradle.vfs.watch.directories.max";
+
+    /**
+     * When set to {@code true}, directories are snapshotted by walking and hashing their subtrees in parallel.
+     */
+    public static final String PARALLEL_SNAPSHOTTING_PROPERTY = "org.gradle.vfs.snapshotting.parallel";
+
+    /**
+     * When set to {@code true} and file system watching is enabled, the virtual file system is persisted when the daemon stops,
+     * and a new daemon starts with the persisted snapshots which are still up-to-date.
+     */
+    public static final String PERSISTENT_VFS_PROPERTY = "org.gradle.vfs.persistent";
+
+    /**
+     * The number of shards to split the file hashes cache in the Gradle user home into. Defaults to 1, which keeps the cache in a single file.
+     * Sharding does not allow concurrent writes, so it is only an experiment until a benchmark shows a gain.
+     */
+    public static final String FILE_HASHES_SHARDS_PROPERTY = "org.gradle.internal.file-hashes.shards";
+
     private static final int DEFAULT_MAX_HIERARCHIES_TO_WATCH = 50;
     private static final int FILE_HASHER_MEMORY_CACHE_SIZE = 400000;
 
@@ -165,6 +192,11 @@ FileHasherStatistics.Collector createCachingFileHasherStatisticsCollector() {
         DirectorySnapshotterStatistics.Collector createDirectorySnapshotterStatisticsCollector() {
             return new DirectorySnapshotterStatistics.Collector();
         }
+
+        DirectorySnapshotterPool createDirectorySnapshotterPool() {
+            boolean parallel = Boolean.getBoolean(PARALLEL_SNAPSHOTTING_PROPERTY);
+            return new DirectorySnapshotterPool(parallel ? Runtime.getRuntime().availableProcessors() : 1);
+        }
     }
 
     @VisibleForTesting
@@ -180,9 +212,10 @@ FileHasher createCachingFileHasher(
             FileSystem fileSystem,
             GradleUserHomeScopeFileTimeStampInspector fileTimeStampInspector,
             StreamHasher streamHasher,
+            FileContentHashFunction fileContentHashFunction,
             StringInterner stringInterner
         ) {
-            CachingFileHasher fileHasher = new CachingFileHasher(new DefaultFileHasher(streamHasher), fileStore, stringInterner, fileTimeStampInspector, "fileHashes", fileSystem, FILE_HASHER_MEMORY_CACHE_SIZE, statisticsCollector);
+            CachingFileHasher fileHasher = new CachingFileHasher(new DefaultFileHasher(streamHasher), fileStore, stringInterner, fileTimeStampInspector, fileContentHashFunction.qualifyCacheName("fileHashes"), fileSystem, FILE_HASHER_MEMORY_CACHE_SIZE, Integer.getInteger(FILE_HASHES_SHARDS_PROPERTY, 1), statisticsCollector);
             fileTimeStampInspector.attach(fileHasher);
             return fileHasher;
         }
@@ -209,10 +242,19 @@ BuildLifecycleAwareVirtualFileSystem createVirtualFileSystem(
             NativeCapabilities nativeCapabilities,
             ListenerManager listenerManager,
             FileSystem fileSystem,
-            GlobalCacheLocations globalCacheLocations
+            GlobalCacheLocations globalCacheLocations,
+            CacheScopeMapping cacheScopeMapping,
+            FileContentHashFunction fileContentHashFunction,
+            StringInterner stringInterner
         ) {
             CaseSensitivity caseSensitivity = fileSystem.isCaseSensitive() ? CASE_SENSITIVE : CASE_INSENSITIVE;
             VfsRootReference rootReference = new VfsRootReference(DefaultSnapshotHierarchy.empty(caseSensitivity));
+            PersistentVfsState persistentState = Boolean.getBoolean(PERSISTENT_VFS_PROPERTY)
+                ? new PersistentVfsState(
+                    new File(cacheScopeMapping.getBaseDirectory(null, "vfs", VersionStrategy.CachePerVersion), fileContentHashFunction.qualifyCacheName("vfs-state") + ".bin"),
+                    () -> Arrays.asList(DirectoryScanner.getDefaultExcludes()),
+                    stringInterner)
+                : null;
             // All the changes in global caches should be done by Gradle itself, so in order
             // to minimize the number of watches we don't watch anything within the global caches.
             Predicate<String> watchFilter = path -> !globalCacheLocations.isInsideGlobalCache(path);
@@ -222,7 +264,8 @@ BuildLifecycleAwareVirtualFileSystem createVirtualFileSystem(
                     watcherRegistryFactory,
                     rootReference,
                     sectionId -> documentationRegistry.getDocumentationFor("gradle_daemon", sectionId),
-                    locationsWrittenByCurrentBuild
+                    locationsWrittenByCurrentBuild,
+                    persistentState
                 ))
                 .orElse(new WatchingNotSupportedVirtualFileSystem(rootReference));
             listenerManager.addListener((BuildAddedListener) buildState ->
@@ -239,7 +282,8 @@ FileSystemAccess createFileSystemAccess(
             ListenerManager listenerManager,
             PatternSpecFactory patternSpecFactory,
             FileSystemAccess.WriteListener writeListener,
-            DirectorySnapshotterStatistics.Collector statisticsCollector
+            DirectorySnapshotterStatistics.Collector statisticsCollector,
+            DirectorySnapshotterPool directorySnapshotterPool
         ) {
             DefaultFileSystemAccess fileSystemAccess = new DefaultFileSystemAccess(
                 hasher,
@@ -248,6 +292,7 @@ FileSystemAccess createFileSystemAccess(
                 virtualFileSystem,
                 writeListener,
                 statisticsCollector,
+                directorySnapshotterPool,
                 DirectoryScanner.getDefaultExcludes()
             );
             listenerManager.addListener(new DefaultExcludesBuildListener(fileSystemAccess) {
@@ -284,7 +329,10 @@ private Optional<FileWatcherRegistryFactory> determineWatcherRegistryFactory(Ope
                     } else if (operatingSystem.isWindows()) {
                         return Optional.of(new WindowsFileWatcherRegistryFactory(watchFilter));
                     } else if (operatingSystem.isLinux()) {
-                        return Optional.of(new LinuxFileWatcherRegistryFactory(watchFilter));
+                        Integer maximumNumberOfWatchedDirectories = Integer.getInteger(MAX_DIRECTORIES_TO_WATCH_PROPERTY);
+                        return Optional.of(maximumNumberOfWatchedDirectories != null
+                            ? new LinuxFileWatcherRegistryFactory(watchFilter, maximumNumberOfWatchedDirectories)
+                            : new LinuxFileWatcherRegistryFactory(watchFilter));
                     }
                 } catch (NativeIntegrationUnavailableException e) {
                     LOGGER.debug("Native file system watching is not available for this operating system.", e);
@@ -332,10 +380,11 @@ FileHasher createFileHasher(
             FileHasher globalHasher,
             FileSystem fileSystem,
             StreamHasher streamHasher,
+            FileContentHashFunction fileContentHashFunction,
             StringInterner stringInterner,
             FileHasherStatistics.Collector statisticsCollector
         ) {
-            CachingFileHasher localHasher = new CachingFileHasher(new DefaultFileHasher(streamHasher), cacheAccess, stringInterner, fileTimeStampInspector, "fileHashes", fileSystem, FILE_HASHER_MEMORY_CACHE_SIZE, statisticsCollector);
+            CachingFileHasher localHasher = new CachingFileHasher(new DefaultFileHasher(streamHasher), cacheAccess, stringInterner, fileTimeStampInspector, fileContentHashFunction.qualifyCacheName("fileHashes"), fileSystem, FILE_HASHER_MEMORY_CACHE_SIZE, 1, statisticsCollector);
             return new SplitFileHasher(globalHasher, localHasher, globalCacheLocations);
         }
 
@@ -346,7 +395,8 @@ FileSystemAccess createFileSystemAccess(
             StringInterner stringInterner,
             VirtualFileSystem root,
             FileSystemAccess.WriteListener writeListener,
-            DirectorySnapshotterStatistics.Collector statisticsCollector
+            DirectorySnapshotterStatistics.Collector statisticsCollector,
+            DirectorySnapshotterPool directorySnapshotterPool
         ) {
             DefaultFileSystemAccess buildSessionsScopedVirtualFileSystem = new DefaultFileSystemAccess(
                 hasher,
@@ -355,6 +405,7 @@ FileSystemAccess createFileSystemAccess(
                 root,
                 writeListener,
                 statisticsCollector,
+                directorySnapshotterPool,
                 DirectoryScanner.getDefaultExcludes()
             );
 
@@ -39,6 +39,7 @@
 import org.gradle.internal.file.Deleter;
 import org.gradle.internal.file.impl.DefaultDeleter;
 import org.gradle.internal.hash.DefaultStreamHasher;
+import org.gradle.internal.hash.FileContentHashFunction;
 import org.gradle.internal.hash.StreamHasher;
 import org.gradle.internal.instantiation.InstantiatorFactory;
 import org.gradle.internal.logging.events.OutputEventListener;
@@ -103,8 +104,12 @@ DefaultFilePropertyFactory createFilePropertyFactory(PropertyHost propertyHost,
         return new DefaultFilePropertyFactory(propertyHost, fileResolver, fileCollectionFactory);
     }
 
-    StreamHasher createStreamHasher() {
-        return new DefaultStreamHasher();
+    FileContentHashFunction createFileContentHashFunction() {
+        return FileContentHashFunction.fromSystemProperties();
+    }
+
+    StreamHasher createStreamHasher(FileContentHashFunction fileContentHashFunction) {
+        return new DefaultStreamHasher(fileContentHashFunction.getHashFunction());
     }
 
     Deleter createDeleter(Clock clock, FileSystem fileSystem, OperatingSystem os) {
@@ -66,7 +66,8 @@ class BuildCacheControllerFactoryTest extends Specification {
             ONLINE,
             logStacktraces,
             emitDebugLogging,
-            TestUtil.instantiatorFactory().inject()
+            TestUtil.instantiatorFactory().inject(),
+            null
         )
         assert controllerType.isInstance(controller)
         controllerType.cast(controller)
@@ -221,6 +221,89 @@ class DefaultExecutionPlanParallelTest extends AbstractExecutionPlanSpec {
 
     }
 
+    def "tasks that become ready out of order are selected in execution order"() {
+        given:
+        Task a = task("a", type: Async)
+        Task b = task("b", type: Async)
+        Task c = task("c", type: Async, dependsOn: [a])
+        Task d = task("d", type: Async, dependsOn: [b])
+
+        when:
+        addToGraphAndPopulate(c, d)
+        def aNode = selectNextTaskNode()
+        def bNode = selectNextTaskNode()
+        then:
+        aNode.task == a
+        bNode.task == b
+        selectNextTask() == null
+
+        when:
+        executionPlan.finishedExecuting(bNode)
+        executionPlan.finishedExecuting(aNode)
+        then:
+        selectNextTask() == c
+        selectNextTask() == d
+        selectNextTask() == null
+    }
+
+    def "tasks on the critical path are started first when prioritizing by duration"() {
+        given:
+        def durations = [a: 10L, b: 100L, c: 1L, d: 50L]
+        prioritizeByDuration(durations)
+        Task a = task("a", type: Async)
+        Task b = task("b", type: Async)
+        Task c = task("c", type: Async)
+        Task d = task("d", type: Async, dependsOn: [c])
+
+        when:
+        addToGraphAndPopulate(a, b, d)
+
+        then:
+        selectNextTask() == b
+        selectNextTask() == c
+        selectNextTask() == a
+        selectNextTask() == null
+    }
+
+    def "entry tasks are started in order when prioritizing by duration"() {
+        given:
+        prioritizeByDuration([a: 10L, b: 100L, c: 1L, d: 50L])
+        Task a = task("a", type: Async)
+        Task b = task("b", type: Async)
+        Task c = task("c", type: Async)
+        Task d = task("d", type: Async, dependsOn: [c])
+
+        when:
+        executionPlan.addEntryTasks([a])
+        executionPlan.addEntryTasks([b, d])
+        executionPlan.determineExecutionPlan()
+
+        then:
+        selectNextTask() == a
+        selectNextTask() == b
+        selectNextTask() == c
+        selectNextTask() == null
+    }
+
+    def "tasks which may destroy outputs keep their position when prioritizing by duration"() {
+        given:
+        prioritizeByDuration([a: 10L, b: 1L, c: 100L, d: 50L], ["b"])
+        Task a = task("a", type: Async)
+        Task b = task("b", type: Async)
+        Task c = task("c", type: Async)
+        Task d = task("d", type: Async)
+
+        when:
+        addToGraphAndPopulate(a, b, c, d)
+
+        then:
+        selectNextTask() == a
+        selectNextTask() == b
+        selectNextTask() == c
+        selectNextTask() == d
+        selectNextTask() == null
+    }
+
     def "two tasks that have the same file in outputs are not executed in parallel"() {
         def sharedFile = file("output")
 
@@ -865,6 +948,16 @@ class DefaultExecutionPlanParallelTest extends AbstractExecutionPlanSpec {
         assert tasks as Set == [first, second] as Set
     }
 
+    private void prioritizeByDuration(Map<String, Long> durations, List<String> destroyers = []) {
+        def nodeDurations = Stub(NodeDurations) {
+            getEstimatedDuration(_) >> { Node node -> durations[((TaskNode) node).task.name] }
+            mayDestroyOutputs(_) >> { Node node -> ((TaskNode) node).task.name in destroyers }
+        }
+        def taskNodeFactory = new TaskNodeFactory(project.gradle, Stub(IncludedBuildTaskGraph))
+        def dependencyResolver = new TaskDependencyResolver([new TaskNodeDependencyResolver(taskNodeFactory)])
+        executionPlan = new DefaultExecutionPlan(Path.ROOT.toString(), taskNodeFactory, dependencyResolver, nodeValidator, new ExecutionNodeAccessHierarchy(CASE_SENSITIVE, fs), new ExecutionNodeAccessHierarchy(CASE_SENSITIVE, fs), nodeDurations)
+    }
+
     private void addToGraphAndPopulate(Task... tasks) {
         executionPlan.addEntryTasks(Arrays.asList(tasks))
         executionPlan.determineExecutionPlan()
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.execution.plan
+
+import org.gradle.internal.snapshot.CaseSensitivity
+import spock.lang.Specification
+
+class NodeLocationHierarchyTest extends Specification {
+    def hierarchy = new NodeLocationHierarchy(CaseSensitivity.CASE_SENSITIVE)
+
+    def "finds nodes accessing ancestors and descendants"() {
+        def node1 = Mock(Node)
+        def node2 = Mock(Node)
+        def node3 = Mock(Node)
+        hierarchy.recordLocations(node1, ["/some/location"])
+        hierarchy.recordLocations(node2, ["/some/other/location"])
+        hierarchy.recordLocations(node3, ["/some/other/third"])
+
+        expect:
+        assertNodesAccessing(["/some"], node1, node2, node3)
+        assertNodesAccessing(["/some/other"], node2, node3)
+        assertNodesAccessing(["/some/other/third/sub/dir"], node3)
+        assertNodesAccessing(["/some/location", "/some/other/third"], node1, node3)
+        assertNodesAccessing(["/some/different", "/some/other/locations"])
+        assertNodesAccessing(["/"], node1, node2, node3)
+    }
+
+    def "removed nodes are not found any more"() {
+        def node1 = Mock(Node)
+        def node2 = Mock(Node)
+        def child = Mock(Node)
+        hierarchy.recordLocations(node1, ["/some/location", "/some/other"])
+        hierarchy.recordLocations(node2, ["/some/location"])
+        hierarchy.recordLocations(child, ["/some/location/child"])
+
+        when:
+        hierarchy.removeLocations(node1, ["/some/location", "/some/other"])
+        then:
+        assertNodesAccessing(["/some/location"], node2, child)
+        assertNodesAccessing(["/some/other"])
+
+        when:
+        hierarchy.removeLocations(child, ["/some/location/child"])
+        hierarchy.removeLocations(node2, ["/some/location"])
+        then:
+        assertNodesAccessing(["/"])
+    }
+
+    def "removing a location which has not been recorded for the node has no effect"() {
+        def node1 = Mock(Node)
+        def node2 = Mock(Node)
+        hierarchy.recordLocations(node1, ["/some/location"])
+
+        when:
+        hierarchy.removeLocations(node2, ["/some/location", "/some/location/child", "/some"])
+        then:
+        assertNodesAccessing(["/some/location"], node1)
+    }
+
+    def "can clear the hierarchy"() {
+        hierarchy.recordLocations(Mock(Node), ["/some/location"])
+
+        when:
+        hierarchy.clear()
+        then:
+        assertNodesAccessing(["/some/location"])
+    }
+
+    void assertNodesAccessing(List<String> locations, Node... nodes) {
+        assert hierarchy.getNodesAccessingAnyOf(locations) == (nodes as Set)
+        assert hierarchy.hasNodesAccessingAnyOf(locations) == (nodes.length > 0)
+    }
+}
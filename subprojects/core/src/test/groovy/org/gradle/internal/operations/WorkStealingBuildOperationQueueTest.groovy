@@ -0,0 +1,136 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.internal.operations
+
+import org.gradle.api.GradleException
+import org.gradle.internal.concurrent.DefaultParallelismConfiguration
+import org.gradle.internal.operations.DefaultBuildOperationQueueTest.Failure
+import org.gradle.internal.operations.DefaultBuildOperationQueueTest.SimpleWorker
+import org.gradle.internal.operations.DefaultBuildOperationQueueTest.Success
+import org.gradle.internal.operations.DefaultBuildOperationQueueTest.SynchronizedBuildOperation
+import org.gradle.internal.operations.DefaultBuildOperationQueueTest.TestBuildOperation
+import org.gradle.internal.resources.DefaultResourceLockCoordinationService
+import org.gradle.internal.work.DefaultWorkerLeaseService
+import org.gradle.internal.work.WorkerLeaseService
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+
+class WorkStealingBuildOperationQueueTest extends Specification {
+
+    BuildOperationQueue operationQueue
+    WorkerLeaseService workerRegistry
+
+    void setupQueue(int threads) {
+        workerRegistry = new DefaultWorkerLeaseService(new DefaultResourceLockCoordinationService(), new DefaultParallelismConfiguration(true, threads)) {}
+        operationQueue = new WorkStealingBuildOperationQueue(false, workerRegistry, Executors.newFixedThreadPool(threads), new SimpleWorker())
+    }
+
+    def "cleanup"() {
+        workerRegistry.stop()
+    }
+
+    @Unroll
+    def "executes all #runs operations in #threads threads"() {
+        given:
+        setupQueue(threads)
+        def success = Mock(TestBuildOperation)
+
+        when:
+        runs.times { operationQueue.add(success) }
+
+        and:
+        operationQueue.waitForCompletion()
+
+        then:
+        runs * success.run(_)
+
+        where:
+        runs | threads
+        0    | 1
+        0    | 4
+        1    | 1
+        1    | 4
+        5    | 1
+        5    | 4
+        1000 | 1
+        1000 | 4
+        1000 | 10
+    }
+
+    def "cannot use operation queue once it has completed"() {
+        given:
+        setupQueue(1)
+        operationQueue.waitForCompletion()
+
+        when:
+        operationQueue.add(Mock(TestBuildOperation))
+
+        then:
+        thrown IllegalStateException
+    }
+
+    @Unroll
+    def "failures propagate to caller with #threads threads"() {
+        given:
+        setupQueue(threads)
+        def operations = (1..100).collect { it % 3 == 0 ? new Failure() : new Success() }
+        operations.each { operationQueue.add(it) }
+
+        when:
+        operationQueue.waitForCompletion()
+
+        then:
+        MultipleBuildOperationFailures e = thrown()
+        e.getCauses().every({ it instanceof GradleException })
+        e.getCauses().size() == 33
+
+        where:
+        threads << [1, 4, 10]
+    }
+
+    @Unroll
+    def "when queue is canceled, unstarted operations do not execute (#threads threads)"() {
+        CountDownLatch startedLatch = new CountDownLatch(1)
+        CountDownLatch releaseLatch = new CountDownLatch(1)
+        def operationAction = Mock(Runnable)
+
+        given:
+        setupQueue(threads)
+
+        when:
+        20.times { operationQueue.add(new SynchronizedBuildOperation(operationAction, startedLatch, releaseLatch)) }
+        // wait for an operation to begin running
+        startedLatch.await()
+
+        and:
+        operationQueue.cancel()
+
+        and:
+        // release the running operations to complete
+        releaseLatch.countDown()
+        operationQueue.waitForCompletion()
+
+        then:
+        (1..threads) * operationAction.run()
+
+        where:
+        threads << [1, 4, 10]
+    }
+}
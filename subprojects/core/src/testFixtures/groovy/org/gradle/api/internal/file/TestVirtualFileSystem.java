@@ -19,6 +19,7 @@
 import org.gradle.internal.snapshot.SnapshotHierarchy;
 import org.gradle.internal.vfs.impl.AbstractVirtualFileSystem;
 import org.gradle.internal.vfs.impl.VfsRootReference;
+import org.gradle.internal.vfs.impl.VfsRootReference.PreparedUpdate;
 
 public class TestVirtualFileSystem extends AbstractVirtualFileSystem {
 
@@ -27,8 +28,8 @@ public TestVirtualFileSystem(SnapshotHierarchy root) {
     }
 
     @Override
-    protected SnapshotHierarchy updateNotifyingListeners(UpdateFunction updateFunction) {
-        return updateFunction.update(SnapshotHierarchy.NodeDiffListener.NOOP);
+    protected PreparedUpdate prepareNotifyingUpdate(UpdateFunction updateFunction) {
+        return PreparedUpdate.of(updateFunction.update(SnapshotHierarchy.NodeDiffListener.NOOP));
     }
 
     public void setRoot(SnapshotHierarchy newRoot) {
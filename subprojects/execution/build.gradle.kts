@@ -1,5 +1,6 @@
 plugins {
     id("gradlebuild.distribution.api-java")
+    id("gradlebuild.jmh")
 }
 
 description = "Execution engine that takes a unit of work and makes it happen"
@@ -40,4 +41,6 @@ dependencies {
     testFixturesImplementation(project(":model-core"))
 
     integTestDistributionRuntimeOnly(project(":distributions-core"))
+
+    jmhImplementation(platform(project(":distributions-dependencies")))
 }
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.internal.execution.history.impl;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.Interners;
+import org.gradle.caching.internal.origin.OriginMetadata;
+import org.gradle.internal.execution.history.AfterPreviousExecutionState;
+import org.gradle.internal.file.FileMetadata.AccessType;
+import org.gradle.internal.file.impl.DefaultFileMetadata;
+import org.gradle.internal.fingerprint.CurrentFileCollectionFingerprint;
+import org.gradle.internal.fingerprint.FileCollectionFingerprint;
+import org.gradle.internal.fingerprint.impl.AbsolutePathFingerprintingStrategy;
+import org.gradle.internal.fingerprint.impl.DefaultCurrentFileCollectionFingerprint;
+import org.gradle.internal.hash.HashCode;
+import org.gradle.internal.serialize.kryo.KryoBackedDecoder;
+import org.gradle.internal.serialize.kryo.KryoBackedEncoder;
+import org.gradle.internal.snapshot.DirectorySnapshot;
+import org.gradle.internal.snapshot.FileSystemLocationSnapshot;
+import org.gradle.internal.snapshot.FileSystemSnapshot;
+import org.gradle.internal.snapshot.PathUtil;
+import org.gradle.internal.snapshot.RegularFileSnapshot;
+import org.gradle.internal.snapshot.impl.ImplementationSnapshot;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures loading and storing the execution history of work with large inputs and outputs.
+ *
+ * <p>Run with {@code -prof gc} to see the allocations per operation ({@code gc.alloc.rate.norm}).</p>
+ */
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+public class ExecutionHistorySerializationBenchmark {
+    private static final int FILES_PER_DIRECTORY = 20;
+
+    @Param("100000")
+    int fileCount;
+
+    private DefaultPreviousExecutionStateSerializer serializer;
+    private AfterPreviousExecutionState state;
+    private byte[] serializedState;
+
+    @Setup
+    public void setup() throws Exception {
+        serializer = new DefaultPreviousExecutionStateSerializer(
+            new FileCollectionFingerprintSerializer(Interners.newWeakInterner()),
+            new FileSystemSnapshotSerializer(Interners.newWeakInterner())
+        );
+        FileSystemSnapshot inputs = directory("/work/inputs", "inputs", fileCount);
+        FileSystemSnapshot outputs = directory("/work/outputs", "outputs", fileCount);
+        CurrentFileCollectionFingerprint inputFingerprint = DefaultCurrentFileCollectionFingerprint.from(inputs, AbsolutePathFingerprintingStrategy.DEFAULT);
+        state = new DefaultAfterPreviousExecutionState(
+            new OriginMetadata("build-id", 1234),
+            ImplementationSnapshot.of("org.example.Work", HashCode.fromInt(1)),
+            ImmutableList.of(),
+            ImmutableSortedMap.of(),
+            ImmutableSortedMap.of("inputs", new SerializableFileCollectionFingerprint(inputFingerprint.getFingerprints(), inputFingerprint.getRootHashes(), inputFingerprint.getHashTree())),
+            ImmutableSortedMap.of("outputs", outputs),
+            true
+        );
+        serializedState = serialize(state);
+    }
+
+    @Benchmark
+    public AfterPreviousExecutionState load_unchanged_inputs() throws Exception {
+        AfterPreviousExecutionState loaded = serializer.read(new KryoBackedDecoder(new ByteArrayInputStream(serializedState)));
+        // Unchanged inputs are detected by comparing the root hashes
+        for (FileCollectionFingerprint fingerprint : loaded.getInputFileProperties().values()) {
+            fingerprint.getRootHashes();
+        }
+        return loaded;
+    }
+
+    @Benchmark
+    public AfterPreviousExecutionState load_changed_inputs() throws Exception {
+        AfterPreviousExecutionState loaded = serializer.read(new KryoBackedDecoder(new ByteArrayInputStream(serializedState)));
+        for (FileCollectionFingerprint fingerprint : loaded.getInputFileProperties().values()) {
+            fingerprint.getFingerprints();
+        }
+        return loaded;
+    }
+
+    @Benchmark
+    public byte[] store() throws Exception {
+        return serialize(state);
+    }
+
+    private byte[] serialize(AfterPreviousExecutionState state) throws Exception {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        try (KryoBackedEncoder encoder = new KryoBackedEncoder(outputStream)) {
+            serializer.write(encoder, state);
+        }
+        return outputStream.toByteArray();
+    }
+
+    private static DirectorySnapshot directory(String absolutePath, String name, int fileBudget) {
+        List<FileSystemLocationSnapshot> children = new ArrayList<>();
+        int files = Math.min(FILES_PER_DIRECTORY, fileBudget);
+        for (int i = 0; i < files; i++) {
+            String fileName = "File" + i + ".class";
+            children.add(new RegularFileSnapshot(absolutePath + "/" + fileName, fileName, HashCode.fromInt(absolutePath.hashCode() + i), DefaultFileMetadata.file(i, i, AccessType.DIRECT)));
+        }
+        int remainingFiles = fileBudget - files;
+        if (remainingFiles > 0) {
+            int subdirectories = Math.min(FILES_PER_DIRECTORY, (remainingFiles + FILES_PER_DIRECTORY - 1) / FILES_PER_DIRECTORY);
+            for (int i = 0; i < subdirectories; i++) {
+                String directoryName = "dir" + i;
+                children.add(directory(absolutePath + "/" + directoryName, directoryName, remainingFiles / subdirectories));
+            }
+        }
+        children.sort(Comparator.comparing(FileSystemLocationSnapshot::getName, PathUtil::compareFileNames));
+        return new DirectorySnapshot(absolutePath, name, AccessType.DIRECT, HashCode.fromInt(absolutePath.hashCode()), children);
+    }
+}
@@ -18,8 +18,11 @@
 
 import org.gradle.internal.fingerprint.FileCollectionFingerprint;
 import org.gradle.internal.fingerprint.FileSystemLocationFingerprint;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 public abstract class AbstractFingerprintCompareStrategy extends CompareStrategy<FileCollectionFingerprint, FileSystemLocationFingerprint> implements FingerprintCompareStrategy {
+    private static final Logger LOGGER = LoggerFactory.getLogger(AbstractFingerprintCompareStrategy.class);
 
     protected static final ChangeFactory<FileSystemLocationFingerprint> FINGERPRINT_CHANGE_FACTORY = new ChangeFactory<FileSystemLocationFingerprint>() {
         @Override
@@ -57,4 +60,17 @@ public AbstractFingerprintCompareStrategy(ChangeDetector<FileSystemLocationFinge
             new TrivialChangeDetector<>(ITEM_COMPARATOR, FINGERPRINT_CHANGE_FACTORY, changeDetector)
         );
     }
+
+    @Override
+    public boolean visitChangesSince(FileCollectionFingerprint previous, FileCollectionFingerprint current, String propertyTitle, ChangeVisitor visitor) {
+        if (hasSameRootHashes(previous, current)) {
+            return true;
+        }
+        ChangedSubtrees changedSubtrees = ChangedSubtrees.between(previous, current);
+        if (changedSubtrees.getUnchangedSubtrees() > 0) {
+            LOGGER.debug("Comparing {} of {} fingerprints for {}, skipped {} unchanged subtrees",
+                changedSubtrees.getCurrent().size(), current.getFingerprints().size(), propertyTitle, changedSubtrees.getUnchangedSubtrees());
+        }
+        return detectChanges(changedSubtrees.getPrevious(), changedSubtrees.getCurrent(), propertyTitle, visitor);
+    }
 }
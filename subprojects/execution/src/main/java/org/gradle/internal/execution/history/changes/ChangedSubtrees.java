@@ -0,0 +1,186 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.internal.execution.history.changes;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.gradle.internal.fingerprint.FileCollectionFingerprint;
+import org.gradle.internal.fingerprint.FileSystemLocationFingerprint;
+import org.gradle.internal.fingerprint.FingerprintHashTree;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The fingerprints of two file collection fingerprints which need to be compared one by one.
+ *
+ * <p>The {@link FingerprintHashTree}s of both fingerprints are compared top-down, starting from the roots.
+ * Subtrees with the same Merkle hash and the same number of fingerprints are unchanged,
+ * so the fingerprints in them are left out.</p>
+ */
+class ChangedSubtrees {
+    private final Map<String, FileSystemLocationFingerprint> previous;
+    private final Map<String, FileSystemLocationFingerprint> current;
+    private final int unchangedSubtrees;
+    private final int unchangedFingerprints;
+
+    private ChangedSubtrees(Map<String, FileSystemLocationFingerprint> previous, Map<String, FileSystemLocationFingerprint> current, int unchangedSubtrees, int unchangedFingerprints) {
+        this.previous = previous;
+        this.current = current;
+        this.unchangedSubtrees = unchangedSubtrees;
+        this.unchangedFingerprints = unchangedFingerprints;
+    }
+
+    public static ChangedSubtrees between(FileCollectionFingerprint previous, FileCollectionFingerprint current) {
+        Map<String, FileSystemLocationFingerprint> previousFingerprints = previous.getFingerprints();
+        Map<String, FileSystemLocationFingerprint> currentFingerprints = current.getFingerprints();
+        if (previousFingerprints.isEmpty() || currentFingerprints.isEmpty()) {
+            return new ChangedSubtrees(previousFingerprints, currentFingerprints, 0, 0);
+        }
+        FingerprintHashTree previousTree = previous.getHashTree();
+        FingerprintHashTree currentTree = current.getHashTree();
+        if (!covers(previousTree, previousFingerprints) || !covers(currentTree, currentFingerprints) || !haveSameRoots(previousTree, currentTree)) {
+            return new ChangedSubtrees(previousFingerprints, currentFingerprints, 0, 0);
+        }
+
+        Collector collector = new Collector(previousTree, currentTree);
+        for (int previousRoot = 0, currentRoot = 0;
+             previousRoot < previousTree.size();
+             previousRoot += previousTree.getSubtreeSize(previousRoot), currentRoot += currentTree.getSubtreeSize(currentRoot)) {
+            collector.collect(previousRoot, currentRoot);
+        }
+        if (collector.unchangedSubtrees == 0) {
+            return new ChangedSubtrees(previousFingerprints, currentFingerprints, 0, 0);
+        }
+        return new ChangedSubtrees(
+            remaining(previousFingerprints, collector.unchangedInPrevious),
+            remaining(currentFingerprints, collector.unchangedInCurrent),
+            collector.unchangedSubtrees,
+            collector.unchangedFingerprints
+        );
+    }
+
+    public Map<String, FileSystemLocationFingerprint> getPrevious() {
+        return previous;
+    }
+
+    public Map<String, FileSystemLocationFingerprint> getCurrent() {
+        return current;
+    }
+
+    /**
+     * The number of subtrees which have been left out.
+     */
+    public int getUnchangedSubtrees() {
+        return unchangedSubtrees;
+    }
+
+    /**
+     * The number of fingerprints which have been left out from each side.
+     */
+    public int getUnchangedFingerprints() {
+        return unchangedFingerprints;
+    }
+
+    /**
+     * Whether the tree accounts for all the fingerprints.
+     */
+    private static boolean covers(FingerprintHashTree tree, Map<String, FileSystemLocationFingerprint> fingerprints) {
+        if (tree.isEmpty()) {
+            return false;
+        }
+        int fingerprintCount = 0;
+        for (int root = 0; root < tree.size(); root += tree.getSubtreeSize(root)) {
+            fingerprintCount += tree.getFingerprintCount(root);
+        }
+        return fingerprintCount == fingerprints.size();
+    }
+
+    private static boolean haveSameRoots(FingerprintHashTree previous, FingerprintHashTree current) {
+        int previousRoot = 0;
+        int currentRoot = 0;
+        while (previousRoot < previous.size() && currentRoot < current.size()) {
+            if (!previous.getName(previousRoot).equals(current.getName(currentRoot))) {
+                return false;
+            }
+            previousRoot += previous.getSubtreeSize(previousRoot);
+            currentRoot += current.getSubtreeSize(currentRoot);
+        }
+        return previousRoot == previous.size() && currentRoot == current.size();
+    }
+
+    private static Map<String, FileSystemLocationFingerprint> remaining(Map<String, FileSystemLocationFingerprint> fingerprints, BitSet unchanged) {
+        List<Map.Entry<String, FileSystemLocationFingerprint>> entries = fingerprints instanceof ImmutableMap
+            ? ((ImmutableMap<String, FileSystemLocationFingerprint>) fingerprints).entrySet().asList()
+            : ImmutableList.copyOf(fingerprints.entrySet());
+        int size = entries.size();
+        ImmutableMap.Builder<String, FileSystemLocationFingerprint> builder = ImmutableMap.builderWithExpectedSize(size - unchanged.cardinality());
+        for (int index = unchanged.nextClearBit(0); index < size; index = unchanged.nextClearBit(index + 1)) {
+            builder.put(entries.get(index));
+        }
+        return builder.build();
+    }
+
+    private static class Collector {
+        private final FingerprintHashTree previous;
+        private final FingerprintHashTree current;
+        private final BitSet unchangedInPrevious = new BitSet();
+        private final BitSet unchangedInCurrent = new BitSet();
+        private int unchangedSubtrees;
+        private int unchangedFingerprints;
+
+        public Collector(FingerprintHashTree previous, FingerprintHashTree current) {
+            this.previous = previous;
+            this.current = current;
+        }
+
+        public void collect(int previousNode, int currentNode) {
+            int fingerprintCount = previous.getFingerprintCount(previousNode);
+            if (fingerprintCount == current.getFingerprintCount(currentNode)
+                && previous.getHash(previousNode).equals(current.getHash(currentNode))) {
+                if (fingerprintCount > 0) {
+                    int previousFirst = previous.getFirstFingerprint(previousNode);
+                    int currentFirst = current.getFirstFingerprint(currentNode);
+                    unchangedInPrevious.set(previousFirst, previousFirst + fingerprintCount);
+                    unchangedInCurrent.set(currentFirst, currentFirst + fingerprintCount);
+                    unchangedSubtrees++;
+                    unchangedFingerprints += fingerprintCount;
+                }
+                return;
+            }
+
+            int previousEnd = previousNode + previous.getSubtreeSize(previousNode);
+            int currentEnd = currentNode + current.getSubtreeSize(currentNode);
+            if (previousNode + 1 == previousEnd || currentNode + 1 == currentEnd) {
+                // No sub-directories on one of the sides
+                return;
+            }
+            Map<String, Integer> currentChildren = new HashMap<>();
+            for (int currentChild = currentNode + 1; currentChild < currentEnd; currentChild += current.getSubtreeSize(currentChild)) {
+                currentChildren.put(current.getName(currentChild), currentChild);
+            }
+            for (int previousChild = previousNode + 1; previousChild < previousEnd; previousChild += previous.getSubtreeSize(previousChild)) {
+                Integer currentChild = currentChildren.get(previous.getName(previousChild));
+                if (currentChild != null) {
+                    collect(previousChild, currentChild);
+                }
+            }
+        }
+    }
+}
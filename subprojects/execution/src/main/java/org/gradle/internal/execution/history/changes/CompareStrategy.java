@@ -39,10 +39,18 @@ public CompareStrategy(
     }
 
     public boolean visitChangesSince(C previous, C current, String propertyTitle, ChangeVisitor visitor) {
-        if (Iterables.elementsEqual(rootHasher.apply(previous).entries(), rootHasher.apply(current).entries())) {
+        if (hasSameRootHashes(previous, current)) {
             return true;
         }
-        return changeDetector.visitChangesSince(indexer.apply(previous), indexer.apply(current), propertyTitle, visitor);
+        return detectChanges(indexer.apply(previous), indexer.apply(current), propertyTitle, visitor);
+    }
+
+    protected boolean hasSameRootHashes(C previous, C current) {
+        return Iterables.elementsEqual(rootHasher.apply(previous).entries(), rootHasher.apply(current).entries());
+    }
+
+    protected boolean detectChanges(Map<String, S> previous, Map<String, S> current, String propertyTitle, ChangeVisitor visitor) {
+        return changeDetector.visitChangesSince(previous, current, propertyTitle, visitor);
     }
 
     public interface ChangeDetector<S> {
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.internal.execution.history.impl;
+
+import com.google.common.collect.ImmutableMultimap;
+import org.gradle.internal.fingerprint.FileCollectionFingerprint;
+import org.gradle.internal.fingerprint.FileSystemLocationFingerprint;
+import org.gradle.internal.fingerprint.FingerprintHashTree;
+import org.gradle.internal.hash.HashCode;
+
+import java.util.Map;
+
+/**
+ * A file collection fingerprint loaded from the execution history, which keeps its fingerprints in encoded form until they are needed.
+ *
+ * <p>Change detection only needs the root hashes as long as the inputs didn't change,
+ * so for most work the fingerprints are never decoded.</p>
+ */
+class EncodedFileCollectionFingerprint implements FileCollectionFingerprint {
+    private final int fingerprintCount;
+    private final ImmutableMultimap<String, HashCode> rootHashes;
+    private final byte[] encodedFingerprints;
+    private final FileCollectionFingerprintSerializer serializer;
+    private volatile SerializableFileCollectionFingerprint decoded;
+
+    EncodedFileCollectionFingerprint(int fingerprintCount, ImmutableMultimap<String, HashCode> rootHashes, byte[] encodedFingerprints, FileCollectionFingerprintSerializer serializer) {
+        this.fingerprintCount = fingerprintCount;
+        this.rootHashes = rootHashes;
+        this.encodedFingerprints = encodedFingerprints;
+        this.serializer = serializer;
+    }
+
+    @Override
+    public Map<String, FileSystemLocationFingerprint> getFingerprints() {
+        return decode().getFingerprints();
+    }
+
+    @Override
+    public ImmutableMultimap<String, HashCode> getRootHashes() {
+        return rootHashes;
+    }
+
+    @Override
+    public FingerprintHashTree getHashTree() {
+        return decode().getHashTree();
+    }
+
+    public int getFingerprintCount() {
+        return fingerprintCount;
+    }
+
+    /**
+     * The encoded fingerprints, which must not be modified.
+     */
+    public byte[] getEncodedFingerprints() {
+        return encodedFingerprints;
+    }
+
+    private SerializableFileCollectionFingerprint decode() {
+        SerializableFileCollectionFingerprint result = decoded;
+        if (result == null) {
+            // Decoding concurrently only does some work twice, the results are equivalent
+            result = serializer.decodeFingerprints(encodedFingerprints, rootHashes);
+            decoded = result;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.internal.execution.history.impl;
+
+import com.google.common.collect.ImmutableMultimap;
+import org.gradle.internal.hash.HashCode;
+import org.gradle.internal.snapshot.FileSystemSnapshot;
+import org.gradle.internal.snapshot.FileSystemSnapshotHierarchyVisitor;
+import org.gradle.internal.snapshot.RelativePathTracker;
+import org.gradle.internal.snapshot.RelativePathTrackingFileSystemSnapshotHierarchyVisitor;
+import org.gradle.internal.snapshot.RootHashesAwareFileSystemSnapshot;
+import org.gradle.internal.snapshot.SnapshotVisitResult;
+
+/**
+ * A snapshot of outputs loaded from the execution history, which keeps the snapshot in encoded form until it is visited.
+ *
+ * <p>Detecting that the outputs didn't change only needs the root hashes, so for up-to-date work the snapshot is never decoded.</p>
+ */
+class EncodedFileSystemSnapshot implements RootHashesAwareFileSystemSnapshot {
+    private final ImmutableMultimap<String, HashCode> rootHashes;
+    private final byte[] encodedRoots;
+    private final FileSystemSnapshotSerializer serializer;
+    private volatile FileSystemSnapshot decoded;
+
+    EncodedFileSystemSnapshot(ImmutableMultimap<String, HashCode> rootHashes, byte[] encodedRoots, FileSystemSnapshotSerializer serializer) {
+        this.rootHashes = rootHashes;
+        this.encodedRoots = encodedRoots;
+        this.serializer = serializer;
+    }
+
+    @Override
+    public ImmutableMultimap<String, HashCode> getRootHashes() {
+        return rootHashes;
+    }
+
+    /**
+     * The encoded snapshot, which must not be modified.
+     */
+    public byte[] getEncodedRoots() {
+        return encodedRoots;
+    }
+
+    @Override
+    public SnapshotVisitResult accept(FileSystemSnapshotHierarchyVisitor visitor) {
+        return decode().accept(visitor);
+    }
+
+    @Override
+    public SnapshotVisitResult accept(RelativePathTracker pathTracker, RelativePathTrackingFileSystemSnapshotHierarchyVisitor visitor) {
+        return decode().accept(pathTracker, visitor);
+    }
+
+    FileSystemSnapshot decode() {
+        FileSystemSnapshot result = decoded;
+        if (result == null) {
+            // Decoding concurrently only does some work twice, the results are equivalent
+            result = serializer.decodeRoots(encodedRoots);
+            decoded = result;
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "EncodedFileSystemSnapshot" + rootHashes.keySet();
+    }
+}
@@ -21,13 +21,19 @@
 import com.google.common.collect.Interner;
 import org.gradle.internal.fingerprint.FileCollectionFingerprint;
 import org.gradle.internal.fingerprint.FileSystemLocationFingerprint;
+import org.gradle.internal.fingerprint.FingerprintHashTree;
 import org.gradle.internal.hash.HashCode;
+import org.gradle.internal.io.StreamByteBuffer;
 import org.gradle.internal.serialize.Decoder;
 import org.gradle.internal.serialize.Encoder;
 import org.gradle.internal.serialize.HashCodeSerializer;
 import org.gradle.internal.serialize.Serializer;
+import org.gradle.internal.serialize.kryo.KryoBackedDecoder;
+import org.gradle.internal.serialize.kryo.KryoBackedEncoder;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.Map;
 
 public class FileCollectionFingerprintSerializer implements Serializer<FileCollectionFingerprint> {
@@ -44,12 +50,24 @@ public FileCollectionFingerprintSerializer(Interner<String> stringInterner) {
 
     @Override
     public FileCollectionFingerprint read(Decoder decoder) throws IOException {
-        Map<String, FileSystemLocationFingerprint> fingerprints = fingerprintMapSerializer.read(decoder);
-        if (fingerprints.isEmpty()) {
+        int fingerprintCount = decoder.readSmallInt();
+        if (fingerprintCount == 0) {
             return FileCollectionFingerprint.EMPTY;
         }
         ImmutableMultimap<String, HashCode> rootHashes = readRootHashes(decoder);
-        return new SerializableFileCollectionFingerprint(fingerprints, rootHashes);
+        // The fingerprints are only decoded when they are needed for detecting changes
+        byte[] encodedFingerprints = decoder.readBinary();
+        return new EncodedFileCollectionFingerprint(fingerprintCount, rootHashes, encodedFingerprints, this);
+    }
+
+    SerializableFileCollectionFingerprint decodeFingerprints(byte[] encodedFingerprints, ImmutableMultimap<String, HashCode> rootHashes) {
+        try (KryoBackedDecoder decoder = new KryoBackedDecoder(new ByteArrayInputStream(encodedFingerprints))) {
+            Map<String, FileSystemLocationFingerprint> fingerprints = fingerprintMapSerializer.read(decoder);
+            FingerprintHashTree hashTree = readHashTree(decoder);
+            return new SerializableFileCollectionFingerprint(fingerprints, rootHashes, hashTree);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
     }
 
     private ImmutableMultimap<String, HashCode> readRootHashes(Decoder decoder) throws IOException {
@@ -66,12 +84,55 @@ private ImmutableMultimap<String, HashCode> readRootHashes(Decoder decoder) thro
         return builder.build();
     }
 
+    private FingerprintHashTree readHashTree(Decoder decoder) throws IOException {
+        int size = decoder.readSmallInt();
+        if (size == 0) {
+            return FingerprintHashTree.EMPTY;
+        }
+        String[] names = new String[size];
+        HashCode[] hashes = new HashCode[size];
+        int[] subtreeSizes = new int[size];
+        int[] firstFingerprints = new int[size];
+        int[] fingerprintCounts = new int[size];
+        for (int node = 0; node < size; node++) {
+            names[node] = stringInterner.intern(decoder.readString());
+            hashes[node] = hashCodeSerializer.read(decoder);
+            subtreeSizes[node] = decoder.readSmallInt();
+            firstFingerprints[node] = decoder.readSmallInt();
+            fingerprintCounts[node] = decoder.readSmallInt();
+        }
+        return new FingerprintHashTree(names, hashes, subtreeSizes, firstFingerprints, fingerprintCounts);
+    }
+
     @Override
     public void write(Encoder encoder, FileCollectionFingerprint value) throws Exception {
-        fingerprintMapSerializer.write(encoder, value.getFingerprints());
-        if (!value.getFingerprints().isEmpty()) {
+        if (value instanceof EncodedFileCollectionFingerprint) {
+            // Write back the fingerprints as they were loaded, without encoding them again
+            EncodedFileCollectionFingerprint encodedValue = (EncodedFileCollectionFingerprint) value;
+            encoder.writeSmallInt(encodedValue.getFingerprintCount());
+            writeRootHashes(encoder, encodedValue.getRootHashes());
+            encoder.writeBinary(encodedValue.getEncodedFingerprints());
+            return;
+        }
+        Map<String, FileSystemLocationFingerprint> fingerprints = value.getFingerprints();
+        encoder.writeSmallInt(fingerprints.size());
+        if (!fingerprints.isEmpty()) {
             writeRootHashes(encoder, value.getRootHashes());
+            writeEncodedFingerprints(encoder, fingerprints, value.getHashTree());
+        }
+    }
+
+    /**
+     * Writes the fingerprints as a binary value, buffering them in chunks instead of a growing array.
+     */
+    private void writeEncodedFingerprints(Encoder encoder, Map<String, FileSystemLocationFingerprint> fingerprints, FingerprintHashTree hashTree) throws Exception {
+        StreamByteBuffer buffer = new StreamByteBuffer();
+        try (KryoBackedEncoder bufferEncoder = new KryoBackedEncoder(buffer.getOutputStream())) {
+            fingerprintMapSerializer.write(bufferEncoder, fingerprints);
+            writeHashTree(bufferEncoder, hashTree);
         }
+        encoder.writeSmallInt(buffer.totalBytesUnread());
+        buffer.writeTo(encoder.getOutputStream());
     }
 
     private void writeRootHashes(Encoder encoder, ImmutableMultimap<String, HashCode> rootHashes) throws IOException {
@@ -82,6 +143,17 @@ private void writeRootHashes(Encoder encoder, ImmutableMultimap<String, HashCode
         }
     }
 
+    private void writeHashTree(Encoder encoder, FingerprintHashTree hashTree) throws IOException {
+        encoder.writeSmallInt(hashTree.size());
+        for (int node = 0; node < hashTree.size(); node++) {
+            encoder.writeString(hashTree.getName(node));
+            hashCodeSerializer.write(encoder, hashTree.getHash(node));
+            encoder.writeSmallInt(hashTree.getSubtreeSize(node));
+            encoder.writeSmallInt(hashTree.getFirstFingerprint(node));
+            encoder.writeSmallInt(hashTree.getFingerprintCount(node));
+        }
+    }
+
     @Override
     public boolean equals(Object obj) {
         if (!super.equals(obj)) {
@@ -16,13 +16,18 @@
 
 package org.gradle.internal.execution.history.impl;
 
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableMultimap;
 import com.google.common.collect.Interner;
 import org.gradle.internal.file.FileMetadata;
 import org.gradle.internal.file.impl.DefaultFileMetadata;
 import org.gradle.internal.hash.HashCode;
+import org.gradle.internal.io.StreamByteBuffer;
 import org.gradle.internal.serialize.Decoder;
 import org.gradle.internal.serialize.Encoder;
 import org.gradle.internal.serialize.Serializer;
+import org.gradle.internal.serialize.kryo.KryoBackedDecoder;
+import org.gradle.internal.serialize.kryo.KryoBackedEncoder;
 import org.gradle.internal.snapshot.CompositeFileSystemSnapshot;
 import org.gradle.internal.snapshot.DirectorySnapshot;
 import org.gradle.internal.snapshot.FileSystemLocationSnapshot;
@@ -31,8 +36,10 @@
 import org.gradle.internal.snapshot.PathUtil;
 import org.gradle.internal.snapshot.RegularFileSnapshot;
 import org.gradle.internal.snapshot.RootTrackingFileSystemSnapshotHierarchyVisitor;
+import org.gradle.internal.snapshot.SnapshotUtil;
 import org.gradle.internal.snapshot.SnapshotVisitResult;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.UncheckedIOException;
@@ -41,6 +48,7 @@
 import java.util.Collection;
 import java.util.Deque;
 import java.util.List;
+import java.util.Map;
 
 public class FileSystemSnapshotSerializer implements Serializer<FileSystemSnapshot> {
     private enum EntryType {
@@ -59,6 +67,28 @@ public FileSystemSnapshotSerializer(Interner<String> stringInterner) {
 
     @Override
     public FileSystemSnapshot read(Decoder decoder) throws Exception {
+        int numberOfRoots = decoder.readSmallInt();
+        if (numberOfRoots == 0) {
+            return FileSystemSnapshot.EMPTY;
+        }
+        ImmutableListMultimap.Builder<String, HashCode> rootHashes = ImmutableListMultimap.builder();
+        for (int i = 0; i < numberOfRoots; i++) {
+            rootHashes.put(stringInterner.intern(decoder.readString()), readHashCode(decoder));
+        }
+        // The snapshot is only decoded when it is needed for detecting changes
+        byte[] encodedRoots = decoder.readBinary();
+        return new EncodedFileSystemSnapshot(rootHashes.build(), encodedRoots, this);
+    }
+
+    FileSystemSnapshot decodeRoots(byte[] encodedRoots) {
+        try (KryoBackedDecoder decoder = new KryoBackedDecoder(new ByteArrayInputStream(encodedRoots))) {
+            return readRoots(decoder);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private FileSystemSnapshot readRoots(Decoder decoder) throws IOException {
         SnapshotStack stack = new SnapshotStack();
         stack.push();
         Deque<String> pathTracker = new ArrayDeque<>();
@@ -111,6 +141,41 @@ public FileSystemSnapshot read(Decoder decoder) throws Exception {
 
     @Override
     public void write(Encoder encoder, FileSystemSnapshot value) throws Exception {
+        if (value instanceof EncodedFileSystemSnapshot) {
+            // Write back the snapshot as it was loaded, without encoding it again
+            EncodedFileSystemSnapshot encodedValue = (EncodedFileSystemSnapshot) value;
+            writeRootHashes(encoder, encodedValue.getRootHashes());
+            encoder.writeBinary(encodedValue.getEncodedRoots());
+            return;
+        }
+        ImmutableMultimap<String, HashCode> rootHashes = SnapshotUtil.getRootHashes(value);
+        writeRootHashes(encoder, rootHashes);
+        if (!rootHashes.isEmpty()) {
+            writeEncodedRoots(encoder, value);
+        }
+    }
+
+    private static void writeRootHashes(Encoder encoder, ImmutableMultimap<String, HashCode> rootHashes) throws IOException {
+        encoder.writeSmallInt(rootHashes.size());
+        for (Map.Entry<String, HashCode> entry : rootHashes.entries()) {
+            encoder.writeString(entry.getKey());
+            writeHashCode(encoder, entry.getValue());
+        }
+    }
+
+    /**
+     * Writes the roots as a binary value, buffering them in chunks instead of a growing array.
+     */
+    private static void writeEncodedRoots(Encoder encoder, FileSystemSnapshot value) throws IOException {
+        StreamByteBuffer buffer = new StreamByteBuffer();
+        try (KryoBackedEncoder bufferEncoder = new KryoBackedEncoder(buffer.getOutputStream())) {
+            writeRoots(bufferEncoder, value);
+        }
+        encoder.writeSmallInt(buffer.totalBytesUnread());
+        buffer.writeTo(encoder.getOutputStream());
+    }
+
+    private static void writeRoots(Encoder encoder, FileSystemSnapshot value) throws IOException {
         value.accept(new RootTrackingFileSystemSnapshotHierarchyVisitor() {
             @Override
             public void enterDirectory(DirectorySnapshot directorySnapshot, boolean isRoot) {
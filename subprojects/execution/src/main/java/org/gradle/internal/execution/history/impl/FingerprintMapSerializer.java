@@ -51,23 +51,25 @@ public FingerprintMapSerializer(Interner<String> stringInterner) {
     public Map<String, FileSystemLocationFingerprint> read(Decoder decoder) throws IOException {
         int fingerprintCount = decoder.readSmallInt();
         ImmutableMap.Builder<String, FileSystemLocationFingerprint> fingerprints = ImmutableMap.builderWithExpectedSize(fingerprintCount);
+        SharedPrefixStrings.Reader absolutePaths = new SharedPrefixStrings.Reader(stringInterner);
+        SharedPrefixStrings.Reader normalizedPaths = new SharedPrefixStrings.Reader(stringInterner);
         for (int i = 0; i < fingerprintCount; i++) {
-            String absolutePath = stringInterner.intern(decoder.readString());
-            FileSystemLocationFingerprint fingerprint = readFingerprint(decoder);
+            String absolutePath = absolutePaths.read(decoder);
+            FileSystemLocationFingerprint fingerprint = readFingerprint(decoder, normalizedPaths);
             fingerprints.put(absolutePath, fingerprint);
         }
         return fingerprints.build();
     }
 
-    private FileSystemLocationFingerprint readFingerprint(Decoder decoder) throws IOException {
+    private FileSystemLocationFingerprint readFingerprint(Decoder decoder, SharedPrefixStrings.Reader normalizedPaths) throws IOException {
         FileType fileType = readFileType(decoder);
         HashCode contentHash = readContentHash(fileType, decoder);
 
         byte fingerprintKind = decoder.readByte();
         switch (fingerprintKind) {
             case DEFAULT_NORMALIZATION:
-                String normalizedPath = decoder.readString();
-                return new DefaultFileSystemLocationFingerprint(stringInterner.intern(normalizedPath), fileType, contentHash);
+                String normalizedPath = normalizedPaths.read(decoder);
+                return new DefaultFileSystemLocationFingerprint(normalizedPath, fileType, contentHash);
             case IGNORED_PATH_NORMALIZATION:
                 return IgnoredPathFileSystemLocationFingerprint.create(fileType, contentHash);
             default:
@@ -105,10 +107,11 @@ private FileType readFileType(Decoder decoder) throws IOException {
     @Override
     public void write(Encoder encoder, Map<String, FileSystemLocationFingerprint> value) throws Exception {
         encoder.writeSmallInt(value.size());
-        for (String key : value.keySet()) {
-            encoder.writeString(key);
-            FileSystemLocationFingerprint fingerprint = value.get(key);
-            writeFingerprint(encoder, fingerprint);
+        SharedPrefixStrings.Writer absolutePaths = new SharedPrefixStrings.Writer();
+        SharedPrefixStrings.Writer normalizedPaths = new SharedPrefixStrings.Writer();
+        for (Map.Entry<String, FileSystemLocationFingerprint> entry : value.entrySet()) {
+            absolutePaths.write(encoder, entry.getKey());
+            writeFingerprint(encoder, entry.getValue(), normalizedPaths);
         }
     }
 
@@ -127,7 +130,7 @@ public int hashCode() {
         return Objects.hashCode(super.hashCode(), hashCodeSerializer);
     }
 
-    private void writeFingerprint(Encoder encoder, FileSystemLocationFingerprint value) throws IOException {
+    private void writeFingerprint(Encoder encoder, FileSystemLocationFingerprint value, SharedPrefixStrings.Writer normalizedPaths) throws IOException {
         switch (value.getType()) {
             case Directory:
                 encoder.writeByte(DIR_FINGERPRINT);
@@ -145,7 +148,7 @@ private void writeFingerprint(Encoder encoder, FileSystemLocationFingerprint val
 
         if (value instanceof DefaultFileSystemLocationFingerprint) {
             encoder.writeByte(DEFAULT_NORMALIZATION);
-            encoder.writeString(value.getNormalizedPath());
+            normalizedPaths.write(encoder, value.getNormalizedPath());
         } else if (value instanceof IgnoredPathFileSystemLocationFingerprint) {
             encoder.writeByte(IGNORED_PATH_NORMALIZATION);
         } else {
@@ -19,6 +19,7 @@
 import com.google.common.collect.ImmutableMultimap;
 import org.gradle.internal.fingerprint.FileCollectionFingerprint;
 import org.gradle.internal.fingerprint.FileSystemLocationFingerprint;
+import org.gradle.internal.fingerprint.FingerprintHashTree;
 import org.gradle.internal.hash.HashCode;
 
 import java.util.Map;
@@ -27,10 +28,16 @@ public class SerializableFileCollectionFingerprint implements FileCollectionFing
 
     private final Map<String, FileSystemLocationFingerprint> fingerprints;
     private final ImmutableMultimap<String, HashCode> rootHashes;
+    private final FingerprintHashTree hashTree;
 
     public SerializableFileCollectionFingerprint(Map<String, FileSystemLocationFingerprint> fingerprints, ImmutableMultimap<String, HashCode> rootHashes) {
+        this(fingerprints, rootHashes, FingerprintHashTree.EMPTY);
+    }
+
+    public SerializableFileCollectionFingerprint(Map<String, FileSystemLocationFingerprint> fingerprints, ImmutableMultimap<String, HashCode> rootHashes, FingerprintHashTree hashTree) {
         this.fingerprints = fingerprints;
         this.rootHashes = rootHashes;
+        this.hashTree = hashTree;
     }
 
     @Override
@@ -43,4 +50,9 @@ public ImmutableMultimap<String, HashCode> getRootHashes() {
         return rootHashes;
     }
 
+    @Override
+    public FingerprintHashTree getHashTree() {
+        return hashTree;
+    }
+
 }
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.internal.execution.history.impl;
+
+import com.google.common.collect.Interner;
+import org.gradle.internal.serialize.Decoder;
+import org.gradle.internal.serialize.Encoder;
+
+import java.io.IOException;
+
+/**
+ * Encodes a sequence of strings by only writing the part of each string which differs from the string before it.
+ *
+ * <p>Paths written in depth-first order share most of their prefix with the previous path,
+ * e.g. {@code /project/src/main/java/org/gradle/B.java} following {@code /project/src/main/java/org/gradle/A.java}
+ * is written as the length of the shared prefix and {@code B.java}.</p>
+ *
+ * <p>Only the serialized form shares prefixes: the reader still returns each string in full, interned, so decoded fingerprints take the same memory as before.</p>
+ *
+ * <p>Writers and readers are stateful, each sequence of strings needs its own instance.</p>
+ */
+class SharedPrefixStrings {
+
+    private SharedPrefixStrings() {
+    }
+
+    static class Writer {
+        private String previous = "";
+
+        public void write(Encoder encoder, String value) throws IOException {
+            int sharedPrefixLength = sharedPrefixLength(previous, value);
+            encoder.writeSmallInt(sharedPrefixLength);
+            encoder.writeString(value.substring(sharedPrefixLength));
+            previous = value;
+        }
+    }
+
+    static class Reader {
+        private final Interner<String> stringInterner;
+        private final StringBuilder previous = new StringBuilder();
+
+        public Reader(Interner<String> stringInterner) {
+            this.stringInterner = stringInterner;
+        }
+
+        public String read(Decoder decoder) throws IOException {
+            int sharedPrefixLength = decoder.readSmallInt();
+            String suffix = decoder.readString();
+            // The builder always contains the previous string
+            previous.setLength(sharedPrefixLength);
+            previous.append(suffix);
+            return stringInterner.intern(previous.toString());
+        }
+    }
+
+    private static int sharedPrefixLength(String previous, String value) {
+        int maxLength = Math.min(previous.length(), value.length());
+        int length = 0;
+        while (length < maxLength && previous.charAt(length) == value.charAt(length)) {
+            length++;
+        }
+        if (length > 0 && Character.isHighSurrogate(value.charAt(length - 1))) {
+            // Don't split surrogate pairs
+            length--;
+        }
+        return length;
+    }
+}
@@ -31,17 +31,24 @@
 import org.gradle.internal.execution.history.impl.DefaultBeforeExecutionState;
 import org.gradle.internal.fingerprint.CurrentFileCollectionFingerprint;
 import org.gradle.internal.hash.ClassLoaderHierarchyHasher;
+import org.gradle.internal.operations.BuildOperationContext;
 import org.gradle.internal.operations.BuildOperationDescriptor;
 import org.gradle.internal.operations.BuildOperationExecutor;
 import org.gradle.internal.operations.BuildOperationType;
+import org.gradle.internal.operations.RunnableBuildOperation;
 import org.gradle.internal.snapshot.FileSystemSnapshot;
 import org.gradle.internal.snapshot.ValueSnapshot;
 import org.gradle.internal.snapshot.impl.ImplementationSnapshot;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
 import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
 
 import static org.gradle.internal.execution.InputFingerprinter.union;
 import static org.gradle.internal.execution.UnitOfWork.IdentityKind.NON_IDENTITY;
@@ -49,10 +56,20 @@
 public class CaptureStateBeforeExecutionStep extends BuildOperationStep<ValidationContext, CachingResult> {
     private static final Logger LOGGER = LoggerFactory.getLogger(CaptureStateBeforeExecutionStep.class);
 
+    /**
+     * When set to {@code true}, the input file properties of a unit of work are fingerprinted concurrently in the build operation thread pool.
+     *
+     * <p>The fingerprinting threads can't acquire project locks,
+     * so this only works when the input file collections of the work can be resolved without accessing mutable project state.</p>
+     */
+    public static final String PARALLEL_FINGERPRINTING_PROPERTY = "org.gradle.execution.fingerprinting.parallel";
+
+    private final BuildOperationExecutor buildOperationExecutor;
     private final ClassLoaderHierarchyHasher classLoaderHierarchyHasher;
     private final InputFingerprinter inputFingerprinter;
     private final OutputSnapshotter outputSnapshotter;
     private final OverlappingOutputDetector overlappingOutputDetector;
+    private final boolean fingerprintInputFilesInParallel;
     private final Step<? super BeforeExecutionContext, ? extends CachingResult> delegate;
 
     public CaptureStateBeforeExecutionStep(
@@ -62,12 +79,26 @@ public CaptureStateBeforeExecutionStep(
         OutputSnapshotter outputSnapshotter,
         OverlappingOutputDetector overlappingOutputDetector,
         Step<? super BeforeExecutionContext, ? extends CachingResult> delegate
+    ) {
+        this(buildOperationExecutor, classLoaderHierarchyHasher, inputFingerprinter, outputSnapshotter, overlappingOutputDetector, false, delegate);
+    }
+
+    public CaptureStateBeforeExecutionStep(
+        BuildOperationExecutor buildOperationExecutor,
+        ClassLoaderHierarchyHasher classLoaderHierarchyHasher,
+        InputFingerprinter inputFingerprinter,
+        OutputSnapshotter outputSnapshotter,
+        OverlappingOutputDetector overlappingOutputDetector,
+        boolean fingerprintInputFilesInParallel,
+        Step<? super BeforeExecutionContext, ? extends CachingResult> delegate
     ) {
         super(buildOperationExecutor);
+        this.buildOperationExecutor = buildOperationExecutor;
         this.classLoaderHierarchyHasher = classLoaderHierarchyHasher;
         this.inputFingerprinter = inputFingerprinter;
         this.outputSnapshotter = outputSnapshotter;
         this.overlappingOutputDetector = overlappingOutputDetector;
+        this.fingerprintInputFilesInParallel = fingerprintInputFilesInParallel;
         this.delegate = delegate;
     }
 
@@ -178,14 +209,18 @@ private BeforeExecutionState captureExecutionState(UnitOfWork work, AfterPreviou
                 throw new AssertionError();
         }
 
+        ImmutableSortedMap<String, CurrentFileCollectionFingerprint> knownInputFileFingerprints = fingerprintInputFilesInParallel
+            ? union(context.getInputFileProperties(), fingerprintInputFilesConcurrently(work, context.getInputFileProperties()))
+            : context.getInputFileProperties();
+
         InputFingerprinter.Result newInputs = inputFingerprinter.fingerprintInputProperties(
             work,
             previousInputProperties,
             context.getInputProperties(),
-            context.getInputFileProperties(),
+            knownInputFileFingerprints,
             (propertyName, type, identity) -> identity == NON_IDENTITY);
         ImmutableSortedMap<String, ValueSnapshot> inputProperties = union(context.getInputProperties(), newInputs.getValueSnapshots());
-        ImmutableSortedMap<String, CurrentFileCollectionFingerprint> inputFileFingerprints = union(context.getInputFileProperties(), newInputs.getFileFingerprints());
+        ImmutableSortedMap<String, CurrentFileCollectionFingerprint> inputFileFingerprints = union(knownInputFileFingerprints, newInputs.getFileFingerprints());
 
         return new DefaultBeforeExecutionState(
             implementation,
@@ -197,6 +232,44 @@ private BeforeExecutionState captureExecutionState(UnitOfWork work, AfterPreviou
         );
     }
 
+    /**
+     * Fingerprints the non-identity input file properties which are not known yet, one build operation per property.
+     *
+     * <p>The fingerprints of the remaining input properties are taken by the {@link InputFingerprinter} on the calling thread.</p>
+     */
+    private ImmutableSortedMap<String, CurrentFileCollectionFingerprint> fingerprintInputFilesConcurrently(
+        UnitOfWork work,
+        ImmutableSortedMap<String, CurrentFileCollectionFingerprint> knownFingerprints
+    ) {
+        Map<String, Supplier<CurrentFileCollectionFingerprint>> fingerprinters = new LinkedHashMap<>();
+        work.visitInputs(new UnitOfWork.InputVisitor() {
+            @Override
+            public void visitInputFileProperty(String propertyName, UnitOfWork.InputPropertyType type, UnitOfWork.IdentityKind identity, @Nullable Object value, Supplier<CurrentFileCollectionFingerprint> fingerprinter) {
+                if (identity == NON_IDENTITY && !knownFingerprints.containsKey(propertyName)) {
+                    fingerprinters.put(propertyName, fingerprinter);
+                }
+            }
+        });
+        if (fingerprinters.size() < 2) {
+            // Nothing to gain from fingerprinting a single property in another thread
+            return ImmutableSortedMap.of();
+        }
+
+        Map<String, CurrentFileCollectionFingerprint> fingerprints = new ConcurrentHashMap<>();
+        buildOperationExecutor.runAll(queue -> fingerprinters.forEach((propertyName, fingerprinter) -> queue.add(new RunnableBuildOperation() {
+            @Override
+            public void run(BuildOperationContext context) {
+                fingerprints.put(propertyName, fingerprinter.get());
+            }
+
+            @Override
+            public BuildOperationDescriptor.Builder description() {
+                return BuildOperationDescriptor.displayName("Fingerprint input property '" + propertyName + "' of " + work.getDisplayName());
+            }
+        })));
+        return ImmutableSortedMap.copyOf(fingerprints);
+    }
+
     private static class ImplementationsBuilder implements UnitOfWork.ImplementationVisitor {
         private final ClassLoaderHierarchyHasher classLoaderHierarchyHasher;
         private ImplementationSnapshot implementation;
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.internal.execution.history.changes
+
+import com.google.common.collect.ImmutableMap
+import com.google.common.collect.ImmutableMultimap
+import org.gradle.internal.execution.history.impl.SerializableFileCollectionFingerprint
+import org.gradle.internal.file.FileType
+import org.gradle.internal.fingerprint.FileCollectionFingerprint
+import org.gradle.internal.fingerprint.FingerprintHashTree
+import org.gradle.internal.fingerprint.impl.DefaultFileSystemLocationFingerprint
+import org.gradle.internal.hash.HashCode
+import spock.lang.Specification
+
+class ChangedSubtreesTest extends Specification {
+
+    def "leaves out fingerprints of unchanged subtrees"() {
+        def previous = fingerprint("/root", [a: 1, b: 2], [1: 1, 2: 2])
+        def current = fingerprint("/root", [a: 1, b: 3], [1: 1, 2: 3])
+
+        when:
+        def changedSubtrees = ChangedSubtrees.between(previous, current)
+
+        then:
+        changedSubtrees.previous.keySet() as List == ["/root", "/root/b", "/root/b/2", "/root/c"]
+        changedSubtrees.current.keySet() as List == ["/root", "/root/b", "/root/b/2", "/root/c"]
+        changedSubtrees.current["/root/b/2"].normalizedContentHash == HashCode.fromInt(3)
+        changedSubtrees.unchangedSubtrees == 1
+        changedSubtrees.unchangedFingerprints == 2
+    }
+
+    def "compares all fingerprints when the roots are different"() {
+        def previous = fingerprint("/root", [a: 1, b: 2], [1: 1, 2: 2])
+        def current = fingerprint("/other", [a: 1, b: 3], [1: 1, 2: 3])
+
+        when:
+        def changedSubtrees = ChangedSubtrees.between(previous, current)
+
+        then:
+        changedSubtrees.previous.is(previous.fingerprints)
+        changedSubtrees.current.is(current.fingerprints)
+        changedSubtrees.unchangedSubtrees == 0
+    }
+
+    def "compares all fingerprints when the subtrees are not known"() {
+        def previous = fingerprint("/root", [a: 1, b: 2], [1: 1, 2: 2])
+        def current = fingerprint("/root", [a: 1, b: 3], [1: 1, 2: 3])
+        def previousWithoutHashTree = new SerializableFileCollectionFingerprint(previous.fingerprints, previous.rootHashes)
+
+        when:
+        def changedSubtrees = ChangedSubtrees.between(previousWithoutHashTree, current)
+
+        then:
+        changedSubtrees.previous.is(previous.fingerprints)
+        changedSubtrees.current.is(current.fingerprints)
+        changedSubtrees.unchangedSubtrees == 0
+    }
+
+    def "detects changes in the remaining fingerprints"() {
+        def previous = fingerprint("/root", [a: 1, b: 2], [1: 1, 2: 2])
+        def current = fingerprint("/root", [a: 1, b: 3], [1: 1, 2: 3])
+        def visitor = new CollectingChangeVisitor()
+
+        when:
+        AbsolutePathFingerprintCompareStrategy.INSTANCE.visitChangesSince(previous, current, "test", visitor)
+
+        then:
+        visitor.changes as List == [DefaultFileChange.modified("/root/b/2", "test", FileType.RegularFile, FileType.RegularFile, "/root/b/2")]
+    }
+
+    /**
+     * A root directory with the sub-directories {@code a} and {@code b}, containing the files {@code 1} and {@code 2} respectively, and the file {@code c}.
+     */
+    private static FileCollectionFingerprint fingerprint(String root, Map<String, Integer> directoryHashes, Map<Integer, Integer> fileHashes) {
+        def fingerprints = ImmutableMap.builder()
+            .put(root, directory(root))
+            .put("$root/a" as String, directory("$root/a"))
+            .put("$root/a/1" as String, file("$root/a/1", fileHashes[1]))
+            .put("$root/b" as String, directory("$root/b"))
+            .put("$root/b/2" as String, file("$root/b/2", fileHashes[2]))
+            .put("$root/c" as String, file("$root/c", 4))
+            .build()
+        def rootHash = HashCode.fromInt(directoryHashes.a * 31 + directoryHashes.b)
+        def hashTree = new FingerprintHashTree(
+            [root, "a", "b"] as String[],
+            [rootHash, HashCode.fromInt(directoryHashes.a), HashCode.fromInt(directoryHashes.b)] as HashCode[],
+            [3, 1, 1] as int[],
+            [0, 1, 3] as int[],
+            [6, 2, 2] as int[]
+        )
+        new SerializableFileCollectionFingerprint(fingerprints, ImmutableMultimap.of(root, rootHash), hashTree)
+    }
+
+    private static DefaultFileSystemLocationFingerprint directory(String path) {
+        new DefaultFileSystemLocationFingerprint(path, FileType.Directory, HashCode.fromInt(0))
+    }
+
+    private static DefaultFileSystemLocationFingerprint file(String path, int hash) {
+        new DefaultFileSystemLocationFingerprint(path, FileType.RegularFile, HashCode.fromInt(hash))
+    }
+}
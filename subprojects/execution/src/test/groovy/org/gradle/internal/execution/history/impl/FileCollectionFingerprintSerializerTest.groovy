@@ -21,6 +21,7 @@ import org.gradle.api.internal.cache.StringInterner
 import org.gradle.internal.file.FileType
 import org.gradle.internal.fingerprint.FileCollectionFingerprint
 import org.gradle.internal.fingerprint.FileSystemLocationFingerprint
+import org.gradle.internal.fingerprint.FingerprintHashTree
 import org.gradle.internal.fingerprint.impl.DefaultFileSystemLocationFingerprint
 import org.gradle.internal.fingerprint.impl.IgnoredPathFileSystemLocationFingerprint
 import org.gradle.internal.hash.HashCode
@@ -90,4 +91,57 @@ class FileCollectionFingerprintSerializerTest extends SerializerSpec {
         out.fingerprints.keySet() as List == ["/3", "/2", "/1"]
         out.rootHashes.keySet() as List == ["/3", "/2", "/1"]
     }
+
+    def "reads and writes paths sharing prefixes"() {
+        def paths = ["/root", "/root/dir", "/root/dir/file.txt", "/root/dir/file.txt.bak", "/root/dir2/😀", "/root/dir2/😁", "/other", ""]
+        def fingerprints = paths.collectEntries { path ->
+            [(path): new DefaultFileSystemLocationFingerprint(path.reverse(), FileType.RegularFile, HashCode.fromInt(path.hashCode()))]
+        }
+
+        when:
+        def out = serialize(new SerializableFileCollectionFingerprint(fingerprints, ImmutableMultimap.of("/root", HashCode.fromInt(1234))), serializer)
+
+        then:
+        out.fingerprints.keySet() as List == paths
+        out.fingerprints == fingerprints
+    }
+
+    def "reads and writes hash tree"() {
+        def hashTree = new FingerprintHashTree(
+                ["/root", "dir"] as String[],
+                [HashCode.fromInt(1234), HashCode.fromInt(5678)] as HashCode[],
+                [2, 1] as int[],
+                [0, 1] as int[],
+                [3, 2] as int[])
+
+        when:
+        def out = serialize(new SerializableFileCollectionFingerprint([
+                "/root": new DefaultFileSystemLocationFingerprint("/root", FileType.Directory, FileSystemLocationFingerprint.DIR_SIGNATURE),
+                "/root/dir": new DefaultFileSystemLocationFingerprint("/root/dir", FileType.Directory, FileSystemLocationFingerprint.DIR_SIGNATURE),
+                "/root/dir/file": new DefaultFileSystemLocationFingerprint("/root/dir/file", FileType.RegularFile, HashCode.fromInt(91011))
+        ], ImmutableMultimap.of("/root", HashCode.fromInt(1234)), hashTree), serializer)
+
+        then:
+        out.hashTree == hashTree
+    }
+
+    def "decodes fingerprints only when needed"() {
+        def rootHashes = ImmutableMultimap.of("/1", HashCode.fromInt(1234))
+        def fingerprints = ["/1": new DefaultFileSystemLocationFingerprint("1", FileType.RegularFile, HashCode.fromInt(1234))]
+
+        when:
+        def loaded = serialize(new SerializableFileCollectionFingerprint(fingerprints, rootHashes), serializer)
+
+        then:
+        loaded.rootHashes == rootHashes
+        loaded.@decoded == null
+
+        when:
+        def out = serialize(loaded, serializer)
+
+        then:
+        loaded.@decoded == null
+        out.fingerprints == fingerprints
+        out.rootHashes == rootHashes
+    }
 }
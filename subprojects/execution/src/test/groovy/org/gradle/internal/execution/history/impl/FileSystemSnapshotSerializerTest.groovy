@@ -24,6 +24,7 @@ import org.gradle.internal.snapshot.DirectorySnapshot
 import org.gradle.internal.snapshot.FileSystemSnapshot
 import org.gradle.internal.snapshot.MissingFileSnapshot
 import org.gradle.internal.snapshot.RegularFileSnapshot
+import org.gradle.internal.snapshot.RootHashesAwareFileSystemSnapshot
 import org.gradle.internal.snapshot.TestSnapshotFixture
 
 import static org.gradle.internal.file.FileMetadata.AccessType.DIRECT
@@ -31,6 +32,7 @@ import static org.gradle.internal.file.FileMetadata.AccessType.VIA_SYMLINK
 import static org.gradle.internal.file.impl.DefaultFileMetadata.file
 import static org.gradle.internal.hash.HashCode.fromInt
 import static org.gradle.internal.snapshot.FileSystemSnapshot.EMPTY
+import static org.gradle.internal.snapshot.SnapshotUtil.getRootHashes
 import static org.gradle.internal.snapshot.SnapshotUtil.index
 
 class FileSystemSnapshotSerializerTest extends SerializerSpec implements TestSnapshotFixture {
@@ -112,8 +114,39 @@ class FileSystemSnapshotSerializerTest extends SerializerSpec implements TestSna
         assertEqualSnapshots(out, snapshots)
     }
 
+    def "root hashes are available without decoding the snapshot"() {
+        def snapshots = CompositeFileSystemSnapshot.of([
+            directory("/home/lptr/dev", [
+                regularFile("/home/lptr/dev/one.txt"),
+            ]),
+            regularFile("/home/lptr/two.txt"),
+        ])
+
+        when:
+        def out = serialize(snapshots, serializer)
+
+        then:
+        out instanceof RootHashesAwareFileSystemSnapshot
+        out.rootHashes == getRootHashes(snapshots)
+        out.@decoded == null
+    }
+
+    def "writes loaded snapshots without decoding them"() {
+        def snapshots = directory("/home/lptr/dev", [
+            regularFile("/home/lptr/dev/one.txt"),
+        ])
+        def loaded = serialize(snapshots, serializer)
+
+        when:
+        def out = serialize(loaded, serializer)
+
+        then:
+        loaded.@decoded == null
+        assertEqualSnapshots(out, snapshots)
+    }
+
     private static void assertEqualSnapshots(FileSystemSnapshot snapshot, FileSystemSnapshot expected) {
-        assert snapshot == expected
+        assert (snapshot instanceof EncodedFileSystemSnapshot ? snapshot.decode() : snapshot) == expected
         assert index(snapshot) == index(expected)
     }
 }
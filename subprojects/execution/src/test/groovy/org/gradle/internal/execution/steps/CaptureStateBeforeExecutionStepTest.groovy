@@ -31,6 +31,9 @@ import org.gradle.internal.snapshot.FileSystemSnapshot
 import org.gradle.internal.snapshot.ValueSnapshot
 import org.gradle.internal.snapshot.impl.ImplementationSnapshot
 
+import static org.gradle.internal.execution.UnitOfWork.IdentityKind.IDENTITY
+import static org.gradle.internal.execution.UnitOfWork.IdentityKind.NON_IDENTITY
+import static org.gradle.internal.execution.UnitOfWork.InputPropertyType.NON_INCREMENTAL
 import static org.gradle.internal.execution.UnitOfWork.OverlappingOutputHandling.DETECT_OVERLAPS
 import static org.gradle.internal.execution.UnitOfWork.OverlappingOutputHandling.IGNORE_OVERLAPS
 
@@ -130,6 +133,44 @@ class CaptureStateBeforeExecutionStepTest extends StepSpec<ValidationContext> {
         assertOperationForInputsBeforeExecution()
     }
 
+    def "input file properties are fingerprinted in parallel when instructed"() {
+        def parallelStep = new CaptureStateBeforeExecutionStep(buildOperationExecutor, classloaderHierarchyHasher, inputFingerprinter, outputSnapshotter, overlappingOutputDetector, true, delegate)
+        def knownFileFingerprint = Mock(CurrentFileCollectionFingerprint)
+        def classpathFingerprint = Mock(CurrentFileCollectionFingerprint)
+        def sourcesFingerprint = Mock(CurrentFileCollectionFingerprint)
+
+        when:
+        parallelStep.execute(work, context)
+
+        then:
+        _ * context.inputFileProperties >> ImmutableSortedMap.of("known-file", knownFileFingerprint)
+        1 * work.visitInputs(_ as UnitOfWork.InputVisitor) >> { UnitOfWork.InputVisitor visitor ->
+            visitor.visitInputFileProperty("known-file", NON_INCREMENTAL, NON_IDENTITY, null, { throw new AssertionError("known-file fingerprinted") })
+            visitor.visitInputFileProperty("identity-file", NON_INCREMENTAL, IDENTITY, null, { throw new AssertionError("identity-file fingerprinted") })
+            visitor.visitInputFileProperty("classpath", NON_INCREMENTAL, NON_IDENTITY, null, { classpathFingerprint })
+            visitor.visitInputFileProperty("sources", NON_INCREMENTAL, NON_IDENTITY, null, { sourcesFingerprint })
+        }
+        1 * inputFingerprinter.fingerprintInputProperties(
+            work,
+            ImmutableSortedMap.of(),
+            ImmutableSortedMap.of(),
+            ImmutableSortedMap.of("known-file", knownFileFingerprint, "classpath", classpathFingerprint, "sources", sourcesFingerprint),
+            _
+        ) >> new DefaultInputFingerprinter.InputFingerprints(ImmutableSortedMap.of(), ImmutableSortedMap.of())
+        interaction { snapshotState() }
+        1 * delegate.execute(work, _ as BeforeExecutionContext) >> { UnitOfWork work, BeforeExecutionContext delegateContext ->
+            def state = delegateContext.beforeExecutionState.get()
+            assert state.inputFileProperties as Map == ["known-file": knownFileFingerprint, "classpath": classpathFingerprint, "sources": sourcesFingerprint]
+        }
+        0 * _
+
+        buildOperationExecutor.log.descriptors*.displayName as Set == [
+            "Snapshot inputs and outputs before executing job ':test'",
+            "Fingerprint input property 'classpath' of job ':test'",
+            "Fingerprint input property 'sources' of job ':test'"
+        ] as Set
+    }
+
     def "output file properties are snapshotted"() {
         def outputDirSnapshot = Mock(FileSystemSnapshot)
 
@@ -92,5 +92,15 @@ interface FileWatchingStatistics {
         boolean isUnknownEventEncountered();
         int getNumberOfReceivedEvents();
         int getNumberOfWatchedHierarchies();
+
+        /**
+         * The number of watched directories, at the time of the call.
+         */
+        int getNumberOfWatchedDirectories();
+
+        /**
+         * The maximum number of directories to watch, or {@link Integer#MAX_VALUE} when the number isn't limited.
+         */
+        int getMaximumNumberOfWatchedDirectories();
     }
 }
@@ -24,6 +24,8 @@
 import java.util.Collection;
 
 public interface FileWatcherUpdater {
+    int UNLIMITED_WATCHED_DIRECTORIES = Integer.MAX_VALUE;
+
     /**
      * Registers a watchable hierarchy.
      *
@@ -47,4 +49,14 @@ public interface FileWatcherUpdater {
     SnapshotHierarchy buildFinished(SnapshotHierarchy root, int maximumNumberOfWatchedHierarchies);
 
     int getNumberOfWatchedHierarchies();
+
+    /**
+     * The number of directories currently watched by the native file watcher.
+     */
+    int getNumberOfWatchedDirectories();
+
+    /**
+     * The budget for the number of watched directories, or {@link #UNLIMITED_WATCHED_DIRECTORIES}.
+     */
+    int getMaximumNumberOfWatchedDirectories();
 }
@@ -28,11 +28,15 @@ public class SnapshotCollectingDiffListener implements SnapshotHierarchy.NodeDif
     private final List<FileSystemLocationSnapshot> addedSnapshots = new ArrayList<>();
 
     public void publishSnapshotDiff(SnapshotHierarchy.SnapshotDiffListener snapshotDiffListener) {
-        if (!removedSnapshots.isEmpty() || !addedSnapshots.isEmpty()) {
+        if (hasChanges()) {
             snapshotDiffListener.changed(removedSnapshots, addedSnapshots);
         }
     }
 
+    public boolean hasChanges() {
+        return !removedSnapshots.isEmpty() || !addedSnapshots.isEmpty();
+    }
+
     @Override
     public void nodeRemoved(FileSystemNode node) {
         node.accept(removedSnapshots::add);
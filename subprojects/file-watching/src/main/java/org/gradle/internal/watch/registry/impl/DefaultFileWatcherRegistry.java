@@ -178,6 +178,16 @@ public int getNumberOfReceivedEvents() {
             public int getNumberOfWatchedHierarchies() {
                 return numberOfWatchedHierarchies;
             }
+
+            @Override
+            public int getNumberOfWatchedDirectories() {
+                return fileWatcherUpdater.getNumberOfWatchedDirectories();
+            }
+
+            @Override
+            public int getMaximumNumberOfWatchedDirectories() {
+                return fileWatcherUpdater.getMaximumNumberOfWatchedDirectories();
+            }
         };
     }
 
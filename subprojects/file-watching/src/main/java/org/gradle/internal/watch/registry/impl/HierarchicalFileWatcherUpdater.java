@@ -116,6 +116,16 @@ public int getNumberOfWatchedHierarchies() {
         return watchedHierarchies.getWatchedRoots().size();
     }
 
+    @Override
+    public int getNumberOfWatchedDirectories() {
+        return watchedHierarchies.getWatchedRoots().size();
+    }
+
+    @Override
+    public int getMaximumNumberOfWatchedDirectories() {
+        return UNLIMITED_WATCHED_DIRECTORIES;
+    }
+
     private void updateWatchedHierarchies(SnapshotHierarchy root) {
         Set<Path> oldWatchedRoots = watchedHierarchies.getWatchedRoots();
         watchedHierarchies.updateWatchedHierarchies(watchableHierarchies, root);
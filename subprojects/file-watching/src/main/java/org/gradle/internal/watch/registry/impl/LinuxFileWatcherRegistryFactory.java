@@ -22,14 +22,42 @@
 import net.rubygrapefruit.platform.file.FileWatcher;
 import net.rubygrapefruit.platform.internal.jni.LinuxFileEventFunctions;
 import org.gradle.internal.watch.registry.FileWatcherUpdater;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.concurrent.BlockingQueue;
 import java.util.function.Predicate;
 
 public class LinuxFileWatcherRegistryFactory extends AbstractFileWatcherRegistryFactory<LinuxFileEventFunctions> {
+    private static final Logger LOGGER = LoggerFactory.getLogger(LinuxFileWatcherRegistryFactory.class);
+    private static final File MAX_USER_WATCHES = new File("/proc/sys/fs/inotify/max_user_watches");
+
+    private final int maximumNumberOfWatchedDirectories;
 
     public LinuxFileWatcherRegistryFactory(Predicate<String> watchFilter) throws NativeIntegrationUnavailableException {
+        this(watchFilter, defaultMaximumNumberOfWatchedDirectories());
+    }
+
+    public LinuxFileWatcherRegistryFactory(Predicate<String> watchFilter, int maximumNumberOfWatchedDirectories) throws NativeIntegrationUnavailableException {
         super(FileEvents.get(LinuxFileEventFunctions.class), watchFilter);
+        this.maximumNumberOfWatchedDirectories = maximumNumberOfWatchedDirectories;
+    }
+
+    /**
+     * Uses three quarters of the inotify watches available to the user, leaving the rest to other processes like IDEs.
+     */
+    public static int defaultMaximumNumberOfWatchedDirectories() {
+        try {
+            String maxUserWatches = new String(Files.readAllBytes(MAX_USER_WATCHES.toPath()), StandardCharsets.US_ASCII).trim();
+            return Math.max(1, (int) (Long.parseLong(maxUserWatches) * 3 / 4));
+        } catch (IOException | NumberFormatException e) {
+            LOGGER.debug("Unable to determine the maximum number of inotify watches from {}", MAX_USER_WATCHES, e);
+            return FileWatcherUpdater.UNLIMITED_WATCHED_DIRECTORIES;
+        }
     }
 
     @Override
@@ -40,6 +68,6 @@ protected FileWatcher createFileWatcher(BlockingQueue<FileWatchEvent> fileEvents
 
     @Override
     protected FileWatcherUpdater createFileWatcherUpdater(FileWatcher watcher, Predicate<String> watchFilter) {
-        return new NonHierarchicalFileWatcherUpdater(watcher, watchFilter);
+        return new NonHierarchicalFileWatcherUpdater(watcher, watchFilter, maximumNumberOfWatchedDirectories);
     }
 }
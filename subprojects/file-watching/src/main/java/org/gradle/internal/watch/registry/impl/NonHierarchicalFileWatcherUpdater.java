@@ -35,28 +35,49 @@
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.CheckReturnValue;
 import java.io.File;
 import java.nio.file.Path;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Set;
 import java.util.function.Consumer;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
+/**
+ * Updater for file watchers which need to watch every directory separately, like inotify on Linux.
+ *
+ * Such watchers usually can only watch a limited number of directories, so the updater stays within a budget of watched directories.
+ * During a build, directories over the budget are not watched.
+ * At the end of the build, the least recently used watchable hierarchies are removed until all directories with content in the virtual file system can be watched.
+ * If the most recently used hierarchy alone exceeds the budget, the content of the directories which can't be watched is removed from the virtual file system.
+ */
 public class NonHierarchicalFileWatcherUpdater implements FileWatcherUpdater {
     private static final Logger LOGGER = LoggerFactory.getLogger(NonHierarchicalFileWatcherUpdater.class);
 
     private final Multiset<String> watchedDirectories = HashMultiset.create();
     private final Map<String, ImmutableList<String>> watchedDirectoriesForSnapshot = new HashMap<>();
+    /**
+     * Directories which should be watched, though aren't since watching them would exceed the budget.
+     */
+    private final Set<String> directoriesOverBudget = new LinkedHashSet<>();
     private final FileWatcher fileWatcher;
+    private final int maximumNumberOfWatchedDirectories;
 
     private final WatchableHierarchies watchableHierarchies;
 
     public NonHierarchicalFileWatcherUpdater(FileWatcher fileWatcher, Predicate<String> watchFilter) {
+        this(fileWatcher, watchFilter, UNLIMITED_WATCHED_DIRECTORIES);
+    }
+
+    public NonHierarchicalFileWatcherUpdater(FileWatcher fileWatcher, Predicate<String> watchFilter, int maximumNumberOfWatchedDirectories) {
         this.fileWatcher = fileWatcher;
+        this.maximumNumberOfWatchedDirectories = maximumNumberOfWatchedDirectories;
         this.watchableHierarchies = new WatchableHierarchies(watchFilter);
     }
 
@@ -106,7 +127,31 @@ public SnapshotHierarchy buildFinished(SnapshotHierarchy root, int maximumNumber
             newRoot,
             invalidator
         );
-        LOGGER.info("Watching {} directories to track changes", watchedDirectories.entrySet().size());
+        if (!directoriesOverBudget.isEmpty()) {
+            newRoot = removeDirectoriesOverBudget(newRoot, invalidator);
+        }
+        LOGGER.info("Watching {} directories to track changes", getNumberOfWatchedDirectories());
+        return newRoot;
+    }
+
+    @CheckReturnValue
+    private SnapshotHierarchy removeDirectoriesOverBudget(SnapshotHierarchy root, WatchableHierarchies.Invalidator invalidator) {
+        LOGGER.warn(
+            "Watching too many directories in the file system (watching {}, limit {}), dropping some state from the virtual file system",
+            watchedDirectories.elementSet().size(),
+            maximumNumberOfWatchedDirectories
+        );
+        // Removing a hierarchy frees up watches, which are then used for directories over the budget
+        SnapshotHierarchy newRoot = watchableHierarchies.removeLeastRecentlyUsedHierarchies(
+            root,
+            () -> !directoriesOverBudget.isEmpty(),
+            invalidator
+        );
+        for (String directoryOverBudget : ImmutableList.copyOf(directoriesOverBudget)) {
+            if (directoriesOverBudget.contains(directoryOverBudget)) {
+                newRoot = invalidator.invalidate(directoryOverBudget, newRoot);
+            }
+        }
         return newRoot;
     }
 
@@ -115,6 +160,16 @@ public int getNumberOfWatchedHierarchies() {
         return watchableHierarchies.getWatchableHierarchies().size();
     }
 
+    @Override
+    public int getNumberOfWatchedDirectories() {
+        return watchedDirectories.elementSet().size() - directoriesOverBudget.size();
+    }
+
+    @Override
+    public int getMaximumNumberOfWatchedDirectories() {
+        return maximumNumberOfWatchedDirectories;
+    }
+
     private boolean containsSnapshots(Path location, SnapshotHierarchy root) {
         CheckIfNonEmptySnapshotVisitor checkIfNonEmptySnapshotVisitor = new CheckIfNonEmptySnapshotVisitor(watchableHierarchies);
         root.visitSnapshotRoots(location.toString(), checkIfNonEmptySnapshotVisitor);
@@ -132,20 +187,25 @@ private void updateWatchedDirectories(Map<String, Integer> changedWatchDirectori
             if (count < 0) {
                 int toRemove = -count;
                 int contained = watchedDirectories.remove(absolutePath, toRemove);
-                if (contained <= toRemove) {
+                if (contained <= toRemove && !directoriesOverBudget.remove(absolutePath)) {
                     directoriesToStopWatching.add(new File(absolutePath));
                 }
             } else if (count > 0) {
                 int contained = watchedDirectories.add(absolutePath, count);
                 if (contained == 0) {
-                    directoriesToStartWatching.add(new File(absolutePath));
+                    directoriesOverBudget.add(absolutePath);
                 }
             }
         });
+        Iterator<String> iterator = directoriesOverBudget.iterator();
+        while (iterator.hasNext() && getNumberOfWatchedDirectories() < maximumNumberOfWatchedDirectories) {
+            directoriesToStartWatching.add(new File(iterator.next()));
+            iterator.remove();
+        }
         if (watchedDirectories.isEmpty()) {
             LOGGER.info("Not watching anything anymore");
         }
-        LOGGER.info("Watching {} directories to track changes", watchedDirectories.entrySet().size());
+        LOGGER.info("Watching {} directories to track changes", getNumberOfWatchedDirectories());
         try {
             if (!directoriesToStopWatching.isEmpty()) {
                 fileWatcher.stopWatching(directoriesToStopWatching);
@@ -32,6 +32,7 @@
 import java.util.ArrayDeque;
 import java.util.Collection;
 import java.util.Deque;
+import java.util.function.BooleanSupplier;
 import java.util.function.Predicate;
 
 public class WatchableHierarchies {
@@ -93,6 +94,21 @@ public SnapshotHierarchy removeWatchedHierarchiesOverLimit(SnapshotHierarchy roo
         return result;
     }
 
+    /**
+     * Removes the least recently used hierarchies while {@code shouldRemoveMore} is true, always keeping the most recently used hierarchy.
+     */
+    @CheckReturnValue
+    public SnapshotHierarchy removeLeastRecentlyUsedHierarchies(SnapshotHierarchy root, BooleanSupplier shouldRemoveMore, Invalidator invalidator) {
+        SnapshotHierarchy result = root;
+        while (recentlyUsedHierarchies.size() > 1 && shouldRemoveMore.getAsBoolean()) {
+            Path locationToRemove = recentlyUsedHierarchies.removeLast();
+            LOGGER.info("Dropping hierarchy {} from the virtual file system", locationToRemove);
+            result = invalidator.invalidate(locationToRemove.toString(), result);
+        }
+        this.watchableHierarchies = DefaultFileHierarchySet.of(recentlyUsedHierarchies.stream().map(Path::toFile)::iterator);
+        return result;
+    }
+
     public Collection<Path> getWatchableHierarchies() {
         return recentlyUsedHierarchies;
     }
@@ -20,6 +20,13 @@ public interface FileSystemWatchingStatistics {
     int getNumberOfReceivedEvents();
     int getNumberOfWatchedHierarchies();
 
+    int getNumberOfWatchedDirectories();
+
+    /**
+     * The budget for the number of watched directories, or {@link Integer#MAX_VALUE} when watching isn't limited by a budget.
+     */
+    int getMaximumNumberOfWatchedDirectories();
+
     int getRetainedRegularFiles();
     int getRetainedDirectories();
     int getRetainedMissingFiles();
@@ -28,6 +28,8 @@
 public class DefaultFileSystemWatchingStatistics implements FileSystemWatchingStatistics {
     private final FileWatcherRegistry.FileWatchingStatistics fileWatchingStatistics;
     private final VirtualFileSystemStatistics vfsStatistics;
+    private final int numberOfWatchedDirectories;
+    private final int maximumNumberOfWatchedDirectories;
 
     public DefaultFileSystemWatchingStatistics(
         FileWatcherRegistry.FileWatchingStatistics fileWatchingStatistics,
@@ -35,6 +37,9 @@ public DefaultFileSystemWatchingStatistics(
     ) {
         this.fileWatchingStatistics = fileWatchingStatistics;
         this.vfsStatistics = getStatistics(vfsRoot);
+        // The watched directories change with the root, so capture them now
+        this.numberOfWatchedDirectories = fileWatchingStatistics.getNumberOfWatchedDirectories();
+        this.maximumNumberOfWatchedDirectories = fileWatchingStatistics.getMaximumNumberOfWatchedDirectories();
     }
 
     @Override
@@ -47,6 +52,16 @@ public int getNumberOfWatchedHierarchies() {
         return fileWatchingStatistics.getNumberOfWatchedHierarchies();
     }
 
+    @Override
+    public int getNumberOfWatchedDirectories() {
+        return numberOfWatchedDirectories;
+    }
+
+    @Override
+    public int getMaximumNumberOfWatchedDirectories() {
+        return maximumNumberOfWatchedDirectories;
+    }
+
     @Override
     public int getRetainedRegularFiles() {
         return vfsStatistics.getRetained(FileType.RegularFile);
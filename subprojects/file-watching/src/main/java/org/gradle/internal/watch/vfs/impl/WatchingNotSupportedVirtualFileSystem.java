@@ -24,6 +24,7 @@
 import org.gradle.internal.vfs.VirtualFileSystem;
 import org.gradle.internal.vfs.impl.AbstractVirtualFileSystem;
 import org.gradle.internal.vfs.impl.VfsRootReference;
+import org.gradle.internal.vfs.impl.VfsRootReference.PreparedUpdate;
 import org.gradle.internal.watch.vfs.BuildFinishedFileSystemWatchingBuildOperationType;
 import org.gradle.internal.watch.vfs.BuildLifecycleAwareVirtualFileSystem;
 import org.gradle.internal.watch.vfs.BuildStartedFileSystemWatchingBuildOperationType;
@@ -50,8 +51,8 @@ public WatchingNotSupportedVirtualFileSystem(VfsRootReference rootReference) {
     }
 
     @Override
-    protected SnapshotHierarchy updateNotifyingListeners(UpdateFunction updateFunction) {
-        return updateFunction.update(SnapshotHierarchy.NodeDiffListener.NOOP);
+    protected PreparedUpdate prepareNotifyingUpdate(UpdateFunction updateFunction) {
+        return PreparedUpdate.of(updateFunction.update(SnapshotHierarchy.NodeDiffListener.NOOP));
     }
 
     @Override
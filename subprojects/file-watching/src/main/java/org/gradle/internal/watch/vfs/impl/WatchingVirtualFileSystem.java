@@ -23,9 +23,12 @@
 import org.gradle.internal.operations.BuildOperationRunner;
 import org.gradle.internal.operations.CallableBuildOperation;
 import org.gradle.internal.snapshot.FileSystemNode;
+import org.gradle.internal.snapshot.FileSystemLocationSnapshot;
 import org.gradle.internal.snapshot.SnapshotHierarchy;
+import org.gradle.internal.snapshot.impl.PersistentVfsState;
 import org.gradle.internal.vfs.impl.AbstractVirtualFileSystem;
 import org.gradle.internal.vfs.impl.VfsRootReference;
+import org.gradle.internal.vfs.impl.VfsRootReference.PreparedUpdate;
 import org.gradle.internal.watch.WatchingNotSupportedException;
 import org.gradle.internal.watch.registry.FileWatcherRegistry;
 import org.gradle.internal.watch.registry.FileWatcherRegistryFactory;
@@ -41,11 +44,13 @@
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
 import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 import java.util.function.Supplier;
 
@@ -58,32 +63,53 @@ public class WatchingVirtualFileSystem extends AbstractVirtualFileSystem impleme
     private final DaemonDocumentationIndex daemonDocumentationIndex;
     private final LocationsWrittenByCurrentBuild locationsWrittenByCurrentBuild;
     private final Set<File> watchableHierarchies = new HashSet<>();
+    private final PersistentVfsState persistentState;
 
-    private FileWatcherRegistry watchRegistry;
+    private volatile FileWatcherRegistry watchRegistry;
     private Exception reasonForNotWatchingFiles;
+    private boolean persistentStateLoaded;
 
     public WatchingVirtualFileSystem(
         FileWatcherRegistryFactory watcherRegistryFactory,
         VfsRootReference rootReference,
         DaemonDocumentationIndex daemonDocumentationIndex,
         LocationsWrittenByCurrentBuild locationsWrittenByCurrentBuild
+    ) {
+        this(watcherRegistryFactory, rootReference, daemonDocumentationIndex, locationsWrittenByCurrentBuild, null);
+    }
+
+    /**
+     * @param persistentState when present, the retained state is persisted when the virtual file system is closed while watching,
+     * and the persisted state is loaded when starting to watch for the first time.
+     */
+    public WatchingVirtualFileSystem(
+        FileWatcherRegistryFactory watcherRegistryFactory,
+        VfsRootReference rootReference,
+        DaemonDocumentationIndex daemonDocumentationIndex,
+        LocationsWrittenByCurrentBuild locationsWrittenByCurrentBuild,
+        @Nullable PersistentVfsState persistentState
     ) {
         super(rootReference);
         this.watcherRegistryFactory = watcherRegistryFactory;
         this.daemonDocumentationIndex = daemonDocumentationIndex;
         this.locationsWrittenByCurrentBuild = locationsWrittenByCurrentBuild;
+        this.persistentState = persistentState;
     }
 
     @Override
-    protected SnapshotHierarchy updateNotifyingListeners(UpdateFunction updateFunction) {
+    protected PreparedUpdate prepareNotifyingUpdate(UpdateFunction updateFunction) {
         if (watchRegistry == null) {
-            return updateFunction.update(SnapshotHierarchy.NodeDiffListener.NOOP);
+            return PreparedUpdate.of(updateFunction.update(SnapshotHierarchy.NodeDiffListener.NOOP));
         } else {
             SnapshotCollectingDiffListener diffListener = new SnapshotCollectingDiffListener();
             SnapshotHierarchy newRoot = updateFunction.update(diffListener);
-            return withWatcherChangeErrorHandling(newRoot, () -> diffListener.publishSnapshotDiff((removedSnapshots, addedSnapshots) ->
+            if (!diffListener.hasChanges()) {
+                return PreparedUpdate.of(newRoot);
+            }
+            // The watch registry is only replaced by exclusive updates, so it is still the same when the update is committed
+            return PreparedUpdate.withSideEffects(newRoot, () -> withWatcherChangeErrorHandling(newRoot, () -> diffListener.publishSnapshotDiff((removedSnapshots, addedSnapshots) ->
                 watchRegistry.virtualFileSystemContentsChanged(removedSnapshots, addedSnapshots, newRoot)
-            ));
+            )));
         }
     }
 
@@ -99,7 +125,7 @@ public SnapshotHierarchy call(BuildOperationContext context) {
                     if (watchRegistry == null) {
                         context.setStatus("Starting file system watching");
                         startWatching(currentRoot);
-                        newRoot = currentRoot.empty();
+                        newRoot = loadPersistentState(currentRoot.empty());
                         statisticsSinceLastBuild = null;
                     } else {
                         FileWatcherRegistry.FileWatchingStatistics statistics = watchRegistry.getAndResetStatistics();
@@ -199,6 +225,11 @@ public SnapshotHierarchy call(BuildOperationContext context) {
                             LOGGER.warn("Received {} file system events during the current build while watching {} hierarchies",
                                 statisticsDuringBuild.getNumberOfReceivedEvents(),
                                 statisticsDuringBuild.getNumberOfWatchedHierarchies());
+                            if (statisticsDuringBuild.getMaximumNumberOfWatchedDirectories() != Integer.MAX_VALUE) {
+                                LOGGER.warn("Watching {} directories with a budget of {} directories",
+                                    statisticsDuringBuild.getNumberOfWatchedDirectories(),
+                                    statisticsDuringBuild.getMaximumNumberOfWatchedDirectories());
+                            }
                             LOGGER.warn("Virtual file system retains information about {} files, {} directories and {} missing files until next build",
                                 statisticsDuringBuild.getRetainedRegularFiles(),
                                 statisticsDuringBuild.getRetainedDirectories(),
@@ -273,6 +304,38 @@ public void handleLostState() {
         }
     }
 
+    /**
+     * Adds the persisted snapshots which are still up-to-date to the given root, so that they are watched from now on.
+     */
+    private SnapshotHierarchy loadPersistentState(SnapshotHierarchy root) {
+        if (persistentState == null || persistentStateLoaded || watchRegistry == null) {
+            return root;
+        }
+        persistentStateLoaded = true;
+        List<FileSystemLocationSnapshot> snapshots = persistentState.loadUpToDateSnapshots();
+        if (snapshots.isEmpty()) {
+            return root;
+        }
+        LOGGER.info("Loaded {} up-to-date hierarchies from the persisted virtual file system state", snapshots.size());
+        return updateNotifyingListeners(diffListener -> {
+            SnapshotHierarchy newRoot = root;
+            for (FileSystemLocationSnapshot snapshot : snapshots) {
+                newRoot = newRoot.store(snapshot.getAbsolutePath(), snapshot, diffListener);
+            }
+            return newRoot;
+        });
+    }
+
+    /**
+     * Persists the given state, which is only trustworthy while watching.
+     * This happens when the daemon stops, so writing the state does not delay the end of any build.
+     */
+    private void persistState(SnapshotHierarchy root) {
+        if (persistentState != null && watchRegistry != null) {
+            persistentState.persist(root);
+        }
+    }
+
     private static class VfsChangeLoggingNodeDiffListener implements SnapshotHierarchy.NodeDiffListener {
         private final FileWatcherRegistry.Type type;
         private final Path path;
@@ -374,6 +437,7 @@ private boolean hasDroppedStateBecauseOfErrorsReceivedWhileWatching(FileWatcherR
     @Override
     public void close() {
         rootReference.update(currentRoot -> {
+            persistState(currentRoot);
             closeUnderLock();
             return currentRoot.empty();
         });
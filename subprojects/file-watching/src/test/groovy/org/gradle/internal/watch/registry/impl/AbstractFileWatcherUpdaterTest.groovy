@@ -31,6 +31,7 @@ import org.gradle.internal.snapshot.impl.DirectorySnapshotter
 import org.gradle.internal.snapshot.impl.DirectorySnapshotterStatistics
 import org.gradle.internal.vfs.impl.AbstractVirtualFileSystem
 import org.gradle.internal.vfs.impl.DefaultSnapshotHierarchy
+import org.gradle.internal.vfs.impl.VfsRootReference
 import org.gradle.internal.watch.registry.FileWatcherUpdater
 import org.gradle.internal.watch.registry.SnapshotCollectingDiffListener
 import org.gradle.test.fixtures.file.CleanupTestDirectory
@@ -56,13 +57,15 @@ abstract class AbstractFileWatcherUpdaterTest extends Specification {
     FileWatcherUpdater updater
     def virtualFileSystem = new TestVirtualFileSystem(DefaultSnapshotHierarchy.empty(CaseSensitivity.CASE_SENSITIVE)) {
         @Override
-        protected SnapshotHierarchy updateNotifyingListeners(AbstractVirtualFileSystem.UpdateFunction updateFunction) {
+        protected VfsRootReference.PreparedUpdate prepareNotifyingUpdate(AbstractVirtualFileSystem.UpdateFunction updateFunction) {
             def diffListener = new SnapshotCollectingDiffListener()
             def newRoot = updateFunction.update(diffListener)
-            diffListener.publishSnapshotDiff {removed, added ->
-                updater.virtualFileSystemContentsChanged(removed, added, newRoot)
+            return VfsRootReference.PreparedUpdate.withSideEffects(newRoot) {
+                diffListener.publishSnapshotDiff {removed, added ->
+                    updater.virtualFileSystemContentsChanged(removed, added, newRoot)
+                }
+                return newRoot
             }
-            return newRoot
         }
     }
 
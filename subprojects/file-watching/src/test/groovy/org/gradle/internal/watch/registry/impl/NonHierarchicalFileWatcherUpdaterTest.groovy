@@ -85,4 +85,60 @@ class NonHierarchicalFileWatcherUpdaterTest extends AbstractFileWatcherUpdaterTe
         1 * watcher.stopWatching({ equalIgnoringOrder(it, [rootDir]) })
         0 * _
     }
+
+    def "removes least recently used hierarchies when exceeding the budget of watched directories"() {
+        updater = new NonHierarchicalFileWatcherUpdater(watcher, watchFilter, 2)
+        def watchableHierarchies = ["first", "second", "third"].collect { file(it).createDir() }
+        def filesInHierarchies = watchableHierarchies.collect { it.file("file.txt").createFile() }
+
+        when:
+        registerWatchableHierarchies(watchableHierarchies)
+        addSnapshot(snapshotRegularFile(filesInHierarchies[0]))
+        addSnapshot(snapshotRegularFile(filesInHierarchies[1]))
+        then:
+        1 * watcher.startWatching({ equalIgnoringOrder(it, [watchableHierarchies[0]]) })
+        1 * watcher.startWatching({ equalIgnoringOrder(it, [watchableHierarchies[1]]) })
+        0 * _
+
+        when:
+        addSnapshot(snapshotRegularFile(filesInHierarchies[2]))
+        then:
+        0 * _
+        updater.numberOfWatchedDirectories == 2
+
+        when:
+        buildFinished()
+        then:
+        1 * watcher.stopWatching({ equalIgnoringOrder(it, [watchableHierarchies[0]]) })
+        then:
+        1 * watcher.startWatching({ equalIgnoringOrder(it, [watchableHierarchies[2]]) })
+        0 * _
+        !vfsHasSnapshotsAt(filesInHierarchies[0])
+        vfsHasSnapshotsAt(filesInHierarchies[1])
+        vfsHasSnapshotsAt(filesInHierarchies[2])
+        updater.numberOfWatchedDirectories == 2
+    }
+
+    def "drops directories which can't be watched when the most recently used hierarchy exceeds the budget"() {
+        updater = new NonHierarchicalFileWatcherUpdater(watcher, watchFilter, 1)
+        def rootDir = file("root").createDir()
+        def watchedFile = rootDir.file("a/file.txt").createFile()
+        def fileOverBudget = rootDir.file("b/file.txt").createFile()
+
+        when:
+        registerWatchableHierarchies([rootDir])
+        addSnapshot(snapshotRegularFile(watchedFile))
+        addSnapshot(snapshotRegularFile(fileOverBudget))
+        then:
+        1 * watcher.startWatching({ equalIgnoringOrder(it, [watchedFile.parentFile]) })
+        0 * _
+
+        when:
+        buildFinished()
+        then:
+        0 * _
+        vfsHasSnapshotsAt(watchedFile)
+        !vfsHasSnapshotsAt(fileOverBudget)
+        updater.numberOfWatchedDirectories == 1
+    }
 }
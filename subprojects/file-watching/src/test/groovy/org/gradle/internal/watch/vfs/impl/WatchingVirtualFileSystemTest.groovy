@@ -19,6 +19,7 @@ package org.gradle.internal.watch.vfs.impl
 import org.gradle.internal.operations.TestBuildOperationExecutor
 import org.gradle.internal.snapshot.CaseSensitivity
 import org.gradle.internal.snapshot.SnapshotHierarchy
+import org.gradle.internal.snapshot.impl.PersistentVfsState
 import org.gradle.internal.vfs.impl.DefaultSnapshotHierarchy
 import org.gradle.internal.vfs.impl.VfsRootReference
 import org.gradle.internal.watch.registry.FileWatcherRegistry
@@ -116,6 +117,42 @@ class WatchingVirtualFileSystemTest extends Specification {
         rootReference.getRoot() == nonEmptySnapshotHierarchy
     }
 
+    def "persists the retained state when closed instead of at the end of the build"() {
+        def persistentState = Mock(PersistentVfsState)
+        def persistingVirtualFileSystem = new WatchingVirtualFileSystem(
+            watcherRegistryFactory,
+            rootReference,
+            daemonDocumentationIndex,
+            locationsUpdatedByCurrentBuild,
+            persistentState
+        )
+
+        when:
+        persistingVirtualFileSystem.afterBuildStarted(WatchMode.ENABLED, VfsLogging.NORMAL, WatchLogging.NORMAL, buildOperationRunner)
+        then:
+        1 * watcherRegistryFactory.createFileWatcherRegistry(_) >> watcherRegistry
+        1 * watcherRegistry.setDebugLoggingEnabled(false)
+        1 * persistentState.loadUpToDateSnapshots() >> []
+        0 * _
+
+        when:
+        rootReference.update { root -> nonEmptySnapshotHierarchy }
+        persistingVirtualFileSystem.beforeBuildFinished(WatchMode.ENABLED, VfsLogging.NORMAL, WatchLogging.NORMAL, buildOperationRunner, Integer.MAX_VALUE)
+        then:
+        1 * watcherRegistry.getAndResetStatistics() >> Stub(FileWatcherRegistry.FileWatchingStatistics)
+        1 * watcherRegistry.buildFinished(_, Integer.MAX_VALUE) >> nonEmptySnapshotHierarchy
+        0 * _
+
+        when:
+        persistingVirtualFileSystem.close()
+        then:
+        1 * persistentState.persist(nonEmptySnapshotHierarchy)
+        1 * watcherRegistry.close()
+        0 * _
+
+        rootReference.getRoot() == emptySnapshotHierarchy
+    }
+
     def "collects hierarchies to watch and notifies the vfs"() {
         def watchableHierarchy = new File("watchable")
         def anotherWatchableHierarchy = new File("anotherWatchable")
@@ -1,6 +1,7 @@
 plugins {
     id("gradlebuild.distribution.api-java")
     id("gradlebuild.publish-public-libraries")
+    id("gradlebuild.jmh")
 }
 
 description = "Tools for creating secure hashes for files and other content"
@@ -10,4 +11,7 @@ gradlebuildJava.usedInWorkers() // org.gradle.internal.nativeintegration.filesys
 dependencies {
     implementation(project(":base-annotations"))
     implementation(libs.guava)
+
+    jmhImplementation(platform(project(":distributions-dependencies")))
+    jmhImplementation(libs.guava)
 }
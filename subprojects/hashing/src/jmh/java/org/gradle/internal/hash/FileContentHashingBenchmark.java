@@ -0,0 +1,97 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.internal.hash;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the throughput of the hash functions available for file content fingerprints, hashing through {@link DefaultStreamHasher}.
+ *
+ * <p>The {@code gigabytes} secondary metric reports the amount of content hashed per second, independent of the file size.</p>
+ */
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+public class FileContentHashingBenchmark {
+    private static final double BYTES_PER_GIGABYTE = 1024 * 1024 * 1024;
+
+    @Param({"md5", "sha1", "murmur3"})
+    String hashFunction;
+
+    @Param({"1024", "65536", "16777216"})
+    int fileSize;
+
+    byte[] content;
+    StreamHasher streamHasher;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        content = new byte[fileSize];
+        new Random(1234L).nextBytes(content);
+        streamHasher = new DefaultStreamHasher(hashFunction(hashFunction));
+    }
+
+    @Benchmark
+    public HashCode hash(Throughput throughput) {
+        HashCode hash = streamHasher.hash(new ByteArrayInputStream(content));
+        throughput.gigabytes += fileSize / BYTES_PER_GIGABYTE;
+        return hash;
+    }
+
+    private static HashFunction hashFunction(String name) {
+        switch (name) {
+            case "md5":
+                return Hashing.md5();
+            case "sha1":
+                return Hashing.sha1();
+            case "murmur3":
+                return Hashing.murmur3_128();
+            default:
+                throw new IllegalArgumentException("Unknown hash function: " + name);
+        }
+    }
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Throughput {
+        public double gigabytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            gigabytes = 0;
+        }
+    }
+}
@@ -28,13 +28,22 @@ public class DefaultStreamHasher implements StreamHasher {
     private static final HashCode SIGNATURE = Hashing.signature(DefaultStreamHasher.class);
 
     private final Queue<byte[]> buffers = new ArrayBlockingQueue<byte[]>(16);
+    private final HashFunction hashFunction;
+
+    public DefaultStreamHasher() {
+        this(Hashing.defaultFunction());
+    }
+
+    public DefaultStreamHasher(HashFunction hashFunction) {
+        this.hashFunction = hashFunction;
+    }
 
     @Override
     public HashCode hash(InputStream inputStream) {
         try {
             return doHash(inputStream, ByteStreams.nullOutputStream());
         } catch (IOException e) {
-            throw new UncheckedIOException("Failed to create MD5 hash for file content.", e);
+            throw new UncheckedIOException("Failed to create " + hashFunction + " hash for file content.", e);
         }
     }
 
@@ -46,7 +55,7 @@ public HashCode hashCopy(InputStream inputStream, OutputStream outputStream) thr
     private HashCode doHash(InputStream inputStream, OutputStream outputStream) throws IOException {
         byte[] buffer = takeBuffer();
         try {
-            PrimitiveHasher hasher = Hashing.newPrimitiveHasher();
+            PrimitiveHasher hasher = hashFunction.newPrimitiveHasher();
             hasher.putHash(SIGNATURE);
             while (true) {
                 int nread = inputStream.read(buffer);
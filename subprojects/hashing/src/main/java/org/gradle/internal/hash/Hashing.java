@@ -138,10 +138,19 @@ public static HashFunction sha512() {
         return SHA512;
     }
 
+    /**
+     * 128-bit MurmurHash3 hashing function. Not cryptographic, but considerably faster than MD5.
+     */
+    public static HashFunction murmur3_128() {
+        return Murmur3HashFunction.INSTANCE;
+    }
+
     private static abstract class MessageDigestHashFunction implements HashFunction {
+        private final String algorithm;
         private final int hexDigits;
 
-        public MessageDigestHashFunction(int hashBits) {
+        public MessageDigestHashFunction(String algorithm, int hashBits) {
+            this.algorithm = algorithm;
             this.hexDigits = hashBits / 4;
         }
 
@@ -155,7 +164,7 @@ public static MessageDigestHashFunction of(String algorithm) {
             int hashBits = prototype.getDigestLength() * 8;
             try {
                 prototype.clone();
-                return new CloningMessageDigestHashFunction(prototype, hashBits);
+                return new CloningMessageDigestHashFunction(algorithm, prototype, hashBits);
             } catch (CloneNotSupportedException e) {
                 return new RegularMessageDigestHashFunction(algorithm, hashBits);
             }
@@ -192,13 +201,18 @@ public HashCode hashString(CharSequence string) {
         public int getHexDigits() {
             return hexDigits;
         }
+
+        @Override
+        public String toString() {
+            return algorithm;
+        }
     }
 
     private static class CloningMessageDigestHashFunction extends MessageDigestHashFunction {
         private final MessageDigest prototype;
 
-        public CloningMessageDigestHashFunction(MessageDigest prototype, int hashBits) {
-            super(hashBits);
+        public CloningMessageDigestHashFunction(String algorithm, MessageDigest prototype, int hashBits) {
+            super(algorithm, hashBits);
             this.prototype = prototype;
         }
 
@@ -216,7 +230,7 @@ private static class RegularMessageDigestHashFunction extends MessageDigestHashF
         private final String algorithm;
 
         public RegularMessageDigestHashFunction(String algorithm, int hashBits) {
-            super(hashBits);
+            super(algorithm, hashBits);
             this.algorithm = algorithm;
         }
 
@@ -315,7 +329,7 @@ public HashCode hash() {
         }
     }
 
-    private static class DefaultHasher implements Hasher {
+    static class DefaultHasher implements Hasher {
         private final PrimitiveHasher hasher;
         private String invalidReason;
 
@@ -0,0 +1,247 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.internal.hash;
+
+import com.google.common.base.Charsets;
+
+/**
+ * The 128-bit x64 variant of MurmurHash3, with a seed of 0.
+ *
+ * <p>Not a cryptographic hash function, but a lot faster than MD5 while producing hashes of the same length.
+ * Produces the same hashes as Guava's {@code Hashing.murmur3_128()}.</p>
+ */
+class Murmur3HashFunction implements HashFunction {
+    static final Murmur3HashFunction INSTANCE = new Murmur3HashFunction();
+
+    private Murmur3HashFunction() {
+    }
+
+    @Override
+    public PrimitiveHasher newPrimitiveHasher() {
+        return new Murmur3Hasher();
+    }
+
+    @Override
+    public Hasher newHasher() {
+        return new Hashing.DefaultHasher(newPrimitiveHasher());
+    }
+
+    @Override
+    public HashCode hashBytes(byte[] bytes) {
+        PrimitiveHasher hasher = newPrimitiveHasher();
+        hasher.putBytes(bytes);
+        return hasher.hash();
+    }
+
+    @Override
+    public HashCode hashString(CharSequence string) {
+        PrimitiveHasher hasher = newPrimitiveHasher();
+        hasher.putString(string);
+        return hasher.hash();
+    }
+
+    @Override
+    public int getHexDigits() {
+        return 32;
+    }
+
+    @Override
+    public String toString() {
+        return "MURMUR3_128";
+    }
+
+    private static class Murmur3Hasher implements PrimitiveHasher {
+        private static final int BLOCK_SIZE = 16;
+        private static final long C1 = 0x87c37b91114253d5L;
+        private static final long C2 = 0x4cf5ad432745937fL;
+
+        private final byte[] buffer = new byte[BLOCK_SIZE];
+        private final byte[] scratch = new byte[8];
+        private int buffered;
+        private long length;
+        private long h1;
+        private long h2;
+        private boolean done;
+
+        @Override
+        public void putByte(byte b) {
+            checkNotDone();
+            buffer[buffered++] = b;
+            length++;
+            if (buffered == BLOCK_SIZE) {
+                mixBlock(buffer, 0);
+                buffered = 0;
+            }
+        }
+
+        @Override
+        public void putBytes(byte[] bytes) {
+            putBytes(bytes, 0, bytes.length);
+        }
+
+        @Override
+        public void putBytes(byte[] bytes, int off, int len) {
+            checkNotDone();
+            length += len;
+            if (buffered > 0) {
+                int count = Math.min(BLOCK_SIZE - buffered, len);
+                System.arraycopy(bytes, off, buffer, buffered, count);
+                buffered += count;
+                off += count;
+                len -= count;
+                if (buffered < BLOCK_SIZE) {
+                    return;
+                }
+                mixBlock(buffer, 0);
+                buffered = 0;
+            }
+            while (len >= BLOCK_SIZE) {
+                mixBlock(bytes, off);
+                off += BLOCK_SIZE;
+                len -= BLOCK_SIZE;
+            }
+            if (len > 0) {
+                System.arraycopy(bytes, off, buffer, 0, len);
+                buffered = len;
+            }
+        }
+
+        @Override
+        public void putInt(int value) {
+            for (int i = 0; i < 4; i++) {
+                scratch[i] = (byte) (value >>> (i * 8));
+            }
+            putBytes(scratch, 0, 4);
+        }
+
+        @Override
+        public void putLong(long value) {
+            for (int i = 0; i < 8; i++) {
+                scratch[i] = (byte) (value >>> (i * 8));
+            }
+            putBytes(scratch, 0, 8);
+        }
+
+        @Override
+        public void putDouble(double value) {
+            putLong(Double.doubleToRawLongBits(value));
+        }
+
+        @Override
+        public void putBoolean(boolean value) {
+            putByte((byte) (value ? 1 : 0));
+        }
+
+        @Override
+        public void putString(CharSequence value) {
+            putBytes(value.toString().getBytes(Charsets.UTF_8));
+        }
+
+        @Override
+        public void putHash(HashCode hashCode) {
+            putBytes(hashCode.getBytes());
+        }
+
+        @Override
+        public HashCode hash() {
+            checkNotDone();
+            done = true;
+
+            long k1 = 0;
+            long k2 = 0;
+            for (int i = buffered - 1; i >= 8; i--) {
+                k2 = (k2 << 8) | (buffer[i] & 0xffL);
+            }
+            for (int i = Math.min(buffered, 8) - 1; i >= 0; i--) {
+                k1 = (k1 << 8) | (buffer[i] & 0xffL);
+            }
+            h1 ^= mixK1(k1);
+            h2 ^= mixK2(k2);
+
+            h1 ^= length;
+            h2 ^= length;
+            h1 += h2;
+            h2 += h1;
+            h1 = fmix64(h1);
+            h2 = fmix64(h2);
+            h1 += h2;
+            h2 += h1;
+
+            byte[] bytes = new byte[16];
+            for (int i = 0; i < 8; i++) {
+                bytes[i] = (byte) (h1 >>> (i * 8));
+                bytes[i + 8] = (byte) (h2 >>> (i * 8));
+            }
+            return HashCode.fromBytesNoCopy(bytes);
+        }
+
+        private void checkNotDone() {
+            if (done) {
+                throw new IllegalStateException("Cannot reuse hasher!");
+            }
+        }
+
+        private void mixBlock(byte[] bytes, int off) {
+            long k1 = getLongLittleEndian(bytes, off);
+            long k2 = getLongLittleEndian(bytes, off + 8);
+
+            h1 ^= mixK1(k1);
+            h1 = Long.rotateLeft(h1, 27);
+            h1 += h2;
+            h1 = h1 * 5 + 0x52dce729;
+
+            h2 ^= mixK2(k2);
+            h2 = Long.rotateLeft(h2, 31);
+            h2 += h1;
+            h2 = h2 * 5 + 0x38495ab5;
+        }
+
+        private static long getLongLittleEndian(byte[] bytes, int off) {
+            return (bytes[off] & 0xffL)
+                | (bytes[off + 1] & 0xffL) << 8
+                | (bytes[off + 2] & 0xffL) << 16
+                | (bytes[off + 3] & 0xffL) << 24
+                | (bytes[off + 4] & 0xffL) << 32
+                | (bytes[off + 5] & 0xffL) << 40
+                | (bytes[off + 6] & 0xffL) << 48
+                | (bytes[off + 7] & 0xffL) << 56;
+        }
+
+        private static long mixK1(long k1) {
+            k1 *= C1;
+            k1 = Long.rotateLeft(k1, 31);
+            k1 *= C2;
+            return k1;
+        }
+
+        private static long mixK2(long k2) {
+            k2 *= C2;
+            k2 = Long.rotateLeft(k2, 33);
+            k2 *= C1;
+            return k2;
+        }
+
+        private static long fmix64(long k) {
+            k ^= k >>> 33;
+            k *= 0xff51afd7ed558ccdL;
+            k ^= k >>> 33;
+            k *= 0xc4ceb9fe1a85ec53L;
+            k ^= k >>> 33;
+            return k;
+        }
+    }
+}
@@ -17,6 +17,7 @@
 package org.gradle.internal.hash
 
 import spock.lang.Specification
+import spock.lang.Unroll
 
 import static java.lang.Thread.currentThread
 import static java.util.concurrent.CompletableFuture.supplyAsync
@@ -109,6 +110,42 @@ class HashingTest extends Specification {
         hashStrings(["abc", "de"]) != hashStrings(["ab", "cde"])
     }
 
+    @Unroll
+    def 'murmur3 produces the same hash as Guava for #length bytes fed in chunks of #chunkSize'() {
+        given:
+        def random = new Random(length)
+        def bytes = new byte[length]
+        random.nextBytes(bytes)
+
+        when:
+        def hasher = Hashing.murmur3_128().newPrimitiveHasher()
+        for (int off = 0; off < length; off += chunkSize) {
+            hasher.putBytes(bytes, off, Math.min(chunkSize, length - off))
+        }
+
+        then:
+        hasher.hash().toString() == com.google.common.hash.Hashing.murmur3_128().hashBytes(bytes).toString()
+
+        where:
+        [length, chunkSize] << [[0, 1, 7, 15, 16, 17, 31, 32, 33, 1000, 8193], [1, 5, 16, 8192]].combinations()
+    }
+
+    def 'murmur3 hashes primitives in little endian byte order'() {
+        when:
+        def hasher = Hashing.murmur3_128().newPrimitiveHasher()
+        hasher.putInt(42)
+        hasher.putLong(-7L)
+        hasher.putString("h\u00e9llo")
+
+        then:
+        hasher.hash().toString() == com.google.common.hash.Hashing.murmur3_128().newHasher()
+            .putInt(42)
+            .putLong(-7L)
+            .putBytes("h\u00e9llo".getBytes("UTF-8"))
+            .hash()
+            .toString()
+    }
+
     def hashStrings(List<String> strings) {
         def hasher = Hashing.newHasher()
         strings.each { hasher.putString(it) }
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.cache.internal.btree;
+
+import org.apache.commons.io.FileUtils;
+import org.gradle.internal.hash.HashCode;
+import org.gradle.internal.hash.Hashing;
+import org.gradle.internal.serialize.BaseSerializerFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+
+/**
+ * Compares random reads and writes of a {@link BTreePersistentIndexedCache} backed by the different {@link BlockStore} implementations.
+ */
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@State(Scope.Benchmark)
+public class BlockStoreBenchmark {
+    @Param({"file", "mapped"})
+    String blockStore;
+
+    @Param({"1000000"})
+    int entries;
+
+    File tempDir;
+    BTreePersistentIndexedCache<Long, HashCode> cache;
+    Random random = new Random(1234L);
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        tempDir = Files.createTempDirectory("block-store").toFile();
+        File cacheFile = new File(tempDir, "cache.bin");
+        BlockStore store = blockStore.equals("mapped") ? new MappedFileBlockStore(cacheFile) : new FileBackedBlockStore(cacheFile);
+        cache = new BTreePersistentIndexedCache<Long, HashCode>(cacheFile, store, BaseSerializerFactory.LONG_SERIALIZER, BaseSerializerFactory.HASHCODE_SERIALIZER);
+        for (long key = 0; key < entries; key++) {
+            cache.put(key, valueFor(key));
+        }
+        // Start measuring with the on-heap caches in the state a freshly opened cache would be in
+        cache.reset();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        cache.close();
+        FileUtils.forceDelete(tempDir);
+    }
+
+    @Benchmark
+    public HashCode randomGet() {
+        return cache.get(nextKey());
+    }
+
+    @Benchmark
+    public void randomPut() {
+        long key = nextKey();
+        cache.put(key, valueFor(key + random.nextInt()));
+    }
+
+    private long nextKey() {
+        return (long) random.nextInt(entries);
+    }
+
+    private static HashCode valueFor(long key) {
+        return Hashing.hashString(String.valueOf(key));
+    }
+}
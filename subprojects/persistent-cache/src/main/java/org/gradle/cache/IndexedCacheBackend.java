@@ -0,0 +1,38 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gradle.cache;
+
+/**
+ * The on-disk storage used to back a {@link PersistentIndexedCache}.
+ */
+public enum IndexedCacheBackend {
+    /**
+     * A B-tree whose blocks are read and written through a {@link java.io.RandomAccessFile}.
+     */
+    BTREE,
+
+    /**
+     * A B-tree whose blocks are read and written through memory-mapped regions of the cache file.
+     * Avoids a system call and a copy for each block read. The file has its own header, so it cannot be opened using {@link #BTREE}.
+     */
+    MEMORY_MAPPED_BTREE,
+
+    /**
+     * An append-only log of entries, with an in-memory index that is persisted to a separate hint file.
+     * Writes are sequential appends, and the log is compacted when it contains mostly replaced or removed entries.
+     */
+    APPEND_ONLY_LOG
+}
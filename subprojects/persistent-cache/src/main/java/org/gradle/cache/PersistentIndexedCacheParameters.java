@@ -19,6 +19,7 @@
 import org.gradle.internal.serialize.Serializer;
 
 import javax.annotation.Nullable;
+import java.util.function.ToIntFunction;
 
 public class PersistentIndexedCacheParameters<K, V> {
     private static final BaseSerializerFactory SERIALIZER_FACTORY = new BaseSerializerFactory();
@@ -27,24 +28,30 @@
     private final Serializer<K> keySerializer;
     private final Serializer<V> valueSerializer;
     private final CacheDecorator cacheDecorator;
+    private final IndexedCacheBackend backend;
+    private final int shards;
+    private final ToIntFunction<? super K> shardKeyHash;
 
     public static <K, V> PersistentIndexedCacheParameters<K, V> of(String cacheName, Serializer<K> keySerializer, Serializer<V> valueSerializer) {
-        return new PersistentIndexedCacheParameters<K, V>(cacheName, keySerializer, valueSerializer, null);
+        return new PersistentIndexedCacheParameters<K, V>(cacheName, keySerializer, valueSerializer, null, IndexedCacheBackend.BTREE, 1, null);
     }
 
     public static <K, V> PersistentIndexedCacheParameters<K, V> of(String cacheName, Class<K> keyType, Serializer<V> valueSerializer) {
-        return new PersistentIndexedCacheParameters<K, V>(cacheName, SERIALIZER_FACTORY.getSerializerFor(keyType), valueSerializer, null);
+        return new PersistentIndexedCacheParameters<K, V>(cacheName, SERIALIZER_FACTORY.getSerializerFor(keyType), valueSerializer, null, IndexedCacheBackend.BTREE, 1, null);
     }
 
     public static <K, V> PersistentIndexedCacheParameters<K, V> of(String cacheName, Class<K> keyType, Class<V> valueType) {
-        return new PersistentIndexedCacheParameters<K, V>(cacheName, SERIALIZER_FACTORY.getSerializerFor(keyType), SERIALIZER_FACTORY.getSerializerFor(valueType), null);
+        return new PersistentIndexedCacheParameters<K, V>(cacheName, SERIALIZER_FACTORY.getSerializerFor(keyType), SERIALIZER_FACTORY.getSerializerFor(valueType), null, IndexedCacheBackend.BTREE, 1, null);
     }
 
-    private PersistentIndexedCacheParameters(String cacheName, Serializer<K> keySerializer, Serializer<V> valueSerializer, @Nullable CacheDecorator cacheDecorator) {
+    private PersistentIndexedCacheParameters(String cacheName, Serializer<K> keySerializer, Serializer<V> valueSerializer, @Nullable CacheDecorator cacheDecorator, IndexedCacheBackend backend, int shards, @Nullable ToIntFunction<? super K> shardKeyHash) {
         this.cacheName = cacheName;
         this.keySerializer = keySerializer;
         this.valueSerializer = valueSerializer;
         this.cacheDecorator = cacheDecorator;
+        this.backend = backend;
+        this.shards = shards;
+        this.shardKeyHash = shardKeyHash;
     }
 
     public String getCacheName() {
@@ -64,7 +71,44 @@ public CacheDecorator getCacheDecorator() {
         return cacheDecorator;
     }
 
+    public IndexedCacheBackend getBackend() {
+        return backend;
+    }
+
+    /**
+     * The number of shards that this cache is split into. Each shard is stored in its own backing file.
+     */
+    public int getShards() {
+        return shards;
+    }
+
+    /**
+     * The hash used to route a key to its shard, or {@code null} when this cache is not sharded.
+     */
+    @Nullable
+    public ToIntFunction<? super K> getShardKeyHash() {
+        return shardKeyHash;
+    }
+
     public PersistentIndexedCacheParameters<K, V> withCacheDecorator(CacheDecorator cacheDecorator) {
-        return new PersistentIndexedCacheParameters<K, V>(cacheName, keySerializer, valueSerializer, cacheDecorator);
+        return new PersistentIndexedCacheParameters<K, V>(cacheName, keySerializer, valueSerializer, cacheDecorator, backend, shards, shardKeyHash);
+    }
+
+    public PersistentIndexedCacheParameters<K, V> withBackend(IndexedCacheBackend backend) {
+        return new PersistentIndexedCacheParameters<K, V>(cacheName, keySerializer, valueSerializer, cacheDecorator, backend, shards, shardKeyHash);
+    }
+
+    /**
+     * Splits this cache into the given number of shards. Each key is stored in exactly one shard, chosen using the given hash of the key.
+     * The shards are shared between processes, so the hash needs to be stable across JVMs, like {@link String#hashCode()}.
+     * Each shard has its own backing file and, when the cache is decorated, its own in-memory store and asynchronous writer.
+     * Note that all shards are still written while owning the cache directory, so sharding does not allow concurrent writes.
+     * The in-memory store of a decorated cache is created for each shard, so the maximum number of entries kept in memory applies to each shard.
+     */
+    public PersistentIndexedCacheParameters<K, V> withShards(int shards, ToIntFunction<? super K> shardKeyHash) {
+        if (shards < 1) {
+            throw new IllegalArgumentException("The number of shards must be at least 1, was " + shards);
+        }
+        return new PersistentIndexedCacheParameters<K, V>(cacheName, keySerializer, valueSerializer, cacheDecorator, backend, shards, shards > 1 ? shardKeyHash : null);
     }
 }
@@ -17,6 +17,7 @@
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Objects;
+import com.google.common.io.Files;
 import org.gradle.api.Action;
 import org.gradle.api.GradleException;
 import org.gradle.cache.AsyncCacheAccess;
@@ -25,12 +26,16 @@
 import org.gradle.cache.FileIntegrityViolationException;
 import org.gradle.cache.FileLock;
 import org.gradle.cache.FileLockManager;
+import org.gradle.cache.IndexedCacheBackend;
 import org.gradle.cache.InsufficientLockModeException;
 import org.gradle.cache.LockOptions;
 import org.gradle.cache.LockTimeoutException;
 import org.gradle.cache.MultiProcessSafePersistentIndexedCache;
 import org.gradle.cache.PersistentIndexedCacheParameters;
+import org.gradle.cache.internal.appendonly.AppendOnlyLogPersistentIndexedCache;
 import org.gradle.cache.internal.btree.BTreePersistentIndexedCache;
+import org.gradle.cache.internal.btree.FileBackedBlockStore;
+import org.gradle.cache.internal.btree.MappedFileBlockStore;
 import org.gradle.cache.internal.cacheops.CacheAccessOperationsStack;
 import org.gradle.internal.Cast;
 import org.gradle.internal.Factories;
@@ -76,6 +81,7 @@ public class DefaultCacheAccess implements CacheCoordinator {
 
     private ManagedExecutor cacheUpdateExecutor;
     private CacheAccessWorker cacheAccessWorker;
+    private final List<CacheAccessWorker> shardCacheAccessWorkers = new ArrayList<CacheAccessWorker>();
     private final Lock stateLock = new ReentrantLock(); // protects the following state
     private final Condition condition = stateLock.newCondition();
 
@@ -121,12 +127,28 @@ public DefaultCacheAccess(String cacheDisplayName, File lockTarget, LockOptions
     private synchronized AsyncCacheAccess getCacheAccessWorker() {
         if (cacheAccessWorker == null) {
             cacheAccessWorker = new CacheAccessWorker(cacheDisplayName, this);
-            cacheUpdateExecutor = executorFactory.create("Cache worker for " + cacheDisplayName);
-            cacheUpdateExecutor.execute(cacheAccessWorker);
+            getCacheUpdateExecutor().execute(cacheAccessWorker);
         }
         return cacheAccessWorker;
     }
 
+    /**
+     * Creates a worker for a single shard of a sharded cache. The worker batches its writes like the worker of an unsharded cache.
+     */
+    private synchronized AsyncCacheAccess newShardCacheAccessWorker(String shardDisplayName) {
+        CacheAccessWorker worker = new CacheAccessWorker(shardDisplayName, this);
+        shardCacheAccessWorkers.add(worker);
+        getCacheUpdateExecutor().execute(worker);
+        return worker;
+    }
+
+    private ManagedExecutor getCacheUpdateExecutor() {
+        if (cacheUpdateExecutor == null) {
+            cacheUpdateExecutor = executorFactory.create("Cache worker for " + cacheDisplayName);
+        }
+        return cacheUpdateExecutor;
+    }
+
     @Override
     public void open() {
         stateLock.lock();
@@ -151,6 +173,10 @@ public void open() {
 
     @Override
     public synchronized void close() {
+        for (CacheAccessWorker shardCacheAccessWorker : shardCacheAccessWorkers) {
+            shardCacheAccessWorker.stop();
+        }
+        shardCacheAccessWorkers.clear();
         if (cacheAccessWorker != null) {
             cacheAccessWorker.stop();
             cacheAccessWorker = null;
@@ -280,17 +306,20 @@ public <K, V> MultiProcessSafePersistentIndexedCache<K, V> newCache(final Persis
         IndexedCacheEntry<K, V> entry = Cast.uncheckedCast(caches.get(parameters.getCacheName()));
         try {
             if (entry == null) {
-                File cacheFile = findCacheFile(parameters);
-                LOG.debug("Creating new cache for {}, path {}, access {}", parameters.getCacheName(), cacheFile, this);
-                Factory<BTreePersistentIndexedCache<K, V>> indexedCacheFactory = () -> doCreateCache(cacheFile, parameters.getKeySerializer(), parameters.getValueSerializer());
-
-                MultiProcessSafePersistentIndexedCache<K, V> indexedCache = new DefaultMultiProcessSafePersistentIndexedCache<K, V>(indexedCacheFactory, fileAccess);
-                CacheDecorator decorator = parameters.getCacheDecorator();
-                if (decorator != null) {
-                    indexedCache = decorator.decorate(cacheFile.getAbsolutePath(), parameters.getCacheName(), indexedCache, crossProcessCacheAccess, getCacheAccessWorker());
-                    if (fileLock == null) {
-                        useCache(NO_OP);
+                MultiProcessSafePersistentIndexedCache<K, V> indexedCache;
+                if (parameters.getShards() > 1) {
+                    List<MultiProcessSafePersistentIndexedCache<K, V>> shards = new ArrayList<>(parameters.getShards());
+                    for (int shard = 0; shard < parameters.getShards(); shard++) {
+                        File shardFile = findShardFile(parameters, shard);
+                        String shardDisplayName = cacheDisplayName + " (" + parameters.getCacheName() + " shard " + shard + ")";
+                        shards.add(createCache(shardFile, parameters, () -> newShardCacheAccessWorker(shardDisplayName)));
                     }
+                    indexedCache = new ShardedMultiProcessSafePersistentIndexedCache<>(parameters.getShardKeyHash(), shards);
+                } else {
+                    indexedCache = createCache(findCacheFile(parameters), parameters, this::getCacheAccessWorker);
+                }
+                if (parameters.getCacheDecorator() != null && fileLock == null) {
+                    useCache(NO_OP);
                 }
                 entry = new IndexedCacheEntry<>(parameters, indexedCache);
                 caches.put(parameters.getCacheName(), entry);
@@ -306,17 +335,56 @@ public <K, V> MultiProcessSafePersistentIndexedCache<K, V> newCache(final Persis
         }
     }
 
+    private <K, V> MultiProcessSafePersistentIndexedCache<K, V> createCache(File cacheFile, PersistentIndexedCacheParameters<K, V> parameters, Factory<AsyncCacheAccess> asyncCacheAccess) {
+        LOG.debug("Creating new cache for {}, path {}, access {}", parameters.getCacheName(), cacheFile, this);
+        Factory<IndexedCacheBackingStore<K, V>> indexedCacheFactory = () -> doCreateCache(cacheFile, parameters);
+        if (parameters.getBackend() == IndexedCacheBackend.APPEND_ONLY_LOG) {
+            indexedCacheFactory = new ReopeningAppendOnlyLogFactory<>(indexedCacheFactory);
+        }
+
+        MultiProcessSafePersistentIndexedCache<K, V> indexedCache = new DefaultMultiProcessSafePersistentIndexedCache<K, V>(indexedCacheFactory, fileAccess);
+        CacheDecorator decorator = parameters.getCacheDecorator();
+        if (decorator != null) {
+            indexedCache = decorator.decorate(cacheFile.getAbsolutePath(), parameters.getCacheName(), indexedCache, crossProcessCacheAccess, asyncCacheAccess.create());
+        }
+        return indexedCache;
+    }
+
     private <K, V> File findCacheFile(PersistentIndexedCacheParameters<K, V> parameters) {
-        return new File(baseDir, parameters.getCacheName() + ".bin");
+        return findCacheFile(parameters.getCacheName(), parameters.getBackend());
+    }
+
+    private <K, V> File findShardFile(PersistentIndexedCacheParameters<K, V> parameters, int shard) {
+        return findCacheFile(parameters.getCacheName() + "-shard-" + shard, parameters.getBackend());
+    }
+
+    private File findCacheFile(String fileName, IndexedCacheBackend backend) {
+        if (backend == IndexedCacheBackend.APPEND_ONLY_LOG) {
+            return new File(baseDir, fileName + ".log");
+        }
+        return new File(baseDir, fileName + ".bin");
     }
 
     @Override
     public <K, V> boolean cacheExists(PersistentIndexedCacheParameters<K, V> parameters) {
+        if (parameters.getShards() > 1) {
+            return findShardFile(parameters, 0).exists();
+        }
         return findCacheFile(parameters).exists();
     }
 
-    <K, V> BTreePersistentIndexedCache<K, V> doCreateCache(File cacheFile, Serializer<K> keySerializer, Serializer<V> valueSerializer) {
-        return new BTreePersistentIndexedCache<>(cacheFile, keySerializer, valueSerializer);
+    <K, V> IndexedCacheBackingStore<K, V> doCreateCache(File cacheFile, PersistentIndexedCacheParameters<K, V> parameters) {
+        switch (parameters.getBackend()) {
+            case BTREE:
+                return new BTreePersistentIndexedCache<>(cacheFile, new FileBackedBlockStore(cacheFile), parameters.getKeySerializer(), parameters.getValueSerializer());
+            case MEMORY_MAPPED_BTREE:
+                return new BTreePersistentIndexedCache<>(cacheFile, new MappedFileBlockStore(cacheFile), parameters.getKeySerializer(), parameters.getValueSerializer());
+            case APPEND_ONLY_LOG:
+                File hintFile = new File(cacheFile.getParentFile(), Files.getNameWithoutExtension(cacheFile.getName()) + ".hint");
+                return new AppendOnlyLogPersistentIndexedCache<>(cacheFile, hintFile, parameters.getKeySerializer(), parameters.getValueSerializer());
+            default:
+                throw new IllegalArgumentException("Unsupported cache backend: " + parameters.getBackend());
+        }
     }
 
     /**
@@ -482,6 +550,8 @@ void assertCompatibleCacheParameters(PersistentIndexedCacheParameters<K, V> para
             checkCompatibleKeySerializer(faultMessages, parameters.getKeySerializer());
             checkCompatibleValueSerializer(faultMessages, parameters.getValueSerializer());
             checkCompatibleCacheDecorator(faultMessages, parameters.getCacheDecorator());
+            checkCompatibleBackend(faultMessages, parameters.getBackend());
+            checkCompatibleShards(faultMessages, parameters.getShards());
 
             if (!faultMessages.isEmpty()) {
                 String lineSeparator = SystemProperties.getInstance().getLineSeparator();
@@ -524,6 +594,44 @@ private void checkCompatibleCacheDecorator(Collection<String> faultMessages, Cac
                         cacheDecorator, parameters.getCacheDecorator()));
             }
         }
+
+        private void checkCompatibleBackend(Collection<String> faultMessages, IndexedCacheBackend backend) {
+            if (backend != parameters.getBackend()) {
+                faultMessages.add(
+                    String.format(" * Requested cache backend (%s) doesn't match current cache backend (%s)",
+                        backend, parameters.getBackend()));
+            }
+        }
+
+        private void checkCompatibleShards(Collection<String> faultMessages, int shards) {
+            if (shards != parameters.getShards()) {
+                faultMessages.add(
+                    String.format(" * Requested number of shards (%s) doesn't match current number of shards (%s)",
+                        shards, parameters.getShards()));
+            }
+        }
+    }
+
+    /**
+     * Reopens the same append-only log for each use of the cache, so that its index is kept in memory while the cache is not in use.
+     */
+    private static class ReopeningAppendOnlyLogFactory<K, V> implements Factory<IndexedCacheBackingStore<K, V>> {
+        private final Factory<IndexedCacheBackingStore<K, V>> delegate;
+        private IndexedCacheBackingStore<K, V> store;
+
+        ReopeningAppendOnlyLogFactory(Factory<IndexedCacheBackingStore<K, V>> delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public IndexedCacheBackingStore<K, V> create() {
+            if (store instanceof AppendOnlyLogPersistentIndexedCache) {
+                ((AppendOnlyLogPersistentIndexedCache<K, V>) store).reopen();
+            } else {
+                store = delegate.create();
+            }
+            return store;
+        }
     }
 
     @VisibleForTesting
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.cache.internal;
+
+import com.google.common.collect.ImmutableList;
+import org.gradle.cache.FileLock;
+import org.gradle.cache.MultiProcessSafePersistentIndexedCache;
+
+import javax.annotation.Nullable;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+
+/**
+ * A logical cache that is split into a number of shards, each backed by its own cache.
+ *
+ * <p>Each key is always routed to the same shard, based on the key hash provided by the caller.
+ * The shards are persistent and shared between processes, so the key hash must be stable across JVMs, like {@link String#hashCode()}.</p>
+ *
+ * <p>Each shard can have its own in-memory store and its own asynchronous writer.
+ * All shards are still written while owning the same cache directory, as the cross-process lock covers the whole directory,
+ * so sharding does not let writes proceed concurrently. Instead, reading a key only needs to wait for the pending writes to its own shard,
+ * and threads working with keys in different shards do not contend on the same in-memory store.</p>
+ */
+public class ShardedMultiProcessSafePersistentIndexedCache<K, V> implements MultiProcessSafePersistentIndexedCache<K, V> {
+    private final ToIntFunction<? super K> keyHash;
+    private final List<MultiProcessSafePersistentIndexedCache<K, V>> shards;
+
+    public ShardedMultiProcessSafePersistentIndexedCache(ToIntFunction<? super K> keyHash, List<? extends MultiProcessSafePersistentIndexedCache<K, V>> shards) {
+        if (shards.isEmpty()) {
+            throw new IllegalArgumentException("At least one shard is required.");
+        }
+        this.keyHash = keyHash;
+        this.shards = ImmutableList.copyOf(shards);
+    }
+
+    @Override
+    public String toString() {
+        return "{sharded-cache shards: " + shards.size() + ", first: " + shards.get(0) + "}";
+    }
+
+    @Nullable
+    @Override
+    public V getIfPresent(K key) {
+        return shardFor(key).getIfPresent(key);
+    }
+
+    @Override
+    public V get(K key, Function<? super K, ? extends V> producer) {
+        return shardFor(key).get(key, producer);
+    }
+
+    @Override
+    public void put(K key, V value) {
+        shardFor(key).put(key, value);
+    }
+
+    @Override
+    public void remove(K key) {
+        shardFor(key).remove(key);
+    }
+
+    @Override
+    public void afterLockAcquire(FileLock.State currentCacheState) {
+        for (MultiProcessSafePersistentIndexedCache<K, V> shard : shards) {
+            shard.afterLockAcquire(currentCacheState);
+        }
+    }
+
+    @Override
+    public void finishWork() {
+        for (MultiProcessSafePersistentIndexedCache<K, V> shard : shards) {
+            shard.finishWork();
+        }
+    }
+
+    @Override
+    public void beforeLockRelease(FileLock.State currentCacheState) {
+        for (MultiProcessSafePersistentIndexedCache<K, V> shard : shards) {
+            shard.beforeLockRelease(currentCacheState);
+        }
+    }
+
+    int getShardCount() {
+        return shards.size();
+    }
+
+    MultiProcessSafePersistentIndexedCache<K, V> shardFor(K key) {
+        return shards.get(shardIndex(keyHash.applyAsInt(key), shards.size()));
+    }
+
+    static int shardIndex(int keyHash, int shardCount) {
+        // Spread the high bits, as for example the hash of strings sharing a long prefix differs mostly in the low bits
+        return Math.floorMod(keyHash ^ (keyHash >>> 16), shardCount);
+    }
+}
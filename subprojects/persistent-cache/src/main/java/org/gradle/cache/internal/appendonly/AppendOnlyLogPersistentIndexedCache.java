@@ -0,0 +1,656 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gradle.cache.internal.appendonly;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.hash.Hashing;
+import org.gradle.api.UncheckedIOException;
+import org.gradle.cache.internal.IndexedCacheBackingStore;
+import org.gradle.internal.serialize.Serializer;
+import org.gradle.internal.serialize.kryo.KryoBackedDecoder;
+import org.gradle.internal.serialize.kryo.KryoBackedEncoder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+/**
+ * An indexed cache stored as an append-only log of records, with an in-memory hash index of the live records.
+ *
+ * <p>Every put or remove appends a record to the end of the log file, so writes are sequential. The index maps a hash of
+ * the serialized key to the location of the latest record for that key. A lookup reads a single record, and checks its key
+ * before decoding the value, so a hash collision results in a cache miss rather than a wrong value.</p>
+ *
+ * <p>The cache is closed whenever the cross-process lock is released, and then reopened using {@link #reopen()}. The index
+ * is kept in memory in between. When the log still has the same generation on reopen, only the records appended since,
+ * for example by another process, need to be scanned.</p>
+ *
+ * <p>On close, the changes to the index are appended to a hint file, so that a new instance can load the index without
+ * scanning the whole log. The hint file is only written in full when it is created, when another process changed it in
+ * an unexpected way, or when most of its entries have been superseded. When more than half of the log is made up of
+ * replaced or removed records, the live records are copied to a new log on close.</p>
+ */
+public class AppendOnlyLogPersistentIndexedCache<K, V> implements IndexedCacheBackingStore<K, V> {
+    private static final Logger LOGGER = LoggerFactory.getLogger(AppendOnlyLogPersistentIndexedCache.class);
+
+    private static final int LOG_MAGIC = 0x474c4f47;
+    private static final int HINT_MAGIC = 0x47484e54;
+    private static final int FORMAT_VERSION = 1;
+    private static final int HINT_FORMAT_VERSION = 2;
+    private static final int LOG_HEADER_SIZE = 4 + 4 + 8; // magic, version, generation
+    private static final int RECORD_HEADER_SIZE = 4 + 4 + 8; // key size, value size, checksum
+    private static final int HINT_HEADER_SIZE = 4 + 4 + 8; // magic, version, generation
+    private static final int HINT_ENTRY_SIZE = 8 + 8 + 4; // key hash, offset, size
+    private static final int HINT_BLOCK_OVERHEAD = 4 + 8 + 8; // entry count, end of log, garbage size
+    private static final int REMOVED = -1;
+    private static final Entry REMOVED_ENTRY = new Entry(0, REMOVED);
+    private static final long DEFAULT_MIN_COMPACTION_SIZE = 1024 * 1024;
+    private static final int MIN_HINT_ENTRIES_TO_REWRITE = 1024;
+
+    private final File logFile;
+    private final File hintFile;
+    private final Serializer<K> keySerializer;
+    private final Serializer<V> valueSerializer;
+    private final long minCompactionSize;
+    private final ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+    private final KryoBackedEncoder encoder = new KryoBackedEncoder(serialized);
+    private final Map<Long, Entry> index = new HashMap<Long, Entry>();
+    // The changes to the index which are not yet in the hint file
+    private final Map<Long, Entry> hintUpdates = new HashMap<Long, Entry>();
+    @Nullable
+    private RandomAccessFile file;
+    private boolean writable;
+    private boolean indexLoaded;
+    private long generation;
+    private long endOfLog;
+    private long garbageSize;
+    // What this instance knows about the hint file. A length of 0 means that the hint file needs to be written in full.
+    private long hintLength;
+    private long hintEntryCount;
+    private long hintEndOfLog;
+
+    public AppendOnlyLogPersistentIndexedCache(File logFile, File hintFile, Serializer<K> keySerializer, Serializer<V> valueSerializer) {
+        this(logFile, hintFile, keySerializer, valueSerializer, DEFAULT_MIN_COMPACTION_SIZE);
+    }
+
+    @VisibleForTesting
+    AppendOnlyLogPersistentIndexedCache(File logFile, File hintFile, Serializer<K> keySerializer, Serializer<V> valueSerializer, long minCompactionSize) {
+        this.logFile = logFile;
+        this.hintFile = hintFile;
+        this.keySerializer = keySerializer;
+        this.valueSerializer = valueSerializer;
+        this.minCompactionSize = minCompactionSize;
+        try {
+            open();
+        } catch (Exception e) {
+            throw new UncheckedIOException(String.format("Could not open %s.", this), e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "cache " + logFile.getName() + " (" + logFile + ")";
+    }
+
+    /**
+     * Opens this cache again after it has been closed. The index is only reloaded when the log has been replaced since this cache was closed.
+     */
+    public void reopen() {
+        if (file != null) {
+            throw new IllegalStateException(String.format("%s is already open.", this));
+        }
+        try {
+            open();
+        } catch (Exception e) {
+            throw new UncheckedIOException(String.format("Could not open %s.", this), e);
+        }
+    }
+
+    private void open() throws IOException {
+        LOGGER.debug("Opening {}", this);
+        logFile.getParentFile().mkdirs();
+        file = openRandomAccessFile();
+        long knownGeneration = generation;
+        long knownEndOfLog = endOfLog;
+        if (!readLogHeader()) {
+            if (file.length() > 0) {
+                LOGGER.warn("{} is corrupt. Discarding.", this);
+            }
+            clear();
+            return;
+        }
+        if (indexLoaded && generation == knownGeneration && file.length() >= knownEndOfLog) {
+            // Still the same log, so only scan the records appended since this cache was closed
+            scan(knownEndOfLog);
+            return;
+        }
+        index.clear();
+        hintUpdates.clear();
+        hintLength = 0;
+        garbageSize = 0;
+        long scanFrom = loadHint() ? endOfLog : LOG_HEADER_SIZE;
+        scan(scanFrom);
+        indexLoaded = true;
+    }
+
+    private RandomAccessFile openRandomAccessFile() throws FileNotFoundException {
+        try {
+            RandomAccessFile file = new RandomAccessFile(logFile, "rw");
+            writable = true;
+            return file;
+        } catch (FileNotFoundException e) {
+            writable = false;
+            return new RandomAccessFile(logFile, "r");
+        }
+    }
+
+    private boolean readLogHeader() throws IOException {
+        if (file.length() < LOG_HEADER_SIZE) {
+            return false;
+        }
+        file.seek(0);
+        if (file.readInt() != LOG_MAGIC || file.readInt() != FORMAT_VERSION) {
+            return false;
+        }
+        generation = file.readLong();
+        return true;
+    }
+
+    /**
+     * Loads the index from the hint file, if it is present and describes the current log.
+     *
+     * <p>The hint file consists of blocks of index changes, each appended when the cache was closed. Each block ends with the
+     * end of the log it describes. An incomplete trailing block, left behind by an interrupted write, is ignored.</p>
+     */
+    private boolean loadHint() {
+        if (!hintFile.isFile()) {
+            return false;
+        }
+        try {
+            long hintFileLength = hintFile.length();
+            DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(hintFile)));
+            try {
+                if (hintFileLength < HINT_HEADER_SIZE || input.readInt() != HINT_MAGIC || input.readInt() != HINT_FORMAT_VERSION || input.readLong() != generation) {
+                    return false;
+                }
+                Map<Long, Entry> hintIndex = new HashMap<Long, Entry>();
+                long position = HINT_HEADER_SIZE;
+                long entryCount = 0;
+                long hintEndOfLog = 0;
+                long hintGarbageSize = 0;
+                while (hintFileLength - position >= HINT_BLOCK_OVERHEAD) {
+                    int count = input.readInt();
+                    long blockSize = HINT_BLOCK_OVERHEAD + (long) count * HINT_ENTRY_SIZE;
+                    if (count < 0 || blockSize > hintFileLength - position) {
+                        break;
+                    }
+                    long[] keyHashes = new long[count];
+                    Entry[] entries = new Entry[count];
+                    for (int i = 0; i < count; i++) {
+                        keyHashes[i] = input.readLong();
+                        long offset = input.readLong();
+                        int size = input.readInt();
+                        entries[i] = size == REMOVED ? REMOVED_ENTRY : new Entry(offset, size);
+                    }
+                    long blockEndOfLog = input.readLong();
+                    long blockGarbageSize = input.readLong();
+                    if (blockEndOfLog < Math.max(LOG_HEADER_SIZE, hintEndOfLog) || blockEndOfLog > file.length()) {
+                        break;
+                    }
+                    for (int i = 0; i < count; i++) {
+                        if (entries[i] == REMOVED_ENTRY) {
+                            hintIndex.remove(keyHashes[i]);
+                        } else {
+                            hintIndex.put(keyHashes[i], entries[i]);
+                        }
+                    }
+                    position += blockSize;
+                    entryCount += count;
+                    hintEndOfLog = blockEndOfLog;
+                    hintGarbageSize = blockGarbageSize;
+                }
+                if (hintEndOfLog == 0) {
+                    return false;
+                }
+                index.putAll(hintIndex);
+                endOfLog = hintEndOfLog;
+                garbageSize = hintGarbageSize;
+                this.hintLength = position;
+                this.hintEntryCount = entryCount;
+                this.hintEndOfLog = hintEndOfLog;
+                return true;
+            } finally {
+                input.close();
+            }
+        } catch (IOException e) {
+            LOGGER.debug("Could not read hint file for {}. Scanning the whole log.", this, e);
+            return false;
+        }
+    }
+
+    /**
+     * Adds the records from the given offset to the end of the log to the index. Truncates an incomplete trailing record, left behind by an interrupted write.
+     */
+    private void scan(long from) throws IOException {
+        long offset = from;
+        long length = file.length();
+        if (offset < length) {
+            DataInputStream input = new DataInputStream(new BufferedInputStream(new RecordInputStream(offset)));
+            while (offset < length) {
+                Record record = readRecord(input, length - offset);
+                if (record == null) {
+                    LOGGER.debug("Found incomplete record at offset {} in {}. Discarding the remainder of the log.", offset, this);
+                    if (writable) {
+                        file.setLength(offset);
+                    }
+                    break;
+                }
+                int size = record.getSize();
+                if (record.isRemoved()) {
+                    Entry previous = index.remove(record.keyHash());
+                    hintUpdates.put(record.keyHash(), REMOVED_ENTRY);
+                    garbageSize += size + (previous == null ? 0 : previous.size);
+                } else {
+                    Entry entry = new Entry(offset, size);
+                    Entry previous = index.put(record.keyHash(), entry);
+                    hintUpdates.put(record.keyHash(), entry);
+                    if (previous != null) {
+                        garbageSize += previous.size;
+                    }
+                }
+                offset += size;
+            }
+        }
+        endOfLog = offset;
+    }
+
+    @Nullable
+    @Override
+    public V get(K key) {
+        try {
+            byte[] keyBytes = serialize(keySerializer, key);
+            Entry entry = index.get(hash(keyBytes));
+            if (entry == null) {
+                return null;
+            }
+            Record record = readRecordAt(entry);
+            if (record == null) {
+                LOGGER.warn("{} is corrupt. Discarding.", this);
+                clear();
+                return null;
+            }
+            if (!Arrays.equals(keyBytes, record.key)) {
+                // Another key with the same hash
+                return null;
+            }
+            return valueSerializer.read(new KryoBackedDecoder(new ByteArrayInputStream(record.value)));
+        } catch (Exception e) {
+            throw new UncheckedIOException(String.format("Could not read entry '%s' from %s.", key, this), e);
+        }
+    }
+
+    @Override
+    public void put(K key, V value) {
+        try {
+            byte[] keyBytes = serialize(keySerializer, key);
+            byte[] valueBytes = serialize(valueSerializer, value);
+            long offset = append(keyBytes, valueBytes);
+            long keyHash = hash(keyBytes);
+            Entry entry = new Entry(offset, (int) (endOfLog - offset));
+            Entry previous = index.put(keyHash, entry);
+            hintUpdates.put(keyHash, entry);
+            if (previous != null) {
+                garbageSize += previous.size;
+            }
+        } catch (Exception e) {
+            throw new UncheckedIOException(String.format("Could not add entry '%s' to %s.", key, this), e);
+        }
+    }
+
+    @Override
+    public void remove(K key) {
+        try {
+            byte[] keyBytes = serialize(keySerializer, key);
+            long keyHash = hash(keyBytes);
+            Entry previous = index.remove(keyHash);
+            if (previous == null) {
+                return;
+            }
+            long offset = append(keyBytes, null);
+            hintUpdates.put(keyHash, REMOVED_ENTRY);
+            garbageSize += previous.size + endOfLog - offset;
+        } catch (Exception e) {
+            throw new UncheckedIOException(String.format("Could not remove entry '%s' from %s.", key, this), e);
+        }
+    }
+
+    @Override
+    public void close() {
+        LOGGER.debug("Closing {}", this);
+        try {
+            try {
+                if (writable && shouldCompact()) {
+                    compact();
+                }
+            } finally {
+                file.close();
+                file = null;
+            }
+            if (writable && (hintLength == 0 || hintEndOfLog != endOfLog)) {
+                writeHint();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Discards all entries from this cache.
+     */
+    public void clear() throws IOException {
+        index.clear();
+        hintUpdates.clear();
+        hintLength = 0;
+        indexLoaded = true;
+        garbageSize = 0;
+        generation = new Random().nextLong();
+        file.setLength(0);
+        file.seek(0);
+        file.writeInt(LOG_MAGIC);
+        file.writeInt(FORMAT_VERSION);
+        file.writeLong(generation);
+        endOfLog = LOG_HEADER_SIZE;
+    }
+
+    @VisibleForTesting
+    long getGarbageSize() {
+        return garbageSize;
+    }
+
+    private boolean shouldCompact() {
+        return garbageSize >= minCompactionSize && garbageSize * 2 > endOfLog - LOG_HEADER_SIZE;
+    }
+
+    /**
+     * Copies the live records to a new log, in the order they appear in the current log, and replaces the current log with it.
+     */
+    private void compact() throws IOException {
+        LOGGER.debug("Compacting {}, discarding {} bytes", this, garbageSize);
+        List<Map.Entry<Long, Entry>> live = new ArrayList<Map.Entry<Long, Entry>>(index.entrySet());
+        live.sort(Comparator.comparingLong(e -> e.getValue().offset));
+
+        File compactedFile = new File(logFile.getParentFile(), logFile.getName() + ".compact");
+        long newGeneration = new Random().nextLong();
+        Map<Long, Entry> newIndex = new HashMap<Long, Entry>(index.size() * 4 / 3 + 1);
+        long offset = LOG_HEADER_SIZE;
+        DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(compactedFile)));
+        try {
+            output.writeInt(LOG_MAGIC);
+            output.writeInt(FORMAT_VERSION);
+            output.writeLong(newGeneration);
+            byte[] buffer = new byte[0];
+            for (Map.Entry<Long, Entry> liveEntry : live) {
+                Entry entry = liveEntry.getValue();
+                if (buffer.length < entry.size) {
+                    buffer = new byte[entry.size];
+                }
+                file.seek(entry.offset);
+                file.readFully(buffer, 0, entry.size);
+                output.write(buffer, 0, entry.size);
+                newIndex.put(liveEntry.getKey(), new Entry(offset, entry.size));
+                offset += entry.size;
+            }
+        } finally {
+            output.close();
+        }
+        file.close();
+        Files.move(compactedFile.toPath(), logFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        index.clear();
+        index.putAll(newIndex);
+        generation = newGeneration;
+        endOfLog = offset;
+        garbageSize = 0;
+        hintUpdates.clear();
+        hintLength = 0;
+    }
+
+    private void writeHint() throws IOException {
+        boolean mostlySuperseded = hintEntryCount + hintUpdates.size() > 2L * index.size() + MIN_HINT_ENTRIES_TO_REWRITE;
+        if (hintLength == 0 || mostlySuperseded || !appendHint()) {
+            rewriteHint();
+        }
+        hintUpdates.clear();
+        hintEndOfLog = endOfLog;
+    }
+
+    /**
+     * Appends the changes to the index to the hint file. Fails when the hint file is not the one this cache last wrote or loaded.
+     */
+    private boolean appendHint() throws IOException {
+        ByteArrayOutputStream blockBytes = new ByteArrayOutputStream(HINT_BLOCK_OVERHEAD + hintUpdates.size() * HINT_ENTRY_SIZE);
+        writeHintBlock(new DataOutputStream(blockBytes), hintUpdates);
+        RandomAccessFile hint;
+        try {
+            hint = new RandomAccessFile(hintFile, "rw");
+        } catch (FileNotFoundException e) {
+            return false;
+        }
+        try {
+            if (hint.length() != hintLength || hint.readInt() != HINT_MAGIC || hint.readInt() != HINT_FORMAT_VERSION || hint.readLong() != generation) {
+                return false;
+            }
+            hint.seek(hintLength);
+            hint.write(blockBytes.toByteArray());
+        } finally {
+            hint.close();
+        }
+        hintLength += blockBytes.size();
+        hintEntryCount += hintUpdates.size();
+        return true;
+    }
+
+    private void rewriteHint() throws IOException {
+        File tempFile = new File(hintFile.getParentFile(), hintFile.getName() + ".tmp");
+        DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+        try {
+            output.writeInt(HINT_MAGIC);
+            output.writeInt(HINT_FORMAT_VERSION);
+            output.writeLong(generation);
+            writeHintBlock(output, index);
+        } finally {
+            output.close();
+        }
+        Files.move(tempFile.toPath(), hintFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        hintLength = HINT_HEADER_SIZE + HINT_BLOCK_OVERHEAD + (long) index.size() * HINT_ENTRY_SIZE;
+        hintEntryCount = index.size();
+    }
+
+    private void writeHintBlock(DataOutputStream output, Map<Long, Entry> entries) throws IOException {
+        output.writeInt(entries.size());
+        for (Map.Entry<Long, Entry> entry : entries.entrySet()) {
+            output.writeLong(entry.getKey());
+            output.writeLong(entry.getValue().offset);
+            output.writeInt(entry.getValue().size);
+        }
+        output.writeLong(endOfLog);
+        output.writeLong(garbageSize);
+    }
+
+    /**
+     * Appends a record to the end of the log, and returns its offset. A {@code null} value marks the key as removed.
+     */
+    private long append(byte[] keyBytes, @Nullable byte[] valueBytes) throws IOException {
+        int valueSize = valueBytes == null ? REMOVED : valueBytes.length;
+        ByteArrayOutputStream recordBytes = new ByteArrayOutputStream(RECORD_HEADER_SIZE + keyBytes.length + Math.max(0, valueSize));
+        DataOutputStream record = new DataOutputStream(recordBytes);
+        record.writeInt(keyBytes.length);
+        record.writeInt(valueSize);
+        record.writeLong(checksum(keyBytes, valueBytes));
+        record.write(keyBytes);
+        if (valueBytes != null) {
+            record.write(valueBytes);
+        }
+
+        long offset = endOfLog;
+        file.seek(offset);
+        file.write(recordBytes.toByteArray());
+        endOfLog = offset + recordBytes.size();
+        return offset;
+    }
+
+    @Nullable
+    private Record readRecordAt(Entry entry) throws IOException {
+        if (entry.offset + entry.size > file.length()) {
+            return null;
+        }
+        byte[] bytes = new byte[entry.size];
+        file.seek(entry.offset);
+        file.readFully(bytes);
+        return readRecord(new DataInputStream(new ByteArrayInputStream(bytes)), entry.size);
+    }
+
+    /**
+     * Reads the next record from the given stream, or returns {@code null} when the record is incomplete or corrupt.
+     */
+    @Nullable
+    private static Record readRecord(DataInputStream input, long available) throws IOException {
+        if (available < RECORD_HEADER_SIZE) {
+            return null;
+        }
+        int keySize = input.readInt();
+        int valueSize = input.readInt();
+        long checksum = input.readLong();
+        if (keySize < 0 || valueSize < REMOVED || RECORD_HEADER_SIZE + (long) keySize + Math.max(0, valueSize) > available) {
+            return null;
+        }
+        byte[] key = new byte[keySize];
+        input.readFully(key);
+        byte[] value = null;
+        if (valueSize != REMOVED) {
+            value = new byte[valueSize];
+            input.readFully(value);
+        }
+        if (checksum(key, value) != checksum) {
+            return null;
+        }
+        return new Record(key, value);
+    }
+
+    private <T> byte[] serialize(Serializer<T> serializer, T value) throws Exception {
+        serialized.reset();
+        serializer.write(encoder, value);
+        encoder.flush();
+        return serialized.toByteArray();
+    }
+
+    private static long hash(byte[] keyBytes) {
+        return Hashing.murmur3_128().hashBytes(keyBytes).asLong();
+    }
+
+    private static long checksum(byte[] keyBytes, @Nullable byte[] valueBytes) {
+        CRC32 crc = new CRC32();
+        crc.update(keyBytes, 0, keyBytes.length);
+        if (valueBytes != null) {
+            crc.update(valueBytes, 0, valueBytes.length);
+        }
+        return crc.getValue();
+    }
+
+    private static class Entry {
+        final long offset;
+        final int size;
+
+        Entry(long offset, int size) {
+            this.offset = offset;
+            this.size = size;
+        }
+    }
+
+    private static class Record {
+        final byte[] key;
+        @Nullable
+        final byte[] value;
+
+        Record(byte[] key, @Nullable byte[] value) {
+            this.key = key;
+            this.value = value;
+        }
+
+        boolean isRemoved() {
+            return value == null;
+        }
+
+        long keyHash() {
+            return hash(key);
+        }
+
+        int getSize() {
+            return RECORD_HEADER_SIZE + key.length + (value == null ? 0 : value.length);
+        }
+    }
+
+    /**
+     * Reads the log sequentially from a given offset.
+     */
+    private class RecordInputStream extends InputStream {
+        private long position;
+
+        RecordInputStream(long position) {
+            this.position = position;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            int count = read(b, 0, 1);
+            return count < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            file.seek(position);
+            int count = file.read(bytes, offset, length);
+            if (count > 0) {
+                position += count;
+            }
+            return count;
+        }
+    }
+}
@@ -17,6 +17,7 @@
 
 import com.google.common.collect.ImmutableSet;
 import org.gradle.api.UncheckedIOException;
+import org.gradle.cache.internal.IndexedCacheBackingStore;
 import org.gradle.internal.UncheckedException;
 import org.gradle.internal.io.StreamByteBuffer;
 import org.gradle.internal.serialize.Serializer;
@@ -47,7 +48,7 @@
 // todo - merge adjacent free blocks
 // todo - use more efficient lookup for free block with nearest size
 @SuppressWarnings("unchecked")
-public class BTreePersistentIndexedCache<K, V> {
+public class BTreePersistentIndexedCache<K, V> implements IndexedCacheBackingStore<K, V> {
     private static final Logger LOGGER = LoggerFactory.getLogger(BTreePersistentIndexedCache.class);
     private final File cacheFile;
     private final KeyHasher<K> keyHasher;
@@ -63,12 +64,21 @@ public BTreePersistentIndexedCache(File cacheFile, Serializer<K> keySerializer,
 
     public BTreePersistentIndexedCache(File cacheFile, Serializer<K> keySerializer, Serializer<V> valueSerializer,
                                        short maxChildIndexEntries, int maxFreeListEntries) {
+        this(cacheFile, new FileBackedBlockStore(cacheFile), keySerializer, valueSerializer, maxChildIndexEntries, maxFreeListEntries);
+    }
+
+    public BTreePersistentIndexedCache(File cacheFile, BlockStore backingStore, Serializer<K> keySerializer, Serializer<V> valueSerializer) {
+        this(cacheFile, backingStore, keySerializer, valueSerializer, (short) 512, 512);
+    }
+
+    public BTreePersistentIndexedCache(File cacheFile, BlockStore backingStore, Serializer<K> keySerializer, Serializer<V> valueSerializer,
+                                       short maxChildIndexEntries, int maxFreeListEntries) {
         this.cacheFile = cacheFile;
         this.keyHasher = new KeyHasher<K>(keySerializer);
         this.serializer = valueSerializer;
         this.maxChildIndexEntries = maxChildIndexEntries;
         this.minIndexChildNodes = maxChildIndexEntries / 2;
-        BlockStore cachingStore = new CachingBlockStore(new FileBackedBlockStore(cacheFile), ImmutableSet.of(IndexBlock.class, FreeListBlockStore.FreeListBlock.class));
+        BlockStore cachingStore = new CachingBlockStore(backingStore, ImmutableSet.of(IndexBlock.class, FreeListBlockStore.FreeListBlock.class));
         this.store = new StateCheckBlockStore(new FreeListBlockStore(cachingStore, maxFreeListEntries));
         try {
             open();
@@ -121,6 +131,7 @@ public void run() {
         header = store.readFirst(HeaderBlock.class);
     }
 
+    @Override
     public V get(K key) {
         try {
             try {
@@ -138,6 +149,7 @@ public V get(K key) {
         }
     }
 
+    @Override
     public void put(K key, V value) {
         try {
             long hashCode = keyHasher.getHashCode(key);
@@ -163,6 +175,7 @@ public void put(K key, V value) {
         }
     }
 
+    @Override
     public void remove(K key) {
         try {
             Lookup lookup = header.getRoot().find(key);
@@ -195,6 +208,7 @@ public void reset() {
         }
     }
 
+    @Override
     public void close() {
         LOGGER.debug("Closing {}", this);
         try {
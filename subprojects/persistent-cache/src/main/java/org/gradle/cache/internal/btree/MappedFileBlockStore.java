@@ -0,0 +1,446 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.gradle.cache.internal.btree;
+
+import org.gradle.api.UncheckedIOException;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A {@link BlockStore} that reads and writes blocks through memory-mapped regions of the cache file.
+ *
+ * <p>The file is mapped lazily in fixed size regions. Writing past the end of the last mapped region maps a new region,
+ * which grows the file by a whole region at a time. The file starts with a header that records the end of the last block,
+ * so the unused tail of the last region is ignored when the file is opened again. On close, the file is truncated back to
+ * the end of the last block where possible. Some platforms do not allow truncating a file while it is still mapped, and
+ * regions are only unmapped once they are garbage collected.</p>
+ *
+ * <p>The blocks use the same format as {@link FileBackedBlockStore}, but because of the header the two stores cannot open each other's files.
+ * A file without a valid header is discarded.</p>
+ */
+public class MappedFileBlockStore implements BlockStore {
+    public static final int DEFAULT_REGION_SIZE = 4 * 1024 * 1024;
+    private static final int MAGIC = 0x474d4246;
+    private static final int FORMAT_VERSION = 1;
+    private static final int END_OF_DATA_OFFSET = 4 + 4; // magic, version
+    private static final int FILE_HEADER_SIZE = END_OF_DATA_OFFSET + 8; // end of data
+
+    private final File cacheFile;
+    private final int regionSize;
+    private final List<MappedByteBuffer> regions = new ArrayList<MappedByteBuffer>();
+    private RandomAccessFile file;
+    private FileChannel.MapMode mapMode;
+    private long nextBlock;
+    private Factory factory;
+    private long currentFileSize;
+
+    public MappedFileBlockStore(File cacheFile) {
+        this(cacheFile, DEFAULT_REGION_SIZE);
+    }
+
+    public MappedFileBlockStore(File cacheFile, int regionSize) {
+        this.cacheFile = cacheFile;
+        this.regionSize = regionSize;
+    }
+
+    @Override
+    public String toString() {
+        return "cache '" + cacheFile + "'";
+    }
+
+    @Override
+    public void open(Runnable runnable, Factory factory) {
+        this.factory = factory;
+        try {
+            cacheFile.getParentFile().mkdirs();
+            file = openRandomAccessFile();
+            if (!readFileHeader()) {
+                if (mapMode == FileChannel.MapMode.READ_WRITE) {
+                    clear();
+                } else {
+                    currentFileSize = FILE_HEADER_SIZE;
+                    nextBlock = FILE_HEADER_SIZE;
+                }
+            }
+            if (currentFileSize == FILE_HEADER_SIZE) {
+                runnable.run();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private RandomAccessFile openRandomAccessFile() throws FileNotFoundException {
+        try {
+            RandomAccessFile file = new RandomAccessFile(cacheFile, "rw");
+            mapMode = FileChannel.MapMode.READ_WRITE;
+            return file;
+        } catch (FileNotFoundException e) {
+            RandomAccessFile file = new RandomAccessFile(cacheFile, "r");
+            mapMode = FileChannel.MapMode.READ_ONLY;
+            return file;
+        }
+    }
+
+    /**
+     * Reads the end of the data from the file header. Returns false when the file has no valid header.
+     */
+    private boolean readFileHeader() throws IOException {
+        long length = file.length();
+        if (length < FILE_HEADER_SIZE) {
+            return false;
+        }
+        file.seek(0);
+        if (file.readInt() != MAGIC || file.readInt() != FORMAT_VERSION) {
+            return false;
+        }
+        long endOfData = file.readLong();
+        if (endOfData < FILE_HEADER_SIZE || endOfData > length) {
+            return false;
+        }
+        currentFileSize = endOfData;
+        nextBlock = endOfData;
+        return true;
+    }
+
+    private void writeFileHeader() throws IOException {
+        MappedByteBuffer region = regionAt(0);
+        region.putInt(MAGIC);
+        region.putInt(FORMAT_VERSION);
+        region.putLong(currentFileSize);
+    }
+
+    private void writeEndOfData() throws IOException {
+        regionAt(END_OF_DATA_OFFSET).putLong(currentFileSize);
+    }
+
+    @Override
+    public void close() {
+        regions.clear();
+        try {
+            try {
+                if (mapMode == FileChannel.MapMode.READ_WRITE && file.length() > currentFileSize) {
+                    file.setLength(currentFileSize);
+                }
+            } catch (IOException e) {
+                // Some platforms do not allow a file to be truncated while it is still mapped. The unused tail is
+                // ignored on the next open, as the header records the end of the data.
+            }
+            file.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void clear() {
+        // Keep the file length and the mapped regions, as a mapped file cannot be truncated on all platforms
+        currentFileSize = FILE_HEADER_SIZE;
+        nextBlock = FILE_HEADER_SIZE;
+        try {
+            writeFileHeader();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void attach(BlockPayload block) {
+        if (block.getBlock() == null) {
+            block.setBlock(new BlockImpl(block));
+        }
+    }
+
+    @Override
+    public void remove(BlockPayload block) {
+        BlockImpl blockImpl = (BlockImpl) block.getBlock();
+        blockImpl.detach();
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public <T extends BlockPayload> T readFirst(Class<T> payloadType) {
+        return read(BlockPointer.pos(FILE_HEADER_SIZE), payloadType);
+    }
+
+    @Override
+    public <T extends BlockPayload> T read(BlockPointer pos, Class<T> payloadType) {
+        assert !pos.isNull();
+        try {
+            T payload = payloadType.cast(factory.create(payloadType));
+            BlockImpl block = new BlockImpl(payload, pos);
+            block.read();
+            return payload;
+        } catch (CorruptedCacheException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void write(BlockPayload block) {
+        BlockImpl blockImpl = (BlockImpl) block.getBlock();
+        try {
+            blockImpl.write();
+        } catch (CorruptedCacheException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private long alloc(long length) {
+        long pos = nextBlock;
+        nextBlock += length;
+        return pos;
+    }
+
+    /**
+     * Returns the region containing the given position, positioned at that position.
+     */
+    private MappedByteBuffer regionAt(long pos) throws IOException {
+        int index = (int) (pos / regionSize);
+        int offset = (int) (pos % regionSize);
+        while (regions.size() <= index) {
+            regions.add(null);
+        }
+        MappedByteBuffer region = regions.get(index);
+        if (region == null || region.capacity() <= offset) {
+            region = map(index);
+            regions.set(index, region);
+        }
+        region.position(offset);
+        return region;
+    }
+
+    private MappedByteBuffer map(int index) throws IOException {
+        long start = (long) index * regionSize;
+        long size = regionSize;
+        if (mapMode == FileChannel.MapMode.READ_ONLY) {
+            // Cannot grow a read-only file, so map only what is there
+            size = Math.min(size, file.length() - start);
+        }
+        return file.getChannel().map(mapMode, start, size);
+    }
+
+    private final class BlockImpl extends Block {
+        private static final int HEADER_SIZE = 1 + INT_SIZE; // type, payload size
+        private static final int TAIL_SIZE = INT_SIZE;
+
+        private BlockPointer pos;
+        private int payloadSize;
+
+        private BlockImpl(BlockPayload payload, BlockPointer pos) {
+            this(payload);
+            setPos(pos);
+        }
+
+        public BlockImpl(BlockPayload payload) {
+            super(payload);
+            pos = null;
+            payloadSize = -1;
+        }
+
+        @Override
+        public boolean hasPos() {
+            return pos != null;
+        }
+
+        @Override
+        public BlockPointer getPos() {
+            if (pos == null) {
+                pos = BlockPointer.pos(alloc(getSize()));
+            }
+            return pos;
+        }
+
+        @Override
+        public void setPos(BlockPointer pos) {
+            assert this.pos == null && !pos.isNull();
+            this.pos = pos;
+        }
+
+        @Override
+        public int getSize() {
+            if (payloadSize < 0) {
+                payloadSize = getPayload().getSize();
+            }
+            return payloadSize + HEADER_SIZE + TAIL_SIZE;
+        }
+
+        @Override
+        public void setSize(int size) {
+            int newPayloadSize = size - HEADER_SIZE - TAIL_SIZE;
+            assert newPayloadSize >= payloadSize;
+            payloadSize = newPayloadSize;
+        }
+
+        public void write() throws Exception {
+            long pos = getPos().getPos();
+
+            RegionOutputStream output = new RegionOutputStream(pos);
+            DataOutputStream outputStream = new DataOutputStream(output);
+
+            BlockPayload payload = getPayload();
+
+            // Write header
+            outputStream.writeByte(payload.getType());
+            outputStream.writeInt(payloadSize);
+            long finalSize = pos + HEADER_SIZE + TAIL_SIZE + payloadSize;
+
+            // Write body
+            payload.write(outputStream);
+
+            // Write count
+            long bytesWritten = output.getPos() - pos;
+            if (bytesWritten > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Block payload exceeds maximum size");
+            }
+            outputStream.writeInt((int) bytesWritten);
+
+            if (currentFileSize < finalSize) {
+                currentFileSize = finalSize;
+                writeEndOfData();
+            }
+        }
+
+        public void read() throws Exception {
+            long pos = getPos().getPos();
+            assert pos >= 0;
+            if (pos + HEADER_SIZE >= currentFileSize) {
+                throw blockCorruptedException();
+            }
+
+            RegionInputStream input = new RegionInputStream(pos);
+            DataInputStream inputStream = new DataInputStream(input);
+
+            BlockPayload payload = getPayload();
+
+            // Read header
+            byte type = inputStream.readByte();
+            if (type != payload.getType()) {
+                throw blockCorruptedException();
+            }
+
+            // Read body
+            payloadSize = inputStream.readInt();
+            if (pos + HEADER_SIZE + TAIL_SIZE + payloadSize > currentFileSize) {
+                throw blockCorruptedException();
+            }
+            payload.read(inputStream);
+
+            // Read and verify count
+            long actualCount = input.getPos() - pos;
+            long count = inputStream.readInt();
+            if (actualCount != count) {
+                throw blockCorruptedException();
+            }
+        }
+
+        @Override
+        public RuntimeException blockCorruptedException() {
+            return new CorruptedCacheException(String.format("Corrupted %s found in %s.", this,
+                    MappedFileBlockStore.this));
+        }
+    }
+
+    /**
+     * Reads directly from the mapped regions, starting at a given position.
+     */
+    private class RegionInputStream extends InputStream {
+        private long pos;
+
+        RegionInputStream(long pos) {
+            this.pos = pos;
+        }
+
+        long getPos() {
+            return pos;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (pos >= currentFileSize) {
+                return -1;
+            }
+            int value = regionAt(pos).get() & 0xff;
+            pos++;
+            return value;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            long available = currentFileSize - pos;
+            if (available <= 0) {
+                return -1;
+            }
+            int count = (int) Math.min(length, Math.min(available, regionSize - pos % regionSize));
+            regionAt(pos).get(bytes, offset, count);
+            pos += count;
+            return count;
+        }
+    }
+
+    /**
+     * Writes directly to the mapped regions, starting at a given position. Maps new regions as required.
+     */
+    private class RegionOutputStream extends OutputStream {
+        private long pos;
+
+        RegionOutputStream(long pos) {
+            this.pos = pos;
+        }
+
+        long getPos() {
+            return pos;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            regionAt(pos).put((byte) b);
+            pos++;
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            while (length > 0) {
+                int count = (int) Math.min(length, regionSize - pos % regionSize);
+                regionAt(pos).put(bytes, offset, count);
+                pos += count;
+                offset += count;
+                length -= count;
+            }
+        }
+    }
+}
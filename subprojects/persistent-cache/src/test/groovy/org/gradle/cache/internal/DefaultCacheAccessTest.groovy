@@ -22,13 +22,12 @@ import org.gradle.cache.CrossProcessCacheAccess
 import org.gradle.cache.FileLock
 import org.gradle.cache.FileLockManager
 import org.gradle.cache.FileLockReleasedSignal
+import org.gradle.cache.IndexedCacheBackend
 import org.gradle.cache.LockOptions
 import org.gradle.cache.MultiProcessSafePersistentIndexedCache
 import org.gradle.cache.PersistentIndexedCacheParameters
-import org.gradle.cache.internal.btree.BTreePersistentIndexedCache
 import org.gradle.internal.Factory
 import org.gradle.internal.serialize.BaseSerializerFactory
-import org.gradle.internal.serialize.Serializer
 import org.gradle.test.fixtures.concurrent.ConcurrentSpec
 import org.gradle.test.fixtures.file.TestNameTestDirectoryProvider
 import org.junit.Rule
@@ -50,12 +49,12 @@ class DefaultCacheAccessTest extends ConcurrentSpec {
     final File lockFile = tmpDir.file('lock.bin')
     final File cacheDir = tmpDir.file('caches')
     final FileLock lock = Mock()
-    final BTreePersistentIndexedCache<String, Integer> backingCache = Mock()
+    final IndexedCacheBackingStore<String, Integer> backingCache = Mock()
 
     private DefaultCacheAccess newAccess(FileLockManager.LockMode lockMode) {
         new DefaultCacheAccess("<display-name>", lockFile, mode(lockMode), cacheDir, lockManager, initializationAction, cleanupAction, executorFactory) {
             @Override
-            <K, V> BTreePersistentIndexedCache<K, V> doCreateCache(File cacheFile, Serializer<K> keySerializer, Serializer<V> valueSerializer) {
+            <K, V> IndexedCacheBackingStore<K, V> doCreateCache(File cacheFile, PersistentIndexedCacheParameters<K, V> parameters) {
                 return backingCache
             }
         }
@@ -462,6 +461,41 @@ class DefaultCacheAccessTest extends ConcurrentSpec {
         0 * _._
     }
 
+    def "can create new sharded cache"() {
+        def access = newAccess(OnDemand)
+
+        when:
+        def cache = access.newCache(PersistentIndexedCacheParameters.of('cache', String.class, Integer.class).withShards(4, { String key -> key.hashCode() }))
+
+        then:
+        cache instanceof ShardedMultiProcessSafePersistentIndexedCache
+        cache.shardCount == 4
+        0 * _._
+    }
+
+    def "decorates each shard of a sharded cache separately"() {
+        def access = newAccess(OnDemand)
+        def decorator = Mock(CacheDecorator)
+        def cacheIds = []
+        def asyncCacheAccesses = []
+        lockManager.lock(lockFile, mode(Exclusive), "<display-name>", "", _) >> lock
+
+        when:
+        access.newCache(PersistentIndexedCacheParameters.of('cache', String.class, Integer.class).withCacheDecorator(decorator).withShards(3, { String key -> key.hashCode() }))
+
+        then:
+        3 * decorator.decorate(_, 'cache', _, _, _) >> { String cacheId, String cacheName, MultiProcessSafePersistentIndexedCache persistentCache, CrossProcessCacheAccess crossProcessCacheAccess, AsyncCacheAccess asyncCacheAccess ->
+            cacheIds << cacheId
+            asyncCacheAccesses << asyncCacheAccess
+            persistentCache
+        }
+        cacheIds == (0..2).collect { new File(cacheDir, "cache-shard-${it}.bin").absolutePath }
+        asyncCacheAccesses.unique().size() == 3
+
+        cleanup:
+        access?.close()
+    }
+
     def "contended action safely closes the lock when cache is not busy"() {
         Factory<String> action = Mock()
         def access = newAccess(OnDemand)
@@ -719,6 +753,34 @@ class DefaultCacheAccessTest extends ConcurrentSpec {
         access?.close()
     }
 
+    def "throws InvalidCacheReuseException when cache backend differs"() {
+        def access = newAccess(OnDemand)
+
+        when:
+        access.newCache(PersistentIndexedCacheParameters.of('cache', String.class, Integer.class))
+        access.newCache(PersistentIndexedCacheParameters.of('cache', String.class, Integer.class).withBackend(IndexedCacheBackend.MEMORY_MAPPED_BTREE))
+
+        then:
+        thrown(DefaultCacheAccess.InvalidCacheReuseException)
+
+        cleanup:
+        access?.close()
+    }
+
+    def "throws InvalidCacheReuseException when number of shards differs"() {
+        def access = newAccess(OnDemand)
+
+        when:
+        access.newCache(PersistentIndexedCacheParameters.of('cache', String.class, Integer.class).withShards(2, { String key -> key.hashCode() }))
+        access.newCache(PersistentIndexedCacheParameters.of('cache', String.class, Integer.class).withShards(4, { String key -> key.hashCode() }))
+
+        then:
+        thrown(DefaultCacheAccess.InvalidCacheReuseException)
+
+        cleanup:
+        access?.close()
+    }
+
     def "returns the same cache object when cache decorator match"() {
         def access = newAccess(OnDemand)
         def decorator = Mock(CacheDecorator)
@@ -16,15 +16,14 @@
 package org.gradle.cache.internal
 
 import org.gradle.cache.FileAccess
-import org.gradle.cache.internal.btree.BTreePersistentIndexedCache
 import org.gradle.internal.Factory
 import spock.lang.Specification
 
 class MultiProcessSafePersistentIndexedCacheTest extends Specification {
     final FileAccess fileAccess = Mock()
-    final Factory<BTreePersistentIndexedCache<String, String>> factory = Mock()
+    final Factory<IndexedCacheBackingStore<String, String>> factory = Mock()
     final cache = new DefaultMultiProcessSafePersistentIndexedCache<String, String>(factory, fileAccess)
-    final BTreePersistentIndexedCache<String, String> backingCache = Mock()
+    final IndexedCacheBackingStore<String, String> backingCache = Mock()
 
     def "opens cache on first access"() {
         when:
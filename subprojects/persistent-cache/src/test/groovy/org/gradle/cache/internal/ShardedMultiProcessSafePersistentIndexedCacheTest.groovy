@@ -0,0 +1,111 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.cache.internal
+
+import org.gradle.cache.FileLock
+import org.gradle.cache.MultiProcessSafePersistentIndexedCache
+import spock.lang.Specification
+
+import java.util.function.Function
+
+class ShardedMultiProcessSafePersistentIndexedCacheTest extends Specification {
+    def shard1 = Mock(MultiProcessSafePersistentIndexedCache)
+    def shard2 = Mock(MultiProcessSafePersistentIndexedCache)
+    def shard3 = Mock(MultiProcessSafePersistentIndexedCache)
+    def shards = [shard1, shard2, shard3]
+    def cache = new ShardedMultiProcessSafePersistentIndexedCache<String, String>({ String key -> key.hashCode() }, shards)
+
+    def "routes operations for a key to the same shard"() {
+        def producer = Mock(Function)
+        def shard = cache.shardFor("key")
+
+        when:
+        cache.put("key", "value")
+        def value = cache.getIfPresent("key")
+        def produced = cache.get("key", producer)
+        cache.remove("key")
+
+        then:
+        1 * shard.put("key", "value")
+        1 * shard.getIfPresent("key") >> "value"
+        1 * shard.get("key", producer) >> "value"
+        1 * shard.remove("key")
+        0 * _
+
+        and:
+        value == "value"
+        produced == "value"
+    }
+
+    def "routes a key to the same shard in every process"() {
+        expect:
+        cache.shardFor(key).is(shards[shard])
+
+        where:
+        key                  | shard
+        "key"                | 1
+        "other"              | 2
+        "some/path/file.txt" | 0
+    }
+
+    def "spreads keys over all shards"() {
+        def cacheWithEightShards = new ShardedMultiProcessSafePersistentIndexedCache<String, String>({ String key -> key.hashCode() }, (1..8).collect { Stub(MultiProcessSafePersistentIndexedCache) })
+
+        expect:
+        (0..<1000).collect { cache.shardFor("key-$it") }.toSet().size() == 3
+        (0..<1000).collect { cacheWithEightShards.shardFor("key-$it") }.toSet().size() == 8
+    }
+
+    def "notifies all shards of lock changes"() {
+        def state = Stub(FileLock.State)
+
+        when:
+        cache.afterLockAcquire(state)
+
+        then:
+        1 * shard1.afterLockAcquire(state)
+        1 * shard2.afterLockAcquire(state)
+        1 * shard3.afterLockAcquire(state)
+        0 * _
+
+        when:
+        cache.finishWork()
+
+        then:
+        1 * shard1.finishWork()
+        1 * shard2.finishWork()
+        1 * shard3.finishWork()
+        0 * _
+
+        when:
+        cache.beforeLockRelease(state)
+
+        then:
+        1 * shard1.beforeLockRelease(state)
+        1 * shard2.beforeLockRelease(state)
+        1 * shard3.beforeLockRelease(state)
+        0 * _
+    }
+
+    def "requires at least one shard"() {
+        when:
+        new ShardedMultiProcessSafePersistentIndexedCache<String, String>({ String key -> key.hashCode() }, [])
+
+        then:
+        thrown(IllegalArgumentException)
+    }
+}
@@ -0,0 +1,273 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.cache.internal.appendonly
+
+import org.gradle.internal.serialize.DefaultSerializer
+import org.gradle.test.fixtures.file.TestNameTestDirectoryProvider
+import org.junit.Rule
+import spock.lang.Specification
+
+class AppendOnlyLogPersistentIndexedCacheTest extends Specification {
+    @Rule
+    TestNameTestDirectoryProvider tmpDir = new TestNameTestDirectoryProvider(getClass())
+    def logFile = tmpDir.file("cache.log")
+    def hintFile = tmpDir.file("cache.hint")
+    def serializer = new DefaultSerializer<String>()
+
+    def "returns null for unknown entry"() {
+        def cache = newCache()
+
+        expect:
+        cache.get("unknown") == null
+
+        cleanup:
+        cache.close()
+    }
+
+    def "persists added, updated and removed entries"() {
+        def cache = newCache()
+
+        when:
+        (1..100).each { cache.put("key_$it".toString(), "value_$it".toString()) }
+        (1..50).each { cache.put("key_$it".toString(), "updated_$it".toString()) }
+        (91..100).each { cache.remove("key_$it".toString()) }
+
+        then:
+        cache.get("key_1") == "updated_1"
+        cache.get("key_60") == "value_60"
+        cache.get("key_95") == null
+
+        when:
+        cache.close()
+        cache = newCache()
+
+        then:
+        (1..50).every { cache.get("key_$it".toString()) == "updated_$it".toString() }
+        (51..90).every { cache.get("key_$it".toString()) == "value_$it".toString() }
+        (91..100).every { cache.get("key_$it".toString()) == null }
+
+        cleanup:
+        cache.close()
+    }
+
+    def "rebuilds index by scanning the log when hint file is missing"() {
+        def cache = newCache()
+        cache.put("a", "1")
+        cache.put("b", "2")
+        cache.remove("a")
+        cache.close()
+
+        when:
+        hintFile.delete()
+        cache = newCache()
+
+        then:
+        cache.get("a") == null
+        cache.get("b") == "2"
+
+        cleanup:
+        cache.close()
+    }
+
+    def "scans entries appended after the hint file was written"() {
+        def cache = newCache()
+        cache.put("a", "1")
+        cache.close()
+        def hint = hintFile.bytes
+
+        cache = newCache()
+        cache.put("b", "2")
+        cache.close()
+
+        when:
+        hintFile.bytes = hint
+        cache = newCache()
+
+        then:
+        cache.get("a") == "1"
+        cache.get("b") == "2"
+
+        cleanup:
+        cache.close()
+    }
+
+    def "discards incomplete record at end of log"() {
+        def cache = newCache()
+        cache.put("a", "1")
+        cache.put("b", "2")
+        cache.close()
+        hintFile.delete()
+
+        when:
+        def file = new RandomAccessFile(logFile, "rw")
+        file.setLength(file.length() - 3)
+        file.close()
+        cache = newCache()
+
+        then:
+        cache.get("a") == "1"
+        cache.get("b") == null
+
+        when:
+        cache.put("b", "3")
+        cache.close()
+        cache = newCache()
+
+        then:
+        cache.get("b") == "3"
+
+        cleanup:
+        cache.close()
+    }
+
+    def "discards contents of log file that is badly formed"() {
+        logFile.text = "some junk"
+
+        when:
+        def cache = newCache()
+
+        then:
+        cache.get("a") == null
+
+        when:
+        cache.put("a", "1")
+        cache.close()
+        cache = newCache()
+
+        then:
+        cache.get("a") == "1"
+
+        cleanup:
+        cache.close()
+    }
+
+    def "compacts log on close when most records are garbage"() {
+        def cache = newCache()
+        (1..20).each { i ->
+            (1..10).each { cache.put("key_$it".toString(), "value_${it}_$i".toString()) }
+        }
+        def sizeBeforeCompaction = logFile.length()
+
+        expect:
+        cache.garbageSize > 0
+
+        when:
+        cache.close()
+        cache = newCache()
+
+        then:
+        logFile.length() < sizeBeforeCompaction / 10
+        cache.garbageSize == 0
+        (1..10).every { cache.get("key_$it".toString()) == "value_${it}_20".toString() }
+
+        cleanup:
+        cache.close()
+    }
+
+    def "appends index changes to the hint file instead of rewriting it"() {
+        def cache = newCache()
+        (1..10).each { cache.put("key_$it".toString(), "value_$it".toString()) }
+        cache.close()
+        def hint = hintFile.bytes
+
+        when:
+        cache.reopen()
+        cache.put("key_11", "value_11")
+        cache.remove("key_1")
+        cache.close()
+
+        then:
+        hintFile.length() > hint.length
+        hintFile.bytes[0..<hint.length] == hint as List
+
+        when:
+        cache = newCache()
+
+        then:
+        cache.get("key_1") == null
+        (2..11).every { cache.get("key_$it".toString()) == "value_$it".toString() }
+
+        cleanup:
+        cache.close()
+    }
+
+    def "keeps the index in memory when reopening an unchanged log"() {
+        def cache = newCache()
+        cache.put("a", "1")
+        cache.close()
+
+        when:
+        hintFile.text = "corrupt"
+        cache.reopen()
+
+        then:
+        cache.get("a") == "1"
+
+        when:
+        cache.close()
+
+        then:
+        hintFile.text == "corrupt"
+    }
+
+    def "scans records appended by another instance when reopening"() {
+        def cache = newCache()
+        cache.put("a", "1")
+        cache.close()
+
+        def other = newCache()
+        other.put("b", "2")
+        other.remove("a")
+        other.close()
+
+        when:
+        cache.reopen()
+
+        then:
+        cache.get("a") == null
+        cache.get("b") == "2"
+
+        cleanup:
+        cache.close()
+    }
+
+    def "ignores incomplete block at end of hint file"() {
+        def cache = newCache()
+        cache.put("a", "1")
+        cache.close()
+        cache = newCache()
+        cache.put("b", "2")
+        cache.close()
+
+        when:
+        def file = new RandomAccessFile(hintFile, "rw")
+        file.setLength(file.length() - 3)
+        file.close()
+        cache = newCache()
+
+        then:
+        cache.get("a") == "1"
+        cache.get("b") == "2"
+
+        cleanup:
+        cache.close()
+    }
+
+    private AppendOnlyLogPersistentIndexedCache<String, String> newCache() {
+        new AppendOnlyLogPersistentIndexedCache<String, String>(logFile, hintFile, serializer, serializer, 0)
+    }
+}
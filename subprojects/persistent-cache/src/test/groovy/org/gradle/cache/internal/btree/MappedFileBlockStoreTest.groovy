@@ -0,0 +1,157 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.cache.internal.btree
+
+import org.gradle.internal.serialize.DefaultSerializer
+import org.gradle.test.fixtures.file.TestNameTestDirectoryProvider
+import org.junit.Rule
+import spock.lang.Specification
+
+class MappedFileBlockStoreTest extends Specification {
+    private static final int REGION_SIZE = 256
+
+    @Rule
+    TestNameTestDirectoryProvider tmpDir = new TestNameTestDirectoryProvider(getClass())
+    def cacheFile = tmpDir.file("cache.bin")
+    def keySerializer = new DefaultSerializer<String>()
+    def valueSerializer = new DefaultSerializer<String>()
+
+    def "persists entries spanning multiple regions"() {
+        def cache = mappedCache()
+
+        when:
+        (1..200).each { cache.put("key_$it".toString(), "value_$it".toString()) }
+        cache.reset()
+
+        then:
+        (1..200).every { cache.get("key_$it".toString()) == "value_$it".toString() }
+        cache.verify()
+
+        cleanup:
+        cache.close()
+    }
+
+    def "grows file in whole regions and truncates it on close"() {
+        def cache = mappedCache()
+
+        when:
+        cache.put("key", "value")
+
+        then:
+        cacheFile.length() % REGION_SIZE == 0
+
+        when:
+        cache.close()
+
+        then:
+        cacheFile.length() % REGION_SIZE != 0
+    }
+
+    def "ignores the unused tail of the file when it could not be truncated"() {
+        def cache = mappedCache()
+        (1..50).each { cache.put("key_$it".toString(), "value_$it".toString()) }
+        cache.close()
+        def endOfData = cacheFile.length()
+
+        when:
+        // Simulate a platform which does not allow truncating a mapped file
+        def file = new RandomAccessFile(cacheFile, "rw")
+        file.setLength(endOfData + 4 * REGION_SIZE)
+        file.close()
+        cache = mappedCache()
+        cache.put("key_51", "value_51")
+        cache.close()
+
+        then:
+        cacheFile.length() < endOfData + REGION_SIZE
+
+        when:
+        cache = mappedCache()
+
+        then:
+        (1..51).every { cache.get("key_$it".toString()) == "value_$it".toString() }
+        cache.verify()
+
+        cleanup:
+        cache.close()
+    }
+
+    def "can clear a mapped file"() {
+        def cache = mappedCache()
+        (1..50).each { cache.put("key_$it".toString(), "value_$it".toString()) }
+
+        when:
+        cache.clear()
+        cache.put("key", "value")
+        cache.reset()
+
+        then:
+        cache.get("key") == "value"
+        cache.get("key_1") == null
+        cache.verify()
+
+        cleanup:
+        cache.close()
+    }
+
+    def "discards a file written by the file backed store"() {
+        def fileBacked = new BTreePersistentIndexedCache<String, String>(cacheFile, new FileBackedBlockStore(cacheFile), keySerializer, valueSerializer, (short) 4, 100)
+        fileBacked.put("key", "value")
+        fileBacked.close()
+
+        when:
+        def cache = mappedCache()
+
+        then:
+        cache.get("key") == null
+
+        when:
+        cache.put("key", "mapped")
+        cache.reset()
+
+        then:
+        cache.get("key") == "mapped"
+        cache.verify()
+
+        cleanup:
+        cache.close()
+    }
+
+    def "discards entries when cache file is corrupt"() {
+        cacheFile.createNewFile()
+        cacheFile.write("some junk")
+        def cache = mappedCache()
+
+        expect:
+        cache.get("key") == null
+
+        when:
+        cache.put("key", "value")
+        cache.reset()
+
+        then:
+        cache.get("key") == "value"
+        cache.verify()
+
+        cleanup:
+        cache.close()
+    }
+
+    private BTreePersistentIndexedCache<String, String> mappedCache() {
+        new BTreePersistentIndexedCache<String, String>(cacheFile, new MappedFileBlockStore(cacheFile, REGION_SIZE), keySerializer, valueSerializer, (short) 4, 100)
+    }
+}
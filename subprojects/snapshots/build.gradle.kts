@@ -1,6 +1,7 @@
 plugins {
     id("gradlebuild.distribution.implementation-java")
     id("gradlebuild.publish-public-libraries")
+    id("gradlebuild.jmh")
 }
 
 description = "Tools to take immutable, comparable snapshots of files and other things"
@@ -32,6 +33,9 @@ dependencies {
     testFixturesImplementation(libs.commonsIo)
 
     integTestDistributionRuntimeOnly(project(":distributions-core"))
+
+    jmhImplementation(platform(project(":distributions-dependencies")))
+    jmhImplementation(libs.commonsIo)
 }
 
 // This is a workaround for the validate plugins task trying to inspect classes which have changed but are NOT tasks.
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.internal.vfs.impl;
+
+import org.gradle.internal.file.FileMetadata.AccessType;
+import org.gradle.internal.file.impl.DefaultFileMetadata;
+import org.gradle.internal.hash.HashCode;
+import org.gradle.internal.snapshot.CaseSensitivity;
+import org.gradle.internal.snapshot.DirectorySnapshot;
+import org.gradle.internal.snapshot.FileSystemLocationSnapshot;
+import org.gradle.internal.snapshot.PathUtil;
+import org.gradle.internal.snapshot.RegularFileSnapshot;
+import org.gradle.internal.snapshot.SnapshotHierarchy;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Measures the heap retained by a virtual file system holding the snapshots of a large monorepo.
+ *
+ * <p>Reports the retained bytes per file as a secondary result.</p>
+ */
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+@Warmup(iterations = 0)
+@Measurement(iterations = 3)
+@BenchmarkMode(Mode.SingleShotTime)
+@State(Scope.Benchmark)
+public class SnapshotHierarchyHeapBenchmark {
+    private static final int PROJECTS = 500;
+    private static final int FILES_PER_DIRECTORY = 10;
+    private static final int SUBDIRECTORIES_PER_DIRECTORY = 8;
+
+    @Param("5000000")
+    int fileCount;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class RetainedHeap {
+        public long bytesPerFile;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            bytesPerFile = 0;
+        }
+    }
+
+    private int createdFiles;
+
+    @Benchmark
+    public SnapshotHierarchy buildHierarchy(RetainedHeap retainedHeap) throws InterruptedException {
+        createdFiles = 0;
+        long usedBefore = usedHeapAfterGc();
+        SnapshotHierarchy root = DefaultSnapshotHierarchy.empty(CaseSensitivity.CASE_SENSITIVE);
+        for (int project = 0; project < PROJECTS; project++) {
+            String name = "project-" + project;
+            String absolutePath = "/monorepo/" + name;
+            root = root.store(absolutePath, directory(absolutePath, name, fileCount / PROJECTS), SnapshotHierarchy.NodeDiffListener.NOOP);
+        }
+        long usedAfter = usedHeapAfterGc();
+        retainedHeap.bytesPerFile = (usedAfter - usedBefore) / createdFiles;
+        return root;
+    }
+
+    private DirectorySnapshot directory(String absolutePath, String name, int fileBudget) {
+        List<FileSystemLocationSnapshot> children = new ArrayList<>();
+        int files = Math.min(FILES_PER_DIRECTORY, fileBudget);
+        for (int i = 0; i < files; i++) {
+            String fileName = "File" + i + ".java";
+            int fileNumber = createdFiles++;
+            children.add(new RegularFileSnapshot(absolutePath + "/" + fileName, fileName, HashCode.fromInt(fileNumber), DefaultFileMetadata.file(fileNumber, fileNumber, AccessType.DIRECT)));
+        }
+        int remainingFiles = fileBudget - files;
+        if (remainingFiles > 0) {
+            int subdirectories = Math.min(SUBDIRECTORIES_PER_DIRECTORY, remainingFiles);
+            for (int i = 0; i < subdirectories; i++) {
+                String directoryName = "dir" + i;
+                children.add(directory(absolutePath + "/" + directoryName, directoryName, remainingFiles / subdirectories));
+            }
+        }
+        children.sort(Comparator.comparing(FileSystemLocationSnapshot::getName, PathUtil::compareFileNames));
+        return new DirectorySnapshot(absolutePath, name, AccessType.DIRECT, HashCode.fromInt(absolutePath.hashCode()), children);
+    }
+
+    private static long usedHeapAfterGc() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 4; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.internal.vfs.impl;
+
+import org.gradle.internal.file.FileMetadata.AccessType;
+import org.gradle.internal.file.impl.DefaultFileMetadata;
+import org.gradle.internal.hash.HashCode;
+import org.gradle.internal.snapshot.CaseSensitivity;
+import org.gradle.internal.snapshot.RegularFileSnapshot;
+import org.gradle.internal.snapshot.SnapshotHierarchy;
+import org.gradle.internal.vfs.impl.VfsRootReference.PreparedUpdate;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Measures the throughput of threads concurrently storing snapshots of disjoint subtrees in the virtual file system,
+ * like workers storing the snapshots of their outputs.
+ *
+ * <p>Compares exclusive updates, which serialize all updates behind the update lock, with optimistic updates.</p>
+ */
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class VfsRootReferenceBenchmark {
+    private static final int DIRECTORIES_PER_THREAD = 16;
+    private static final int FILES_PER_DIRECTORY = 64;
+
+    @State(Scope.Benchmark)
+    public static class SharedRoot {
+        @Param({"exclusive", "optimistic"})
+        String update;
+
+        final AtomicInteger threadCount = new AtomicInteger();
+        VfsRootReference rootReference;
+
+        @Setup
+        public void setup() {
+            rootReference = new VfsRootReference(DefaultSnapshotHierarchy.empty(CaseSensitivity.CASE_SENSITIVE));
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Subtree {
+        RegularFileSnapshot[] snapshots;
+        int next;
+
+        @Setup
+        public void setup(SharedRoot sharedRoot) {
+            String subtree = "/benchmark/thread-" + sharedRoot.threadCount.getAndIncrement();
+            snapshots = new RegularFileSnapshot[DIRECTORIES_PER_THREAD * FILES_PER_DIRECTORY];
+            for (int i = 0; i < snapshots.length; i++) {
+                String name = "file-" + i / DIRECTORIES_PER_THREAD + ".txt";
+                String path = subtree + "/dir-" + i % DIRECTORIES_PER_THREAD + "/" + name;
+                snapshots[i] = new RegularFileSnapshot(path, name, HashCode.fromInt(i), DefaultFileMetadata.file(i, i, AccessType.DIRECT));
+            }
+        }
+
+        RegularFileSnapshot nextSnapshot() {
+            RegularFileSnapshot snapshot = snapshots[next];
+            next = (next + 1) % snapshots.length;
+            return snapshot;
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void store_1_thread(SharedRoot sharedRoot, Subtree subtree) {
+        store(sharedRoot, subtree);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void store_4_threads(SharedRoot sharedRoot, Subtree subtree) {
+        store(sharedRoot, subtree);
+    }
+
+    @Benchmark
+    @Threads(16)
+    public void store_16_threads(SharedRoot sharedRoot, Subtree subtree) {
+        store(sharedRoot, subtree);
+    }
+
+    private static void store(SharedRoot sharedRoot, Subtree subtree) {
+        RegularFileSnapshot snapshot = subtree.nextSnapshot();
+        String absolutePath = snapshot.getAbsolutePath();
+        if (sharedRoot.update.equals("exclusive")) {
+            sharedRoot.rootReference.update(root -> root.store(absolutePath, snapshot, SnapshotHierarchy.NodeDiffListener.NOOP));
+        } else {
+            sharedRoot.rootReference.updateOptimistically(root -> PreparedUpdate.of(root.store(absolutePath, snapshot, SnapshotHierarchy.NodeDiffListener.NOOP)));
+        }
+    }
+}
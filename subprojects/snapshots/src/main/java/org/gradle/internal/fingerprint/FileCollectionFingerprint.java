@@ -45,6 +45,14 @@ default ImmutableSet<String> getRootPaths() {
         return getRootHashes().keySet();
     }
 
+    /**
+     * The Merkle hashes of the roots and directories which make up this file collection fingerprint,
+     * or {@link FingerprintHashTree#EMPTY} when they are not known.
+     */
+    default FingerprintHashTree getHashTree() {
+        return FingerprintHashTree.EMPTY;
+    }
+
     FileCollectionFingerprint EMPTY = new FileCollectionFingerprint() {
         @Override
         public Map<String, FileSystemLocationFingerprint> getFingerprints() {
@@ -0,0 +1,244 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.internal.fingerprint;
+
+import org.gradle.internal.hash.HashCode;
+import org.gradle.internal.snapshot.DirectorySnapshot;
+import org.gradle.internal.snapshot.FileSystemLocationSnapshot;
+import org.gradle.internal.snapshot.FileSystemSnapshot;
+import org.gradle.internal.snapshot.FileSystemSnapshotHierarchyVisitor;
+import org.gradle.internal.snapshot.SnapshotVisitResult;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The Merkle hashes of the roots and of the directories of a file collection fingerprint,
+ * together with the range of fingerprints each of them contains.
+ *
+ * <p>The nodes are stored in depth-first order, the same order as the fingerprints.
+ * This allows finding the subtrees which didn't change between two fingerprints without looking at the fingerprints in them.</p>
+ *
+ * <p>An empty tree means that the subtrees of the fingerprint are unknown.</p>
+ */
+public final class FingerprintHashTree {
+    public static final FingerprintHashTree EMPTY = new FingerprintHashTree(new String[0], new HashCode[0], new int[0], new int[0], new int[0]);
+
+    /**
+     * The absolute path for roots, the name for other directories.
+     */
+    private final String[] names;
+    private final HashCode[] hashes;
+    private final int[] subtreeSizes;
+    private final int[] firstFingerprints;
+    private final int[] fingerprintCounts;
+
+    public FingerprintHashTree(String[] names, HashCode[] hashes, int[] subtreeSizes, int[] firstFingerprints, int[] fingerprintCounts) {
+        this.names = names;
+        this.hashes = hashes;
+        this.subtreeSizes = subtreeSizes;
+        this.firstFingerprints = firstFingerprints;
+        this.fingerprintCounts = fingerprintCounts;
+    }
+
+    /**
+     * Creates the tree for the fingerprints taken from the given roots.
+     *
+     * <p>Returns {@link #EMPTY} when the fingerprints can't be attributed to the snapshots unambiguously,
+     * i.e. when they are not in the order of the snapshots, or when some roots overlap.</p>
+     */
+    public static FingerprintHashTree from(FileSystemSnapshot roots, Map<String, ?> fingerprints) {
+        if (fingerprints.isEmpty()) {
+            return EMPTY;
+        }
+        Builder builder = new Builder(fingerprints.keySet().iterator());
+        roots.accept(builder);
+        return builder.build();
+    }
+
+    /**
+     * The number of roots and directories in the tree.
+     */
+    public int size() {
+        return names.length;
+    }
+
+    public boolean isEmpty() {
+        return names.length == 0;
+    }
+
+    public String getName(int node) {
+        return names[node];
+    }
+
+    public HashCode getHash(int node) {
+        return hashes[node];
+    }
+
+    /**
+     * The number of nodes in the subtree of the given node, including the node itself.
+     * The next sibling of a node is at {@code node + getSubtreeSize(node)}.
+     */
+    public int getSubtreeSize(int node) {
+        return subtreeSizes[node];
+    }
+
+    /**
+     * The index of the first fingerprint in the subtree of the given node.
+     */
+    public int getFirstFingerprint(int node) {
+        return firstFingerprints[node];
+    }
+
+    /**
+     * The number of fingerprints in the subtree of the given node.
+     */
+    public int getFingerprintCount(int node) {
+        return fingerprintCounts[node];
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        FingerprintHashTree that = (FingerprintHashTree) o;
+        return Arrays.equals(names, that.names)
+            && Arrays.equals(hashes, that.hashes)
+            && Arrays.equals(subtreeSizes, that.subtreeSizes)
+            && Arrays.equals(firstFingerprints, that.firstFingerprints)
+            && Arrays.equals(fingerprintCounts, that.fingerprintCounts);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(hashes);
+    }
+
+    @Override
+    public String toString() {
+        return "FingerprintHashTree(" + names.length + " nodes)";
+    }
+
+    private static class Builder implements FileSystemSnapshotHierarchyVisitor {
+        private final Iterator<String> fingerprintPaths;
+        private final Deque<Integer> openDirectories = new ArrayDeque<>();
+        private final List<String> names = new ArrayList<>();
+        private final List<HashCode> hashes = new ArrayList<>();
+        private final List<String> rootPaths = new ArrayList<>();
+        private int[] subtreeSizes = new int[16];
+        private int[] firstFingerprints = new int[16];
+        private int[] fingerprintCounts = new int[16];
+        private String nextFingerprintPath;
+        private int fingerprintIndex;
+
+        public Builder(Iterator<String> fingerprintPaths) {
+            this.fingerprintPaths = fingerprintPaths;
+            this.nextFingerprintPath = fingerprintPaths.next();
+        }
+
+        @Override
+        public SnapshotVisitResult visitEntry(FileSystemLocationSnapshot snapshot) {
+            boolean root = openDirectories.isEmpty();
+            boolean directory = snapshot instanceof DirectorySnapshot;
+            if (root) {
+                rootPaths.add(snapshot.getAbsolutePath());
+            }
+            int node = -1;
+            if (root || directory) {
+                node = addNode(root ? snapshot.getAbsolutePath() : snapshot.getName(), snapshot.getHash());
+            }
+            if (snapshot.getAbsolutePath().equals(nextFingerprintPath)) {
+                fingerprintIndex++;
+                nextFingerprintPath = fingerprintPaths.hasNext() ? fingerprintPaths.next() : null;
+            }
+            if (directory) {
+                openDirectories.push(node);
+            } else if (root) {
+                finishNode(node);
+            }
+            return SnapshotVisitResult.CONTINUE;
+        }
+
+        @Override
+        public void leaveDirectory(DirectorySnapshot directorySnapshot) {
+            finishNode(openDirectories.pop());
+        }
+
+        private int addNode(String name, HashCode hash) {
+            int node = names.size();
+            if (node == subtreeSizes.length) {
+                int newLength = node * 2;
+                subtreeSizes = Arrays.copyOf(subtreeSizes, newLength);
+                firstFingerprints = Arrays.copyOf(firstFingerprints, newLength);
+                fingerprintCounts = Arrays.copyOf(fingerprintCounts, newLength);
+            }
+            names.add(name);
+            hashes.add(hash);
+            firstFingerprints[node] = fingerprintIndex;
+            return node;
+        }
+
+        private void finishNode(int node) {
+            subtreeSizes[node] = names.size() - node;
+            fingerprintCounts[node] = fingerprintIndex - firstFingerprints[node];
+        }
+
+        public FingerprintHashTree build() {
+            if (nextFingerprintPath != null || hasOverlappingRoots()) {
+                // Some fingerprints were not visited in snapshot order,
+                // or fingerprints of overlapping roots have been de-duplicated.
+                return EMPTY;
+            }
+            int size = names.size();
+            return new FingerprintHashTree(
+                names.toArray(new String[0]),
+                hashes.toArray(new HashCode[0]),
+                Arrays.copyOf(subtreeSizes, size),
+                Arrays.copyOf(firstFingerprints, size),
+                Arrays.copyOf(fingerprintCounts, size)
+            );
+        }
+
+        private boolean hasOverlappingRoots() {
+            if (rootPaths.size() < 2) {
+                return false;
+            }
+            // With a trailing separator, the paths below a root are sorted directly after the root
+            String[] sortedRootPaths = new String[rootPaths.size()];
+            for (int i = 0; i < sortedRootPaths.length; i++) {
+                sortedRootPaths[i] = rootPaths.get(i) + File.separatorChar;
+            }
+            Arrays.sort(sortedRootPaths);
+            for (int i = 1; i < sortedRootPaths.length; i++) {
+                if (sortedRootPaths[i].startsWith(sortedRootPaths[i - 1])) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
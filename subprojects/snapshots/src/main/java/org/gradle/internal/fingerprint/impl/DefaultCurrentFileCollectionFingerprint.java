@@ -19,6 +19,7 @@
 import com.google.common.collect.ImmutableMultimap;
 import org.gradle.internal.fingerprint.CurrentFileCollectionFingerprint;
 import org.gradle.internal.fingerprint.FileSystemLocationFingerprint;
+import org.gradle.internal.fingerprint.FingerprintHashTree;
 import org.gradle.internal.fingerprint.FingerprintHashingStrategy;
 import org.gradle.internal.fingerprint.FingerprintingStrategy;
 import org.gradle.internal.hash.HashCode;
@@ -37,6 +38,7 @@ public class DefaultCurrentFileCollectionFingerprint implements CurrentFileColle
     private final FileSystemSnapshot roots;
     private final ImmutableMultimap<String, HashCode> rootHashes;
     private HashCode hash;
+    private FingerprintHashTree hashTree;
 
     public static CurrentFileCollectionFingerprint from(FileSystemSnapshot roots, FingerprintingStrategy strategy) {
         if (roots == FileSystemSnapshot.EMPTY) {
@@ -83,6 +85,14 @@ public ImmutableMultimap<String, HashCode> getRootHashes() {
         return rootHashes;
     }
 
+    @Override
+    public FingerprintHashTree getHashTree() {
+        if (hashTree == null) {
+            hashTree = FingerprintHashTree.from(roots, fingerprints);
+        }
+        return hashTree;
+    }
+
     @Override
     public String getStrategyIdentifier() {
         return identifier;
@@ -16,16 +16,52 @@
 
 package org.gradle.internal.snapshot;
 
-import java.util.ArrayList;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.function.BiConsumer;
-import java.util.stream.Collectors;
 
+/**
+ * A child map with multiple children, sorted by path.
+ *
+ * <p>The paths and children are stored in two arrays instead of as a list of {@link Entry}s,
+ * since a retained virtual file system can contain millions of children.</p>
+ */
 public abstract class AbstractListChildMap<T> implements ChildMap<T> {
-    protected final List<Entry<T>> entries;
+    private final String[] paths;
+    private final Object[] values;
 
     protected AbstractListChildMap(List<Entry<T>> entries) {
-        this.entries = entries;
+        int size = entries.size();
+        this.paths = new String[size];
+        this.values = new Object[size];
+        for (int i = 0; i < size; i++) {
+            Entry<T> entry = entries.get(i);
+            paths[i] = entry.getPath();
+            values[i] = entry.getValue();
+        }
+    }
+
+    /**
+     * Creates a child map from sorted paths and the corresponding children, taking ownership of the arrays.
+     */
+    protected AbstractListChildMap(String[] paths, Object[] values) {
+        this.paths = paths;
+        this.values = values;
+    }
+
+    protected int size() {
+        return paths.length;
+    }
+
+    protected String getPath(int index) {
+        return paths[index];
+    }
+
+    @SuppressWarnings("unchecked")
+    protected T getValue(int index) {
+        return (T) values[index];
     }
 
     @Override
@@ -33,29 +69,38 @@ public boolean isEmpty() {
         return false;
     }
 
+    @SuppressWarnings("unchecked")
     @Override
     public List<T> values() {
-        return entries.stream()
-            .map(Entry::getValue)
-            .collect(Collectors.toList());
+        return (List<T>) Collections.unmodifiableList(Arrays.asList(values));
     }
 
     @Override
     public List<Entry<T>> entries() {
-        return entries;
+        return new AbstractList<Entry<T>>() {
+            @Override
+            public Entry<T> get(int index) {
+                return new Entry<>(getPath(index), getValue(index));
+            }
+
+            @Override
+            public int size() {
+                return paths.length;
+            }
+        };
     }
 
     @Override
     public void visitChildren(BiConsumer<String, ? super T> visitor) {
-        for (Entry<T> child : entries) {
-            visitor.accept(child.getPath(), child.getValue());
+        for (int i = 0; i < paths.length; i++) {
+            visitor.accept(paths[i], getValue(i));
         }
     }
 
     protected int findChildIndexWithCommonPrefix(VfsRelativePath targetPath, CaseSensitivity caseSensitivity) {
         return SearchUtil.binarySearch(
-            entries,
-            candidate -> targetPath.compareToFirstSegment(candidate.getPath(), caseSensitivity)
+            Arrays.asList(paths),
+            candidate -> targetPath.compareToFirstSegment(candidate, caseSensitivity)
         );
     }
 
@@ -63,9 +108,8 @@ protected int findChildIndexWithCommonPrefix(VfsRelativePath targetPath, CaseSen
     public <RESULT> ChildMap<RESULT> invalidate(VfsRelativePath targetPath, CaseSensitivity caseSensitivity, InvalidationHandler<T, RESULT> handler) {
         int childIndex = findChildIndexWithCommonPrefix(targetPath, caseSensitivity);
         if (childIndex >= 0) {
-            Entry<T> entry = entries.get(childIndex);
-            String childPath = entry.getPath();
-            return entry.withNode(targetPath, caseSensitivity, new AbstractInvalidateChildHandler<T, RESULT>(handler) {
+            String childPath = paths[childIndex];
+            return Entry.withNode(childPath, getValue(childIndex), targetPath, caseSensitivity, new AbstractInvalidateChildHandler<T, RESULT>(handler) {
 
                 @SuppressWarnings("unchecked")
                 @Override
@@ -99,10 +143,10 @@ public ChildMap<RESULT> withRemovedChild() {
     public ChildMap<T> store(VfsRelativePath targetPath, CaseSensitivity caseSensitivity, StoreHandler<T> storeHandler) {
         int childIndex = findChildIndexWithCommonPrefix(targetPath, caseSensitivity);
         if (childIndex >= 0) {
-            return entries.get(childIndex).handlePath(targetPath, caseSensitivity, new AbstractStorePathRelationshipHandler<T>(caseSensitivity, storeHandler) {
+            return Entry.handlePath(paths[childIndex], getValue(childIndex), targetPath, caseSensitivity, new AbstractStorePathRelationshipHandler<T>(caseSensitivity, storeHandler) {
                 @Override
                 public ChildMap<T> withReplacedChild(T newChild) {
-                    return withReplacedChild(entries.get(childIndex).getPath(), newChild);
+                    return withReplacedChild(paths[childIndex], newChild);
                 }
 
                 @Override
@@ -122,25 +166,39 @@ public ChildMap<T> withNewChild(String newChildPath, T newChild) {
     }
 
     protected ChildMap<T> withNewChild(int insertBefore, String path, T newChild) {
-        List<Entry<T>> newChildren = new ArrayList<>(entries);
-        newChildren.add(insertBefore, new Entry<>(path, newChild));
-        return ChildMapFactory.childMapFromSorted(newChildren);
+        int size = paths.length;
+        String[] newPaths = new String[size + 1];
+        Object[] newValues = new Object[size + 1];
+        System.arraycopy(paths, 0, newPaths, 0, insertBefore);
+        System.arraycopy(values, 0, newValues, 0, insertBefore);
+        newPaths[insertBefore] = path;
+        newValues[insertBefore] = newChild;
+        System.arraycopy(paths, insertBefore, newPaths, insertBefore + 1, size - insertBefore);
+        System.arraycopy(values, insertBefore, newValues, insertBefore + 1, size - insertBefore);
+        return ChildMapFactory.childMapFromSorted(newPaths, newValues);
     }
 
-    protected ChildMap<T> withReplacedChild(int childIndex, String newPath, T newChild) {
-        Entry<T> oldEntry = entries.get(childIndex);
-        if (oldEntry.getPath().equals(newPath) && oldEntry.getValue().equals(newChild)) {
-            return this;
+    protected <RESULT> ChildMap<RESULT> withReplacedChild(int childIndex, String newPath, RESULT newChild) {
+        if (paths[childIndex].equals(newPath) && values[childIndex].equals(newChild)) {
+            @SuppressWarnings("unchecked") ChildMap<RESULT> castedThis = (ChildMap<RESULT>) this;
+            return castedThis;
         }
-        List<Entry<T>> newChildren = new ArrayList<>(entries);
-        newChildren.set(childIndex, new Entry<>(newPath, newChild));
-        return ChildMapFactory.childMapFromSorted(newChildren);
+        String[] newPaths = paths.clone();
+        Object[] newValues = values.clone();
+        newPaths[childIndex] = newPath;
+        newValues[childIndex] = newChild;
+        return ChildMapFactory.childMapFromSorted(newPaths, newValues);
     }
 
-    protected ChildMap<T> withRemovedChild(int childIndex) {
-        List<Entry<T>> newChildren = new ArrayList<>(entries);
-        newChildren.remove(childIndex);
-        return ChildMapFactory.childMapFromSorted(newChildren);
+    protected <RESULT> ChildMap<RESULT> withRemovedChild(int childIndex) {
+        int size = paths.length;
+        String[] newPaths = new String[size - 1];
+        Object[] newValues = new Object[size - 1];
+        System.arraycopy(paths, 0, newPaths, 0, childIndex);
+        System.arraycopy(values, 0, newValues, 0, childIndex);
+        System.arraycopy(paths, childIndex + 1, newPaths, childIndex, size - childIndex - 1);
+        System.arraycopy(values, childIndex + 1, newValues, childIndex, size - childIndex - 1);
+        return ChildMapFactory.childMapFromSorted(newPaths, newValues);
     }
 
     @Override
@@ -154,16 +212,16 @@ public boolean equals(Object o) {
 
         AbstractListChildMap<?> that = (AbstractListChildMap<?>) o;
 
-        return entries.equals(that.entries);
+        return Arrays.equals(paths, that.paths) && Arrays.equals(values, that.values);
     }
 
     @Override
     public int hashCode() {
-        return entries.hashCode();
+        return entries().hashCode();
     }
 
     @Override
     public String toString() {
-        return entries.toString();
+        return entries().toString();
     }
 }
@@ -16,8 +16,6 @@
 
 package org.gradle.internal.snapshot;
 
-import com.google.common.collect.ImmutableList;
-
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Comparator;
@@ -52,11 +50,29 @@ public static <T> ChildMap<T> childMapFromSorted(List<ChildMap.Entry<T>> sortedE
         }
     }
 
-    static <T> ChildMap<T> childMap(CaseSensitivity caseSensitivity, ChildMap.Entry<T> entry1, ChildMap.Entry<T> entry2) {
-        int compared = PathUtil.getPathComparator(caseSensitivity).compare(entry1.getPath(), entry2.getPath());
-        List<ChildMap.Entry<T>> sortedEntries = compared < 0
-            ? ImmutableList.of(entry1, entry2)
-            : ImmutableList.of(entry2, entry1);
-        return childMapFromSorted(sortedEntries);
+    /**
+     * Creates a child map from sorted paths and the corresponding children, taking ownership of the arrays.
+     */
+    static <T> ChildMap<T> childMapFromSorted(String[] sortedPaths, Object[] values) {
+        int size = sortedPaths.length;
+        switch (size) {
+            case 0:
+                return EmptyChildMap.getInstance();
+            case 1:
+                @SuppressWarnings("unchecked")
+                T child = (T) values[0];
+                return new SingletonChildMap<>(sortedPaths[0], child);
+            default:
+                return (size < MINIMUM_CHILD_COUNT_FOR_BINARY_SEARCH)
+                    ? new MediumChildMap<>(sortedPaths, values)
+                    : new LargeChildMap<>(sortedPaths, values);
+        }
+    }
+
+    static <T> ChildMap<T> childMap(CaseSensitivity caseSensitivity, String path1, T child1, String path2, T child2) {
+        int compared = PathUtil.getPathComparator(caseSensitivity).compare(path1, path2);
+        return compared < 0
+            ? childMapFromSorted(new String[]{path1, path2}, new Object[]{child1, child2})
+            : childMapFromSorted(new String[]{path2, path1}, new Object[]{child2, child1});
     }
 }
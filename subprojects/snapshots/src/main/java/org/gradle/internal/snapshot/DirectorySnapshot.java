@@ -23,7 +23,6 @@
 
 import java.util.List;
 import java.util.Optional;
-import java.util.stream.Collectors;
 
 import static org.gradle.internal.snapshot.ChildMapFactory.childMapFromSorted;
 import static org.gradle.internal.snapshot.SnapshotVisitResult.CONTINUE;
@@ -38,9 +37,7 @@ public class DirectorySnapshot extends AbstractFileSystemLocationSnapshot {
     private final HashCode contentHash;
 
     public DirectorySnapshot(String absolutePath, String name, AccessType accessType, HashCode contentHash, List<FileSystemLocationSnapshot> children) {
-        this(absolutePath, name, accessType, contentHash, childMapFromSorted(children.stream()
-            .map(it -> new ChildMap.Entry<>(it.getName(), it))
-            .collect(Collectors.toList())));
+        this(absolutePath, name, accessType, contentHash, childrenFromSorted(children));
     }
 
     public DirectorySnapshot(String absolutePath, String name, AccessType accessType, HashCode contentHash, ChildMap<FileSystemLocationSnapshot> children) {
@@ -49,6 +46,18 @@ public DirectorySnapshot(String absolutePath, String name, AccessType accessType
         this.children = children;
     }
 
+    private static ChildMap<FileSystemLocationSnapshot> childrenFromSorted(List<FileSystemLocationSnapshot> children) {
+        int size = children.size();
+        String[] paths = new String[size];
+        Object[] values = new Object[size];
+        for (int i = 0; i < size; i++) {
+            FileSystemLocationSnapshot child = children.get(i);
+            paths[i] = child.getName();
+            values[i] = child;
+        }
+        return childMapFromSorted(paths, values);
+    }
+
     @Override
     public HashCode getHash() {
         return contentHash;
@@ -24,10 +24,14 @@ protected MediumChildMap(List<Entry<T>> children) {
         super(children);
     }
 
+    protected MediumChildMap(String[] paths, Object[] values) {
+        super(paths, values);
+    }
+
     @Override
     public <RESULT> RESULT withNode(VfsRelativePath targetPath, CaseSensitivity caseSensitivity, NodeHandler<T, RESULT> handler) {
-        for (Entry<T> entry : entries) {
-            Optional<RESULT> ancestorDescendantOrExactMatchResult = entry.handleAncestorDescendantOrExactMatch(targetPath, caseSensitivity, handler);
+        for (int i = 0, size = size(); i < size; i++) {
+            Optional<RESULT> ancestorDescendantOrExactMatchResult = Entry.handleAncestorDescendantOrExactMatch(getPath(i), getValue(i), targetPath, caseSensitivity, handler);
             if (ancestorDescendantOrExactMatchResult.isPresent()) {
                 return ancestorDescendantOrExactMatchResult.get();
             }
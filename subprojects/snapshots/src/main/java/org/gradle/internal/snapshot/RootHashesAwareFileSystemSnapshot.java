@@ -0,0 +1,32 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.internal.snapshot;
+
+import com.google.common.collect.ImmutableMultimap;
+import org.gradle.internal.hash.HashCode;
+
+/**
+ * A snapshot of a part of the file system which knows the Merkle hashes of its roots without visiting them.
+ *
+ * @see SnapshotUtil#getRootHashes(FileSystemSnapshot)
+ */
+public interface RootHashesAwareFileSystemSnapshot extends FileSystemSnapshot {
+    /**
+     * The Merkle hashes of the roots, indexed by their absolute paths.
+     */
+    ImmutableMultimap<String, HashCode> getRootHashes();
+}
@@ -98,6 +98,9 @@ public static ImmutableMultimap<String, HashCode> getRootHashes(FileSystemSnapsh
         if (roots == FileSystemSnapshot.EMPTY) {
             return ImmutableMultimap.of();
         }
+        if (roots instanceof RootHashesAwareFileSystemSnapshot) {
+            return ((RootHashesAwareFileSystemSnapshot) roots).getRootHashes();
+        }
         ImmutableMultimap.Builder<String, HashCode> builder = ImmutableListMultimap.builder();
         roots.accept(snapshot -> {
             builder.put(snapshot.getAbsolutePath(), snapshot.getHash());
@@ -17,6 +17,7 @@
 package org.gradle.internal.snapshot.impl;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Interner;
 import com.google.common.collect.Iterables;
@@ -42,6 +43,8 @@
 import java.io.File;
 import java.io.IOException;
 import java.io.UncheckedIOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
 import java.nio.file.FileSystemLoopException;
 import java.nio.file.FileVisitOption;
 import java.nio.file.FileVisitResult;
@@ -50,10 +53,14 @@
 import java.nio.file.Paths;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Deque;
 import java.util.EnumSet;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Predicate;
 
@@ -78,28 +85,60 @@ public SymbolicLinkMapping withNewMapping(String source, String target, Relative
         public Iterable<String> getRemappedSegments(Iterable<String> segments) {
             return segments;
         }
+
+        @Override
+        public SymbolicLinkMapping forSubtree(Iterable<String> segments) {
+            return new SubtreeMapping(ImmutableList.copyOf(segments));
+        }
     };
 
+    /**
+     * Directories with fewer entries are walked by the task which found them, as they are not worth the cost of a separate task.
+     */
+    @VisibleForTesting
+    static final int MIN_ENTRIES_TO_FORK = 16;
+    private static final int MAX_SURPLUS_QUEUED_TASKS = 3;
+
     private final FileHasher hasher;
     private final Interner<String> stringInterner;
     private final DefaultExcludes defaultExcludes;
     private final DirectorySnapshotterStatistics.Collector collector;
+    private final ForkJoinPool forkJoinPool;
 
     public DirectorySnapshotter(FileHasher hasher, Interner<String> stringInterner, Collection<String> defaultExcludes, DirectorySnapshotterStatistics.Collector collector) {
+        this(hasher, stringInterner, defaultExcludes, collector, DirectorySnapshotterPool.SEQUENTIAL);
+    }
+
+    /**
+     * Creates a snapshotter which walks and hashes the subtrees of a directory in parallel using the given pool.
+     * The resulting snapshots are the same as when snapshotting sequentially.
+     * Directories are only snapshotted in parallel when there is no filtering predicate, as the predicate can be backed by
+     * user code which is not known to be thread-safe.
+     */
+    public DirectorySnapshotter(FileHasher hasher, Interner<String> stringInterner, Collection<String> defaultExcludes, DirectorySnapshotterStatistics.Collector collector, DirectorySnapshotterPool pool) {
         this.hasher = hasher;
         this.stringInterner = stringInterner;
         this.defaultExcludes = new DefaultExcludes(defaultExcludes);
         this.collector = collector;
+        this.forkJoinPool = pool.getForkJoinPool();
     }
 
     public FileSystemLocationSnapshot snapshot(String absolutePath, @Nullable SnapshottingFilter.DirectoryWalkerPredicate predicate, final AtomicBoolean hasBeenFiltered) {
-        try {
-            Path rootPath = Paths.get(absolutePath);
-            PathVisitor visitor = new PathVisitor(predicate, hasBeenFiltered, hasher, stringInterner, defaultExcludes, collector, EMPTY_SYMBOLIC_LINK_MAPPING);
-            Files.walkFileTree(rootPath, DONT_FOLLOW_SYMLINKS, Integer.MAX_VALUE, visitor);
+        Path rootPath = Paths.get(absolutePath);
+        if (forkJoinPool == null || predicate != null) {
+            PathVisitor visitor = new PathVisitor(predicate, hasBeenFiltered, hasher, stringInterner, defaultExcludes, collector, EMPTY_SYMBOLIC_LINK_MAPPING, false);
+            walk(rootPath, visitor);
             return visitor.getResult();
+        }
+        PathVisitor visitor = new PathVisitor(predicate, hasBeenFiltered, hasher, stringInterner, defaultExcludes, collector, EMPTY_SYMBOLIC_LINK_MAPPING, true);
+        return forkJoinPool.invoke(new SubtreeSnapshot(rootPath, visitor));
+    }
+
+    private static void walk(Path directory, PathVisitor visitor) {
+        try {
+            Files.walkFileTree(directory, DONT_FOLLOW_SYMLINKS, Integer.MAX_VALUE, visitor);
         } catch (IOException e) {
-            throw new UncheckedIOException(String.format("Could not list contents of directory '%s'.", absolutePath), e);
+            throw new UncheckedIOException(String.format("Could not list contents of directory '%s'.", directory), e);
         }
     }
 
@@ -108,6 +147,43 @@ private interface SymbolicLinkMapping {
         @CheckReturnValue
         SymbolicLinkMapping withNewMapping(String source, String target, RelativePathTracker currentPathTracker);
         Iterable<String> getRemappedSegments(Iterable<String> segments);
+
+        /**
+         * Returns the mapping to use for the walk of a subtree with the given relative path.
+         */
+        @CheckReturnValue
+        SymbolicLinkMapping forSubtree(Iterable<String> segments);
+    }
+
+    /**
+     * The mapping for a subtree forked off the walk of a directory which was not reached via a symbolic link.
+     */
+    private static class SubtreeMapping implements SymbolicLinkMapping {
+        private final Iterable<String> prefixRelativePath;
+
+        public SubtreeMapping(Iterable<String> prefixRelativePath) {
+            this.prefixRelativePath = prefixRelativePath;
+        }
+
+        @Override
+        public String remapAbsolutePath(Path path) {
+            return path.toString();
+        }
+
+        @Override
+        public SymbolicLinkMapping withNewMapping(String source, String target, RelativePathTracker currentPathTracker) {
+            return new DefaultSymbolicLinkMapping(source, target, getRemappedSegments(currentPathTracker.getSegments()));
+        }
+
+        @Override
+        public Iterable<String> getRemappedSegments(Iterable<String> segments) {
+            return Iterables.concat(prefixRelativePath, segments);
+        }
+
+        @Override
+        public SymbolicLinkMapping forSubtree(Iterable<String> segments) {
+            return new SubtreeMapping(ImmutableList.copyOf(getRemappedSegments(segments)));
+        }
     }
 
     private static class DefaultSymbolicLinkMapping implements SymbolicLinkMapping {
@@ -145,6 +221,30 @@ public SymbolicLinkMapping withNewMapping(String source, String target, Relative
         public Iterable<String> getRemappedSegments(Iterable<String> segments) {
             return Iterables.concat(prefixRelativePath, segments);
         }
+
+        @Override
+        public SymbolicLinkMapping forSubtree(Iterable<String> segments) {
+            return new DefaultSymbolicLinkMapping(sourcePath, targetPath, ImmutableList.copyOf(getRemappedSegments(segments)));
+        }
+    }
+
+    /**
+     * Snapshots a subtree with its own visitor, forking the snapshotting of its child directories.
+     */
+    private static class SubtreeSnapshot extends RecursiveTask<FileSystemLocationSnapshot> {
+        private final Path directory;
+        private final PathVisitor visitor;
+
+        public SubtreeSnapshot(Path directory, PathVisitor visitor) {
+            this.directory = directory;
+            this.visitor = visitor;
+        }
+
+        @Override
+        protected FileSystemLocationSnapshot compute() {
+            walk(directory, visitor);
+            return visitor.getResult();
+        }
     }
 
     @VisibleForTesting
@@ -229,7 +329,10 @@ private static class PathVisitor extends DirectorySnapshotterStatistics.Collecti
         private final Interner<String> stringInterner;
         private final DefaultExcludes defaultExcludes;
         private final SymbolicLinkMapping symbolicLinkMapping;
-        private final Deque<String> parentDirectories = new ArrayDeque<>();
+        private final Deque<String> parentDirectories;
+        private final boolean forkSubtrees;
+        // The subtrees forked from each directory currently being visited, innermost first
+        private final Deque<List<SubtreeSnapshot>> forkedSubtrees = new ArrayDeque<>();
 
         public PathVisitor(
             @Nullable SnapshottingFilter.DirectoryWalkerPredicate predicate,
@@ -238,9 +341,25 @@ public PathVisitor(
             Interner<String> stringInterner,
             DefaultExcludes defaultExcludes,
             DirectorySnapshotterStatistics.Collector statisticsCollector,
-            SymbolicLinkMapping symbolicLinkMapping
+            SymbolicLinkMapping symbolicLinkMapping,
+            boolean forkSubtrees
+        ) {
+            this(predicate, hasBeenFiltered, hasher, stringInterner, defaultExcludes, statisticsCollector, symbolicLinkMapping, forkSubtrees, new ArrayDeque<>(), false);
+        }
+
+        private PathVisitor(
+            @Nullable SnapshottingFilter.DirectoryWalkerPredicate predicate,
+            AtomicBoolean hasBeenFiltered,
+            FileHasher hasher,
+            Interner<String> stringInterner,
+            DefaultExcludes defaultExcludes,
+            DirectorySnapshotterStatistics.Collector statisticsCollector,
+            SymbolicLinkMapping symbolicLinkMapping,
+            boolean forkSubtrees,
+            Deque<String> parentDirectories,
+            boolean forkedSubtree
         ) {
-            super(statisticsCollector);
+            super(statisticsCollector, forkedSubtree);
             this.builder = MerkleDirectorySnapshotBuilder.sortingRequired();
             this.predicate = predicate;
             this.hasBeenFiltered = hasBeenFiltered;
@@ -248,6 +367,8 @@ public PathVisitor(
             this.stringInterner = stringInterner;
             this.defaultExcludes = defaultExcludes;
             this.symbolicLinkMapping = symbolicLinkMapping;
+            this.forkSubtrees = forkSubtrees;
+            this.parentDirectories = parentDirectories;
         }
 
         @Override
@@ -255,8 +376,16 @@ protected FileVisitResult doPreVisitDirectory(Path dir, BasicFileAttributes attr
             String fileName = getInternedFileName(dir);
             pathTracker.enter(fileName);
             if (pathTracker.isRoot() || shouldVisit(dir, fileName, true, pathTracker.getSegments())) {
+                if (forkSubtrees && !pathTracker.isRoot() && shouldFork(dir)) {
+                    forkSubtree(dir);
+                    pathTracker.leave();
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
                 builder.enterDirectory(AccessType.DIRECT, intern(symbolicLinkMapping.remapAbsolutePath(dir)), fileName, INCLUDE_EMPTY_DIRS);
                 parentDirectories.addFirst(dir.toString());
+                if (forkSubtrees) {
+                    forkedSubtrees.addFirst(new ArrayList<>());
+                }
                 return FileVisitResult.CONTINUE;
             } else {
                 pathTracker.leave();
@@ -286,7 +415,8 @@ protected FileVisitResult doVisitFile(Path file, BasicFileAttributes attrs) {
                                     stringInterner,
                                     defaultExcludes,
                                     collector,
-                                    symbolicLinkMapping.withNewMapping(file.toString(), targetDirString, pathTracker)
+                                    symbolicLinkMapping.withNewMapping(file.toString(), targetDirString, pathTracker),
+                                    forkSubtrees
                                 );
                                 Files.walkFileTree(targetDir, EnumSet.noneOf(FileVisitOption.class), Integer.MAX_VALUE, subtreeVisitor);
                                 DirectorySnapshot result = (DirectorySnapshot) subtreeVisitor.getResult();
@@ -313,6 +443,62 @@ protected FileVisitResult doVisitFile(Path file, BasicFileAttributes attrs) {
             }
         }
 
+        /**
+         * Snapshots the given child directory of the root of this walk in the background.
+         * The directory is added to the result when leaving the root of the walk.
+         */
+        private void forkSubtree(Path dir) {
+            PathVisitor subtreeVisitor = new PathVisitor(
+                predicate,
+                hasBeenFiltered,
+                hasher,
+                stringInterner,
+                defaultExcludes,
+                collector,
+                symbolicLinkMapping.forSubtree(pathTracker.getSegments()),
+                true,
+                new ArrayDeque<>(parentDirectories),
+                true
+            );
+            SubtreeSnapshot subtree = new SubtreeSnapshot(dir, subtreeVisitor);
+            subtree.fork();
+            forkedSubtrees.getFirst().add(subtree);
+        }
+
+        /**
+         * Forks a directory only while the pool runs out of queued tasks, and only when the directory has enough entries to be worth a task.
+         */
+        private boolean shouldFork(Path dir) {
+            if (ForkJoinTask.getSurplusQueuedTaskCount() > MAX_SURPLUS_QUEUED_TASKS) {
+                return false;
+            }
+            int entries = 0;
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+                for (Path ignored : stream) {
+                    if (++entries >= MIN_ENTRIES_TO_FORK) {
+                        return true;
+                    }
+                }
+            } catch (IOException | DirectoryIteratorException e) {
+                // Walk the directory without forking, which reports the failure
+            }
+            return false;
+        }
+
+        private void joinForkedSubtrees() {
+            if (!forkSubtrees) {
+                return;
+            }
+            for (SubtreeSnapshot subtree : forkedSubtrees.removeFirst()) {
+                FileSystemLocationSnapshot snapshot = subtree.join();
+                if (snapshot instanceof DirectorySnapshot) {
+                    builder.visitDirectory((DirectorySnapshot) snapshot);
+                } else if (snapshot != null) {
+                    builder.visitLeafElement((FileSystemLeafSnapshot) snapshot);
+                }
+            }
+        }
+
         private boolean introducesCycle(String targetDirString) {
             return parentDirectories.contains(targetDirString);
         }
@@ -382,6 +568,7 @@ protected FileVisitResult doPostVisitDirectory(Path dir, IOException exc) {
             if (isNotFileSystemLoopException(exc)) {
                 throw new UncheckedIOException(String.format("Could not read directory path '%s'.", dir), exc);
             }
+            joinForkedSubtrees();
             builder.leaveDirectory();
             parentDirectories.removeFirst();
             return FileVisitResult.CONTINUE;
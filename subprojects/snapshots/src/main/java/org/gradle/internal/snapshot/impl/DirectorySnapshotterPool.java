@@ -0,0 +1,66 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.internal.snapshot.impl;
+
+import javax.annotation.Nullable;
+import java.io.Closeable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The threads used by {@link DirectorySnapshotter} to walk and hash the subtrees of a directory in parallel.
+ *
+ * <p>A pool with a parallelism of 1 does not start any threads, and directories are snapshotted by the calling thread instead.</p>
+ */
+public class DirectorySnapshotterPool implements Closeable {
+    public static final DirectorySnapshotterPool SEQUENTIAL = new DirectorySnapshotterPool(1);
+
+    private final ForkJoinPool forkJoinPool;
+
+    public DirectorySnapshotterPool(int parallelism) {
+        this.forkJoinPool = parallelism > 1
+            ? new ForkJoinPool(parallelism, new SnapshotterThreadFactory(), null, false)
+            : null;
+    }
+
+    /**
+     * The pool to fork subtrees into, or {@code null} when snapshotting sequentially.
+     */
+    @Nullable
+    ForkJoinPool getForkJoinPool() {
+        return forkJoinPool;
+    }
+
+    @Override
+    public void close() {
+        if (forkJoinPool != null) {
+            forkJoinPool.shutdownNow();
+        }
+    }
+
+    private static class SnapshotterThreadFactory implements ForkJoinPool.ForkJoinWorkerThreadFactory {
+        private final AtomicInteger counter = new AtomicInteger();
+
+        @Override
+        public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName("Directory snapshotter Thread " + counter.incrementAndGet());
+            return thread;
+        }
+    }
+}
@@ -105,15 +105,31 @@ public String toString() {
 
     abstract class CollectingFileVisitor implements FileVisitor<Path> {
         protected final Collector collector;
+        private boolean rootDirectoryAlreadyRecorded;
 
         public CollectingFileVisitor(Collector collector) {
+            this(collector, false);
+        }
+
+        /**
+         * @param forkedSubtree whether the visitor walks a subtree forked off the walk of another visitor,
+         * which has already recorded the hierarchy and the root directory of the subtree.
+         */
+        protected CollectingFileVisitor(Collector collector, boolean forkedSubtree) {
             this.collector = collector;
-            collector.recordVisitHierarchy();
+            this.rootDirectoryAlreadyRecorded = forkedSubtree;
+            if (!forkedSubtree) {
+                collector.recordVisitHierarchy();
+            }
         }
 
         @Override
         public final FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
-            collector.recordVisitDirectory();
+            if (rootDirectoryAlreadyRecorded) {
+                rootDirectoryAlreadyRecorded = false;
+            } else {
+                collector.recordVisitDirectory();
+            }
             return doPreVisitDirectory(dir, attrs);
         }
 
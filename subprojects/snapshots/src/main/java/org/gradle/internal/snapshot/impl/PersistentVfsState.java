@@ -0,0 +1,337 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.internal.snapshot.impl;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Interner;
+import org.gradle.internal.file.FileMetadata;
+import org.gradle.internal.file.FileMetadata.AccessType;
+import org.gradle.internal.file.FileType;
+import org.gradle.internal.file.impl.DefaultFileMetadata;
+import org.gradle.internal.hash.HashCode;
+import org.gradle.internal.snapshot.DirectorySnapshot;
+import org.gradle.internal.snapshot.FileSystemLocationSnapshot;
+import org.gradle.internal.snapshot.MissingFileSnapshot;
+import org.gradle.internal.snapshot.RegularFileSnapshot;
+import org.gradle.internal.snapshot.SnapshotHierarchy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Persists the snapshots of the virtual file system, so that a new daemon does not need to snapshot the file system from scratch.
+ *
+ * <p>Nothing observes the file system while no daemon is running.
+ * Loaded snapshots are therefore validated against the file system before they are used:
+ * regular files need to have the same modification time and length as when they were snapshotted,
+ * and directories need to have the same entries.
+ * Files modified in the same second the state has been persisted are never trusted, as a later modification might not change their modification time.</p>
+ *
+ * <p>Snapshots are only valid for the default excludes they have been created with,
+ * so the state is discarded when the current default excludes are different.</p>
+ */
+public class PersistentVfsState {
+    private static final Logger LOGGER = LoggerFactory.getLogger(PersistentVfsState.class);
+    private static final int FORMAT_VERSION = 1;
+    private static final LinkOption[] NO_FOLLOW = {LinkOption.NOFOLLOW_LINKS};
+    private static final LinkOption[] FOLLOW = {};
+
+    private final File stateFile;
+    private final Supplier<? extends Collection<String>> defaultExcludes;
+    private final Interner<String> stringInterner;
+
+    public PersistentVfsState(File stateFile, Supplier<? extends Collection<String>> defaultExcludes, Interner<String> stringInterner) {
+        this.stateFile = stateFile;
+        this.defaultExcludes = defaultExcludes;
+        this.stringInterner = stringInterner;
+    }
+
+    /**
+     * Writes all the snapshots in the given hierarchy to disk, replacing the previously persisted state.
+     */
+    public void persist(SnapshotHierarchy root) {
+        Path tempFile = null;
+        try {
+            Path stateDir = Files.createDirectories(stateFile.getParentFile().toPath());
+            // Several daemons can persist their state at the same time, so each one writes to its own temporary file
+            tempFile = Files.createTempFile(stateDir, stateFile.getName(), ".tmp");
+            try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+                output.writeInt(FORMAT_VERSION);
+                output.writeLong(System.currentTimeMillis());
+                Collection<String> excludes = defaultExcludes.get();
+                output.writeInt(excludes.size());
+                for (String exclude : excludes) {
+                    output.writeUTF(exclude);
+                }
+                List<FileSystemLocationSnapshot> snapshotRoots = new ArrayList<>();
+                root.visitSnapshotRoots(snapshotRoots::add);
+                output.writeInt(snapshotRoots.size());
+                for (FileSystemLocationSnapshot snapshotRoot : snapshotRoots) {
+                    output.writeUTF(snapshotRoot.getAbsolutePath());
+                    write(snapshotRoot, output);
+                }
+            }
+            Files.move(tempFile, stateFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            LOGGER.warn("Could not persist the virtual file system state to {}.", stateFile, e);
+        } finally {
+            if (tempFile != null) {
+                try {
+                    Files.deleteIfExists(tempFile);
+                } catch (IOException e) {
+                    LOGGER.debug("Could not delete temporary file {}.", tempFile, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Loads the persisted snapshots which are still up-to-date with the file system.
+     *
+     * <p>When a directory changed, the up-to-date snapshots of its children are returned instead.</p>
+     */
+    public List<FileSystemLocationSnapshot> loadUpToDateSnapshots() {
+        if (!stateFile.isFile()) {
+            return ImmutableList.of();
+        }
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(stateFile.toPath())))) {
+            if (input.readInt() != FORMAT_VERSION) {
+                return ImmutableList.of();
+            }
+            long persistedAt = input.readLong();
+            int excludeCount = input.readInt();
+            List<String> persistedExcludes = new ArrayList<>(excludeCount);
+            for (int i = 0; i < excludeCount; i++) {
+                persistedExcludes.add(input.readUTF());
+            }
+            Collection<String> currentExcludes = defaultExcludes.get();
+            if (!new HashSet<>(persistedExcludes).equals(new HashSet<>(currentExcludes))) {
+                LOGGER.info("Not loading the persisted virtual file system state, since the default excludes have changed.");
+                return ImmutableList.of();
+            }
+            Validator validator = new Validator(persistedAt, new DirectorySnapshotter.DefaultExcludes(currentExcludes));
+            ImmutableList.Builder<FileSystemLocationSnapshot> upToDateSnapshots = ImmutableList.builder();
+            int rootCount = input.readInt();
+            for (int i = 0; i < rootCount; i++) {
+                String absolutePath = stringInterner.intern(input.readUTF());
+                FileSystemLocationSnapshot snapshot = read(absolutePath, input);
+                if (validator.collectUpToDate(snapshot, upToDateSnapshots::add)) {
+                    upToDateSnapshots.add(snapshot);
+                }
+            }
+            return upToDateSnapshots.build();
+        } catch (IOException | RuntimeException e) {
+            LOGGER.warn("Could not load the persisted virtual file system state from {}.", stateFile, e);
+            return ImmutableList.of();
+        }
+    }
+
+    private static void write(FileSystemLocationSnapshot snapshot, DataOutputStream output) throws IOException {
+        output.writeUTF(snapshot.getName());
+        output.writeByte(snapshot.getType().ordinal());
+        output.writeByte(snapshot.getAccessType().ordinal());
+        switch (snapshot.getType()) {
+            case RegularFile:
+                FileMetadata metadata = ((RegularFileSnapshot) snapshot).getMetadata();
+                writeHash(snapshot.getHash(), output);
+                output.writeLong(metadata.getLastModified());
+                output.writeLong(metadata.getLength());
+                break;
+            case Directory:
+                List<FileSystemLocationSnapshot> children = ((DirectorySnapshot) snapshot).getChildren();
+                writeHash(snapshot.getHash(), output);
+                output.writeInt(children.size());
+                for (FileSystemLocationSnapshot child : children) {
+                    write(child, output);
+                }
+                break;
+            case Missing:
+                break;
+            default:
+                throw new AssertionError();
+        }
+    }
+
+    private static void writeHash(HashCode hash, DataOutputStream output) throws IOException {
+        byte[] bytes = hash.toByteArray();
+        output.writeByte(bytes.length);
+        output.write(bytes);
+    }
+
+    private FileSystemLocationSnapshot read(String absolutePath, DataInputStream input) throws IOException {
+        String name = stringInterner.intern(input.readUTF());
+        return read(absolutePath, name, input);
+    }
+
+    private FileSystemLocationSnapshot read(String absolutePath, String name, DataInputStream input) throws IOException {
+        FileType type = FileType.values()[input.readByte()];
+        AccessType accessType = AccessType.values()[input.readByte()];
+        switch (type) {
+            case RegularFile:
+                HashCode contentHash = readHash(input);
+                long lastModified = input.readLong();
+                long length = input.readLong();
+                return new RegularFileSnapshot(absolutePath, name, contentHash, DefaultFileMetadata.file(lastModified, length, accessType));
+            case Directory:
+                HashCode directoryHash = readHash(input);
+                int childCount = input.readInt();
+                List<FileSystemLocationSnapshot> children = new ArrayList<>(childCount);
+                String childPathPrefix = absolutePath.endsWith(File.separator) ? absolutePath : absolutePath + File.separatorChar;
+                for (int i = 0; i < childCount; i++) {
+                    String childName = stringInterner.intern(input.readUTF());
+                    children.add(read(stringInterner.intern(childPathPrefix + childName), childName, input));
+                }
+                return new DirectorySnapshot(absolutePath, name, accessType, directoryHash, children);
+            case Missing:
+                return new MissingFileSnapshot(absolutePath, name, accessType);
+            default:
+                throw new AssertionError();
+        }
+    }
+
+    private static HashCode readHash(DataInputStream input) throws IOException {
+        byte[] bytes = new byte[input.readByte()];
+        input.readFully(bytes);
+        return HashCode.fromBytes(bytes);
+    }
+
+    private static class Validator {
+        private final long trustedModificationTimeLimit;
+        private final DirectorySnapshotter.DefaultExcludes defaultExcludes;
+
+        Validator(long persistedAt, DirectorySnapshotter.DefaultExcludes defaultExcludes) {
+            // File systems with a coarse timestamp granularity may not register a modification in the same second
+            this.trustedModificationTimeLimit = persistedAt - persistedAt % 1000;
+            this.defaultExcludes = defaultExcludes;
+        }
+
+        /**
+         * Checks whether the snapshot is still up-to-date.
+         * When it isn't, the up-to-date snapshots of its descendants are passed to {@code upToDateDescendants}.
+         */
+        boolean collectUpToDate(FileSystemLocationSnapshot snapshot, Consumer<FileSystemLocationSnapshot> upToDateDescendants) {
+            Path path = Paths.get(snapshot.getAbsolutePath());
+            switch (snapshot.getType()) {
+                case RegularFile:
+                    return isRegularFileUpToDate((RegularFileSnapshot) snapshot, path);
+                case Missing:
+                    return !Files.isRegularFile(path) && !Files.isDirectory(path);
+                case Directory:
+                    List<FileSystemLocationSnapshot> upToDateChildren = new ArrayList<>();
+                    boolean allChildrenUpToDate = true;
+                    for (FileSystemLocationSnapshot child : ((DirectorySnapshot) snapshot).getChildren()) {
+                        if (collectUpToDate(child, upToDateChildren::add)) {
+                            upToDateChildren.add(child);
+                        } else {
+                            allChildrenUpToDate = false;
+                        }
+                    }
+                    if (allChildrenUpToDate && hasSameEntries((DirectorySnapshot) snapshot, path)) {
+                        return true;
+                    }
+                    upToDateChildren.forEach(upToDateDescendants);
+                    return false;
+                default:
+                    throw new AssertionError();
+            }
+        }
+
+        private boolean isRegularFileUpToDate(RegularFileSnapshot snapshot, Path path) {
+            FileMetadata metadata = snapshot.getMetadata();
+            if (metadata.getLastModified() >= trustedModificationTimeLimit) {
+                return false;
+            }
+            BasicFileAttributes attributes = readAttributes(path, snapshot.getAccessType());
+            return attributes != null
+                && attributes.isRegularFile()
+                && attributes.lastModifiedTime().toMillis() == metadata.getLastModified()
+                && attributes.size() == metadata.getLength();
+        }
+
+        private boolean hasSameEntries(DirectorySnapshot snapshot, Path path) {
+            BasicFileAttributes attributes = readAttributes(path, snapshot.getAccessType());
+            if (attributes == null || !attributes.isDirectory()) {
+                return false;
+            }
+            Set<String> expectedNames = new HashSet<>();
+            for (FileSystemLocationSnapshot child : snapshot.getChildren()) {
+                expectedNames.add(child.getName());
+            }
+            int matchedEntries = 0;
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(path)) {
+                for (Path entry : entries) {
+                    String name = entry.getFileName().toString();
+                    if (expectedNames.contains(name)) {
+                        matchedEntries++;
+                    } else if (!isExcluded(entry, name)) {
+                        return false;
+                    }
+                }
+            } catch (IOException e) {
+                return false;
+            }
+            return matchedEntries == expectedNames.size();
+        }
+
+        private boolean isExcluded(Path entry, String name) {
+            return Files.isDirectory(entry)
+                ? defaultExcludes.excludeDir(name)
+                : defaultExcludes.excludeFile(name);
+        }
+
+        /**
+         * Reads the attributes of the path, returning {@code null} when the path doesn't exist,
+         * or when it is a symbolic link while it wasn't one when it was snapshotted, or vice versa.
+         */
+        @Nullable
+        private static BasicFileAttributes readAttributes(Path path, AccessType accessType) {
+            try {
+                BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class, NO_FOLLOW);
+                boolean viaSymlink = accessType == AccessType.VIA_SYMLINK;
+                if (attributes.isSymbolicLink() != viaSymlink) {
+                    return null;
+                }
+                return viaSymlink
+                    ? Files.readAttributes(path, BasicFileAttributes.class, FOLLOW)
+                    : attributes;
+            } catch (IOException e) {
+                return null;
+            }
+        }
+    }
+}
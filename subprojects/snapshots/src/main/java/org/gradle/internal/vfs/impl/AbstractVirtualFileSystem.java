@@ -20,6 +20,7 @@
 import org.gradle.internal.snapshot.MetadataSnapshot;
 import org.gradle.internal.snapshot.SnapshotHierarchy;
 import org.gradle.internal.vfs.VirtualFileSystem;
+import org.gradle.internal.vfs.impl.VfsRootReference.PreparedUpdate;
 
 import java.util.Optional;
 
@@ -43,16 +44,16 @@ public Optional<MetadataSnapshot> getMetadata(String absolutePath) {
 
     @Override
     public void store(String absolutePath, FileSystemLocationSnapshot snapshot) {
-        rootReference.update(root -> updateNotifyingListeners(diffListener -> root.store(absolutePath, snapshot, diffListener)));
+        rootReference.updateOptimistically(root -> prepareNotifyingUpdate(diffListener -> root.store(absolutePath, snapshot, diffListener)));
     }
 
     @Override
     public void invalidate(Iterable<String> locations) {
-        rootReference.update(root -> {
-            SnapshotHierarchy result = root;
+        rootReference.updateOptimistically(root -> {
+            PreparedUpdate result = PreparedUpdate.of(root);
             for (String location : locations) {
-                SnapshotHierarchy currentRoot = result;
-                result = updateNotifyingListeners(diffListener -> currentRoot.invalidate(location, diffListener));
+                SnapshotHierarchy currentRoot = result.getNewRoot();
+                result = result.andThen(prepareNotifyingUpdate(diffListener -> currentRoot.invalidate(location, diffListener)));
             }
             return result;
         });
@@ -60,7 +61,7 @@ public void invalidate(Iterable<String> locations) {
 
     @Override
     public void invalidateAll() {
-        rootReference.update(root -> updateNotifyingListeners(diffListener -> {
+        rootReference.updateOptimistically(root -> prepareNotifyingUpdate(diffListener -> {
             root.visitSnapshotRoots(diffListener::nodeRemoved);
             return root.empty();
         }));
@@ -69,7 +70,17 @@ public void invalidateAll() {
     /**
      * Runs a single update on a {@link SnapshotHierarchy} and notifies the currently active listeners after the update.
      */
-    protected abstract SnapshotHierarchy updateNotifyingListeners(UpdateFunction updateFunction);
+    protected SnapshotHierarchy updateNotifyingListeners(UpdateFunction updateFunction) {
+        return prepareNotifyingUpdate(updateFunction).commit();
+    }
+
+    /**
+     * Runs a single update on a {@link SnapshotHierarchy}, deferring the notification of the currently active listeners until the update is committed.
+     *
+     * <p>The update may be prepared concurrently with other updates, and may be discarded when another update is committed first.
+     * So apart from collecting the changes, preparing the update must not have side effects.</p>
+     */
+    protected abstract PreparedUpdate prepareNotifyingUpdate(UpdateFunction updateFunction);
 
     public interface UpdateFunction {
         /**
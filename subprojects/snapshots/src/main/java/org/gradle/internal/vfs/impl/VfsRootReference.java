@@ -18,28 +18,187 @@
 
 import org.gradle.internal.snapshot.SnapshotHierarchy;
 
+import javax.annotation.Nullable;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.function.UnaryOperator;
 
+/**
+ * Holds the current root of the virtual file system.
+ *
+ * <p>Updates without side effects are applied optimistically via compare-and-swap, so that concurrent updates don't block each other.
+ * Updates with side effects are run under a lock, while the root is frozen, so that no other update can be applied in the meantime.</p>
+ */
 public class VfsRootReference {
-    private volatile SnapshotHierarchy root;
+    private final AtomicReference<Version> current;
     private final ReentrantLock updateLock = new ReentrantLock();
 
-    public SnapshotHierarchy getRoot() {
-        return root;
+    public VfsRootReference(SnapshotHierarchy root) {
+        this.current = new AtomicReference<>(new Version(root, false));
     }
 
-    public VfsRootReference(SnapshotHierarchy root) {
-        this.root = root;
+    public SnapshotHierarchy getRoot() {
+        return current.get().root;
     }
 
+    /**
+     * Updates the root exclusively, blocking all other updates until the update function returns.
+     *
+     * <p>The update function is called exactly once, so it can have side effects.</p>
+     */
     public void update(UnaryOperator<SnapshotHierarchy> updateFunction) {
         updateLock.lock();
         try {
-            SnapshotHierarchy currentRoot = root;
-            root = updateFunction.apply(currentRoot);
+            if (updateLock.getHoldCount() > 1) {
+                // Nested update, the root is already frozen by the outer update
+                current.set(new Version(updateFunction.apply(current.get().root), true));
+                return;
+            }
+            Version frozen = freeze();
+            SnapshotHierarchy newRoot = frozen.root;
+            try {
+                newRoot = updateFunction.apply(frozen.root);
+            } finally {
+                current.set(new Version(newRoot, false));
+            }
+        } finally {
+            updateLock.unlock();
+        }
+    }
+
+    /**
+     * Updates the root optimistically, so that concurrent updates can be prepared in parallel.
+     *
+     * <p>The update is prepared for the current root, and only committed when no other update has been applied in the meantime.
+     * Otherwise, it is prepared again for the new root.
+     * Preparing the update therefore must not have side effects, those need to be deferred to {@link PreparedUpdate#commit()}.</p>
+     */
+    public void updateOptimistically(Function<SnapshotHierarchy, PreparedUpdate> prepareUpdate) {
+        if (updateLock.isHeldByCurrentThread()) {
+            update(root -> prepareUpdate.apply(root).commit());
+            return;
+        }
+        while (true) {
+            Version version = current.get();
+            if (version.frozen) {
+                awaitExclusiveUpdate();
+                continue;
+            }
+            PreparedUpdate update = prepareUpdate.apply(version.root);
+            if (!update.hasSideEffects()) {
+                if (current.compareAndSet(version, new Version(update.getNewRoot(), false))) {
+                    return;
+                }
+            } else if (commitWithSideEffects(version, update)) {
+                return;
+            }
+        }
+    }
+
+    private boolean commitWithSideEffects(Version version, PreparedUpdate update) {
+        updateLock.lock();
+        try {
+            if (!current.compareAndSet(version, new Version(version.root, true))) {
+                return false;
+            }
+            SnapshotHierarchy newRoot = version.root;
+            try {
+                newRoot = update.commit();
+            } finally {
+                current.set(new Version(newRoot, false));
+            }
+            return true;
         } finally {
             updateLock.unlock();
         }
     }
+
+    /**
+     * Prevents optimistic updates from being applied. Must be called while holding the update lock.
+     */
+    private Version freeze() {
+        while (true) {
+            Version version = current.get();
+            Version frozen = new Version(version.root, true);
+            if (current.compareAndSet(version, frozen)) {
+                return frozen;
+            }
+        }
+    }
+
+    private void awaitExclusiveUpdate() {
+        // The root is only frozen while the update lock is held
+        updateLock.lock();
+        updateLock.unlock();
+    }
+
+    /**
+     * A new root prepared by an optimistic update, together with the side effects to run when the new root is committed.
+     */
+    public static final class PreparedUpdate {
+        private final SnapshotHierarchy newRoot;
+        private final Supplier<SnapshotHierarchy> sideEffects;
+
+        private PreparedUpdate(SnapshotHierarchy newRoot, @Nullable Supplier<SnapshotHierarchy> sideEffects) {
+            this.newRoot = newRoot;
+            this.sideEffects = sideEffects;
+        }
+
+        /**
+         * An update without side effects.
+         */
+        public static PreparedUpdate of(SnapshotHierarchy newRoot) {
+            return new PreparedUpdate(newRoot, null);
+        }
+
+        /**
+         * An update with side effects, which are run exactly once when committing the update.
+         *
+         * @param sideEffects runs the side effects, and returns the root to commit. Usually that is {@code newRoot}, though it may be different when running the side effects failed.
+         */
+        public static PreparedUpdate withSideEffects(SnapshotHierarchy newRoot, Supplier<SnapshotHierarchy> sideEffects) {
+            return new PreparedUpdate(newRoot, sideEffects);
+        }
+
+        public SnapshotHierarchy getNewRoot() {
+            return newRoot;
+        }
+
+        public boolean hasSideEffects() {
+            return sideEffects != null;
+        }
+
+        /**
+         * Runs the side effects of the update, returning the root to commit.
+         */
+        public SnapshotHierarchy commit() {
+            return sideEffects == null ? newRoot : sideEffects.get();
+        }
+
+        /**
+         * Combines this update with an update prepared for the new root of this update.
+         * When committing this update results in a different root, the next update is dropped.
+         */
+        public PreparedUpdate andThen(PreparedUpdate next) {
+            if (!hasSideEffects() && !next.hasSideEffects()) {
+                return next;
+            }
+            return withSideEffects(next.newRoot, () -> {
+                SnapshotHierarchy committed = commit();
+                return committed == newRoot ? next.commit() : committed;
+            });
+        }
+    }
+
+    private static final class Version {
+        private final SnapshotHierarchy root;
+        private final boolean frozen;
+
+        Version(SnapshotHierarchy root, boolean frozen) {
+            this.root = root;
+            this.frozen = frozen;
+        }
+    }
 }
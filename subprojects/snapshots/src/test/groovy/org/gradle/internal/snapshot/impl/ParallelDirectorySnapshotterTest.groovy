@@ -0,0 +1,96 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.internal.snapshot.impl
+
+import org.gradle.api.internal.cache.StringInterner
+import org.gradle.api.tasks.util.PatternSet
+import org.gradle.internal.snapshot.DirectorySnapshot
+import org.gradle.internal.snapshot.FileSystemLocationSnapshot
+import org.gradle.internal.snapshot.SnapshottingFilter
+import org.gradle.test.fixtures.file.TestFile
+
+import java.util.concurrent.atomic.AtomicBoolean
+
+class ParallelDirectorySnapshotterTest extends DirectorySnapshotterTest {
+    def pool = new DirectorySnapshotterPool(4)
+
+    def setup() {
+        directorySnapshotter = new DirectorySnapshotter(fileHasher, new StringInterner(), [], statisticsCollector, pool)
+    }
+
+    def cleanup() {
+        pool.close()
+    }
+
+    def "produces the same snapshot as sequential snapshotting"() {
+        given:
+        def rootDir = tmpDir.createDir("root")
+        createTree(rootDir, DirectorySnapshotter.MIN_ENTRIES_TO_FORK, 3, 3)
+        def sequentialSnapshotter = new DirectorySnapshotter(fileHasher, new StringInterner(), [], statisticsCollector)
+        def sequentialFiltered = new AtomicBoolean()
+        def predicate = filter ? directoryWalkerPredicate(new PatternSet().exclude("**/dir1/file2")) : null
+
+        when:
+        def sequential = sequentialSnapshotter.snapshot(rootDir.absolutePath, predicate, sequentialFiltered)
+        def parallel = directorySnapshotter.snapshot(rootDir.absolutePath, predicate, actuallyFiltered)
+
+        then:
+        parallel.hash == sequential.hash
+        describe(parallel) == describe(sequential)
+        actuallyFiltered.get() == sequentialFiltered.get()
+
+        where:
+        filter << [false, true]
+    }
+
+    def "walks on the calling thread when filtering"() {
+        given:
+        def rootDir = tmpDir.createDir("root")
+        createTree(rootDir, DirectorySnapshotter.MIN_ENTRIES_TO_FORK, 3, 3)
+        def threads = Collections.synchronizedSet(new HashSet<Thread>())
+        def predicate = { path, name, isDirectory, relativePath ->
+            threads << Thread.currentThread()
+            true
+        } as SnapshottingFilter.DirectoryWalkerPredicate
+
+        when:
+        directorySnapshotter.snapshot(rootDir.absolutePath, predicate, actuallyFiltered)
+
+        then:
+        threads == [Thread.currentThread()] as Set
+    }
+
+    private static void createTree(TestFile dir, int files, int directories, int depth) {
+        files.times { index ->
+            dir.file("file$index").text = "$dir.name-$index"
+        }
+        if (depth > 0) {
+            directories.times { index ->
+                // Mix directories which are worth forking with ones which are not
+                createTree(dir.createDir("dir$index"), index % 2 == 0 ? files : 1, directories, depth - 1)
+            }
+        }
+    }
+
+    private static List<String> describe(FileSystemLocationSnapshot snapshot) {
+        def result = ["${snapshot.absolutePath} ${snapshot.name} ${snapshot.accessType} ${snapshot.hash}".toString()]
+        if (snapshot instanceof DirectorySnapshot) {
+            snapshot.children.each { result.addAll(describe(it)) }
+        }
+        return result
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.internal.snapshot.impl
+
+import org.gradle.api.internal.cache.StringInterner
+import org.gradle.internal.file.FileMetadata.AccessType
+import org.gradle.internal.hash.TestFileHasher
+import org.gradle.internal.snapshot.CaseSensitivity
+import org.gradle.internal.snapshot.FileSystemLocationSnapshot
+import org.gradle.internal.snapshot.MissingFileSnapshot
+import org.gradle.internal.snapshot.SnapshotHierarchy
+import org.gradle.internal.vfs.impl.DefaultSnapshotHierarchy
+import org.gradle.test.fixtures.file.CleanupTestDirectory
+import org.gradle.test.fixtures.file.TestFile
+import org.gradle.test.fixtures.file.TestNameTestDirectoryProvider
+import org.gradle.util.UsesNativeServices
+import org.junit.Rule
+import spock.lang.Specification
+
+import java.util.concurrent.atomic.AtomicBoolean
+
+@UsesNativeServices
+@CleanupTestDirectory(fieldName = "tmpDir")
+class PersistentVfsStateTest extends Specification {
+    @Rule
+    public final TestNameTestDirectoryProvider tmpDir = new TestNameTestDirectoryProvider(getClass())
+
+    def defaultExcludes = ["**/.git/**"]
+    def directorySnapshotter = new DirectorySnapshotter(new TestFileHasher(), new StringInterner(), defaultExcludes, Stub(DirectorySnapshotterStatistics.Collector))
+    def persistentState = new PersistentVfsState(tmpDir.file("state/vfs-state.bin"), { defaultExcludes }, new StringInterner())
+    def oldTimestamp = System.currentTimeMillis() - 60_000
+
+    TestFile rootDir
+    FileSystemLocationSnapshot rootSnapshot
+
+    def setup() {
+        rootDir = tmpDir.createDir("root")
+        rootDir.file("a/b/c.txt").text = "c"
+        rootDir.file("a/d.txt").text = "d"
+        rootDir.file("e.txt").text = "e"
+        rootDir.createDir(".git")
+        makeOld(rootDir)
+        rootSnapshot = directorySnapshotter.snapshot(rootDir.absolutePath, null, new AtomicBoolean())
+    }
+
+    def "loads unchanged snapshots"() {
+        def missingFile = tmpDir.file("missing")
+        persistentState.persist(hierarchyWith(rootSnapshot, new MissingFileSnapshot(missingFile.absolutePath, AccessType.DIRECT)))
+
+        when:
+        def loaded = persistentState.loadUpToDateSnapshots()
+
+        then:
+        loaded*.absolutePath == [rootDir.absolutePath, missingFile.absolutePath]
+        loaded[0].hash == rootSnapshot.hash
+        loaded[0].toString() == rootSnapshot.toString()
+    }
+
+    def "loads unchanged children of changed directory"() {
+        persistentState.persist(hierarchyWith(rootSnapshot))
+
+        when:
+        rootDir.file("a/b/c.txt").text = "changed"
+        def loaded = persistentState.loadUpToDateSnapshots()
+
+        then:
+        loaded*.absolutePath == [rootDir.file("a/d.txt").absolutePath, rootDir.file("e.txt").absolutePath]
+
+        when:
+        rootDir.file("a/b/c.txt").text = "c"
+        makeOld(rootDir.file("a/b/c.txt"))
+        rootDir.file("a/new.txt").text = "new"
+        loaded = persistentState.loadUpToDateSnapshots()
+
+        then:
+        loaded*.absolutePath == [rootDir.file("a/b").absolutePath, rootDir.file("a/d.txt").absolutePath, rootDir.file("e.txt").absolutePath]
+    }
+
+    def "ignores new entries matching the default excludes"() {
+        persistentState.persist(hierarchyWith(rootSnapshot))
+
+        when:
+        rootDir.createDir("a/.git")
+        def loaded = persistentState.loadUpToDateSnapshots()
+
+        then:
+        loaded*.absolutePath == [rootDir.absolutePath]
+    }
+
+    def "does not trust files modified just before persisting"() {
+        rootDir.file("e.txt").text = "recent"
+        def snapshot = directorySnapshotter.snapshot(rootDir.absolutePath, null, new AtomicBoolean())
+        persistentState.persist(hierarchyWith(snapshot))
+
+        when:
+        def loaded = persistentState.loadUpToDateSnapshots()
+
+        then:
+        loaded*.absolutePath == [rootDir.file("a").absolutePath]
+    }
+
+    def "does not load missing file which has been created"() {
+        def missingFile = tmpDir.file("missing")
+        persistentState.persist(hierarchyWith(new MissingFileSnapshot(missingFile.absolutePath, AccessType.DIRECT)))
+
+        when:
+        missingFile.text = "created"
+
+        then:
+        persistentState.loadUpToDateSnapshots().empty
+    }
+
+    def "discards the state when the default excludes changed"() {
+        persistentState.persist(hierarchyWith(rootSnapshot))
+
+        when:
+        defaultExcludes = ["**/.svn/**"]
+
+        then:
+        persistentState.loadUpToDateSnapshots().empty
+    }
+
+    def "loads nothing when the state is corrupt"() {
+        tmpDir.file("state/vfs-state.bin").text = "corrupt"
+
+        expect:
+        persistentState.loadUpToDateSnapshots().empty
+    }
+
+    def "leaves no temporary files behind"() {
+        when:
+        persistentState.persist(hierarchyWith(rootSnapshot))
+
+        then:
+        tmpDir.file("state").list() as List == ["vfs-state.bin"]
+
+        when:
+        persistentState.persist(Stub(SnapshotHierarchy) {
+            visitSnapshotRoots(_) >> { throw new RuntimeException("broken") }
+        })
+
+        then:
+        tmpDir.file("state").list() as List == ["vfs-state.bin"]
+        persistentState.loadUpToDateSnapshots()*.absolutePath == [rootDir.absolutePath]
+    }
+
+    private static SnapshotHierarchy hierarchyWith(FileSystemLocationSnapshot... snapshots) {
+        SnapshotHierarchy hierarchy = DefaultSnapshotHierarchy.empty(CaseSensitivity.CASE_SENSITIVE)
+        snapshots.each { snapshot ->
+            hierarchy = hierarchy.store(snapshot.absolutePath, snapshot, SnapshotHierarchy.NodeDiffListener.NOOP)
+        }
+        return hierarchy
+    }
+
+    private void makeOld(File file) {
+        if (file.directory) {
+            file.listFiles().each { makeOld(it) }
+        }
+        file.setLastModified(oldTimestamp)
+    }
+}
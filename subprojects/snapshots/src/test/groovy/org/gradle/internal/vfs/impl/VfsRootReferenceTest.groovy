@@ -0,0 +1,122 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.internal.vfs.impl
+
+import org.gradle.internal.file.FileMetadata.AccessType
+import org.gradle.internal.file.impl.DefaultFileMetadata
+import org.gradle.internal.hash.HashCode
+import org.gradle.internal.snapshot.CaseSensitivity
+import org.gradle.internal.snapshot.RegularFileSnapshot
+import org.gradle.internal.snapshot.SnapshotHierarchy
+import org.gradle.internal.vfs.impl.VfsRootReference.PreparedUpdate
+import spock.lang.Specification
+
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+class VfsRootReferenceTest extends Specification {
+    def rootReference = new VfsRootReference(DefaultSnapshotHierarchy.empty(CaseSensitivity.CASE_SENSITIVE))
+    def executorService = Executors.newFixedThreadPool(8)
+
+    def cleanup() {
+        executorService.shutdownNow()
+    }
+
+    def "concurrent optimistic updates are all applied"() {
+        def committedSideEffects = new AtomicInteger()
+
+        when:
+        def futures = (0..<8).collect { thread ->
+            executorService.submit {
+                (0..<500).each { num ->
+                    def path = "/root/thread-${thread}/file-${num}"
+                    rootReference.updateOptimistically { root ->
+                        def newRoot = root.store(path, fileSnapshot(path), SnapshotHierarchy.NodeDiffListener.NOOP)
+                        num % 2 == 0
+                            ? PreparedUpdate.of(newRoot)
+                            : PreparedUpdate.withSideEffects(newRoot) {
+                                committedSideEffects.incrementAndGet()
+                                newRoot
+                            }
+                    }
+                }
+            }
+        }
+        futures*.get()
+
+        then:
+        (0..<8).every { thread ->
+            (0..<500).every { num -> rootReference.root.getSnapshot("/root/thread-${thread}/file-${num}").present }
+        }
+        committedSideEffects.get() == 8 * 250
+    }
+
+    def "optimistic updates wait for exclusive updates"() {
+        def exclusiveUpdateStarted = new CountDownLatch(1)
+        def finishExclusiveUpdate = new CountDownLatch(1)
+        def path = "/root/file"
+
+        when:
+        def exclusiveUpdate = executorService.submit {
+            rootReference.update { root ->
+                exclusiveUpdateStarted.countDown()
+                finishExclusiveUpdate.await()
+                root
+            }
+        }
+        exclusiveUpdateStarted.await()
+        def optimisticUpdate = executorService.submit {
+            rootReference.updateOptimistically { root -> PreparedUpdate.of(root.store(path, fileSnapshot(path), SnapshotHierarchy.NodeDiffListener.NOOP)) }
+        }
+        Thread.sleep(100)
+
+        then:
+        !optimisticUpdate.done
+        !rootReference.root.getSnapshot(path).present
+
+        when:
+        finishExclusiveUpdate.countDown()
+        exclusiveUpdate.get()
+        optimisticUpdate.get(5, TimeUnit.SECONDS)
+
+        then:
+        rootReference.root.getSnapshot(path).present
+    }
+
+    def "side effects replacing the root drop combined updates"() {
+        def first = "/root/first"
+        def second = "/root/second"
+        def empty = rootReference.root
+
+        when:
+        rootReference.updateOptimistically { root ->
+            def firstRoot = root.store(first, fileSnapshot(first), SnapshotHierarchy.NodeDiffListener.NOOP)
+            def secondRoot = firstRoot.store(second, fileSnapshot(second), SnapshotHierarchy.NodeDiffListener.NOOP)
+            PreparedUpdate.withSideEffects(firstRoot) { empty }
+                .andThen(PreparedUpdate.of(secondRoot))
+        }
+
+        then:
+        rootReference.root.is(empty)
+    }
+
+    private static RegularFileSnapshot fileSnapshot(String path) {
+        new RegularFileSnapshot(path, path.substring(path.lastIndexOf('/') + 1), HashCode.fromInt(path.hashCode()), DefaultFileMetadata.file(1, 1, AccessType.DIRECT))
+    }
+}